@@ -29,6 +29,12 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    // 仪器测试使用MockContentResolver
+    useLibrary("android.test.mock")
+    testOptions {
+        // 单元测试中android.util.Log等方法返回默认值，不抛出异常
+        unitTests.isReturnDefaultValues = true
+    }
     packaging {
         resources.excludes.add("META-INF/DEPENDENCIES");
         resources.excludes.add("META-INF/NOTICE");
@@ -44,6 +50,7 @@ dependencies {
     implementation(libs.material)
     implementation(libs.activity)
     implementation(libs.constraintlayout)
+    implementation(libs.recyclerview)
 //    implementation(fileTree(mapOf(
 //        "dir" to "D:\\xiaomi\\NM\\httpcomponents-client-4.5.14-bin\\lib",
 //        "include" to listOf("*.aar", "*.jar"),
@@ -53,6 +60,8 @@ dependencies {
     implementation(files("D:\\Notes-master\\httpcomponents-client-4.5.14-bin\\lib\\httpclient-win-4.5.14.jar"))
     implementation(files("D:\\Notes-master\\httpcomponents-client-4.5.14-bin\\lib\\httpcore-4.4.16.jar"))
     testImplementation(libs.junit)
+    // android.jar中的org.json只有空实现，单元测试使用真正的实现
+    testImplementation(libs.json)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.app.Instrumentation;
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.ContactsContract;
+import android.test.mock.MockContentResolver;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.NoteColumns;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * 通话记录文件夹的滚动测试：电话号码随列表查询一起返回，读取和绑定通话记录行时不再查询便签提供者。
+ * 列表使用一个新的适配器，它的Context通过MockContentResolver把便签和联系人的查询转给计数的包装提供者；
+ * 滚动期间用FrameMetrics统计卡顿帧，并报告适配器的绑定耗时
+ */
+@RunWith(AndroidJUnit4.class)
+public class CallRecordListScrollTest {
+    private static final String TAG = "CallRecordListScrollTest";
+
+    private static final int CALL_NOTE_COUNT = 5000;
+
+    private static final String MARKER = "CallRecordListScrollTest";
+
+    private static final long FRAME_BUDGET_NANOS = 16666667L;
+
+    private Instrumentation mInstrumentation;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mResolver = mInstrumentation.getTargetContext().getContentResolver();
+        NotesListTestUtils.grantContactsPermission(mInstrumentation);
+        NotesListTestUtils.deleteNotes(mResolver, MARKER);
+        NotesListTestUtils.insertCallNotes(mResolver, CALL_NOTE_COUNT, MARKER);
+    }
+
+    @After
+    public void tearDown() {
+        NotesListTestUtils.deleteNotes(mResolver, MARKER);
+    }
+
+    @Test
+    public void scrollingCallRecordsDoesNoProviderQueries() throws Exception {
+        ActivityScenario<NotesListActivity> scenario = ActivityScenario.launch(NotesListActivity.class);
+        HandlerThread metricsThread = new HandlerThread(TAG);
+        metricsThread.start();
+        try {
+            final RecyclerView list = NotesListTestUtils.getList(scenario);
+            NotesListTestUtils.openCallRecordFolder(mInstrumentation, list, CALL_NOTE_COUNT);
+
+            final CountingProvider notes = new CountingProvider(mResolver);
+            final CountingProvider contacts = new CountingProvider(mResolver);
+            final NotesListAdapter[] adapter = new NotesListAdapter[1];
+            scenario.onActivity(new ActivityScenario.ActivityAction<NotesListActivity>() {
+                public void perform(NotesListActivity activity) {
+                    adapter[0] = new NotesListAdapter(new CountingContext(activity, notes, contacts));
+                    list.setAdapter(adapter[0]);
+                }
+            });
+            final Cursor cursor = mResolver.query(Notes.CONTENT_NOTE_LIST_URI,
+                    NoteItemData.PROJECTION, NoteColumns.PARENT_ID + "=?", new String[] {
+                            String.valueOf(Notes.ID_CALL_RECORD_FOLDER)
+                    }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
+            assertNotNull(cursor);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    adapter[0].changeCursor(cursor);
+                }
+            });
+            NotesListTestUtils.waitForItemCount(mInstrumentation, list, CALL_NOTE_COUNT + 1);
+            assertEquals("note queries while reading call records", 0, notes.getQueryCount());
+
+            FrameStats frames = new FrameStats();
+            final Window window = getWindow(scenario);
+            window.addOnFrameMetricsAvailableListener(frames, new Handler(metricsThread.getLooper()));
+            mInstrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    adapter[0].setCollectBindStats(true);
+                }
+            });
+            NotesListTestUtils.scrollToEnd(mInstrumentation, list);
+            window.removeOnFrameMetricsAvailableListener(frames);
+
+            final long[] bindStats = new long[2];
+            mInstrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    bindStats[0] = adapter[0].getBindCount();
+                    bindStats[1] = adapter[0].getBindNanos();
+                    adapter[0].setCollectBindStats(false);
+                }
+            });
+            report(frames, bindStats[0], bindStats[1], contacts.getQueryCount());
+
+            assertTrue("no rows were bound", bindStats[0] > 0);
+            assertEquals("note queries while binding call records", 0, notes.getQueryCount());
+        } finally {
+            metricsThread.quitSafely();
+            scenario.close();
+        }
+    }
+
+    /*
+     * 功能描述：把帧统计和绑定耗时写入日志，并作为仪器状态输出（am instrument -r可以看到）
+     */
+    private void report(FrameStats frames, long binds, long bindNanos, int contactQueries) {
+        Bundle results = new Bundle();
+        results.putInt("frames", frames.getFrames());
+        results.putInt("janky_frames", frames.getJankyFrames());
+        results.putLong("max_frame_ms", frames.getMaxFrameNanos() / 1000000);
+        results.putLong("binds", binds);
+        results.putLong("avg_bind_us", binds == 0 ? 0 : bindNanos / binds / 1000);
+        results.putInt("contact_queries", contactQueries);
+        Log.i(TAG, CALL_NOTE_COUNT + " call notes: " + results);
+        mInstrumentation.sendStatus(0, results);
+    }
+
+    private static Window getWindow(ActivityScenario<NotesListActivity> scenario) {
+        final Window[] window = new Window[1];
+        scenario.onActivity(new ActivityScenario.ActivityAction<NotesListActivity>() {
+            public void perform(NotesListActivity activity) {
+                window[0] = activity.getWindow();
+            }
+        });
+        return window[0];
+    }
+
+    /*
+     * 适配器使用的Context：便签和联系人的查询都经过计数的包装提供者，其余与Activity相同
+     */
+    private static final class CountingContext extends ContextWrapper {
+        private final MockContentResolver mResolver;
+
+        CountingContext(Context base, CountingProvider notes, CountingProvider contacts) {
+            super(base);
+            // 没有ProviderInfo时attachInfo只设置Context和调用者uid，本进程的调用不检查权限
+            notes.attachInfo(base, null);
+            contacts.attachInfo(base, null);
+            mResolver = new MockContentResolver(base);
+            mResolver.addProvider(Notes.AUTHORITY, notes);
+            mResolver.addProvider(ContactsContract.AUTHORITY, contacts);
+        }
+
+        @Override
+        public ContentResolver getContentResolver() {
+            return mResolver;
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            // 联系人预取使用ApplicationContext，也要经过计数的提供者
+            return this;
+        }
+    }
+
+    /*
+     * 计数的包装提供者：记录查询次数，所有操作都转给真正的ContentResolver
+     */
+    private static final class CountingProvider extends ContentProvider {
+        private final ContentResolver mTarget;
+
+        private final AtomicInteger mQueries = new AtomicInteger();
+
+        CountingProvider(ContentResolver target) {
+            mTarget = target;
+        }
+
+        int getQueryCount() {
+            return mQueries.get();
+        }
+
+        @Override
+        public boolean onCreate() {
+            return true;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                String sortOrder) {
+            mQueries.incrementAndGet();
+            return mTarget.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+
+        @Override
+        public String getType(Uri uri) {
+            return mTarget.getType(uri);
+        }
+
+        @Override
+        public Uri insert(Uri uri, ContentValues values) {
+            return mTarget.insert(uri, values);
+        }
+
+        @Override
+        public int delete(Uri uri, String selection, String[] selectionArgs) {
+            return mTarget.delete(uri, selection, selectionArgs);
+        }
+
+        @Override
+        public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+            return mTarget.update(uri, values, selection, selectionArgs);
+        }
+    }
+
+    /*
+     * 滚动期间的帧统计，在单独的线程中回调
+     */
+    private static final class FrameStats implements Window.OnFrameMetricsAvailableListener {
+        private int mFrames;
+
+        private int mJankyFrames;
+
+        private long mMaxFrameNanos;
+
+        @Override
+        public synchronized void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics,
+                int dropCountSinceLastInvocation) {
+            long duration = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+            mFrames++;
+            if (duration > FRAME_BUDGET_NANOS) {
+                mJankyFrames++;
+            }
+            if (duration > mMaxFrameNanos) {
+                mMaxFrameNanos = duration;
+            }
+        }
+
+        synchronized int getFrames() {
+            return mFrames;
+        }
+
+        synchronized int getJankyFrames() {
+            return mJankyFrames;
+        }
+
+        synchronized long getMaxFrameNanos() {
+            return mMaxFrameNanos;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.app.Instrumentation;
+import android.content.ContentResolver;
+import android.os.Debug;
+
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * 便签列表绑定的分配测试：标题预先算好、相对时间文字有缓存，
+ * 滚动到稳定状态后重新绑定一行不应分配任何对象
+ */
+@RunWith(AndroidJUnit4.class)
+public class NotesListBindAllocationTest {
+    private static final int NOTE_COUNT = 1000;
+
+    private static final String MARKER = "NotesListBindAllocationTest";
+
+    private Instrumentation mInstrumentation;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() throws Exception {
+        mInstrumentation = InstrumentationRegistry.getInstrumentation();
+        mResolver = mInstrumentation.getTargetContext().getContentResolver();
+        NotesListTestUtils.deleteNotes(mResolver, MARKER);
+        NotesListTestUtils.insertNotes(mResolver, NOTE_COUNT, MARKER);
+    }
+
+    @After
+    public void tearDown() {
+        NotesListTestUtils.deleteNotes(mResolver, MARKER);
+    }
+
+    @Test
+    public void steadyStateBindsAllocateNothing() {
+        ActivityScenario<NotesListActivity> scenario = ActivityScenario.launch(NotesListActivity.class);
+        try {
+            final RecyclerView list = NotesListTestUtils.getList(scenario);
+            // 便签都在根文件夹中，列表中至少有这么多行（包括列表底部）
+            NotesListTestUtils.waitForItemCount(mInstrumentation, list, NOTE_COUNT + 1);
+
+            // 第一遍滚动创建视图并填充缓存
+            NotesListTestUtils.scrollToEnd(mInstrumentation, list);
+            mInstrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    list.scrollToPosition(0);
+                }
+            });
+            mInstrumentation.waitForIdleSync();
+
+            // 第二遍每滚动一屏，重新绑定屏幕上的每一行并统计主线程的分配
+            final int[] binds = new int[1];
+            final int[] allocations = new int[1];
+            final boolean[] more = new boolean[] { true };
+            while (more[0]) {
+                mInstrumentation.runOnMainSync(new Runnable() {
+                    public void run() {
+                        list.scrollBy(0, list.getHeight());
+                        more[0] = list.canScrollVertically(1);
+                    }
+                });
+                mInstrumentation.waitForIdleSync();
+                mInstrumentation.runOnMainSync(new Runnable() {
+                    public void run() {
+                        rebindVisibleRows(list, binds, allocations);
+                    }
+                });
+            }
+            assertTrue("no rows were bound", binds[0] > 0);
+            assertEquals("objects allocated in " + binds[0] + " binds", 0, allocations[0]);
+        } finally {
+            scenario.close();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void rebindVisibleRows(RecyclerView list, int[] binds, int[] allocations) {
+        RecyclerView.Adapter adapter = list.getAdapter();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < list.getChildCount(); i++) {
+            RecyclerView.ViewHolder holder = list.getChildViewHolder(list.getChildAt(i));
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                adapter.onBindViewHolder(holder, position);
+                binds[0]++;
+            }
+        }
+        Debug.stopAllocCounting();
+        allocations[0] += Debug.getThreadAllocCount();
+    }
+}
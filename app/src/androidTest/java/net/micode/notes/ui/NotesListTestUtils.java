@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.app.Instrumentation;
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.text.format.DateUtils;
+import android.view.Choreographer;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+
+import net.micode.notes.R;
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.CallNote;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.NoteColumns;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * 便签列表仪器测试的公共操作：批量插入测试便签、等待异步查询的结果、滚动列表
+ */
+final class NotesListTestUtils {
+    private static final long TIMEOUT_MS = 30000;
+
+    // 每次applyBatch插入的便签数
+    private static final int INSERT_BATCH = 250;
+
+    private NotesListTestUtils() {
+    }
+
+    /*
+     * 功能描述：授予读取联系人的权限，绑定通话记录时会在后台查询联系人姓名
+     */
+    static void grantContactsPermission(Instrumentation instrumentation) throws IOException {
+        ParcelFileDescriptor output = instrumentation.getUiAutomation().executeShellCommand(
+                "pm grant " + instrumentation.getTargetContext().getPackageName()
+                        + " android.permission.READ_CONTACTS");
+        output.close();
+    }
+
+    /*
+     * 功能描述：在通话记录文件夹中插入count条通话便签，摘要为marker，便于测试结束后删除
+     */
+    static void insertCallNotes(ContentResolver resolver, int count, String marker)
+            throws Exception {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            int noteIndex = ops.size();
+            ops.add(ContentProviderOperation.newInsert(Notes.CONTENT_NOTE_URI)
+                    .withValue(NoteColumns.PARENT_ID, Notes.ID_CALL_RECORD_FOLDER)
+                    .withValue(NoteColumns.TYPE, Notes.TYPE_NOTE)
+                    .withValue(NoteColumns.SNIPPET, marker)
+                    .build());
+            ops.add(ContentProviderOperation.newInsert(Notes.CONTENT_DATA_URI)
+                    .withValueBackReference(DataColumns.NOTE_ID, noteIndex)
+                    .withValue(DataColumns.MIME_TYPE, CallNote.CONTENT_ITEM_TYPE)
+                    .withValue(DataColumns.CONTENT, marker)
+                    .withValue(CallNote.CALL_DATE, now - i * 60000L)
+                    .withValue(CallNote.PHONE_NUMBER, String.valueOf(13800000000L + i))
+                    .build());
+            if (ops.size() == INSERT_BATCH * 2 || i == count - 1) {
+                resolver.applyBatch(Notes.AUTHORITY, ops);
+                ops.clear();
+            }
+        }
+    }
+
+    /*
+     * 功能描述：在根文件夹中插入count条便签，摘要为marker；修改时间都在一天以前，
+     * 列表中的相对时间文字到午夜才会变化
+     */
+    static void insertNotes(ContentResolver resolver, int count, String marker)
+            throws Exception {
+        ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
+        long base = System.currentTimeMillis() - 2 * DateUtils.DAY_IN_MILLIS;
+        for (int i = 0; i < count; i++) {
+            ops.add(ContentProviderOperation.newInsert(Notes.CONTENT_NOTE_URI)
+                    .withValue(NoteColumns.PARENT_ID, Notes.ID_ROOT_FOLDER)
+                    .withValue(NoteColumns.TYPE, Notes.TYPE_NOTE)
+                    .withValue(NoteColumns.SNIPPET, marker)
+                    .withValue(NoteColumns.MODIFIED_DATE, base - i * 60000L)
+                    .build());
+            if (ops.size() == INSERT_BATCH || i == count - 1) {
+                resolver.applyBatch(Notes.AUTHORITY, ops);
+                ops.clear();
+            }
+        }
+    }
+
+    static void deleteNotes(ContentResolver resolver, String marker) {
+        resolver.delete(Notes.CONTENT_NOTE_URI, NoteColumns.SNIPPET + "=?",
+                new String[] { marker });
+    }
+
+    static RecyclerView getList(ActivityScenario<NotesListActivity> scenario) {
+        final RecyclerView[] list = new RecyclerView[1];
+        scenario.onActivity(new ActivityScenario.ActivityAction<NotesListActivity>() {
+            public void perform(NotesListActivity activity) {
+                list[0] = (RecyclerView) activity.findViewById(R.id.notes_list);
+            }
+        });
+        return list[0];
+    }
+
+    /*
+     * 功能描述：等待异步查询完成后列表中出现id对应的行，返回它的位置
+     */
+    static int waitForItem(Instrumentation instrumentation, final RecyclerView list, final long id) {
+        final int[] position = new int[1];
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            instrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    position[0] = RecyclerView.NO_POSITION;
+                    RecyclerView.Adapter<?> adapter = list.getAdapter();
+                    for (int i = 0; i < adapter.getItemCount(); i++) {
+                        if (adapter.getItemId(i) == id) {
+                            position[0] = i;
+                            break;
+                        }
+                    }
+                }
+            });
+            if (position[0] != RecyclerView.NO_POSITION) {
+                return position[0];
+            }
+            SystemClock.sleep(50);
+        }
+        fail("item " + id + " never shown");
+        return RecyclerView.NO_POSITION;
+    }
+
+    /*
+     * 功能描述：等待列表中至少有count行（包括列表底部）
+     */
+    static void waitForItemCount(Instrumentation instrumentation, final RecyclerView list,
+            int count) {
+        final int[] itemCount = new int[1];
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            instrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    itemCount[0] = list.getAdapter().getItemCount();
+                }
+            });
+            if (itemCount[0] >= count) {
+                instrumentation.waitForIdleSync();
+                return;
+            }
+            SystemClock.sleep(50);
+        }
+        fail("list has " + itemCount[0] + " items, expected " + count);
+    }
+
+    /*
+     * 功能描述：在根文件夹中点击通话记录文件夹，等待其中至少有count条便签
+     */
+    static void openCallRecordFolder(Instrumentation instrumentation, final RecyclerView list,
+            int count) {
+        final int position = waitForItem(instrumentation, list, Notes.ID_CALL_RECORD_FOLDER);
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run() {
+                list.scrollToPosition(position);
+            }
+        });
+        instrumentation.waitForIdleSync();
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run() {
+                list.findViewHolderForAdapterPosition(position).itemView.performClick();
+            }
+        });
+        waitForItemCount(instrumentation, list, count + 1);
+    }
+
+    /*
+     * 功能描述：每一帧滚动一屏直到列表底部，每一步在主线程中同步完成布局和绑定
+     */
+    static void scrollToEnd(Instrumentation instrumentation, final RecyclerView list) {
+        final boolean[] more = new boolean[] { true };
+        while (more[0]) {
+            instrumentation.runOnMainSync(new Runnable() {
+                public void run() {
+                    list.scrollBy(0, list.getHeight());
+                    more[0] = list.canScrollVertically(1);
+                }
+            });
+            waitForNextFrame(instrumentation);
+        }
+        instrumentation.waitForIdleSync();
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run() {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) list.getLayoutManager();
+                assertEquals(list.getAdapter().getItemCount() - 1,
+                        layoutManager.findLastVisibleItemPosition());
+            }
+        });
+    }
+
+    /*
+     * 功能描述：等待主线程开始下一帧，滚动时每一帧只滚动一次，帧统计才能反映每一屏的开销
+     */
+    static void waitForNextFrame(Instrumentation instrumentation) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            public void run() {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    public void doFrame(long frameTimeNanos) {
+                        latch.countDown();
+                    }
+                });
+            }
+        });
+        try {
+            assertTrue("no frame within " + TIMEOUT_MS + "ms",
+                    latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("interrupted while waiting for a frame");
+        }
+    }
+}
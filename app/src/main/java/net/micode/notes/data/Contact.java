@@ -18,23 +18,58 @@ package net.micode.notes.data;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.SystemClock;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Data;
 import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.LruCache;
 
+import net.micode.notes.tool.CursorUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 /**
  * 联系人查询工具类，用于通过电话号码获取联系人姓名
- * 使用缓存机制优化查询性能
+ * 使用有界的LRU缓存优化查询性能，可以在多个线程中同时使用；
+ * 没有匹配联系人的号码也会缓存一段时间，避免滚动列表时反复查询。
+ * 列表界面通过prefetch在后台线程一次查询一批号码，绑定视图时只读缓存（peekContact）
  */
 
 public class Contact {
-    // 缓存联系人信息的静态HashMap（电话号码 -> 姓名）
-    private static HashMap<String, String> sContactCache;
     // 日志标签
     private static final String TAG = "Contact";
+
+    // 缓存的号码数上限
+    private static final int CACHE_SIZE = 256;
+
+    // 没有匹配联系人的号码的缓存时间，过期后重新查询（可能已经添加了联系人）
+    private static final long NEGATIVE_TTL = 5 * 60 * 1000L;
+
+    // 每次批量查询的号码数，控制SQL语句的长度
+    private static final int BATCH_SIZE = 100;
+
+    /*
+     * 缓存项，name为null表示没有匹配的联系人
+     */
+    private static class Entry {
+        final String name;
+        final long expiresAt;
+
+        Entry(String name, long expiresAt) {
+            this.name = name;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // 缓存联系人信息（电话号码 -> 姓名），LruCache内部已经同步
+    private static final LruCache<String, Entry> sContactCache = new LruCache<String, Entry>(CACHE_SIZE);
+
     /**
      * 构建查询条件语句的模板：
      * 1. 使用PHONE_NUMBERS_EQUAL匹配电话号码
@@ -56,52 +91,157 @@ public class Contact {
             + " FROM phone_lookup"
             + " WHERE min_match = '+')";
 
+    // 批量查询的条件，min_match的列表在查询时补全，查到的号码再用PhoneNumberUtils.compare逐个匹配
+    private static final String BATCH_SELECTION_PREFIX = Data.MIMETYPE + "='" + Phone.CONTENT_ITEM_TYPE + "'"
+            + " AND " + Data.RAW_CONTACT_ID + " IN "
+            + "(SELECT raw_contact_id "
+            + " FROM phone_lookup"
+            + " WHERE min_match IN (";
+
+    private static final String[] BATCH_PROJECTION = new String[] {
+            Phone.NUMBER, Phone.DISPLAY_NAME
+    };
+
     /**
-     * 通过电话号码获取联系人姓名
+     * 通过电话号码获取联系人姓名，缓存中没有时查询联系人数据库
      * @param context Android上下文
      * @param phoneNumber 要查询的电话号码
      * @return 联系人姓名，未找到时返回null
      */
     public static String getContact(Context context, String phoneNumber) {
-//        初始化缓存（懒加载）
-        if(sContactCache == null) {
-            sContactCache = new HashMap<String, String>();
-        }
 //        首先检查缓存
-        if(sContactCache.containsKey(phoneNumber)) {
-            return sContactCache.get(phoneNumber);
+        Entry entry = getValidEntry(phoneNumber);
+        if (entry != null) {
+            return entry.name;
         }
         // 构建完整查询条件：
         // 1. 将"+"替换为最小匹配位数（根据国家代码自动计算）
         String selection = CALLER_ID_SELECTION.replace("+",
                 PhoneNumberUtils.toCallerIDMinMatch(phoneNumber));
-        // 执行内容解析器查询
-        Cursor cursor = context.getContentResolver().query(
+        // 执行内容解析器查询，只取第一行第一列（联系人姓名），游标总会被关闭
+        String name = CursorUtils.queryString(context.getContentResolver(),
                 Data.CONTENT_URI, // 查询的数据URI
-                new String [] { Phone.DISPLAY_NAME },// 需要返回的列（联系人姓名）
+                Phone.DISPLAY_NAME,// 需要返回的列（联系人姓名）
                 selection, // WHERE条件
                 new String[] { phoneNumber }, // 查询参数（实际电话号码）
-                null);// 排序方式
-
-        if (cursor != null && cursor.moveToFirst()) {
-            try {
-                // 获取第一行第一列的数据（联系人姓名）
-                String name = cursor.getString(0);
-                // 将结果存入缓存
-                sContactCache.put(phoneNumber, name);
-                return name;
-            } catch (IndexOutOfBoundsException e) {
-                // 处理列索引越界异常
-                Log.e(TAG, " Cursor get string error " + e.toString());
-                return null;
-            } finally {
-                // 确保关闭Cursor释放资源
-                cursor.close();
-            }
-        } else {
+                null);
+        if (name == null) {
             // 记录未找到联系人的情况
             Log.d(TAG, "No contact matched with number:" + phoneNumber);
+        }
+        // 将结果存入缓存，未找到的也缓存
+        putEntry(phoneNumber, name);
+        return name;
+    }
+
+    /**
+     * 只读缓存，不查询数据库，可以在主线程调用
+     * @return 联系人姓名，未缓存或没有匹配的联系人时返回null
+     */
+    public static String peekContact(String phoneNumber) {
+        Entry entry = getValidEntry(phoneNumber);
+        return entry == null ? null : entry.name;
+    }
+
+    /**
+     * 号码是否已经查询过（包括没有匹配联系人的情况）
+     */
+    public static boolean isCached(String phoneNumber) {
+        return getValidEntry(phoneNumber) != null;
+    }
+
+    /**
+     * 批量查询一组号码的联系人姓名并放入缓存，已缓存的号码跳过；
+     * 每批号码只查询一次联系人数据库，需要在后台线程调用
+     * @return 是否有号码查到了联系人姓名（需要刷新界面）
+     */
+    public static boolean prefetch(Context context, Collection<String> phoneNumbers) {
+        // min_match -> 对应的号码
+        HashMap<String, ArrayList<String>> pending = new HashMap<String, ArrayList<String>>();
+        for (String number : new HashSet<String>(phoneNumbers)) {
+            if (TextUtils.isEmpty(number) || isCached(number)) {
+                continue;
+            }
+            String minMatch = PhoneNumberUtils.toCallerIDMinMatch(number);
+            ArrayList<String> numbers = pending.get(minMatch);
+            if (numbers == null) {
+                numbers = new ArrayList<String>();
+                pending.put(minMatch, numbers);
+            }
+            numbers.add(number);
+        }
+
+        boolean found = false;
+        ArrayList<String> minMatches = new ArrayList<String>(pending.keySet());
+        for (int start = 0; start < minMatches.size(); start += BATCH_SIZE) {
+            int end = Math.min(minMatches.size(), start + BATCH_SIZE);
+            found |= prefetchBatch(context, minMatches.subList(start, end), pending);
+        }
+        return found;
+    }
+
+    private static boolean prefetchBatch(Context context, final List<String> minMatches,
+            final HashMap<String, ArrayList<String>> pending) {
+        StringBuilder selection = new StringBuilder(BATCH_SELECTION_PREFIX);
+        for (int i = 0; i < minMatches.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append("))");
+
+        final HashMap<String, String> names = new HashMap<String, String>();
+        int rows = CursorUtils.queryEach(context.getContentResolver(), Data.CONTENT_URI,
+                BATCH_PROJECTION, selection.toString(), minMatches.toArray(new String[0]), null,
+                new CursorUtils.RowVisitor() {
+                    public void visit(Cursor cursor) {
+                        String contactNumber = cursor.getString(0);
+                        if (contactNumber == null) {
+                            return;
+                        }
+                        ArrayList<String> numbers = pending.get(
+                                PhoneNumberUtils.toCallerIDMinMatch(contactNumber));
+                        if (numbers == null) {
+                            return;
+                        }
+                        for (String number : numbers) {
+                            if (!names.containsKey(number)
+                                    && PhoneNumberUtils.compare(number, contactNumber)) {
+                                names.put(number, cursor.getString(1));
+                            }
+                        }
+                    }
+                });
+        if (rows < 0) {
+            // 查询失败时不缓存这些号码，下次还会再查询
+            Log.w(TAG, "failed to query contacts");
+            return false;
+        }
+
+        for (String minMatch : minMatches) {
+            for (String number : pending.get(minMatch)) {
+                putEntry(number, names.get(number));
+            }
+        }
+        return !names.isEmpty();
+    }
+
+    /*
+     * 功能描述：取出没有过期的缓存项，过期的同时移除
+     */
+    private static Entry getValidEntry(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        Entry entry = sContactCache.get(phoneNumber);
+        if (entry != null && entry.expiresAt < SystemClock.elapsedRealtime()) {
+            sContactCache.remove(phoneNumber);
             return null;
         }
+        return entry;
+    }
+
+    private static void putEntry(String phoneNumber, String name) {
+        long expiresAt = (name != null) ? Long.MAX_VALUE
+                : SystemClock.elapsedRealtime() + NEGATIVE_TTL;
+        sContactCache.put(phoneNumber, new Entry(name, expiresAt));
     }
 }
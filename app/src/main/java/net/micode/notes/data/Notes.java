@@ -17,6 +17,9 @@
 package net.micode.notes.data;
 
 import android.net.Uri;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+
 public class Notes {
     public static final String AUTHORITY = "micode_notes";//认证信息
     public static final String TAG = "Notes";//日志输出时的标志
@@ -49,6 +52,9 @@ public class Notes {
     public static final int TYPE_WIDGET_2X            = 0;
     public static final int TYPE_WIDGET_4X            = 1;
 
+    //note表中摘要最多保存的字符数，完整内容只在data表中，列表和小部件的查询结果不随便签大小增长
+    public static final int SNIPPET_MAX_LENGTH = 512;
+
     public static class DataConstants {
         //文本便签
         public static final String NOTE = TextNote.CONTENT_ITEM_TYPE;
@@ -67,6 +73,32 @@ public class Notes {
      */
     public static final Uri CONTENT_DATA_URI = Uri.parse("content://" + AUTHORITY + "/data");
 
+    /**
+     * Uri to query notes together with the sync state of one account, the account is passed
+     * as the {@link SyncStateColumns#ACCOUNT} query parameter
+     */
+    //同步使用：便签左连接指定账号的同步状态，gtask_id/sync_id/sync_hash/local_modified取自该账号
+    public static final Uri CONTENT_SYNC_NOTE_URI = Uri.parse("content://" + AUTHORITY + "/sync_note");
+
+    /**
+     * Uri to insert (or replace) and delete per-account sync state
+     */
+    public static final Uri CONTENT_SYNC_STATE_URI = Uri.parse("content://" + AUTHORITY + "/sync_state");
+
+    /**
+     * Uri to query notes for the list UI, read only. Besides the {@link NoteColumns} it
+     * provides the {@link NoteListColumns} derived from the data table and, for folders,
+     * the {@link FolderStatsColumns}
+     */
+    //列表界面使用：在同一个查询中带出通话记录的电话号码，绑定列表项时不需要再查询
+    public static final Uri CONTENT_NOTE_LIST_URI = Uri.parse("content://" + AUTHORITY + "/note_list");
+
+    /**
+     * Provider method (see ContentResolver#call) that rebuilds the folder statistics from the
+     * note table, for repairing drift
+     */
+    public static final String METHOD_REBUILD_FOLDER_STATS = "rebuild_folder_stats";
+
     //定义静态的字符串常量，代表数据库表中的列名
     public interface NoteColumns {
         /**
@@ -106,6 +138,38 @@ public class Notes {
          */
         public static final String SNIPPET = "snippet";//文件名称/笔记内容
 
+        /**
+         * Display title of the note: the first line of the snippet without checklist marks,
+         * kept up to date by triggers whenever the snippet changes
+         * <P> Type: TEXT </P>
+         */
+        public static final String TITLE = "title";//列表中显示的标题
+
+        /**
+         * Length of the note's full text content in characters, the snippet only keeps a
+         * bounded prefix
+         * <P> Type: INTEGER </P>
+         */
+        public static final String CONTENT_LENGTH = "content_length";//完整内容的字符数
+
+        /**
+         * Number of lines of the note's text content
+         * <P> Type: INTEGER </P>
+         */
+        public static final String LINE_COUNT = "line_count";//内容的行数
+
+        /**
+         * Number of items of a check list note, 0 for normal notes
+         * <P> Type: INTEGER </P>
+         */
+        public static final String CHECKLIST_TOTAL = "checklist_total";//清单的条目数
+
+        /**
+         * Number of checked items of a check list note, 0 for normal notes
+         * <P> Type: INTEGER </P>
+         */
+        public static final String CHECKLIST_CHECKED = "checklist_checked";//清单已勾选的条目数
+
         /**
          * Note's widget id
          * <P> Type: INTEGER (long) </P>
@@ -144,10 +208,11 @@ public class Notes {
         public static final String TYPE = "type";//文件类型
 
         /**
-         * The last sync id
+         * The last sync id, moved to {@link SyncStateColumns#SYNC_ID}, the column is kept
+         * for old databases only
          * <P> Type: INTEGER (long) </P>
          */
-        public static final String SYNC_ID = "sync_id";//最近同步id
+        public static final String SYNC_ID = "sync_id";//最近同步id（已迁移到sync_state表）
 
         /**
          * Sign to indicate local modified or not
@@ -162,16 +227,105 @@ public class Notes {
         public static final String ORIGIN_PARENT_ID = "origin_parent_id";//移动前id
 
         /**
-         * The gtask id
+         * The gtask id, moved to {@link SyncStateColumns#GTASK_ID}, the column is kept
+         * for old databases only
          * <P> Type : TEXT </P>
          */
-        public static final String GTASK_ID = "gtask_id";//谷歌任务id
+        public static final String GTASK_ID = "gtask_id";//谷歌任务id（已迁移到sync_state表）
 
         /**
          * The version code
          * <P> Type : INTEGER (long) </P>
          */
         public static final String VERSION = "version";//版本信息
+
+        /**
+         * Hash of the synced content at the last successful sync, 0 if unknown, moved to
+         * {@link SyncStateColumns#SYNC_HASH}, the column is kept for old databases only
+         * <P> Type : INTEGER (long) </P>
+         */
+        public static final String SYNC_HASH = "sync_hash";//最近同步时的内容哈希（已迁移到sync_state表）
+    }
+
+    //每个同步账号下每条便签的同步状态，切换或移除账号时不需要改写便签
+    public interface SyncStateColumns {
+        /**
+         * The sync account name
+         * <P> Type: TEXT </P>
+         */
+        public static final String ACCOUNT = "account";//同步账号
+
+        /**
+         * The note id
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String NOTE_ID = "note_id";//便签id
+
+        /**
+         * The gtask id of the note in this account
+         * <P> Type : TEXT </P>
+         */
+        public static final String GTASK_ID = "gtask_id";//谷歌任务id
+
+        /**
+         * The last sync id
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String SYNC_ID = "sync_id";//最近同步id
+
+        /**
+         * Hash of the synced content at the last successful sync, 0 if unknown
+         * <P> Type : INTEGER (long) </P>
+         */
+        public static final String SYNC_HASH = "sync_hash";//最近同步时的内容哈希
+
+        /**
+         * Whether the note is modified locally since the last sync of this account
+         * <P> Type: INTEGER </P>
+         */
+        public static final String LOCAL_MODIFIED = "local_modified";//该账号上次同步后是否有本地修改
+    }
+
+    //每个文件夹的统计，由触发器随便签的增删改增量维护，读取时不需要扫描文件夹中的便签
+    public interface FolderStatsColumns {
+        /**
+         * The folder id
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String FOLDER_ID = "folder_id";//文件夹id
+
+        /**
+         * Number of notes in the folder
+         * <P> Type: INTEGER </P>
+         */
+        public static final String NOTE_COUNT = "note_count";//文件夹中的便签数
+
+        /**
+         * Latest modified date of the notes in the folder, 0 if empty
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String LAST_MODIFIED = "last_modified";//文件夹中最近的修改时间
+
+        /**
+         * Total content length of the notes in the folder in characters
+         * <P> Type: INTEGER (long) </P>
+         */
+        public static final String CHAR_COUNT = "char_count";//文件夹中便签内容的总字符数
+
+        /**
+         * Number of notes in the folder with an alert set
+         * <P> Type: INTEGER </P>
+         */
+        public static final String ALERT_COUNT = "alert_count";//文件夹中设置了提醒的便签数
+    }
+
+    //列表查询（CONTENT_NOTE_LIST_URI）额外提供的列
+    public interface NoteListColumns {
+        /**
+         * Phone number of a call note, null for other notes and folders
+         * <P> Type: TEXT </P>
+         */
+        public static final String CALL_NUMBER = "call_number";//通话记录的电话号码
     }
 
     //用于存储数据库中存储数据的列名
@@ -264,6 +418,13 @@ public class Notes {
 
         public static final int MODE_CHECK_LIST = 1;//检查列表模式
 
+        /**
+         * Prefixes of checked and unchecked items in the content of a check list note
+         */
+        public static final String TAG_CHECKED = String.valueOf('\u221A');//已勾选项的前缀
+
+        public static final String TAG_UNCHECKED = String.valueOf('\u25A1');//未勾选项的前缀
+
         //定义了MIME类型，用于标识文本标签目录
         public static final String CONTENT_TYPE = "vnd.android.cursor.dir/text_note";
 
@@ -288,6 +449,24 @@ public class Notes {
          */
         public static final String PHONE_NUMBER = DATA3;//电话号码信息存储在DATA3列中
 
+        /**
+         * Caller-ID min-match form of {@link #PHONE_NUMBER}, indexed for lookups. It is
+         * filled by the provider whenever the phone number is written
+         * <P> Type: TEXT </P>
+         */
+        public static final String PHONE_KEY = "phone_key";//号码键，用于按号码查找通话记录
+
+        /**
+         * 功能描述：电话号码对应的号码键，与PHONE_NUMBERS_EQUAL相等的号码键相同
+         */
+        public static String toPhoneKey(String phoneNumber) {
+            if (TextUtils.isEmpty(phoneNumber)) {
+                return "";
+            }
+            String key = PhoneNumberUtils.toCallerIDMinMatch(phoneNumber);
+            return key == null ? "" : key;
+        }
+
         //定义了MIME类型，用于标识通话记录目录
         public static final String CONTENT_TYPE = "vnd.android.cursor.dir/call_note";
 
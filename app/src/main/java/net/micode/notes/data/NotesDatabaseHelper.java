@@ -18,13 +18,20 @@ package net.micode.notes.data;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.text.TextUtils;
 import android.util.Log;
 
+import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.FolderStatsColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.SyncStateColumns;
+import net.micode.notes.data.Notes.TextNote;
+import net.micode.notes.tool.SyncPreferences;
 
 /**
  * 用于操作笔记数据的数据库帮助类
@@ -36,17 +43,23 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     // 提供了创建和管理 SQLite 数据库的方法
     private static final String DB_NAME = "note.db";  // 数据库名称
 
-    private static final int DB_VERSION = 4;  // 当前数据库版本
+    private static final int DB_VERSION = 10;  // 当前数据库版本
     //表名定义
     public interface TABLE {
         public static final String NOTE = "note";
 
         public static final String DATA = "data";
+
+        public static final String SYNC_STATE = "sync_state";
+
+        public static final String FOLDER_STATS = "folder_stats";
     }
 
     private static final String TAG = "NotesDatabaseHelper"; // 日志标签
 
     private static NotesDatabaseHelper mInstance; // 单例实例
+
+    private final Context mContext; // 升级时读取同步账号
     // 创建note表
     private static final String CREATE_NOTE_TABLE_SQL =
         "CREATE TABLE " + TABLE.NOTE + "(" +
@@ -66,7 +79,13 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             NoteColumns.LOCAL_MODIFIED + " INTEGER NOT NULL DEFAULT 0," + // 本地修改标记
             NoteColumns.ORIGIN_PARENT_ID + " INTEGER NOT NULL DEFAULT 0," + // 原始父文件夹ID
             NoteColumns.GTASK_ID + " TEXT NOT NULL DEFAULT ''," + // 任务ID
-            NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0" + // 版本号
+            NoteColumns.VERSION + " INTEGER NOT NULL DEFAULT 0," + // 版本号
+            NoteColumns.SYNC_HASH + " INTEGER NOT NULL DEFAULT 0," + // 最近同步的内容哈希
+            NoteColumns.TITLE + " TEXT NOT NULL DEFAULT ''," + // 列表显示的标题，由触发器根据摘要计算
+            NoteColumns.CONTENT_LENGTH + " INTEGER NOT NULL DEFAULT 0," + // 完整内容的字符数
+            NoteColumns.LINE_COUNT + " INTEGER NOT NULL DEFAULT 0," + // 内容的行数
+            NoteColumns.CHECKLIST_TOTAL + " INTEGER NOT NULL DEFAULT 0," + // 清单的条目数
+            NoteColumns.CHECKLIST_CHECKED + " INTEGER NOT NULL DEFAULT 0" + // 清单已勾选的条目数
         ")";
 
     //创建data表
@@ -82,14 +101,154 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             DataColumns.DATA2 + " INTEGER," +
             DataColumns.DATA3 + " TEXT NOT NULL DEFAULT ''," +
             DataColumns.DATA4 + " TEXT NOT NULL DEFAULT ''," +
-            DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''" +
+            DataColumns.DATA5 + " TEXT NOT NULL DEFAULT ''," +
+            CallNote.PHONE_KEY + " TEXT NOT NULL DEFAULT ''" + // 通话记录的号码键
+        ")";
+
+    //创建sync_state表，每个账号下每条便签一行
+    private static final String CREATE_SYNC_STATE_TABLE_SQL =
+        "CREATE TABLE " + TABLE.SYNC_STATE + "(" +
+            SyncStateColumns.ACCOUNT + " TEXT NOT NULL," + // 同步账号
+            SyncStateColumns.NOTE_ID + " INTEGER NOT NULL," + // 便签ID
+            SyncStateColumns.GTASK_ID + " TEXT NOT NULL DEFAULT ''," + // 任务ID
+            SyncStateColumns.SYNC_ID + " INTEGER NOT NULL DEFAULT 0," + // 同步ID
+            SyncStateColumns.SYNC_HASH + " INTEGER NOT NULL DEFAULT 0," + // 最近同步的内容哈希
+            SyncStateColumns.LOCAL_MODIFIED + " INTEGER NOT NULL DEFAULT 0," + // 本地修改标记
+            "PRIMARY KEY(" + SyncStateColumns.ACCOUNT + "," + SyncStateColumns.NOTE_ID + ")" +
+        ")";
+
+    //按便签查找同步状态（删除便签、标记修改时使用）
+    private static final String CREATE_SYNC_STATE_NOTE_ID_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS sync_state_note_id_index ON " +
+        TABLE.SYNC_STATE + "(" + SyncStateColumns.NOTE_ID + ");";
+
+    /**
+     * Delete the sync state of all accounts when delete note
+     * 删除笔记时删除其在各账号下的同步状态
+     */
+    private static final String NOTE_DELETE_SYNC_STATE_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER delete_sync_state_on_delete " +
+        " AFTER DELETE ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  DELETE FROM " + TABLE.SYNC_STATE +
+        "   WHERE " + SyncStateColumns.NOTE_ID + "=old." + NoteColumns.ID + ";" +
+        " END";
+
+    /**
+     * Mark the note modified for every account when it is modified locally
+     * 本地修改笔记时，在所有账号下标记为已修改，各账号同步后分别清除
+     */
+    private static final String NOTE_MARK_SYNC_STATE_MODIFIED_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER mark_sync_state_modified_on_update " +
+        " AFTER UPDATE OF " + NoteColumns.LOCAL_MODIFIED + " ON " + TABLE.NOTE +
+        " WHEN new." + NoteColumns.LOCAL_MODIFIED + "=1" +
+        " BEGIN" +
+        "  UPDATE " + TABLE.SYNC_STATE +
+        "   SET " + SyncStateColumns.LOCAL_MODIFIED + "=1" +
+        "   WHERE " + SyncStateColumns.NOTE_ID + "=new." + NoteColumns.ID + ";" +
+        " END";
+
+    //创建folder_stats表，每个文件夹一行
+    private static final String CREATE_FOLDER_STATS_TABLE_SQL =
+        "CREATE TABLE " + TABLE.FOLDER_STATS + "(" +
+            FolderStatsColumns.FOLDER_ID + " INTEGER PRIMARY KEY," + // 文件夹ID
+            FolderStatsColumns.NOTE_COUNT + " INTEGER NOT NULL DEFAULT 0," + // 便签数
+            FolderStatsColumns.LAST_MODIFIED + " INTEGER NOT NULL DEFAULT 0," + // 最近的修改时间
+            FolderStatsColumns.CHAR_COUNT + " INTEGER NOT NULL DEFAULT 0," + // 内容总字符数
+            FolderStatsColumns.ALERT_COUNT + " INTEGER NOT NULL DEFAULT 0" + // 设置了提醒的便签数
         ")";
 
+    //按文件夹和修改时间查找便签，移出或删除文件夹中最新的便签时重新取最近的修改时间
+    private static final String CREATE_NOTE_PARENT_MODIFIED_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS note_parent_modified_index ON " +
+        TABLE.NOTE + "(" + NoteColumns.PARENT_ID + "," + NoteColumns.MODIFIED_DATE + ");";
+
+    //把一条便签加入文件夹的统计，文件夹还没有统计行时先创建
+    private static String addToFolderStats(String row) {
+        return "  INSERT OR IGNORE INTO " + TABLE.FOLDER_STATS + "(" + FolderStatsColumns.FOLDER_ID +
+            ") VALUES (" + row + "." + NoteColumns.PARENT_ID + ");" +
+            "  UPDATE " + TABLE.FOLDER_STATS +
+            "   SET " + FolderStatsColumns.NOTE_COUNT + "=" + FolderStatsColumns.NOTE_COUNT + "+1," +
+            FolderStatsColumns.LAST_MODIFIED + "=MAX(" + FolderStatsColumns.LAST_MODIFIED + "," +
+            row + "." + NoteColumns.MODIFIED_DATE + ")," +
+            FolderStatsColumns.CHAR_COUNT + "=" + FolderStatsColumns.CHAR_COUNT + "+" +
+            row + "." + NoteColumns.CONTENT_LENGTH + "," +
+            FolderStatsColumns.ALERT_COUNT + "=" + FolderStatsColumns.ALERT_COUNT + "+(" +
+            row + "." + NoteColumns.ALERTED_DATE + ">0)" +
+            "  WHERE " + FolderStatsColumns.FOLDER_ID + "=" + row + "." + NoteColumns.PARENT_ID + ";";
+    }
+
+    //把一条便签从文件夹的统计中去掉；它是文件夹中最新的便签时，按索引重新取最近的修改时间
+    private static String removeFromFolderStats(String row) {
+        return "  UPDATE " + TABLE.FOLDER_STATS +
+            "   SET " + FolderStatsColumns.NOTE_COUNT + "=MAX(" + FolderStatsColumns.NOTE_COUNT + "-1,0)," +
+            FolderStatsColumns.LAST_MODIFIED + "=(CASE WHEN " + FolderStatsColumns.LAST_MODIFIED + ">" +
+            row + "." + NoteColumns.MODIFIED_DATE + " THEN " + FolderStatsColumns.LAST_MODIFIED +
+            " ELSE (SELECT IFNULL(MAX(" + NoteColumns.MODIFIED_DATE + "),0) FROM " + TABLE.NOTE +
+            " WHERE " + NoteColumns.PARENT_ID + "=" + row + "." + NoteColumns.PARENT_ID + ") END)," +
+            FolderStatsColumns.CHAR_COUNT + "=MAX(" + FolderStatsColumns.CHAR_COUNT + "-" +
+            row + "." + NoteColumns.CONTENT_LENGTH + ",0)," +
+            FolderStatsColumns.ALERT_COUNT + "=MAX(" + FolderStatsColumns.ALERT_COUNT + "-(" +
+            row + "." + NoteColumns.ALERTED_DATE + ">0),0)" +
+            "  WHERE " + FolderStatsColumns.FOLDER_ID + "=" + row + "." + NoteColumns.PARENT_ID + ";";
+    }
+
+    /**
+     * Add the new note to its folder's statistics
+     * 插入便签时更新所在文件夹的统计
+     */
+    private static final String NOTE_UPDATE_FOLDER_STATS_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER update_folder_stats_on_insert " +
+        " AFTER INSERT ON " + TABLE.NOTE +
+        " BEGIN" +
+        addToFolderStats("new") +
+        " END";
+
+    /**
+     * Move the note's contribution when it is moved, modified, resized or its alert changes
+     * 便签移动、修改、内容长度或提醒变化时，从原文件夹的统计中去掉旧值，再加入新文件夹
+     */
+    private static final String NOTE_UPDATE_FOLDER_STATS_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER update_folder_stats_on_update " +
+        " AFTER UPDATE OF " + NoteColumns.PARENT_ID + "," + NoteColumns.MODIFIED_DATE + "," +
+        NoteColumns.CONTENT_LENGTH + "," + NoteColumns.ALERTED_DATE + " ON " + TABLE.NOTE +
+        " WHEN old." + NoteColumns.PARENT_ID + "<>new." + NoteColumns.PARENT_ID +
+        "  OR old." + NoteColumns.MODIFIED_DATE + "<>new." + NoteColumns.MODIFIED_DATE +
+        "  OR old." + NoteColumns.CONTENT_LENGTH + "<>new." + NoteColumns.CONTENT_LENGTH +
+        "  OR (old." + NoteColumns.ALERTED_DATE + ">0)<>(new." + NoteColumns.ALERTED_DATE + ">0)" +
+        " BEGIN" +
+        removeFromFolderStats("old") +
+        addToFolderStats("new") +
+        " END";
+
+    /**
+     * Remove the deleted note from its folder's statistics, and drop the statistics of a
+     * deleted folder
+     * 删除便签时更新所在文件夹的统计，删除文件夹时删除它的统计
+     */
+    private static final String NOTE_UPDATE_FOLDER_STATS_ON_DELETE_TRIGGER =
+        "CREATE TRIGGER update_folder_stats_on_delete " +
+        " AFTER DELETE ON " + TABLE.NOTE +
+        " BEGIN" +
+        removeFromFolderStats("old") +
+        "  DELETE FROM " + TABLE.FOLDER_STATS +
+        "   WHERE " + FolderStatsColumns.FOLDER_ID + "=old." + NoteColumns.ID + ";" +
+        " END";
+
     //各类数据库触发器的定义
     private static final String CREATE_DATA_NOTE_ID_INDEX_SQL =
         "CREATE INDEX IF NOT EXISTS note_id_index ON " +
         TABLE.DATA + "(" + DataColumns.NOTE_ID + ");";
 
+    //按号码和通话时间查找通话记录（来电时查找已有的便签）
+    private static final String CREATE_DATA_PHONE_KEY_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS phone_key_index ON " +
+        TABLE.DATA + "(" + CallNote.PHONE_KEY + "," + CallNote.CALL_DATE + ");";
+
+    private static final String CREATE_DATA_CALL_DATE_INDEX_SQL =
+        "CREATE INDEX IF NOT EXISTS mime_type_call_date_index ON " +
+        TABLE.DATA + "(" + DataColumns.MIME_TYPE + "," + CallNote.CALL_DATE + ");";
+
     /**
      * Increase folder's note count when move note to the folder
      * 更新笔记时，其父文件夹时更新文件的计数
@@ -144,6 +303,72 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         "  AND " + NoteColumns.NOTES_COUNT + ">0;" +
         " END";
 
+    // 换行符的SQL表达式；x'0A'是BLOB，与TEXT比较时永远不相等，instr也会按字节而不是字符计算位置
+    private static final String NEWLINE = "char(10)";
+
+    /**
+     * 由摘要计算显示标题的SQL表达式：去掉清单的勾选标记，去掉首尾空白后取第一行，
+     * 与原来列表绑定时的处理（NoteItemData去标记、DataUtils.getFormattedSnippet取第一行）一致
+     */
+    private static String titleOf(String snippet) {
+        String text = "TRIM(REPLACE(REPLACE(" + snippet + ",'" + TextNote.TAG_CHECKED
+                + "',''),'" + TextNote.TAG_UNCHECKED + "',''),char(32,9,10,13))";
+        return "(CASE WHEN instr(" + text + "," + NEWLINE + ")>0"
+                + " THEN substr(" + text + ",1,instr(" + text + "," + NEWLINE + ")-1)"
+                + " ELSE " + text + " END)";
+    }
+
+    /**
+     * Update note's title when a note is inserted with a snippet
+     * 插入便签时根据摘要计算标题
+     */
+    private static final String NOTE_UPDATE_TITLE_ON_INSERT_TRIGGER =
+        "CREATE TRIGGER update_note_title_on_insert " +
+        " AFTER INSERT ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  UPDATE " + TABLE.NOTE +
+        "   SET " + NoteColumns.TITLE + "=" + titleOf("new." + NoteColumns.SNIPPET) +
+        "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+        " END";
+
+    /**
+     * Update note's title when its snippet has changed, whether by the data triggers, a folder
+     * rename or sync
+     * 摘要变化时（数据表触发器、文件夹改名、同步）重新计算标题，列表绑定时不再处理字符串
+     */
+    private static final String NOTE_UPDATE_TITLE_ON_UPDATE_TRIGGER =
+        "CREATE TRIGGER update_note_title_on_update " +
+        " AFTER UPDATE OF " + NoteColumns.SNIPPET + " ON " + TABLE.NOTE +
+        " BEGIN" +
+        "  UPDATE " + TABLE.NOTE +
+        "   SET " + NoteColumns.TITLE + "=" + titleOf("new." + NoteColumns.SNIPPET) +
+        "  WHERE " + NoteColumns.ID + "=new." + NoteColumns.ID + ";" +
+        " END";
+
+    /**
+     * 内容变化时写入note表的SET子句：摘要只保存前SNIPPET_MAX_LENGTH个字符，
+     * 完整长度、行数和清单条目数（以勾选标记开头的行）保存在单独的整数列中
+     */
+    private static String noteContentSet(String content, String mode) {
+        return NoteColumns.SNIPPET + "=substr(" + content + ",1," + Notes.SNIPPET_MAX_LENGTH + "),"
+            + NoteColumns.CONTENT_LENGTH + "=length(" + content + "),"
+            + NoteColumns.LINE_COUNT + "=(CASE WHEN " + content + "='' THEN 0"
+            + " ELSE length(" + content + ")-length(REPLACE(" + content + "," + NEWLINE + ",''))+1"
+            + "-(substr(" + content + ",-1)=" + NEWLINE + ") END),"
+            + NoteColumns.CHECKLIST_TOTAL + "=(CASE WHEN " + mode + "=" + TextNote.MODE_CHECK_LIST
+            + " THEN " + countLinesStartingWith(content, TextNote.TAG_CHECKED) + "+"
+            + countLinesStartingWith(content, TextNote.TAG_UNCHECKED) + " ELSE 0 END),"
+            + NoteColumns.CHECKLIST_CHECKED + "=(CASE WHEN " + mode + "=" + TextNote.MODE_CHECK_LIST
+            + " THEN " + countLinesStartingWith(content, TextNote.TAG_CHECKED) + " ELSE 0 END)";
+    }
+
+    //以mark开头的行数：换行符后紧跟mark的次数，加上第一行
+    private static String countLinesStartingWith(String content, String mark) {
+        return "((length(" + content + ")-length(REPLACE(" + content + "," + NEWLINE + "||'" + mark
+            + "','')))/"
+            + (mark.length() + 1) + "+(substr(" + content + ",1," + mark.length() + ")='" + mark + "'))";
+    }
+
     //数据表相关触发器
     /**
      * Update note's content when insert data with type {@link DataConstants#NOTE}
@@ -155,7 +380,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         " WHEN new." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
-        "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+        "   SET " + noteContentSet("new." + DataColumns.CONTENT, "new." + TextNote.MODE) +
         "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
         " END";
 
@@ -169,7 +394,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
-        "   SET " + NoteColumns.SNIPPET + "=new." + DataColumns.CONTENT +
+        "   SET " + noteContentSet("new." + DataColumns.CONTENT, "new." + TextNote.MODE) +
         "  WHERE " + NoteColumns.ID + "=new." + DataColumns.NOTE_ID + ";" +
         " END";
 
@@ -183,7 +408,9 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         " WHEN old." + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'" +
         " BEGIN" +
         "  UPDATE " + TABLE.NOTE +
-        "   SET " + NoteColumns.SNIPPET + "=''" +
+        "   SET " + NoteColumns.SNIPPET + "=''," +
+        NoteColumns.CONTENT_LENGTH + "=0," + NoteColumns.LINE_COUNT + "=0," +
+        NoteColumns.CHECKLIST_TOTAL + "=0," + NoteColumns.CHECKLIST_CHECKED + "=0" +
         "  WHERE " + NoteColumns.ID + "=old." + DataColumns.NOTE_ID + ";" +
         " END";
 
@@ -227,6 +454,7 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
 
     public NotesDatabaseHelper(Context context) {
         super(context, DB_NAME, null, DB_VERSION);
+        mContext = context;
     }
 
     //用于创建数据库
@@ -245,6 +473,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TRIGGER IF EXISTS increase_folder_count_on_insert");
         db.execSQL("DROP TRIGGER IF EXISTS folder_delete_notes_on_delete");
         db.execSQL("DROP TRIGGER IF EXISTS folder_move_notes_on_trash");
+        db.execSQL("DROP TRIGGER IF EXISTS update_note_title_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_note_title_on_update");
 
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
         db.execSQL(NOTE_DECREASE_FOLDER_COUNT_ON_UPDATE_TRIGGER);
@@ -253,6 +483,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(NOTE_INCREASE_FOLDER_COUNT_ON_INSERT_TRIGGER);
         db.execSQL(FOLDER_DELETE_NOTES_ON_DELETE_TRIGGER);
         db.execSQL(FOLDER_MOVE_NOTES_ON_TRASH_TRIGGER);
+        db.execSQL(NOTE_UPDATE_TITLE_ON_INSERT_TRIGGER);
+        db.execSQL(NOTE_UPDATE_TITLE_ON_UPDATE_TRIGGER);
     }
 
     /**
@@ -303,6 +535,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(CREATE_DATA_TABLE_SQL);
         reCreateDataTableTriggers(db);
         db.execSQL(CREATE_DATA_NOTE_ID_INDEX_SQL);
+        db.execSQL(CREATE_DATA_PHONE_KEY_INDEX_SQL);
+        db.execSQL(CREATE_DATA_CALL_DATE_INDEX_SQL);
         Log.d(TAG, "data table has been created");
     }
 
@@ -317,6 +551,60 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL(DATA_UPDATE_NOTE_CONTENT_ON_DELETE_TRIGGER);
     }
 
+    //创建sync_state表及其触发器
+    public void createSyncStateTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_SYNC_STATE_TABLE_SQL);
+        db.execSQL(CREATE_SYNC_STATE_NOTE_ID_INDEX_SQL);
+        reCreateSyncStateTriggers(db);
+        Log.d(TAG, "sync state table has been created");
+    }
+
+    //创建folder_stats表及其触发器，并由已有的便签算出统计
+    public void createFolderStatsTable(SQLiteDatabase db) {
+        db.execSQL(CREATE_FOLDER_STATS_TABLE_SQL);
+        db.execSQL(CREATE_NOTE_PARENT_MODIFIED_INDEX_SQL);
+        reCreateFolderStatsTriggers(db);
+        rebuildFolderStats(db);
+        Log.d(TAG, "folder stats table has been created");
+    }
+
+    private void reCreateFolderStatsTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS update_folder_stats_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_folder_stats_on_update");
+        db.execSQL("DROP TRIGGER IF EXISTS update_folder_stats_on_delete");
+
+        db.execSQL(NOTE_UPDATE_FOLDER_STATS_ON_INSERT_TRIGGER);
+        db.execSQL(NOTE_UPDATE_FOLDER_STATS_ON_UPDATE_TRIGGER);
+        db.execSQL(NOTE_UPDATE_FOLDER_STATS_ON_DELETE_TRIGGER);
+    }
+
+    /*
+     * 功能描述：由note表重新计算所有文件夹的统计，用于修复增量维护产生的偏差
+     */
+    public void rebuildFolderStats(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            db.execSQL("DELETE FROM " + TABLE.FOLDER_STATS);
+            db.execSQL("INSERT INTO " + TABLE.FOLDER_STATS + "(" + FolderStatsColumns.FOLDER_ID + ","
+                    + FolderStatsColumns.NOTE_COUNT + "," + FolderStatsColumns.LAST_MODIFIED + ","
+                    + FolderStatsColumns.CHAR_COUNT + "," + FolderStatsColumns.ALERT_COUNT + ")"
+                    + " SELECT " + NoteColumns.PARENT_ID + ",COUNT(*),MAX(" + NoteColumns.MODIFIED_DATE
+                    + "),SUM(" + NoteColumns.CONTENT_LENGTH + "),SUM(" + NoteColumns.ALERTED_DATE + ">0)"
+                    + " FROM " + TABLE.NOTE + " GROUP BY " + NoteColumns.PARENT_ID);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void reCreateSyncStateTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS delete_sync_state_on_delete");
+        db.execSQL("DROP TRIGGER IF EXISTS mark_sync_state_modified_on_update");
+
+        db.execSQL(NOTE_DELETE_SYNC_STATE_ON_DELETE_TRIGGER);
+        db.execSQL(NOTE_MARK_SYNC_STATE_MODIFIED_ON_UPDATE_TRIGGER);
+    }
+
 
     /**
      * NotesDatabaseHelper 类使用 synchronized 关键字
@@ -337,6 +625,8 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         createNoteTable(db);
         createDataTable(db);
+        createSyncStateTable(db);
+        createFolderStatsTable(db);
     }
     //在数据库版本升级时调用。根据旧版本和新版本的不同，可以实现相关的升级逻辑。
     @Override
@@ -361,9 +651,40 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
             oldVersion++;
         }
 
+        if (oldVersion == 4) {
+            upgradeToV5(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 5) {
+            upgradeToV6(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 6) {
+            upgradeToV7(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 7) {
+            upgradeToV8(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 8) {
+            upgradeToV9(db);
+            oldVersion++;
+        }
+
+        if (oldVersion == 9) {
+            upgradeToV10(db);
+            oldVersion++;
+        }
+
         if (reCreateTriggers) {
             reCreateNoteTableTriggers(db);
             reCreateDataTableTriggers(db);
+            reCreateSyncStateTriggers(db);
         }
 
         if (oldVersion != newVersion) {
@@ -402,4 +723,84 @@ public class NotesDatabaseHelper extends SQLiteOpenHelper {
         db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.VERSION
                 + " INTEGER NOT NULL DEFAULT 0");
     }
+
+    private void upgradeToV5(SQLiteDatabase db) {
+        // 添加同步内容哈希字段，旧数据为0表示未知，下一次同步时重新计算
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.SYNC_HASH
+                + " INTEGER NOT NULL DEFAULT 0");
+    }
+
+    private void upgradeToV6(SQLiteDatabase db) {
+        // 同步状态移到按账号区分的sync_state表，已有的状态归属当前设置中的同步账号
+        // note表中的旧列保留但不再使用
+        createSyncStateTable(db);
+        String account = SyncPreferences.getSyncAccountName(mContext);
+        if (!TextUtils.isEmpty(account)) {
+            db.execSQL("INSERT INTO " + TABLE.SYNC_STATE + "(" + SyncStateColumns.ACCOUNT + ","
+                    + SyncStateColumns.NOTE_ID + "," + SyncStateColumns.GTASK_ID + ","
+                    + SyncStateColumns.SYNC_ID + "," + SyncStateColumns.SYNC_HASH + ","
+                    + SyncStateColumns.LOCAL_MODIFIED + ")"
+                    + " SELECT ?," + NoteColumns.ID + "," + NoteColumns.GTASK_ID + ","
+                    + NoteColumns.SYNC_ID + "," + NoteColumns.SYNC_HASH + ","
+                    + NoteColumns.LOCAL_MODIFIED + " FROM " + TABLE.NOTE
+                    + " WHERE " + NoteColumns.GTASK_ID + "<>''", new Object[] {
+                        account
+                    });
+        }
+    }
+
+    private void upgradeToV7(SQLiteDatabase db) {
+        // 添加号码键字段，已有的通话记录在这里补上（号码键只能在Java中计算）
+        db.execSQL("ALTER TABLE " + TABLE.DATA + " ADD COLUMN " + CallNote.PHONE_KEY
+                + " TEXT NOT NULL DEFAULT ''");
+        Cursor c = db.query(TABLE.DATA, new String[] { DataColumns.ID, CallNote.PHONE_NUMBER },
+                DataColumns.MIME_TYPE + "=?", new String[] { CallNote.CONTENT_ITEM_TYPE },
+                null, null, null);
+        if (c != null) {
+            try {
+                ContentValues values = new ContentValues();
+                while (c.moveToNext()) {
+                    values.put(CallNote.PHONE_KEY, CallNote.toPhoneKey(c.getString(1)));
+                    db.update(TABLE.DATA, values, DataColumns.ID + "=" + c.getLong(0), null);
+                }
+            } finally {
+                c.close();
+            }
+        }
+        db.execSQL(CREATE_DATA_PHONE_KEY_INDEX_SQL);
+        db.execSQL(CREATE_DATA_CALL_DATE_INDEX_SQL);
+    }
+
+    private void upgradeToV8(SQLiteDatabase db) {
+        // 添加显示标题字段，已有的便签由摘要补上，之后由触发器维护
+        db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + NoteColumns.TITLE
+                + " TEXT NOT NULL DEFAULT ''");
+        db.execSQL("UPDATE " + TABLE.NOTE + " SET " + NoteColumns.TITLE + "="
+                + titleOf(NoteColumns.SNIPPET));
+        db.execSQL("DROP TRIGGER IF EXISTS update_note_title_on_insert");
+        db.execSQL("DROP TRIGGER IF EXISTS update_note_title_on_update");
+        db.execSQL(NOTE_UPDATE_TITLE_ON_INSERT_TRIGGER);
+        db.execSQL(NOTE_UPDATE_TITLE_ON_UPDATE_TRIGGER);
+    }
+
+    private void upgradeToV9(SQLiteDatabase db) {
+        // 摘要改为有长度限制的前缀，并添加内容长度、行数和清单计数字段
+        String[] columns = new String[] {
+                NoteColumns.CONTENT_LENGTH, NoteColumns.LINE_COUNT,
+                NoteColumns.CHECKLIST_TOTAL, NoteColumns.CHECKLIST_CHECKED
+        };
+        for (String column : columns) {
+            db.execSQL("ALTER TABLE " + TABLE.NOTE + " ADD COLUMN " + column
+                    + " INTEGER NOT NULL DEFAULT 0");
+        }
+        reCreateDataTableTriggers(db);
+        // 重写一次便签内容，由新的触发器算出已有便签的摘要和各计数
+        db.execSQL("UPDATE " + TABLE.DATA + " SET " + DataColumns.CONTENT + "=" + DataColumns.CONTENT
+                + " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'");
+    }
+
+    private void upgradeToV10(SQLiteDatabase db) {
+        // 添加文件夹统计表，由已有的便签算出初始值
+        createFolderStatsTable(db);
+    }
 }
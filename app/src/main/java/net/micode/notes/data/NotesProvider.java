@@ -23,16 +23,29 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Intent;
 import android.content.UriMatcher;
+import android.content.pm.ApplicationInfo;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.StrictMode;
 import android.text.TextUtils;
 import android.util.Log;
 
 import net.micode.notes.R;
+import net.micode.notes.data.Notes.CallNote;
 import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.FolderStatsColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteListColumns;
+import net.micode.notes.data.Notes.SyncStateColumns;
 import net.micode.notes.data.NotesDatabaseHelper.TABLE;
+import net.micode.notes.tool.CursorTracker;
+
+import java.util.HashMap;
 
 //ContentProvider：Android四大组件之一，允许应用程序之间共享数据
 public class NotesProvider extends ContentProvider {
@@ -53,6 +66,11 @@ public class NotesProvider extends ContentProvider {
 
     private static final int URI_SEARCH          = 5;
     private static final int URI_SEARCH_SUGGEST  = 6;
+
+    private static final int URI_SYNC_NOTE       = 7;
+    private static final int URI_SYNC_STATE      = 8;
+
+    private static final int URI_NOTE_LIST       = 9;
     //初始化了一个UriMatcher对象mMatcher，并添加了一系列的URI匹配规则
     static {
         //创建了一个UriMatcher实例，并设置默认匹配码为NO_MATCH，表示如果没有任何URI匹配，则返回这个码
@@ -69,6 +87,70 @@ public class NotesProvider extends ContentProvider {
         //用于匹配搜索建议相关的URI
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY, URI_SEARCH_SUGGEST);
         mMatcher.addURI(Notes.AUTHORITY, SearchManager.SUGGEST_URI_PATH_QUERY + "/*", URI_SEARCH_SUGGEST);
+        //用于同步：便签连接某个账号的同步状态，以及同步状态本身
+        mMatcher.addURI(Notes.AUTHORITY, "sync_note", URI_SYNC_NOTE);
+        mMatcher.addURI(Notes.AUTHORITY, "sync_state", URI_SYNC_STATE);
+        mMatcher.addURI(Notes.AUTHORITY, "note_list", URI_NOTE_LIST);
+    }
+
+    //sync_note查询的列映射：便签的列取自note表，同步相关的列取自该账号的sync_state行，没有状态时为初始值
+    private static final HashMap<String, String> SYNC_NOTE_PROJECTION_MAP = new HashMap<String, String>();
+
+    static {
+        String[] noteColumns = new String[] {
+                NoteColumns.ID, NoteColumns.PARENT_ID, NoteColumns.CREATED_DATE,
+                NoteColumns.MODIFIED_DATE, NoteColumns.ALERTED_DATE, NoteColumns.SNIPPET,
+                NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE, NoteColumns.BG_COLOR_ID,
+                NoteColumns.HAS_ATTACHMENT, NoteColumns.NOTES_COUNT, NoteColumns.TYPE,
+                NoteColumns.ORIGIN_PARENT_ID, NoteColumns.VERSION
+        };
+        for (String column : noteColumns) {
+            SYNC_NOTE_PROJECTION_MAP.put(column, TABLE.NOTE + "." + column + " AS " + column);
+        }
+        SYNC_NOTE_PROJECTION_MAP.put(NoteColumns.GTASK_ID, "IFNULL(" + TABLE.SYNC_STATE + "."
+                + SyncStateColumns.GTASK_ID + ",'') AS " + NoteColumns.GTASK_ID);
+        SYNC_NOTE_PROJECTION_MAP.put(NoteColumns.SYNC_ID, "IFNULL(" + TABLE.SYNC_STATE + "."
+                + SyncStateColumns.SYNC_ID + ",0) AS " + NoteColumns.SYNC_ID);
+        SYNC_NOTE_PROJECTION_MAP.put(NoteColumns.SYNC_HASH, "IFNULL(" + TABLE.SYNC_STATE + "."
+                + SyncStateColumns.SYNC_HASH + ",0) AS " + NoteColumns.SYNC_HASH);
+        // 没有与该账号同步过：使用便签自己的修改标记
+        SYNC_NOTE_PROJECTION_MAP.put(NoteColumns.LOCAL_MODIFIED, "IFNULL(" + TABLE.SYNC_STATE + "."
+                + SyncStateColumns.LOCAL_MODIFIED + "," + TABLE.NOTE + "."
+                + NoteColumns.LOCAL_MODIFIED + ") AS " + NoteColumns.LOCAL_MODIFIED);
+    }
+
+    // 列表查询的投影：便签表的列，文件夹的统计（folder_stats），加上通话记录的电话号码（只对通话记录文件夹中的行执行子查询，按note_id索引查找）
+    private static final HashMap<String, String> NOTE_LIST_PROJECTION_MAP = new HashMap<String, String>();
+
+    static {
+        String[] noteColumns = new String[] {
+                NoteColumns.ID, NoteColumns.PARENT_ID, NoteColumns.CREATED_DATE,
+                NoteColumns.MODIFIED_DATE, NoteColumns.ALERTED_DATE, NoteColumns.SNIPPET,
+                NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE, NoteColumns.BG_COLOR_ID,
+                NoteColumns.HAS_ATTACHMENT, NoteColumns.TYPE,
+                NoteColumns.TITLE, NoteColumns.CONTENT_LENGTH, NoteColumns.LINE_COUNT,
+                NoteColumns.CHECKLIST_TOTAL, NoteColumns.CHECKLIST_CHECKED
+        };
+        for (String column : noteColumns) {
+            NOTE_LIST_PROJECTION_MAP.put(column, TABLE.NOTE + "." + column + " AS " + column);
+        }
+        // 文件夹的便签数取自folder_stats，便签行没有统计，各列为0
+        NOTE_LIST_PROJECTION_MAP.put(NoteColumns.NOTES_COUNT, "IFNULL(" + TABLE.FOLDER_STATS + "."
+                + FolderStatsColumns.NOTE_COUNT + ",0) AS " + NoteColumns.NOTES_COUNT);
+        String[] statsColumns = new String[] {
+                FolderStatsColumns.NOTE_COUNT, FolderStatsColumns.LAST_MODIFIED,
+                FolderStatsColumns.CHAR_COUNT, FolderStatsColumns.ALERT_COUNT
+        };
+        for (String column : statsColumns) {
+            NOTE_LIST_PROJECTION_MAP.put(column, "IFNULL(" + TABLE.FOLDER_STATS + "." + column
+                    + ",0) AS " + column);
+        }
+        NOTE_LIST_PROJECTION_MAP.put(NoteListColumns.CALL_NUMBER, "(CASE WHEN " + TABLE.NOTE + "."
+                + NoteColumns.PARENT_ID + "=" + Notes.ID_CALL_RECORD_FOLDER + " THEN (SELECT "
+                + CallNote.PHONE_NUMBER + " FROM " + TABLE.DATA + " WHERE " + TABLE.DATA + "."
+                + DataColumns.NOTE_ID + "=" + TABLE.NOTE + "." + NoteColumns.ID + " AND "
+                + DataColumns.MIME_TYPE + "='" + CallNote.CONTENT_ITEM_TYPE + "' LIMIT 1)"
+                + " ELSE NULL END) AS " + NoteListColumns.CALL_NUMBER);
     }
 
     /**
@@ -91,10 +173,12 @@ public class NotesProvider extends ContentProvider {
         + "'" + Notes.TextNote.CONTENT_TYPE + "' AS " + SearchManager.SUGGEST_COLUMN_INTENT_DATA;
 
     //使用上面定义的映射选择数据，指定数据库中的表
-    //where子句包含三个条件：1.搜索SNIPPET列中包含特定模式的行；2.排除父id为回收站的id；3.只选择类型为note标签的行
+    //where子句包含三个条件：1.搜索便签的完整内容（摘要只是前缀）；2.排除父id为回收站的id；3.只选择类型为note标签的行
     private static String NOTES_SNIPPET_SEARCH_QUERY = "SELECT " + NOTES_SEARCH_PROJECTION
         + " FROM " + TABLE.NOTE
-        + " WHERE " + NoteColumns.SNIPPET + " LIKE ?"
+        + " WHERE " + NoteColumns.ID + " IN (SELECT " + DataColumns.NOTE_ID + " FROM " + TABLE.DATA
+        + " WHERE " + DataColumns.MIME_TYPE + "='" + DataConstants.NOTE + "'"
+        + " AND " + DataColumns.CONTENT + " LIKE ?)"
         + " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER
         + " AND " + NoteColumns.TYPE + "=" + Notes.TYPE_NOTE;
 
@@ -104,6 +188,18 @@ public class NotesProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mHelper = NotesDatabaseHelper.getInstance(getContext());
+        // 调试版本中报告没有关闭的光标
+        boolean debuggable = (getContext().getApplicationInfo().flags
+                & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        CursorTracker.setEnabled(debuggable);
+        if (debuggable) {
+            // 提供者在进程中最先创建；ContentResolver返回的游标、CursorLoader和AsyncQueryHandler打开的游标
+            // 没有关闭就被回收时，由StrictMode输出打开时的调用栈
+            StrictMode.setVmPolicy(new StrictMode.VmPolicy.Builder(StrictMode.getVmPolicy())
+                    .detectLeakedClosableObjects()
+                    .penaltyLog()
+                    .build());
+        }
         return true;
     }
     //查询数据
@@ -170,6 +266,33 @@ public class NotesProvider extends ContentProvider {
                     Log.e(TAG, "got exception: " + ex.toString());
                 }
                 break;
+            //查询便签及其在某个账号下的同步状态
+            case URI_SYNC_NOTE:
+                String account = uri.getQueryParameter(SyncStateColumns.ACCOUNT);
+                if (TextUtils.isEmpty(account)) {
+                    throw new IllegalArgumentException("No account in sync note URI " + uri);
+                }
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(TABLE.NOTE + " LEFT OUTER JOIN " + TABLE.SYNC_STATE + " ON ("
+                        + TABLE.SYNC_STATE + "." + SyncStateColumns.NOTE_ID + "=" + TABLE.NOTE + "."
+                        + NoteColumns.ID + " AND " + TABLE.SYNC_STATE + "." + SyncStateColumns.ACCOUNT
+                        + "=" + DatabaseUtils.sqlEscapeString(account) + ")");
+                builder.setProjectionMap(SYNC_NOTE_PROJECTION_MAP);
+                c = builder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            //列表界面查询便签，带出通话记录的电话号码
+            case URI_NOTE_LIST:
+                SQLiteQueryBuilder listBuilder = new SQLiteQueryBuilder();
+                listBuilder.setTables(TABLE.NOTE + " LEFT OUTER JOIN " + TABLE.FOLDER_STATS + " ON ("
+                        + TABLE.FOLDER_STATS + "." + FolderStatsColumns.FOLDER_ID + "=" + TABLE.NOTE + "."
+                        + NoteColumns.ID + ")");
+                listBuilder.setProjectionMap(NOTE_LIST_PROJECTION_MAP);
+                c = listBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
+                if (c != null) {
+                    // 变化通过便签的uri通知，通话号码不会单独变化
+                    c.setNotificationUri(getContext().getContentResolver(), Notes.CONTENT_NOTE_URI);
+                }
+                return c;
             //处理未知URI
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
@@ -191,7 +314,7 @@ public class NotesProvider extends ContentProvider {
         switch (mMatcher.match(uri)) {
             //将values插入到TABLE.NOTE表中，并返回插入行的ID
             case URI_NOTE:
-                insertedId = noteId = db.insert(TABLE.NOTE, null, values);
+                insertedId = noteId = db.insert(TABLE.NOTE, null, withBoundedSnippet(values));
                 break;
             //首先检查values是否包含DataColumns.NOTE_ID，如果包含，则获取其值。如果不包含，记录一条日志信息。然后，将values插入到TABLE.DATA表中，并返回插入行的ID
             case URI_DATA:
@@ -200,7 +323,11 @@ public class NotesProvider extends ContentProvider {
                 } else {
                     Log.d(TAG, "Wrong data format without note id:" + values.toString());
                 }
-                insertedId = dataId = db.insert(TABLE.DATA, null, values);
+                insertedId = dataId = db.insert(TABLE.DATA, null, withPhoneKey(values));
+                break;
+            //写入某个账号下一条便签的同步状态，已存在时只更新给出的列；不通知便签的观察者
+            case URI_SYNC_STATE:
+                insertedId = replaceSyncState(db, values);
                 break;
             //如果uri不是已知的URI类型，则抛出一个IllegalArgumentException
             default:
@@ -264,6 +391,10 @@ public class NotesProvider extends ContentProvider {
                         DataColumns.ID + "=" + id + parseSelection(selection), selectionArgs);
                 deleteData = true;
                 break;
+            //删除同步状态，例如移除账号时删除该账号的全部状态，便签本身不受影响
+            case URI_SYNC_STATE:
+                count = db.delete(TABLE.SYNC_STATE, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -279,6 +410,42 @@ public class NotesProvider extends ContentProvider {
         return count;
     }
 
+    //写入电话号码时同时写入号码键，号码键由Java计算，不能放在触发器中
+    private static ContentValues withPhoneKey(ContentValues values) {
+        if (values == null || !values.containsKey(CallNote.PHONE_NUMBER)) {
+            return values;
+        }
+        ContentValues result = new ContentValues(values);
+        result.put(CallNote.PHONE_KEY, CallNote.toPhoneKey(values.getAsString(CallNote.PHONE_NUMBER)));
+        return result;
+    }
+
+    //重新计算文件夹统计（Notes.METHOD_REBUILD_FOLDER_STATS），修复增量维护产生的偏差
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (Notes.METHOD_REBUILD_FOLDER_STATS.equals(method)) {
+            mHelper.rebuildFolderStats(mHelper.getWritableDatabase());
+            getContext().getContentResolver().notifyChange(Notes.CONTENT_NOTE_URI, null);
+            return null;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    //直接写入摘要时（如同步写入任务名称）同样只保存前缀，与数据表触发器写入的摘要一致
+    private static ContentValues withBoundedSnippet(ContentValues values) {
+        String snippet = values == null ? null : values.getAsString(NoteColumns.SNIPPET);
+        if (snippet == null || snippet.length() <= Notes.SNIPPET_MAX_LENGTH) {
+            return values;
+        }
+        int end = Notes.SNIPPET_MAX_LENGTH;
+        if (Character.isHighSurrogate(snippet.charAt(end - 1))) {
+            end--; // 不截断代理对
+        }
+        ContentValues result = new ContentValues(values);
+        result.put(NoteColumns.SNIPPET, snippet.substring(0, end));
+        return result;
+    }
+
     //更新数据库中的数据
     //uri标记要删除数据的表或数据项
     //values一个包含新值的键值对集合
@@ -294,24 +461,24 @@ public class NotesProvider extends ContentProvider {
             //调用increaseNoteVersion方法（用于增加便签版本），然后在note表执行更新操作并返回被更新的行数
             case URI_NOTE:
                 increaseNoteVersion(-1, selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, selection, selectionArgs);
+                count = db.update(TABLE.NOTE, withBoundedSnippet(values), selection, selectionArgs);
                 break;
             //从URI中解析出ID，并调用increaseNoteVersion方法，传入解析出的ID，最后在note表执行更新操作并返回被更新的行数
             case URI_NOTE_ITEM:
                 id = uri.getPathSegments().get(1);
                 increaseNoteVersion(Long.valueOf(id), selection, selectionArgs);
-                count = db.update(TABLE.NOTE, values, NoteColumns.ID + "=" + id
+                count = db.update(TABLE.NOTE, withBoundedSnippet(values), NoteColumns.ID + "=" + id
                         + parseSelection(selection), selectionArgs);
                 break;
             //在data表执行更新操作并返回被更新的行数。设置updateData为true，表示更新了DATA表中的数据
             case URI_DATA:
-                count = db.update(TABLE.DATA, values, selection, selectionArgs);
+                count = db.update(TABLE.DATA, withPhoneKey(values), selection, selectionArgs);
                 updateData = true;
                 break;
             //从URI中解析出ID。执行更新操作并返回被更新的行数。置updateData为true，表示更新了DATA表中的数据
             case URI_DATA_ITEM:
                 id = uri.getPathSegments().get(1);
-                count = db.update(TABLE.DATA, values, DataColumns.ID + "=" + id
+                count = db.update(TABLE.DATA, withPhoneKey(values), DataColumns.ID + "=" + id
                         + parseSelection(selection), selectionArgs);
                 updateData = true;
                 break;
@@ -331,6 +498,38 @@ public class NotesProvider extends ContentProvider {
         return count;
     }
 
+    //写入同步状态：先按(账号, 便签id)更新，没有对应的行时插入，返回便签id
+    private long replaceSyncState(SQLiteDatabase db, ContentValues values) {
+        String account = values.getAsString(SyncStateColumns.ACCOUNT);
+        Long noteId = values.getAsLong(SyncStateColumns.NOTE_ID);
+        if (TextUtils.isEmpty(account) || noteId == null) {
+            throw new IllegalArgumentException("Wrong sync state without account or note id:"
+                    + values.toString());
+        }
+
+        ContentValues changes = new ContentValues(values);
+        changes.remove(SyncStateColumns.ACCOUNT);
+        changes.remove(SyncStateColumns.NOTE_ID);
+        db.beginTransaction();
+        try {
+            int count = 0;
+            if (changes.size() > 0) {
+                count = db.update(TABLE.SYNC_STATE, changes, SyncStateColumns.ACCOUNT + "=? AND "
+                        + SyncStateColumns.NOTE_ID + "=?", new String[] {
+                                account, String.valueOf(noteId)
+                        });
+            }
+            if (count == 0) {
+                db.insertWithOnConflict(TABLE.SYNC_STATE, null, values,
+                        SQLiteDatabase.CONFLICT_IGNORE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return noteId;
+    }
+
     //解析传入的条件语句：一个SQL Where子句的一部分
     private String parseSelection(String selection) {
         return (!TextUtils.isEmpty(selection) ? " AND (" + selection + ')' : "");
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.data;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 便签内容哈希
+ * 功能：对SqlNote.getContent()/Task.getLocalJSONFromContent()结构的JSON计算稳定的64位FNV-1a哈希，
+ * 用于判断本地与远程内容是否相同，从而跳过无实际变化的上传和下载。
+ * 只包含需要同步的内容：类型、提醒时间、背景色、附件标记、文件夹名称以及各条data的内容；
+ * 不包含id、时间戳、小部件和父文件夹（父文件夹的变化由移动逻辑单独判断）。
+ */
+public final class ContentHash {
+    // 0表示未知的哈希
+    public static final long UNKNOWN = 0;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private ContentHash() {
+    }
+
+    public static long of(JSONObject content) {
+        if (content == null) {
+            return UNKNOWN;
+        }
+        JSONObject note = content.optJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+        if (note == null) {
+            return UNKNOWN;
+        }
+
+        int type = note.optInt(NoteColumns.TYPE, Notes.TYPE_NOTE);
+        long h = FNV_OFFSET_BASIS;
+        h = mix(h, type);
+        if (type != Notes.TYPE_NOTE) {
+            h = mix(h, note.optString(NoteColumns.SNIPPET, ""));
+        } else {
+            h = mix(h, note.optLong(NoteColumns.ALERTED_DATE, 0));
+            h = mix(h, note.optLong(NoteColumns.BG_COLOR_ID, 0));
+            h = mix(h, note.optLong(NoteColumns.HAS_ATTACHMENT, 0));
+
+            // 各行的哈希相加，与data行的顺序无关
+            JSONArray dataArray = content.optJSONArray(GTaskStringUtils.META_HEAD_DATA);
+            long rows = 0;
+            int count = dataArray == null ? 0 : dataArray.length();
+            for (int i = 0; i < count; i++) {
+                JSONObject data = dataArray.optJSONObject(i);
+                if (data == null) {
+                    continue;
+                }
+                long r = FNV_OFFSET_BASIS;
+                r = mix(r, data.optString(DataColumns.MIME_TYPE, DataConstants.NOTE));
+                r = mix(r, data.optString(DataColumns.CONTENT, ""));
+                r = mix(r, data.optLong(DataColumns.DATA1, 0));
+                r = mix(r, data.optString(DataColumns.DATA3, ""));
+                rows += r;
+            }
+            h = mix(h, count);
+            h = mix(h, rows);
+        }
+        return h == UNKNOWN ? 1 : h;
+    }
+
+    private static long mix(long h, long value) {
+        for (int i = 0; i < 8; i++) {
+            h ^= (value >>> (i * 8)) & 0xFF;
+            h *= FNV_PRIME;
+        }
+        return h;
+    }
+
+    private static long mix(long h, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char ch = value.charAt(i);
+            h ^= ch & 0xFF;
+            h *= FNV_PRIME;
+            h ^= ch >>> 8;
+            h *= FNV_PRIME;
+        }
+        // 字符串后加结束标记，使("ab", "c")与("a", "bc")的哈希不同
+        return mix(h, length);
+    }
+}
@@ -37,13 +37,8 @@ public class MetaData extends Task {
      * 实现过程：调用JSONObject库函数put ()，Task类中的setNotes ()和setName ()函数
 */
     public void setMeta(String gid, JSONObject metaInfo) {//对函数块进行注释
-        try {
-            metaInfo.put(GTaskStringUtils.META_HEAD_GTASK_ID, gid);
-            //将这对键值放入metaInfo这个jsonobject对象中
-        } catch (JSONException e) {
-            Log.e(TAG, "failed to put related gid");//输出错误信息
-        }
-        setNotes(metaInfo.toString());
+        //使用紧凑的二进制编码，正文已在task的name中，不重复上传
+        setNotes(MetaDataCodec.encode(gid, metaInfo));
         setName(GTaskStringUtils.META_NOTE_NAME);
     }
     /*
@@ -52,6 +47,13 @@ public class MetaData extends Task {
     public String getRelatedGid() {
         return mRelatedGid;
     }
+    /*
+     * 功能描述：获取解码后的元数据（兼容旧版本JSON格式），解析失败时为null
+     * 每次调用都重新解码，解码结果不随对象常驻内存
+     */
+    public JSONObject getMetaContent() {
+        return MetaDataCodec.decode(getNotes());
+    }
     /*
      * 功能描述：判断当前数据是否为空，若为空则返回真即值得保存
 
@@ -70,8 +72,12 @@ public class MetaData extends Task {
         super.setContentByRemoteJSON(js);
         if (getNotes() != null) {
             try {
-                JSONObject metaInfo = new JSONObject(getNotes().trim());
-                mRelatedGid = metaInfo.getString(GTaskStringUtils.META_HEAD_GTASK_ID);
+                // 只保留关联的gid，解析出的json立即丢弃
+                JSONObject metaContent = MetaDataCodec.decode(getNotes());
+                if (metaContent == null) {
+                    throw new JSONException("unable to decode meta");
+                }
+                mRelatedGid = metaContent.getString(GTaskStringUtils.META_HEAD_GTASK_ID).intern();
             } catch (JSONException e) {
                 Log.w(TAG, "failed to get related gid");/*输出警告信息*/
                 mRelatedGid = null;
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.data;
+
+import android.text.TextUtils;
+import android.util.Base64;
+import android.util.Log;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.DataColumns;
+import net.micode.notes.data.Notes.DataConstants;
+import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * 同步元数据的紧凑编码
+ * 功能：把SqlNote.getContent()生成的元数据JSON编码为带版本号的二进制格式（Base64后存入meta task的notes字段）。
+ * 文本便签的正文已经作为task的name上传，这里不再重复保存正文和snippet；
+ * 从版本2开始同时保存上传时的内容哈希（ContentHash），用于跳过内容相同的同步；
+ * 读取时兼容旧版本直接存放的JSON字符串。
+ */
+public final class MetaDataCodec {
+    private static final String TAG = MetaDataCodec.class.getSimpleName();
+
+    // 当前编码版本，格式变化时递增
+    public static final int FORMAT_VERSION = 2;
+
+    // 从该版本开始记录中包含内容哈希
+    private static final int VERSION_CONTENT_HASH = 2;
+
+    private MetaDataCodec() {
+    }
+
+    /**
+     * 判断notes字段是否为旧版本的JSON元数据
+     */
+    public static boolean isLegacy(String notes) {
+        return notes != null && notes.trim().startsWith("{");
+    }
+
+    /**
+     * 编码元数据
+     * @param gid 关联的task gid
+     * @param metaInfo SqlNote.getContent()的结果
+     * @return Base64字符串，编码失败时返回旧版本的JSON字符串
+     */
+    public static String encode(String gid, JSONObject metaInfo) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            JSONObject note = metaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+            int type = note.optInt(NoteColumns.TYPE, Notes.TYPE_NOTE);
+
+            out.writeByte(FORMAT_VERSION);
+            writeString(out, gid);
+            out.writeLong(ContentHash.of(metaInfo));
+            out.writeByte(type);
+            writeVarLong(out, note.optLong(NoteColumns.ID, 0));
+            if (type != Notes.TYPE_NOTE) {
+                // 文件夹只保存id、类型和名称
+                writeString(out, note.optString(NoteColumns.SNIPPET, ""));
+            } else {
+                writeVarLong(out, note.optLong(NoteColumns.ALERTED_DATE, 0));
+                writeVarLong(out, note.optInt(NoteColumns.BG_COLOR_ID, 0));
+                writeVarLong(out, note.optLong(NoteColumns.CREATED_DATE, 0));
+                writeVarLong(out, note.optInt(NoteColumns.HAS_ATTACHMENT, 0));
+                writeVarLong(out, note.optLong(NoteColumns.MODIFIED_DATE, 0));
+                writeVarLong(out, note.optLong(NoteColumns.PARENT_ID, 0));
+                writeVarLong(out, note.optInt(NoteColumns.WIDGET_ID, 0));
+                writeVarLong(out, note.optInt(NoteColumns.WIDGET_TYPE, Notes.TYPE_WIDGET_INVALIDE));
+                writeVarLong(out, note.optLong(NoteColumns.ORIGIN_PARENT_ID, 0));
+
+                JSONArray dataArray = metaInfo.optJSONArray(GTaskStringUtils.META_HEAD_DATA);
+                int count = dataArray == null ? 0 : dataArray.length();
+                writeVarLong(out, count);
+                for (int i = 0; i < count; i++) {
+                    JSONObject data = dataArray.getJSONObject(i);
+                    String mimeType = data.optString(DataColumns.MIME_TYPE, DataConstants.NOTE);
+                    writeVarLong(out, data.optLong(DataColumns.ID, 0));
+                    writeString(out, mimeType);
+                    // 普通便签的文字就是任务名，不重复上传
+                    writeString(out, TextUtils.equals(mimeType, DataConstants.NOTE) ? ""
+                            : data.optString(DataColumns.CONTENT, ""));
+                    writeVarLong(out, data.optLong(DataColumns.DATA1, 0));
+                    writeString(out, data.optString(DataColumns.DATA3, ""));
+                }
+            }
+            out.flush();
+            return Base64.encodeToString(bytes.toByteArray(), Base64.NO_WRAP);
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to encode meta, fall back to json: " + e.toString());
+        } catch (IOException e) {
+            Log.w(TAG, "failed to encode meta, fall back to json: " + e.toString());
+        }
+
+        try {
+            metaInfo.put(GTaskStringUtils.META_HEAD_GTASK_ID, gid);
+            metaInfo.put(GTaskStringUtils.META_HEAD_CONTENT_HASH, ContentHash.of(metaInfo));
+        } catch (JSONException e) {
+            Log.e(TAG, "failed to put related gid");
+        }
+        return metaInfo.toString();
+    }
+
+    /**
+     * 获取元数据中记录的内容哈希，旧版本的记录没有哈希时返回ContentHash.UNKNOWN
+     */
+    public static long getContentHash(JSONObject metaInfo) {
+        return metaInfo == null ? ContentHash.UNKNOWN
+                : metaInfo.optLong(GTaskStringUtils.META_HEAD_CONTENT_HASH, ContentHash.UNKNOWN);
+    }
+
+    /**
+     * 解码元数据，返回与旧版本相同结构的JSON（meta_gid、meta_hash、meta_note、meta_data）；
+     * 文本便签的正文与snippet为空，由Task.getLocalJSONFromContent使用task的name补全
+     * @return 解析失败时返回null
+     */
+    public static JSONObject decode(String notes) {
+        if (notes == null) {
+            return null;
+        }
+        try {
+            if (isLegacy(notes)) {
+                return new JSONObject(notes.trim());
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    Base64.decode(notes.trim(), Base64.NO_WRAP)));
+            int version = in.readUnsignedByte();
+            if (version > FORMAT_VERSION) {
+                Log.w(TAG, "unsupported meta format version: " + version);
+                return null;
+            }
+
+            JSONObject js = new JSONObject();
+            JSONObject note = new JSONObject();
+            js.put(GTaskStringUtils.META_HEAD_GTASK_ID, readString(in));
+            if (version >= VERSION_CONTENT_HASH) {
+                js.put(GTaskStringUtils.META_HEAD_CONTENT_HASH, in.readLong());
+            }
+            int type = in.readByte();
+            note.put(NoteColumns.TYPE, type);
+            note.put(NoteColumns.ID, readVarLong(in));
+            if (type != Notes.TYPE_NOTE) {
+                note.put(NoteColumns.SNIPPET, readString(in));
+            } else {
+                note.put(NoteColumns.ALERTED_DATE, readVarLong(in));
+                note.put(NoteColumns.BG_COLOR_ID, (int) readVarLong(in));
+                note.put(NoteColumns.CREATED_DATE, readVarLong(in));
+                note.put(NoteColumns.HAS_ATTACHMENT, (int) readVarLong(in));
+                note.put(NoteColumns.MODIFIED_DATE, readVarLong(in));
+                note.put(NoteColumns.PARENT_ID, readVarLong(in));
+                note.put(NoteColumns.WIDGET_ID, (int) readVarLong(in));
+                note.put(NoteColumns.WIDGET_TYPE, (int) readVarLong(in));
+                note.put(NoteColumns.ORIGIN_PARENT_ID, readVarLong(in));
+
+                JSONArray dataArray = new JSONArray();
+                int count = (int) readVarLong(in);
+                for (int i = 0; i < count; i++) {
+                    JSONObject data = new JSONObject();
+                    data.put(DataColumns.ID, readVarLong(in));
+                    data.put(DataColumns.MIME_TYPE, readString(in));
+                    data.put(DataColumns.CONTENT, readString(in));
+                    data.put(DataColumns.DATA1, readVarLong(in));
+                    data.put(DataColumns.DATA3, readString(in));
+                    dataArray.put(data);
+                }
+                js.put(GTaskStringUtils.META_HEAD_DATA, dataArray);
+            }
+            js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+            return js;
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to decode meta: " + e.toString());
+        } catch (IOException e) {
+            Log.w(TAG, "failed to decode meta: " + e.toString());
+        } catch (IllegalArgumentException e) {
+            // base64格式错误
+            Log.w(TAG, "failed to decode meta: " + e.toString());
+        }
+        return null;
+    }
+
+    // zigzag + varint，时间戳约6字节，小整数1字节
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long v = 0;
+        int shift = 0;
+        while (shift < 64) {
+            int b = in.readUnsignedByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+            shift += 7;
+        }
+        throw new IOException("malformed varint");
+    }
+
+    // 长度前缀的UTF-8字符串，不受writeUTF的64K限制
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = (value == null ? "" : value).getBytes("UTF-8");
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = (int) readVarLong(in);
+        if (length < 0) {
+            throw new IOException("malformed string length");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.data;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONObject;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 打包的元数据：一个meta task保存一组便签（一个分片）的元数据，以gid为键
+ * notes字段格式：第一行为版本头，之后每行为"gid\t记录"，记录由MetaDataCodec编码
+ * 只有被修改过的分片才需要重新上传。
+ * 分片按序列化后的长度而不是记录数限制大小，保证notes字段不超过服务器的限制。
+ * 分片记录本次同步中写入和删除了哪些gid，上传前与刚取回的远程分片逐条合并（rebase），
+ * 其他设备在同一分片中修改的其他便签的记录不会被覆盖；同一个便签在两边都修改时以本地为准。
+ * 取回与上传之间仍有很短的窗口，其间其他设备的修改会被覆盖，下一次同步该便签时重新写入
+ */
+public class MetaDataPack extends Task {
+    private final static String TAG = MetaDataPack.class.getSimpleName();
+
+    // notes字段的最大长度（字符数），Google Tasks的notes最多8192个字符，留出余量
+    public static final int MAX_NOTES_LENGTH = 8000;
+
+    private LinkedHashMap<String, String> mRecords;//gid -> 编码后的记录
+
+    private int mLength;//序列化后notes字段的长度
+
+    private HashSet<String> mPutGids;//本次同步中写入的gid
+
+    private HashSet<String> mRemovedGids;//本次同步中删除的gid
+
+    private boolean mDirty;//是否有未上传的修改
+
+    public MetaDataPack() {
+        super();
+        mRecords = new LinkedHashMap<String, String>();
+        mLength = GTaskStringUtils.META_PACK_HEADER.length();
+        mPutGids = new HashSet<String>();
+        mRemovedGids = new HashSet<String>();
+        mDirty = false;
+        setName(GTaskStringUtils.META_PACK_NAME);
+    }
+
+    /*
+     * 功能描述：判断远程task是否为打包的元数据
+     */
+    public static boolean isMetaPack(JSONObject js) {
+        return js != null && GTaskStringUtils.META_PACK_NAME.equals(
+                js.optString(GTaskStringUtils.GTASK_JSON_NAME));
+    }
+
+    /*
+     * 功能描述：写入一个便签的元数据，内容未变化时不标记为修改
+     */
+    public void put(String gid, JSONObject metaInfo) {
+        putRecord(gid, MetaDataCodec.encode(gid, metaInfo));
+    }
+
+    /*
+     * 功能描述：写入已经编码好的记录（用于从旧版本的单条元数据迁移）
+     */
+    public void putRecord(String gid, String record) {
+        String old = mRecords.put(gid, record);
+        if (old == null || !old.equals(record)) {
+            mLength += lineLength(gid, record) - (old == null ? 0 : lineLength(gid, old));
+            mPutGids.add(gid);
+            mRemovedGids.remove(gid);
+            mDirty = true;
+        }
+    }
+
+    public boolean remove(String gid) {
+        String old = mRecords.remove(gid);
+        if (old != null) {
+            mLength -= lineLength(gid, old);
+            mPutGids.remove(gid);
+            mRemovedGids.add(gid);
+            mDirty = true;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * 功能描述：获取编码后的记录，不存在时返回null
+     */
+    public String getRecord(String gid) {
+        return mRecords.get(gid);
+    }
+
+    /*
+     * 功能描述：获取解码后的元数据，不存在或解析失败时返回null
+     */
+    public JSONObject get(String gid) {
+        String record = mRecords.get(gid);
+        return record == null ? null : MetaDataCodec.decode(record);
+    }
+
+    public boolean contains(String gid) {
+        return mRecords.containsKey(gid);
+    }
+
+    public Collection<String> getGids() {
+        return mRecords.keySet();
+    }
+
+    public int size() {
+        return mRecords.size();
+    }
+
+    /*
+     * 功能描述：写入该记录后notes字段是否仍在长度限制内；空分片总能容纳一条记录
+     */
+    public boolean canHold(String gid, String record) {
+        String old = mRecords.get(gid);
+        int length = mLength + lineLength(gid, record) - (old == null ? 0 : lineLength(gid, old));
+        return length <= MAX_NOTES_LENGTH || mRecords.isEmpty()
+                || (old != null && mRecords.size() == 1);
+    }
+
+    /*
+     * 功能描述：合并后超过长度限制、并且有本次写入的记录可以移走时，返回其中一个gid，否则返回null
+     */
+    public String getOverflowGid() {
+        if (mLength <= MAX_NOTES_LENGTH || mRecords.size() <= 1) {
+            return null;
+        }
+        for (String gid : mPutGids) {
+            if (mRecords.containsKey(gid)) {
+                return gid;
+            }
+        }
+        return null;
+    }
+
+    /*
+     * 功能描述：以刚取回的远程分片为基础，重新应用本次同步中的写入和删除，
+     * 其他设备写入的其他记录保留
+     */
+    public void rebase(MetaDataPack remote) {
+        LinkedHashMap<String, String> records = new LinkedHashMap<String, String>(remote.mRecords);
+        for (String gid : mRemovedGids) {
+            records.remove(gid);
+        }
+        for (String gid : mPutGids) {
+            records.put(gid, mRecords.get(gid));
+        }
+        mRecords = records;
+        mLength = computeLength();
+        mDirty = true;
+    }
+
+    public boolean isDirty() {
+        return mDirty;
+    }
+
+    /*
+     * 功能描述：把记录序列化到notes字段，上传前调用
+     */
+    public void pack() {
+        StringBuilder sb = new StringBuilder(GTaskStringUtils.META_PACK_HEADER);
+        for (Map.Entry<String, String> entry : mRecords.entrySet()) {
+            sb.append('\n').append(entry.getKey()).append('\t').append(entry.getValue());
+        }
+        setNotes(sb.toString());
+        mPutGids.clear();
+        mRemovedGids.clear();
+        mDirty = false;
+    }
+
+    @Override
+    public boolean isWorthSaving() {
+        return getNotes() != null;
+    }
+
+    @Override
+    public void setContentByRemoteJSON(JSONObject js) {
+        super.setContentByRemoteJSON(js);
+        mRecords.clear();
+        mLength = GTaskStringUtils.META_PACK_HEADER.length();
+        mPutGids.clear();
+        mRemovedGids.clear();
+        mDirty = false;
+        String notes = getNotes();
+        if (notes == null) {
+            return;
+        }
+
+        String[] lines = notes.split("\n");
+        if (lines.length == 0 || !lines[0].trim().equals(GTaskStringUtils.META_PACK_HEADER)) {
+            Log.w(TAG, "unknown meta pack format");
+            return;
+        }
+        for (int i = 1; i < lines.length; i++) {
+            int tab = lines[i].indexOf('\t');
+            if (tab <= 0) {
+                Log.w(TAG, "skip malformed meta pack line");
+                continue;
+            }
+            mRecords.put(lines[i].substring(0, tab).intern(), lines[i].substring(tab + 1).trim());
+        }
+        mLength = computeLength();
+    }
+
+    private int computeLength() {
+        int length = GTaskStringUtils.META_PACK_HEADER.length();
+        for (Map.Entry<String, String> entry : mRecords.entrySet()) {
+            length += lineLength(entry.getKey(), entry.getValue());
+        }
+        return length;
+    }
+
+    //一条记录在notes字段中占的长度："\n" + gid + "\t" + 记录
+    private static int lineLength(String gid, String record) {
+        return gid.length() + record.length() + 2;
+    }
+
+    @Override
+    public void setContentByLocalJSON(JSONObject js) {
+        // this function should not be called
+        throw new IllegalAccessError("MetaDataPack:setContentByLocalJSON should not be called");
+    }
+
+    @Override
+    public JSONObject getLocalJSONFromContent() {
+        throw new IllegalAccessError("MetaDataPack:getLocalJSONFromContent should not be called");
+    }
+
+    @Override
+    public int getSyncAction(Cursor c) {
+        throw new IllegalAccessError("MetaDataPack:getSyncAction should not be called");
+    }
+}
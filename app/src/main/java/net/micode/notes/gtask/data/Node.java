@@ -17,8 +17,12 @@
 package net.micode.notes.gtask.data;
 
 import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.JsonWriter;
 
 import org.json.JSONObject;
+
+import java.io.IOException;
 /**
         * 应该是同步操作的基础数据类型，定义了相关指示同步操作的常量
  * 关键字：abstract
@@ -44,6 +48,14 @@ public abstract class Node {
 // 同步出现冲突
     public static final int SYNC_ACTION_ERROR = 8;
     // 同步出现错误
+
+    // 与上一次同步的远程状态相比有修改的字段，更新操作只上传这些字段
+    public static final int FIELD_NAME = 1;
+
+    public static final int FIELD_NOTES = 1 << 1;
+
+    public static final int FIELD_DELETED = 1 << 2;
+
     private String mGid;
 
     private String mName;
@@ -52,16 +64,21 @@ public abstract class Node {
     //记录最后一次修改时间
     private boolean mDeleted;
     //表征是否被删除
+    private int mDirtyFields;
+    //有修改的字段，FIELD_*的组合
     public Node() {
         mGid = null;
         mName = "";
         mLastModified = 0;
         mDeleted = false;
+        mDirtyFields = 0;
     }
 
-    public abstract JSONObject getCreateAction(int actionId);
+    // 创建和更新操作直接写入请求的JSON流，不再生成中间的JSONObject
+    // 同一个请求可能被写出多次（计算长度、重试），写出的内容只能取决于节点当前的状态和actionId
+    public abstract void writeCreateAction(JsonWriter writer, int actionId) throws IOException;
 
-    public abstract JSONObject getUpdateAction(int actionId);
+    public abstract void writeUpdateAction(JsonWriter writer, int actionId) throws IOException;
 
     public abstract void setContentByRemoteJSON(JSONObject js);
 
@@ -72,10 +89,14 @@ public abstract class Node {
     public abstract int getSyncAction(Cursor c);
 
     public void setGid(String gid) {
-        this.mGid = gid;
+        // gid会在多个映射中作为键，intern后共用同一个实例
+        this.mGid = gid == null ? null : gid.intern();
     }
 
     public void setName(String name) {
+        if (!TextUtils.equals(this.mName, name)) {
+            markFieldDirty(FIELD_NAME);
+        }
         this.mName = name;
     }
 
@@ -84,9 +105,34 @@ public abstract class Node {
     }
 
     public void setDeleted(boolean deleted) {
+        if (this.mDeleted != deleted) {
+            markFieldDirty(FIELD_DELETED);
+        }
         this.mDeleted = deleted;
     }
 
+    protected void markFieldDirty(int field) {
+        this.mDirtyFields |= field;
+    }
+
+    public boolean isFieldDirty(int field) {
+        return (this.mDirtyFields & field) != 0;
+    }
+
+    /*
+     * 功能描述：是否有需要上传的修改，没有修改的节点不需要发送更新操作
+     */
+    public boolean hasDirtyFields() {
+        return this.mDirtyFields != 0;
+    }
+
+    /*
+     * 功能描述：节点内容与远程一致时调用，即从远程读取之后以及创建、更新操作提交成功之后
+     */
+    public void clearDirtyFields() {
+        this.mDirtyFields = 0;
+    }
+
     public String getGid() {
         return this.mGid;
     }
@@ -154,6 +154,20 @@ public class SqlData {
         return js;
     }
 
+    /**
+     * 获取需要同步的内容（不含ID），用于计算内容哈希，新建的数据项也可以调用。
+     * @return JSON数据对象
+     * @throws JSONException JSON构造异常
+     */
+    public JSONObject getSyncContent() throws JSONException {
+        JSONObject js = new JSONObject();
+        js.put(DataColumns.MIME_TYPE, mDataMimeType);
+        js.put(DataColumns.CONTENT, mDataContent);
+        js.put(DataColumns.DATA1, mDataContentData1);
+        js.put(DataColumns.DATA3, mDataContentData3);
+        return js;
+    }
+
     /**
      * 提交数据到数据库。
      * @param noteId 所属便签ID
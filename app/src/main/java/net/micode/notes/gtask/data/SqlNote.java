@@ -32,9 +32,10 @@ import android.util.Log;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.SyncStateColumns;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.tool.GTaskStringUtils;
-import net.micode.notes.tool.ResourceParser;
+import net.micode.notes.tool.LongHashSet;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -51,16 +52,17 @@ public class SqlNote {
     private static final String TAG = SqlNote.class.getSimpleName();
 
     private static final int INVALID_ID = -99999;
-//集合了interface NoteColumns中所有SF常量（17个）
+//集合了interface NoteColumns中所有SF常量（18个），需要通过SyncConfig.getSyncNoteUri()查询，
+//其中SYNC_ID、LOCAL_MODIFIED、GTASK_ID、SYNC_HASH是该账号的同步状态
     public static final String[] PROJECTION_NOTE = new String[] {
             NoteColumns.ID, NoteColumns.ALERTED_DATE, NoteColumns.BG_COLOR_ID,
             NoteColumns.CREATED_DATE, NoteColumns.HAS_ATTACHMENT, NoteColumns.MODIFIED_DATE,
             NoteColumns.NOTES_COUNT, NoteColumns.PARENT_ID, NoteColumns.SNIPPET, NoteColumns.TYPE,
             NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE, NoteColumns.SYNC_ID,
             NoteColumns.LOCAL_MODIFIED, NoteColumns.ORIGIN_PARENT_ID, NoteColumns.GTASK_ID,
-            NoteColumns.VERSION
+            NoteColumns.VERSION, NoteColumns.SYNC_HASH
     };
-    //以下设置17个列的编号
+    //以下设置18个列的编号
     public static final int ID_COLUMN = 0;
 
     public static final int ALERTED_DATE_COLUMN = 1;
@@ -94,9 +96,13 @@ public class SqlNote {
     public static final int GTASK_ID_COLUMN = 15;
 
     public static final int VERSION_COLUMN = 16;
+
+    public static final int SYNC_HASH_COLUMN = 17;
 //以下定义了17个内部的变量，其中12个可以由content中获得，5个需要初始化为0或者new
     private Context mContext;
 
+    private SyncConfig mConfig;
+
     private ContentResolver mContentResolver;
 
     private boolean mIsCreate;
@@ -127,21 +133,26 @@ public class SqlNote {
 
     private long mVersion;
 
+    private long mSyncHash;
+
     private ContentValues mDiffNoteValues;
 
+    private ContentValues mDiffSyncValues;//该账号的同步状态的修改，写入sync_state表
+
     private ArrayList<SqlData> mDataList;
 /*
      * 功能描述：构造函数
      * 参数注解： mIsCreate用于标示构造方式
 */
-    //构造函数只有context，对所有的变量进行初始化
-    public SqlNote(Context context) {
+    //构造函数只有context和同步设置快照，对所有的变量进行初始化
+    public SqlNote(Context context, SyncConfig config) {
         mContext = context;
+        mConfig = config;
         mContentResolver = context.getContentResolver();
         mIsCreate = true;
         mId = INVALID_ID;
         mAlertDate = 0;
-        mBgColorId = ResourceParser.getDefaultBgId(context);
+        mBgColorId = config.getDefaultBgId();
         mCreatedDate = System.currentTimeMillis();//调用系统函数获得创建时间
         mHasAttachment = 0;
         mModifiedDate = System.currentTimeMillis();//最后一次修改时间初始化为创建时间
@@ -152,7 +163,9 @@ public class SqlNote {
         mWidgetType = Notes.TYPE_WIDGET_INVALIDE;
         mOriginParent = 0;
         mVersion = 0;
+        mSyncHash = ContentHash.UNKNOWN;
         mDiffNoteValues = new ContentValues();
+        mDiffSyncValues = new ContentValues();
         mDataList = new ArrayList<SqlData>();
     }
     /*
@@ -160,8 +173,9 @@ public class SqlNote {
      * 参数注解： mIsCreate用于标示构造方式
      */
 //构造函数有context和一个数据库的cursor，多数变量通过cursor指向的一条记录直接进行初始化
-    public SqlNote(Context context, Cursor c) {
+    public SqlNote(Context context, Cursor c, SyncConfig config) {
         mContext = context;
+        mConfig = config;
         mContentResolver = context.getContentResolver();
         mIsCreate = false;
         loadFromCursor(c);
@@ -169,13 +183,15 @@ public class SqlNote {
         if (mType == Notes.TYPE_NOTE)
             loadDataContent();
         mDiffNoteValues = new ContentValues();
+        mDiffSyncValues = new ContentValues();
     }
     /*
      * 功能描述：构造函数
      * 参数注解： mIsCreate用于标示构造方式
      */
-    public SqlNote(Context context, long id) {
+    public SqlNote(Context context, long id, SyncConfig config) {
         mContext = context;
+        mConfig = config;
         mContentResolver = context.getContentResolver();
         mIsCreate = false;
         loadFromCursor(id);
@@ -183,7 +199,7 @@ public class SqlNote {
         if (mType == Notes.TYPE_NOTE)
             loadDataContent();
         mDiffNoteValues = new ContentValues();
-
+        mDiffSyncValues = new ContentValues();
     }
     /*
      * 功能描述：通过id从光标处加载数据
@@ -191,7 +207,7 @@ public class SqlNote {
     private void loadFromCursor(long id) {
         Cursor c = null;
         try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, PROJECTION_NOTE, "(_id=?)",
+            c = mContentResolver.query(mConfig.getSyncNoteUri(), PROJECTION_NOTE, "(_id=?)",
                     new String[] {
                         String.valueOf(id)
                     }, null);//通过id获得对应的ContentResolver中的cursor
@@ -225,6 +241,7 @@ public class SqlNote {
         mWidgetId = c.getInt(WIDGET_ID_COLUMN);
         mWidgetType = c.getInt(WIDGET_TYPE_COLUMN);
         mVersion = c.getLong(VERSION_COLUMN);
+        mSyncHash = c.getLong(SYNC_HASH_COLUMN);
     }
     /*
      * 功能描述：通过content机制获取共享数据并加载到数据库当前游标处
@@ -294,7 +311,7 @@ public class SqlNote {
                 mAlertDate = alertDate;
 
                 int bgColorId = note.has(NoteColumns.BG_COLOR_ID) ? note
-                        .getInt(NoteColumns.BG_COLOR_ID) : ResourceParser.getDefaultBgId(mContext);
+                        .getInt(NoteColumns.BG_COLOR_ID) : mConfig.getDefaultBgId();
                 if (mIsCreate || mBgColorId != bgColorId) {
                     mDiffNoteValues.put(NoteColumns.BG_COLOR_ID, bgColorId);
                 }
@@ -441,6 +458,48 @@ public class SqlNote {
         }
         return null;
     }
+    /*
+     * 功能描述：计算当前需要同步的内容的哈希，与Task.getContentHash()的结果可以直接比较
+     * 新建的便签也可以计算，不包含id等仅本地有效的字段
+     */
+    public long getContentHash() {
+        try {
+            JSONObject js = new JSONObject();
+            JSONObject note = new JSONObject();
+            note.put(NoteColumns.TYPE, mType);
+            note.put(NoteColumns.SNIPPET, mSnippet);
+            note.put(NoteColumns.ALERTED_DATE, mAlertDate);
+            note.put(NoteColumns.BG_COLOR_ID, mBgColorId);
+            note.put(NoteColumns.HAS_ATTACHMENT, mHasAttachment);
+            js.put(GTaskStringUtils.META_HEAD_NOTE, note);
+
+            if (mType == Notes.TYPE_NOTE) {
+                JSONArray dataArray = new JSONArray();
+                for (SqlData sqlData : mDataList) {
+                    dataArray.put(sqlData.getSyncContent());
+                }
+                js.put(GTaskStringUtils.META_HEAD_DATA, dataArray);
+            }
+            return ContentHash.of(js);
+        } catch (JSONException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+        }
+        return ContentHash.UNKNOWN;
+    }
+    /*
+     * 功能描述：获取上一次同步成功时的内容哈希，0表示未知
+     */
+    public long getSyncHash() {
+        return mSyncHash;
+    }
+    /*
+     * 功能描述：记录本次同步后的内容哈希
+     */
+    public void setSyncHash(long hash) {
+        mSyncHash = hash;
+        mDiffSyncValues.put(SyncStateColumns.SYNC_HASH, hash);
+    }
     /*
      * 功能描述：给当前id设置父id
      */
@@ -454,25 +513,33 @@ public class SqlNote {
      */
 
     public void setGtaskId(String gid) {
-        mDiffNoteValues.put(NoteColumns.GTASK_ID, gid);
+        mDiffSyncValues.put(SyncStateColumns.GTASK_ID, gid);
     }
     /*
      * 功能描述：给当前id设置同步id
      */
     public void setSyncId(long syncId) {
-        mDiffNoteValues.put(NoteColumns.SYNC_ID, syncId);
+        mDiffSyncValues.put(SyncStateColumns.SYNC_ID, syncId);
     }
     /*
      * 功能描述：初始化本地修改，即撤销所有当前修改
+     * 便签上的标记和该账号同步状态中的标记一起清除，其他账号的标记不受影响
      */
 
     public void resetLocalModified() {
         mDiffNoteValues.put(NoteColumns.LOCAL_MODIFIED, 0);
+        mDiffSyncValues.put(SyncStateColumns.LOCAL_MODIFIED, 0);
     }
 /*功能描述：获得当前id*/
     public long getId() {
         return mId;
     }
+/*功能描述：把数据项的id加入ids，提交之后调用*/
+    public void collectDataIds(LongHashSet ids) {
+        for (SqlData sqlData : mDataList) {
+            ids.add(sqlData.getId());
+        }
+    }
 /*功能描述：获得当前id的父id*/
     public long getParentId() {
         return mParentId;
@@ -516,6 +583,7 @@ public class SqlNote {
                     sqlData.commit(mId, false, -1);
                 }
             }
+            commitSyncState();
         } else {
             if (mId <= 0 && mId != Notes.ID_ROOT_FOLDER && mId != Notes.ID_CALL_RECORD_FOLDER) {
                 Log.e(TAG, "No such note");
@@ -538,8 +606,11 @@ public class SqlNote {
                 }
                 if (result == 0) {
                     Log.w(TAG, "there is no update. maybe user updates note when syncing");
+                    // 保留原来的同步状态，本地的修改在下次同步时上传
+                    mDiffSyncValues.clear();
                 }
             }
+            commitSyncState();
 
             if (mType == Notes.TYPE_NOTE) {
                 for (SqlData sqlData : mDataList) {
@@ -556,4 +627,16 @@ public class SqlNote {
         mDiffNoteValues.clear();
         mIsCreate = false;
     }
+    /*
+     * 功能描述：把同步状态的修改写入sync_state表（不存在时插入），不会改动便签本身和它的版本号
+     */
+    private void commitSyncState() {
+        if (mDiffSyncValues.size() == 0) {
+            return;
+        }
+        mDiffSyncValues.put(SyncStateColumns.ACCOUNT, mConfig.getAccountName());
+        mDiffSyncValues.put(SyncStateColumns.NOTE_ID, mId);
+        mContentResolver.insert(Notes.CONTENT_SYNC_STATE_URI, mDiffSyncValues);
+        mDiffSyncValues.clear();
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.data;
+
+import android.content.Context;
+import android.net.Uri;
+
+import net.micode.notes.data.Notes;
+import net.micode.notes.data.Notes.SyncStateColumns;
+import net.micode.notes.tool.ResourceParser;
+
+/**
+ * 同步时使用的设置快照
+ * 功能：在每次同步开始时读取一次首选项，之后创建SqlNote时不再逐个读取SharedPreferences；
+ * 同时记录同步的账号，便签的同步状态按账号读写
+ */
+public class SyncConfig {
+    private final boolean mRandomBgColor;//是否启用随机背景色
+
+    private final String mAccountName;//同步的账号
+
+    private final Uri mSyncNoteUri;//带账号参数的便签查询uri
+
+    public SyncConfig(Context context, String accountName) {
+        mRandomBgColor = ResourceParser.isRandomBgColorEnabled(context);
+        mAccountName = accountName;
+        mSyncNoteUri = Notes.CONTENT_SYNC_NOTE_URI.buildUpon()
+                .appendQueryParameter(SyncStateColumns.ACCOUNT, accountName).build();
+    }
+
+    public String getAccountName() {
+        return mAccountName;
+    }
+
+    /*
+     * 功能描述：查询便签及其在该账号下同步状态的uri，配合SqlNote.PROJECTION_NOTE使用
+     */
+    public Uri getSyncNoteUri() {
+        return mSyncNoteUri;
+    }
+
+    /*
+     * 功能描述：新建或缺少背景色的便签使用的背景色
+     */
+    public int getDefaultBgId() {
+        return ResourceParser.getDefaultBgId(mRandomBgColor);
+    }
+}
@@ -18,6 +18,7 @@ package net.micode.notes.gtask.data;
 
 import android.database.Cursor;
 import android.text.TextUtils;
+import android.util.JsonWriter;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
@@ -31,6 +32,8 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 
 public class Task extends Node {
     private static final String TAG = Task.class.getSimpleName();
@@ -39,7 +42,9 @@ public class Task extends Node {
 
     private String mNotes;
 
-    private JSONObject mMetaInfo;//将在实例中存储数据的类型
+    private String mMetaRecord;//编码后的元数据记录，需要时才解码
+
+    private JSONObject mMetaInfo;//解码后的元数据，处理完后由releaseMetaInfo释放
 
     private Task mPriorSibling;//对应的优先兄弟Task的指针
 
@@ -51,88 +56,81 @@ public class Task extends Node {
         mNotes = null;
         mPriorSibling = null;//TaskList中当前Task前面的Task指针
         mParent = null;//当前Task所在的TaskList
+        mMetaRecord = null;
         mMetaInfo = null;
     }
 
-    public JSONObject getCreateAction(int actionId) {
-        JSONObject js = new JSONObject();
+    public void writeCreateAction(JsonWriter writer, int actionId) throws IOException {
+        writer.beginObject();
 
-        try {
-            // action_type
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
-                    GTaskStringUtils.GTASK_JSON_ACTION_TYPE_CREATE);
-
-            // action_id
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, actionId);
-
-            // index
-            js.put(GTaskStringUtils.GTASK_JSON_INDEX, mParent.getChildTaskIndex(this));
-
-            // entity_delta
-            JSONObject entity = new JSONObject();
-            entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
-            entity.put(GTaskStringUtils.GTASK_JSON_CREATOR_ID, "null");
-            entity.put(GTaskStringUtils.GTASK_JSON_ENTITY_TYPE,
-                    GTaskStringUtils.GTASK_JSON_TYPE_TASK);
-            if (getNotes() != null) {
-                entity.put(GTaskStringUtils.GTASK_JSON_NOTES, getNotes());
-            }
-            js.put(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA, entity);
+        // action_type
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_TYPE)
+                .value(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_CREATE);
 
-            // parent_id
-            js.put(GTaskStringUtils.GTASK_JSON_PARENT_ID, mParent.getGid());
+        // action_id
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_ID).value(actionId);
 
-            // dest_parent_type
-            js.put(GTaskStringUtils.GTASK_JSON_DEST_PARENT_TYPE,
-                    GTaskStringUtils.GTASK_JSON_TYPE_GROUP);
+        // index
+        writer.name(GTaskStringUtils.GTASK_JSON_INDEX).value(mParent.getChildTaskIndex(this));
 
-            // list_id
-            js.put(GTaskStringUtils.GTASK_JSON_LIST_ID, mParent.getGid());
+        // entity_delta
+        writer.name(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA);
+        writer.beginObject();
+        writer.name(GTaskStringUtils.GTASK_JSON_NAME).value(getName());
+        writer.name(GTaskStringUtils.GTASK_JSON_CREATOR_ID).value("null");
+        writer.name(GTaskStringUtils.GTASK_JSON_ENTITY_TYPE)
+                .value(GTaskStringUtils.GTASK_JSON_TYPE_TASK);
+        if (getNotes() != null) {
+            writer.name(GTaskStringUtils.GTASK_JSON_NOTES).value(getNotes());
+        }
+        writer.endObject();
 
-            // prior_sibling_id
-            if (mPriorSibling != null) {
-                js.put(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID, mPriorSibling.getGid());
-            }
+        // parent_id
+        writer.name(GTaskStringUtils.GTASK_JSON_PARENT_ID).value(mParent.getGid());
 
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("fail to generate task-create jsonobject");
+        // dest_parent_type
+        writer.name(GTaskStringUtils.GTASK_JSON_DEST_PARENT_TYPE)
+                .value(GTaskStringUtils.GTASK_JSON_TYPE_GROUP);
+
+        // list_id
+        writer.name(GTaskStringUtils.GTASK_JSON_LIST_ID).value(mParent.getGid());
+
+        // prior_sibling_id
+        if (mPriorSibling != null) {
+            writer.name(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID).value(mPriorSibling.getGid());
         }
 
-        return js;
+        writer.endObject();
     }
 
-    public JSONObject getUpdateAction(int actionId) {
-        JSONObject js = new JSONObject();
+    public void writeUpdateAction(JsonWriter writer, int actionId) throws IOException {
+        writer.beginObject();
 
-        try {
-            // action_type
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
-                    GTaskStringUtils.GTASK_JSON_ACTION_TYPE_UPDATE);
-
-            // action_id
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, actionId);
+        // action_type
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_TYPE)
+                .value(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_UPDATE);
 
-            // id
-            js.put(GTaskStringUtils.GTASK_JSON_ID, getGid());
+        // action_id
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_ID).value(actionId);
 
-            // entity_delta
-            JSONObject entity = new JSONObject();
-            entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
-            if (getNotes() != null) {
-                entity.put(GTaskStringUtils.GTASK_JSON_NOTES, getNotes());
-            }
-            entity.put(GTaskStringUtils.GTASK_JSON_DELETED, getDeleted());
-            js.put(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA, entity);
+        // id
+        writer.name(GTaskStringUtils.GTASK_JSON_ID).value(getGid());
 
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("fail to generate task-update jsonobject");
+        // entity_delta，只包含上次同步后变化的字段
+        writer.name(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA);
+        writer.beginObject();
+        if (isFieldDirty(FIELD_NAME)) {
+            writer.name(GTaskStringUtils.GTASK_JSON_NAME).value(getName());
         }
+        if (isFieldDirty(FIELD_NOTES) && getNotes() != null) {
+            writer.name(GTaskStringUtils.GTASK_JSON_NOTES).value(getNotes());
+        }
+        if (isFieldDirty(FIELD_DELETED)) {
+            writer.name(GTaskStringUtils.GTASK_JSON_DELETED).value(getDeleted());
+        }
+        writer.endObject();
 
-        return js;
+        writer.endObject();
     }
 
     public void setContentByRemoteJSON(JSONObject js) {
@@ -167,6 +165,9 @@ public class Task extends Node {
                 if (js.has(GTaskStringUtils.GTASK_JSON_COMPLETED)) {
                     setCompleted(js.getBoolean(GTaskStringUtils.GTASK_JSON_COMPLETED));
                 }
+
+                // 现在内容与远程相同
+                clearDirtyFields();
             } catch (JSONException e) {
                 Log.e(TAG, e.toString());
                 e.printStackTrace();
@@ -206,8 +207,9 @@ public class Task extends Node {
 
     public JSONObject getLocalJSONFromContent() {
         String name = getName();
+        JSONObject metaInfo = getMetaInfo();
         try {
-            if (mMetaInfo == null) {
+            if (metaInfo == null) {
                 // new task created from web
                 if (name == null) {
                     Log.w(TAG, "the note seems to be an empty one");
@@ -226,8 +228,8 @@ public class Task extends Node {
                 return js;
             } else {
                 // synced task
-                JSONObject note = mMetaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
-                JSONArray dataArray = mMetaInfo.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+                JSONObject note = metaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+                JSONArray dataArray = metaInfo.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
 
                 for (int i = 0; i < dataArray.length(); i++) {
                     JSONObject data = dataArray.getJSONObject(i);
@@ -237,8 +239,10 @@ public class Task extends Node {
                     }
                 }
 
+                // 紧凑的元数据不保存摘要，摘要与任务名相同
+                note.put(NoteColumns.SNIPPET, getName());
                 note.put(NoteColumns.TYPE, Notes.TYPE_NOTE);
-                return mMetaInfo;
+                return metaInfo;
             }
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
@@ -249,20 +253,61 @@ public class Task extends Node {
 
     public void setMetaInfo(MetaData metaData) {
         if (metaData != null && metaData.getNotes() != null) {
-            try {
-                mMetaInfo = new JSONObject(metaData.getNotes());
-            } catch (JSONException e) {
-                Log.w(TAG, e.toString());
-                mMetaInfo = null;
+            // 同时支持紧凑格式和旧的json格式
+            setMetaRecord(metaData.getNotes());
+        }
+    }
+
+    /*
+     * 功能描述：设置编码后的元数据记录（MetaDataCodec格式或旧版本的JSON字符串）
+     */
+    public void setMetaRecord(String record) {
+        mMetaRecord = record;
+        mMetaInfo = null;
+    }
+
+    /*
+     * 功能描述：获取解码后的元数据，第一次使用时才解码
+     */
+    private JSONObject getMetaInfo() {
+        if (mMetaInfo == null && mMetaRecord != null) {
+            mMetaInfo = MetaDataCodec.decode(mMetaRecord);
+            if (mMetaInfo == null) {
+                Log.w(TAG, "failed to decode meta info");
+                mMetaRecord = null;
             }
         }
+        return mMetaInfo;
+    }
+
+    /*
+     * 功能描述：释放解码后的元数据，同步完一个task后调用，编码后的记录仍然保留
+     */
+    public void releaseMetaInfo() {
+        mMetaInfo = null;
+    }
+
+    /*
+     * 功能描述：计算远程内容的哈希，与SqlNote.getContentHash()的结果可以直接比较
+     */
+    public long getContentHash() {
+        return ContentHash.of(getLocalJSONFromContent());
     }
 
     public int getSyncAction(Cursor c) {
+        return getSyncAction(c, null);
+    }
+
+    /*
+     * 功能描述：判断同步操作
+     * 参数注解：localParentGid为本地便签所在文件夹对应的gid，为null时不做内容哈希的比较
+     */
+    public int getSyncAction(Cursor c, String localParentGid) {
         try {
             JSONObject noteInfo = null;
-            if (mMetaInfo != null && mMetaInfo.has(GTaskStringUtils.META_HEAD_NOTE)) {
-                noteInfo = mMetaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+            JSONObject metaInfo = getMetaInfo();
+            if (metaInfo != null && metaInfo.has(GTaskStringUtils.META_HEAD_NOTE)) {
+                noteInfo = metaInfo.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
             }
 
             if (noteInfo == null) {
@@ -286,6 +331,9 @@ public class Task extends Node {
                 if (c.getLong(SqlNote.SYNC_ID_COLUMN) == getLastModified()) {
                     // no update both side
                     return SYNC_ACTION_NONE;
+                } else if (isSameAsLastSync(c, localParentGid)) {
+                    // 远程有修改，但内容与本地相同
+                    return SYNC_ACTION_NONE;
                 } else {
                     // apply remote to local
                     return SYNC_ACTION_UPDATE_LOCAL;
@@ -311,8 +359,27 @@ public class Task extends Node {
         return SYNC_ACTION_ERROR;
     }
 
+    /*
+     * 功能描述：判断远程内容与本地上一次同步时的内容是否相同（包括所在的文件夹）
+     */
+    private boolean isSameAsLastSync(Cursor c, String localParentGid) {
+        long syncHash = c.getLong(SqlNote.SYNC_HASH_COLUMN);
+        if (syncHash == ContentHash.UNKNOWN || localParentGid == null || mParent == null
+                || !localParentGid.equals(mParent.getGid())) {
+            return false;
+        }
+
+        // 先比较元数据中的哈希，其他客户端上传时它会变化
+        long metaHash = MetaDataCodec.getContentHash(getMetaInfo());
+        if (metaHash != ContentHash.UNKNOWN && metaHash != syncHash) {
+            return false;
+        }
+        // 在网页上修改任务名时元数据不变，仍需比较任务名
+        return getContentHash() == syncHash;
+    }
+
     public boolean isWorthSaving() {
-        return mMetaInfo != null || (getName() != null && getName().trim().length() > 0)
+        return mMetaRecord != null || (getName() != null && getName().trim().length() > 0)
                 || (getNotes() != null && getNotes().trim().length() > 0);
     }
 
@@ -321,6 +388,9 @@ public class Task extends Node {
     }
 
     public void setNotes(String notes) {
+        if (!TextUtils.equals(this.mNotes, notes)) {
+            markFieldDirty(FIELD_NOTES);
+        }
         this.mNotes = notes;
     }
 
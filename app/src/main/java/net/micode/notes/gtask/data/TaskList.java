@@ -17,6 +17,7 @@
 package net.micode.notes.gtask.data;
 
 import android.database.Cursor;
+import android.util.JsonWriter;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
@@ -27,6 +28,7 @@ import net.micode.notes.tool.GTaskStringUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 
@@ -43,72 +45,64 @@ public class TaskList extends Node {
         mIndex = 1;
     }
     /* (non-Javadoc)
-     * @see net.micode.notes.gtask.data.Node#getCreateAction(int)
-     * 生成并返回一个包含了一定数据的JSONObject实体
+     * @see net.micode.notes.gtask.data.Node#writeCreateAction(JsonWriter, int)
+     * 把创建任务列表的操作直接写入请求的JSON流
      */
 
-    public JSONObject getCreateAction(int actionId) {
-        JSONObject js = new JSONObject();
+    public void writeCreateAction(JsonWriter writer, int actionId) throws IOException {
+        writer.beginObject();
 
-        try {
-            // action_type
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
-                    GTaskStringUtils.GTASK_JSON_ACTION_TYPE_CREATE);
-
-            // action_id
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, actionId);
+        // action_type
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_TYPE)
+                .value(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_CREATE);
 
-            // index
-            js.put(GTaskStringUtils.GTASK_JSON_INDEX, mIndex);
+        // action_id
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_ID).value(actionId);
 
-            // entity_delta
-            JSONObject entity = new JSONObject();//entity实体
-            entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
-            entity.put(GTaskStringUtils.GTASK_JSON_CREATOR_ID, "null");
-            entity.put(GTaskStringUtils.GTASK_JSON_ENTITY_TYPE,
-                    GTaskStringUtils.GTASK_JSON_TYPE_GROUP);
-            js.put(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA, entity);
+        // index
+        writer.name(GTaskStringUtils.GTASK_JSON_INDEX).value(mIndex);
 
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("fail to generate tasklist-create jsonobject");
-        }
+        // entity_delta
+        writer.name(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA);
+        writer.beginObject();//entity实体
+        writer.name(GTaskStringUtils.GTASK_JSON_NAME).value(getName());
+        writer.name(GTaskStringUtils.GTASK_JSON_CREATOR_ID).value("null");
+        writer.name(GTaskStringUtils.GTASK_JSON_ENTITY_TYPE)
+                .value(GTaskStringUtils.GTASK_JSON_TYPE_GROUP);
+        writer.endObject();
 
-        return js;
+        writer.endObject();
     }
     /* (non-Javadoc)
-     * @see net.micode.notes.gtask.data.Node#getUpdateAction(int)
-     * 生成并返回一个包含了一定数据的JSONObject实体
+     * @see net.micode.notes.gtask.data.Node#writeUpdateAction(JsonWriter, int)
+     * 把更新任务列表的操作直接写入请求的JSON流，只包含有修改的字段
      */
 
-    public JSONObject getUpdateAction(int actionId) {
-        JSONObject js = new JSONObject();
+    public void writeUpdateAction(JsonWriter writer, int actionId) throws IOException {
+        writer.beginObject();
 
-        try {
-            // action_type
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
-                    GTaskStringUtils.GTASK_JSON_ACTION_TYPE_UPDATE);
-
-            // action_id
-            js.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, actionId);
+        // action_type
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_TYPE)
+                .value(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_UPDATE);
 
-            // id
-            js.put(GTaskStringUtils.GTASK_JSON_ID, getGid());
+        // action_id
+        writer.name(GTaskStringUtils.GTASK_JSON_ACTION_ID).value(actionId);
 
-            // entity_delta
-            JSONObject entity = new JSONObject();
-            entity.put(GTaskStringUtils.GTASK_JSON_NAME, getName());
-            entity.put(GTaskStringUtils.GTASK_JSON_DELETED, getDeleted());
-            js.put(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA, entity);
+        // id
+        writer.name(GTaskStringUtils.GTASK_JSON_ID).value(getGid());
 
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("fail to generate tasklist-update jsonobject");
+        // entity_delta，只包含上次同步后变化的字段
+        writer.name(GTaskStringUtils.GTASK_JSON_ENTITY_DELTA);
+        writer.beginObject();
+        if (isFieldDirty(FIELD_NAME)) {
+            writer.name(GTaskStringUtils.GTASK_JSON_NAME).value(getName());
+        }
+        if (isFieldDirty(FIELD_DELETED)) {
+            writer.name(GTaskStringUtils.GTASK_JSON_DELETED).value(getDeleted());
         }
+        writer.endObject();
 
-        return js;
+        writer.endObject();
     }
     /**
      * 从远程JSON数据解析任务内容（适用于Google Tasks同步）
@@ -133,6 +127,8 @@ public class TaskList extends Node {
                     setName(js.getString(GTaskStringUtils.GTASK_JSON_NAME));
                 }
 
+                // 现在内容与远程相同
+                clearDirtyFields();
             } catch (JSONException e) {
                 Log.e(TAG, e.toString());
                 e.printStackTrace();
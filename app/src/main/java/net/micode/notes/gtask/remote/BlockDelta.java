@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 块级差异编码
+ * 功能：与rsync相同的思路，把旧版本按固定大小分块，用可滚动的弱校验和在新版本的任意偏移上查找相同的块，
+ * 差异只包含"复制旧版本第i块起的n块"和"字面数据"两种操作。旧版本在本地，弱校验和命中后直接比较字节，不需要强校验和。
+ * 差异的头部记录了旧版本和新版本的长度与CRC32，应用时旧版本不一致会被拒绝
+ */
+public final class BlockDelta {
+    public static final int DEFAULT_BLOCK_SIZE = 2048;
+
+    private static final int MAGIC = 0x4e44;//"ND"
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int OP_END = 0;
+
+    private static final int OP_COPY = 1;
+
+    private static final int OP_LITERAL = 2;
+
+    private BlockDelta() {
+    }
+
+    /*
+     * 功能描述：计算从base到target的差异
+     */
+    public static byte[] encode(byte[] base, byte[] target, int blockSize) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(MAGIC);
+            out.writeByte(FORMAT_VERSION);
+            writeVarLong(out, blockSize);
+            writeVarLong(out, base.length);
+            out.writeInt(crc(base));
+            writeVarLong(out, target.length);
+            out.writeInt(crc(target));
+
+            int blocks = base.length / blockSize;
+            // 弱校验和 -> 第一个块，校验和相同的其他块串成链
+            HashMap<Integer, Integer> heads = new HashMap<Integer, Integer>(blocks * 2 + 1);
+            int[] next = new int[blocks];
+            for (int i = blocks - 1; i >= 0; i--) {
+                Integer key = checksum(base, i * blockSize, blockSize);
+                Integer head = heads.put(key, i);
+                next[i] = head == null ? -1 : head;
+            }
+
+            int n = target.length;
+            int pos = 0;
+            int literalStart = 0;
+            int copyStart = -1;//正在合并的连续复制的起始块
+            int copyCount = 0;
+            int a = 0;
+            int b = 0;
+            if (blocks > 0 && n >= blockSize) {
+                int sum = checksum(target, 0, blockSize);
+                a = sum & 0xffff;
+                b = sum >>> 16;
+            }
+            while (blocks > 0 && pos + blockSize <= n) {
+                int match = -1;
+                Integer candidate = heads.get(a | (b << 16));
+                if (candidate != null) {
+                    // 优先选择紧跟上一次复制的块，使连续的复制可以合并
+                    int preferred = copyStart >= 0 && literalStart == pos ? copyStart + copyCount : -1;
+                    if (preferred >= 0 && preferred < blocks
+                            && equalsRange(base, preferred * blockSize, target, pos, blockSize)) {
+                        match = preferred;
+                    } else {
+                        for (int i = candidate; i >= 0; i = next[i]) {
+                            if (equalsRange(base, i * blockSize, target, pos, blockSize)) {
+                                match = i;
+                                break;
+                            }
+                        }
+                    }
+                }
+
+                if (match >= 0) {
+                    if (literalStart < pos) {
+                        writeCopy(out, copyStart, copyCount);
+                        copyStart = -1;
+                        copyCount = 0;
+                        writeLiteral(out, target, literalStart, pos - literalStart);
+                    }
+                    if (copyStart >= 0 && match == copyStart + copyCount) {
+                        copyCount++;
+                    } else {
+                        writeCopy(out, copyStart, copyCount);
+                        copyStart = match;
+                        copyCount = 1;
+                    }
+                    pos += blockSize;
+                    literalStart = pos;
+                    if (pos + blockSize <= n) {
+                        int sum = checksum(target, pos, blockSize);
+                        a = sum & 0xffff;
+                        b = sum >>> 16;
+                    }
+                } else {
+                    if (pos + blockSize < n) {
+                        // 窗口向前滚动一个字节
+                        int out0 = target[pos] & 0xff;
+                        int in0 = target[pos + blockSize] & 0xff;
+                        a = (a - out0 + in0) & 0xffff;
+                        b = (b - blockSize * out0 + a) & 0xffff;
+                    }
+                    pos++;
+                }
+            }
+            writeCopy(out, copyStart, copyCount);
+            if (literalStart < n) {
+                writeLiteral(out, target, literalStart, n - literalStart);
+            }
+            out.writeByte(OP_END);
+            out.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出异常
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /*
+     * 功能描述：把差异应用到base上得到新版本
+     * 异常：差异损坏或者base与编码时的旧版本不一致时抛出IOException
+     */
+    public static byte[] apply(byte[] base, byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        if (in.readShort() != MAGIC || in.readByte() != FORMAT_VERSION) {
+            throw new IOException("unknown delta format");
+        }
+        int blockSize = (int) readVarLong(in);
+        if (readVarLong(in) != base.length || in.readInt() != crc(base)) {
+            throw new IOException("delta doesn't match the base version");
+        }
+        int length = (int) readVarLong(in);
+        int targetCrc = in.readInt();
+        if (blockSize <= 0 || length < 0) {
+            throw new IOException("corrupted delta");
+        }
+
+        byte[] target = new byte[length];
+        int pos = 0;
+        while (true) {
+            int op = in.readByte();
+            if (op == OP_END) {
+                break;
+            } else if (op == OP_COPY) {
+                long start = readVarLong(in) * blockSize;
+                long count = readVarLong(in) * blockSize;
+                if (start + count > base.length || pos + count > length) {
+                    throw new IOException("corrupted delta");
+                }
+                System.arraycopy(base, (int) start, target, pos, (int) count);
+                pos += count;
+            } else if (op == OP_LITERAL) {
+                int count = (int) readVarLong(in);
+                if (count < 0 || pos + count > length) {
+                    throw new IOException("corrupted delta");
+                }
+                in.readFully(target, pos, count);
+                pos += count;
+            } else {
+                throw new IOException("unknown delta op " + op);
+            }
+        }
+        if (pos != length || crc(target) != targetCrc) {
+            throw new IOException("corrupted delta");
+        }
+        return target;
+    }
+
+    /*
+     * 功能描述：读取差异头部记录的旧版本CRC32，用于判断差异是否基于当前版本
+     */
+    public static int getBaseCrc(byte[] delta) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        if (in.readShort() != MAGIC || in.readByte() != FORMAT_VERSION) {
+            throw new IOException("unknown delta format");
+        }
+        readVarLong(in);
+        readVarLong(in);
+        return in.readInt();
+    }
+
+    public static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    //rsync的弱校验和：a为字节和，b为加权和，各取低16位
+    private static int checksum(byte[] data, int offset, int length) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < length; i++) {
+            int v = data[offset + i] & 0xff;
+            a += v;
+            b += (length - i) * v;
+        }
+        return (a & 0xffff) | ((b & 0xffff) << 16);
+    }
+
+    private static boolean equalsRange(byte[] x, int xOffset, byte[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (x[xOffset + i] != y[yOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeCopy(DataOutputStream out, int start, int count) throws IOException {
+        if (start >= 0 && count > 0) {
+            out.writeByte(OP_COPY);
+            writeVarLong(out, start);
+            writeVarLong(out, count);
+        }
+    }
+
+    private static void writeLiteral(DataOutputStream out, byte[] data, int offset, int length)
+            throws IOException {
+        out.writeByte(OP_LITERAL);
+        writeVarLong(out, length);
+        out.write(data, offset, length);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte() & 0xff;
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint");
+    }
+}
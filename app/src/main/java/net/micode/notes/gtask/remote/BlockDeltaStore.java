@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * 以差异链保存文件内容
+ * 功能：文件X的第一个版本完整写入X，之后的每个版本只写入相对于上一个版本的差异X.1、X.2……（BlockDelta格式），
+ * 读取时从X开始依次应用差异。差异链过长或者差异总量超过内容的一半时重新写入完整版本并删除差异。
+ * 每个文件都先写入临时文件再重命名，其他设备读到的总是完整的版本；
+ * 差异头部记录了旧版本的CRC32，压缩后残留的旧差异不会被误用
+ */
+public class BlockDeltaStore {
+    // 超过该数量的差异时重新写入完整版本
+    private static final int MAX_DELTAS = 16;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final int mBlockSize;
+
+    private long mBytesWritten;//实际写入的字节数
+
+    private long mFullBytes;//每次都完整重写时需要写入的字节数
+
+    public BlockDeltaStore() {
+        this(BlockDelta.DEFAULT_BLOCK_SIZE);
+    }
+
+    public BlockDeltaStore(int blockSize) {
+        mBlockSize = blockSize;
+        mBytesWritten = 0;
+        mFullBytes = 0;
+    }
+
+    /*
+     * 功能描述：读取最新版本，文件不存在时返回null
+     */
+    public byte[] read(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        byte[] content = readFile(file);
+        for (int i = 1; ; i++) {
+            File deltaFile = getDeltaFile(file, i);
+            if (!deltaFile.exists()) {
+                break;
+            }
+            byte[] delta = readFile(deltaFile);
+            if (BlockDelta.getBaseCrc(delta) != BlockDelta.crc(content)) {
+                // 上一次合并之前遗留的差异
+                break;
+            }
+            content = BlockDelta.apply(content, delta);
+        }
+        return content;
+    }
+
+    /*
+     * 功能描述：写入新版本，内容没有变化时不写入
+     * 返回值：实际写入的字节数
+     */
+    public long write(File file, byte[] content) throws IOException {
+        if (!file.exists()) {
+            mFullBytes += content.length;
+            return writeFull(file, content, 0);
+        }
+
+        byte[] current = readFile(file);
+        int deltas = 0;
+        long deltaBytes = 0;
+        while (true) {
+            File deltaFile = getDeltaFile(file, deltas + 1);
+            if (!deltaFile.exists()) {
+                break;
+            }
+            byte[] delta = readFile(deltaFile);
+            if (BlockDelta.getBaseCrc(delta) != BlockDelta.crc(current)) {
+                break;
+            }
+            current = BlockDelta.apply(current, delta);
+            deltas++;
+            deltaBytes += delta.length;
+        }
+        if (Arrays.equals(current, content)) {
+            return 0;
+        }
+        mFullBytes += content.length;
+
+        byte[] delta = BlockDelta.encode(current, content, mBlockSize);
+        if (deltas >= MAX_DELTAS || (deltaBytes + delta.length) * 2 > content.length) {
+            // 差异链的开销已经超过节省的部分，重新写入完整版本
+            return writeFull(file, content, deltas);
+        }
+        File deltaFile = getDeltaFile(file, deltas + 1);
+        writeAtomically(deltaFile, delta);
+        // 下一个编号的旧差异读取时也会被跳过，这里顺便删除
+        getDeltaFile(file, deltas + 2).delete();
+        mBytesWritten += delta.length;
+        return delta.length;
+    }
+
+    /*
+     * 功能描述：删除完整版本和所有差异
+     */
+    public void delete(File file) {
+        file.delete();
+        for (int i = 1; ; i++) {
+            File deltaFile = getDeltaFile(file, i);
+            if (!deltaFile.delete()) {
+                break;
+            }
+        }
+    }
+
+    /*
+     * 功能描述：把完整版本和差异一起移动到to，只是重命名，不写入内容
+     */
+    public boolean move(File from, File to) {
+        if (!from.exists()) {
+            return true;
+        }
+        delete(to);
+        if (!from.renameTo(to)) {
+            return false;
+        }
+        for (int i = 1; ; i++) {
+            File deltaFile = getDeltaFile(from, i);
+            if (!deltaFile.exists()) {
+                break;
+            }
+            if (!deltaFile.renameTo(getDeltaFile(to, i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public long getFullBytes() {
+        return mFullBytes;
+    }
+
+    private long writeFull(File file, byte[] content, int deltas) throws IOException {
+        writeAtomically(file, content);
+        for (int i = 1; i <= deltas + 1; i++) {
+            getDeltaFile(file, i).delete();
+        }
+        mBytesWritten += content.length;
+        return content.length;
+    }
+
+    private static File getDeltaFile(File file, int index) {
+        return new File(file.getParentFile(), file.getName() + "." + index);
+    }
+
+    private static void writeAtomically(File file, byte[] content) throws IOException {
+        File temp = new File(file.getParentFile(), file.getName() + TEMP_SUFFIX);
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            // 不是所有文件系统的renameTo都会覆盖已存在的文件
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("failed to replace " + file.getName());
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("file too large: " + file.getName());
+        }
+        byte[] content = new byte[(int) length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                int count = in.read(content, offset, content.length - offset);
+                if (count < 0) {
+                    throw new IOException("unexpected end of " + file.getName());
+                }
+                offset += count;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
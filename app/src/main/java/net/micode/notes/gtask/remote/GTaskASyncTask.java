@@ -31,6 +31,7 @@ import android.content.Intent;
 import android.os.AsyncTask;
 
 import net.micode.notes.R;
+import net.micode.notes.tool.SyncPreferences;
 import net.micode.notes.ui.NotesListActivity;
 import net.micode.notes.ui.NotesPreferenceActivity;
 
@@ -45,18 +46,21 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
 
     private Context mContext;
 
+    private String mAccountName;//同步的账号，也用作通知的tag，多个账号同时同步时通知互不覆盖
+
     private NotificationManager mNotifiManager;
 
     private GTaskManager mTaskManager;
 
     private OnCompleteListener mOnCompleteListener;
 
-    public GTaskASyncTask(Context context, OnCompleteListener listener) {
+    public GTaskASyncTask(Context context, String accountName, OnCompleteListener listener) {
         mContext = context;
+        mAccountName = accountName;
         mOnCompleteListener = listener;
         mNotifiManager = (NotificationManager) mContext
                 .getSystemService(Context.NOTIFICATION_SERVICE);
-        mTaskManager = GTaskManager.getInstance();
+        mTaskManager = new GTaskManager(accountName);
     }
 
     public void cancelSync() {
@@ -118,13 +122,12 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
         // 生成Notification对象（兼容旧版本）
         Notification notification = builder.getNotification();
 
-        // 显示通知（使用固定ID GTASK_SYNC_NOTIFICATION_ID，保证同类型通知覆盖）
-        mNotifiManager.notify(GTASK_SYNC_NOTIFICATION_ID, notification);
+        // 显示通知（使用账号作为tag和固定ID GTASK_SYNC_NOTIFICATION_ID，保证同一账号的通知覆盖）
+        mNotifiManager.notify(mAccountName, GTASK_SYNC_NOTIFICATION_ID, notification);
     }
     @Override
     protected Integer doInBackground(Void... unused) {
-        publishProgess(mContext.getString(R.string.sync_progress_login, NotesPreferenceActivity
-                .getSyncAccountName(mContext)));//利用getString,将把 NotesPreferenceActivity.getSyncAccountName(mContext))的字符串内容传进sync_progress_login中
+        publishProgess(mContext.getString(R.string.sync_progress_login, mAccountName));//利用getString,将同步账号传进sync_progress_login中
         return mTaskManager.sync(mContext, this);//进行后台同步具体操作
     }
 
@@ -141,7 +144,7 @@ public class GTaskASyncTask extends AsyncTask<Void, String, Integer> {
         if (result == GTaskManager.STATE_SUCCESS) {
             showNotification(R.string.ticker_success, mContext.getString(
                     R.string.success_sync_account, mTaskManager.getSyncAccount()));
-            NotesPreferenceActivity.setLastSyncTime(mContext, System.currentTimeMillis());//设置最新同步时间
+            SyncPreferences.setLastSyncTime(mContext, System.currentTimeMillis());//设置最新同步时间
         } else if (result == GTaskManager.STATE_NETWORK_ERROR) {
             showNotification(R.string.ticker_fail, mContext.getString(R.string.error_sync_network));
         } else if (result == GTaskManager.STATE_INTERNAL_ERROR) {
@@ -21,7 +21,8 @@ import android.accounts.AccountManager;
 import android.accounts.AccountManagerFuture;
 import android.app.Activity;
 import android.os.Bundle;
-import android.text.TextUtils;
+import android.os.SystemClock;
+import android.util.JsonWriter;
 import android.util.Log;
 
 import net.micode.notes.gtask.data.Node;
@@ -30,18 +31,23 @@ import net.micode.notes.gtask.data.TaskList;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.gtask.exception.NetworkFailureException;
 import net.micode.notes.tool.GTaskStringUtils;
-import net.micode.notes.ui.NotesPreferenceActivity;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.CookieStore;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.cookie.Cookie;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
@@ -54,15 +60,27 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.InflaterInputStream;
 
 //实现GTASK的登陆操作，进行GTASK任务的创建，创建任务列表，从网络上获取任务和任务列表的内容
 //主要使用类或技术：accountManager、JSONObject、HttoParams、authToken、Gid
-public class GTaskClient {
+public class GTaskClient implements SyncTarget {
     private static final String TAG = GTaskClient.class.getSimpleName();//日志标签
 
     private static final String GTASK_URL = "https://mail.google.com/tasks/";//GTASK基础URL
@@ -71,7 +89,24 @@ public class GTaskClient {
 
     private static final String GTASK_POST_URL = "https://mail.google.com/tasks/r/ig";//提交任务的URL
 
-    private static GTaskClient mInstance = null;//单例实例
+    // 请求的幂等性，决定失败后能否重发
+    private static final int REQUEST_UNSAFE = 0;//创建类操作，重发会产生重复的任务
+
+    private static final int REQUEST_IDEMPOTENT = 1;//更新、删除、移动，重发结果相同
+
+    private static final int REQUEST_READ = 2;//只读请求，可以重试也可以对冲
+
+    private static final int MAX_ATTEMPTS = 3;//幂等请求的最多尝试次数
+
+    private static final long BASE_BACKOFF = 500;//重试退避的基数（毫秒）
+
+    private static final long MAX_BACKOFF = 8000;//重试退避的上限（毫秒）
+
+    private static final int HEDGE_THREADS = 4;//对冲线程数：两个请求，加上被中断后还没有退出的请求
+
+    private static final long HEDGE_KEEP_ALIVE = 30000;//对冲线程空闲多久后回收（毫秒）
+
+    private static final HashMap<String, GTaskClient> mInstances = new HashMap<String, GTaskClient>();//每个账号一个实例
 
     private DefaultHttpClient mHttpClient;//HTTP客户端
 
@@ -83,61 +118,165 @@ public class GTaskClient {
 
     private boolean mLoggedin;//登录状态
 
-    private long mLastLoginTime;//上次登录时间
-
     private int mActionId;//操作ID
 
+    private final String mAccountName;//实例绑定的同步账号
+
     private Account mAccount;//当前账号
 
-    private JSONArray mUpdateArray;//更新任务列表的JSON数组
+    private final ArrayList<PendingUpdate> mUpdateNodes;//等待批量提交的更新，提交时才写出
+
+    private Activity mActivity;//用于会话失效后重新获取令牌
+
+    private GTaskSessionStore mSessionStore;//持久化的登录会话
+
+    private volatile boolean mAborted;//同步已取消，之后的请求直接失败
+
+    private final ArrayList<HttpUriRequest> mActiveRequests;//正在执行的请求，取消时被abort；同时作为取消状态的锁
+
+    private final LatencyTracker mLatency;//最近请求的耗时，用于计算超时和对冲等待时间
+
+    private final Random mRandom;//退避抖动
+
+    private boolean mHedgeReads;//只读请求是否发送对冲请求
+
+    private ExecutorService mHedgeExecutor;//执行对冲请求的线程池
+
+    private volatile SyncMetrics mMetrics;//当前同步的统计数据，可能为空
 
     //初始化变量
-    private GTaskClient() {
+    private GTaskClient(String accountName) {
+        mAccountName = accountName;
         mHttpClient = null;
         mGetUrl = GTASK_GET_URL;
         mPostUrl = GTASK_POST_URL;
         mClientVersion = -1;
         mLoggedin = false;
-        mLastLoginTime = 0;
         mActionId = 1;
         mAccount = null;
-        mUpdateArray = null;
+        mUpdateNodes = new ArrayList<PendingUpdate>();
+        mActivity = null;
+        mSessionStore = null;
+        mAborted = false;
+        mActiveRequests = new ArrayList<HttpUriRequest>();
+        mLatency = new LatencyTracker();
+        mRandom = new Random();
+        mHedgeReads = true;
+        mHedgeExecutor = null;
+        mMetrics = null;
+    }
+
+    //表示一次请求的状态码和已经读取完的响应内容
+    private static final class GTaskResponse {
+        final int status;
+
+        final String content;
+
+        GTaskResponse(int status, String content) {
+            this.status = status;
+            this.content = content;
+        }
+    }
+
+    //排队的更新操作，actionId在加入队列时分配，写出请求时使用节点当时的内容
+    private static final class PendingUpdate {
+        final Node node;
+
+        final int actionId;
+
+        PendingUpdate(Node node, int actionId) {
+            this.node = node;
+            this.actionId = actionId;
+        }
+    }
+
+    //写出action_list中的操作
+    private interface ActionWriter {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    //每次尝试都需要新的请求对象，被abort过的请求不能再次执行
+    private interface RequestFactory {
+        HttpUriRequest create() throws IOException;
     }
 
-    //获取实例化对象
-    public static synchronized GTaskClient getInstance() {
-        if (mInstance == null) {
-            mInstance = new GTaskClient();
+    //获取账号对应的实例，每个账号有自己的HTTP客户端、登录会话和更新队列，不同账号可以同时同步
+    //同一个实例同时只能被一个同步使用
+    public static synchronized GTaskClient getInstance(String accountName) {
+        GTaskClient client = mInstances.get(accountName);
+        if (client == null) {
+            client = new GTaskClient(accountName);
+            mInstances.put(accountName, client);
         }
-        return mInstance;
+        return client;
     }
 
     //实现登陆操作
-    //设置登录操作限制时间，如果超时则重新登录
+    //会话不再按固定时间过期，只有请求返回鉴权失败时才重新登录（见postRequest/getTaskLists）
+    //进程重启后优先恢复持久化的会话，会话是否有效由第一次请求顺带验证
     //两种登录方式：1.使用自己的URL登录；2.使用谷歌官方的URL登录
     //返回true或者false表示登录结果
     public boolean login(Activity activity) {
-        // we suppose that the cookie would expire after 5 minutes
-        // then we need to re-login
-        final long interval = 1000 * 60 * 5;//判断登录操作是否超过5分钟
-        if (mLastLoginTime + interval < System.currentTimeMillis()) {
-            mLoggedin = false;
-        }
-        //重新登录
-        // need to re-login after account switch
-        if (mLoggedin
-                && !TextUtils.equals(getSyncAccount().name, NotesPreferenceActivity
-                        .getSyncAccountName(activity))) {
-            mLoggedin = false;
-        }
-        //未超时则不需要重新登录
+        mActivity = activity;
+        if (mSessionStore == null) {
+            mSessionStore = new GTaskSessionStore(activity, mAccountName);
+        }
+
         if (mLoggedin) {
             Log.d(TAG, "already logged in");
             return true;
         }
 
-        //更新最近一次的登录时间，改为系统当前的时间
-        mLastLoginTime = System.currentTimeMillis();
+        // 恢复保存的会话，在第一次请求时才验证
+        if (restoreSession(activity)) {
+            Log.d(TAG, "session restored");
+            mLoggedin = true;
+            return true;
+        }
+
+        return loginWithAuthToken(activity);
+    }
+
+    //恢复持久化的会话：账号必须与实例绑定的账号一致，且该账号仍存在于设备上
+    private boolean restoreSession(Activity activity) {
+        String accountName = mAccountName;
+        if (!mSessionStore.restore(accountName)) {
+            return false;
+        }
+
+        Account account = null;
+        Account[] accounts = AccountManager.get(activity).getAccountsByType("com.google");
+        for (Account a : accounts) {
+            if (a.name.equals(accountName)) {
+                account = a;
+                break;
+            }
+        }
+        if (account == null) {
+            mSessionStore.clear();
+            return false;
+        }
+
+        mAccount = account;
+        mGetUrl = mSessionStore.getGetUrl();
+        mPostUrl = mSessionStore.getPostUrl();
+        mClientVersion = mSessionStore.getClientVersion();
+        mHttpClient = createHttpClient(mSessionStore.getCookieStore());
+        return true;
+    }
+
+    //会话失效时重新获取令牌登录，成功后调用方重发原请求
+    private boolean reLogin() {
+        Log.d(TAG, "session expired, login again");
+        mLoggedin = false;
+        if (mSessionStore != null) {
+            mSessionStore.clear();
+        }
+        return mActivity != null && loginWithAuthToken(mActivity);
+    }
+
+    //获取令牌并完成GTASK登录，成功后保存会话
+    private boolean loginWithAuthToken(Activity activity) {
         //判断是否登录到谷歌账户
         String authToken = loginGoogleAccount(activity, false);
         if (authToken == null) {
@@ -173,6 +312,8 @@ public class GTaskClient {
         }
 
         mLoggedin = true;
+        mSessionStore.save(mAccount.name, mClientVersion, mGetUrl, mPostUrl,
+                mHttpClient.getCookieStore());
         return true;
     }
 
@@ -189,7 +330,7 @@ public class GTaskClient {
             return null;
         }
 
-        String accountName = NotesPreferenceActivity.getSyncAccountName(activity);
+        String accountName = mAccountName;
         Account account = null;
         //遍历获得的账号信息，寻找已经记录过的账户信息
         for (Account a : accounts) {
@@ -245,51 +386,44 @@ public class GTaskClient {
         return true;
     }
 
-    //实现登录GTASK的具体操作
-    private boolean loginGtask(String authToken) {
+    //创建HTTP客户端，cookieStore为空时使用新的cookie存储
+    private DefaultHttpClient createHttpClient(CookieStore cookieStore) {
         int timeoutConnection = 10000;
-        int timeoutSocket = 15000;//socket是一种通信连接实现数据的交换的端口
+        int timeoutSocket = LatencyTracker.DEFAULT_SOCKET_TIMEOUT;//socket是一种通信连接实现数据的交换的端口，每个请求会按统计的耗时覆盖
         HttpParams httpParameters = new BasicHttpParams();
         HttpConnectionParams.setConnectionTimeout(httpParameters, timeoutConnection);
         HttpConnectionParams.setSoTimeout(httpParameters, timeoutSocket);
-        mHttpClient = new DefaultHttpClient(httpParameters);
+        //对冲请求会在两个线程上同时执行，需要线程安全的连接管理器
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        registry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+        ClientConnectionManager manager = new ThreadSafeClientConnManager(httpParameters, registry);
+        DefaultHttpClient httpClient = new DefaultHttpClient(manager, httpParameters);
         //设置本地cookie
-        BasicCookieStore localBasicCookieStore = new BasicCookieStore();
-        mHttpClient.setCookieStore(localBasicCookieStore);
-        HttpProtocolParams.setUseExpectContinue(mHttpClient.getParams(), false);
+        httpClient.setCookieStore(cookieStore != null ? cookieStore : new BasicCookieStore());
+        HttpProtocolParams.setUseExpectContinue(httpClient.getParams(), false);
+        return httpClient;
+    }
+
+    //实现登录GTASK的具体操作
+    private boolean loginGtask(String authToken) {
+        mHttpClient = createHttpClient(null);
 
         // login gtask
         try {
             String loginUrl = mGetUrl + "?auth=" + authToken;//设置登录的url
             HttpGet httpGet = new HttpGet(loginUrl);//通过登录的uri实例化网页上资源的查找
-            HttpResponse response = null;
-            response = mHttpClient.execute(httpGet);
+            GTaskResponse response = execute(httpGet, 0);
 
             //获取CookieStore里存放的cookie,看如果存有“GTL”，则说明有验证成功的有效的cookie
             // get the cookie now
-            List<Cookie> cookies = mHttpClient.getCookieStore().getCookies();
-            boolean hasAuthCookie = false;
-            for (Cookie cookie : cookies) {
-                if (cookie.getName().contains("GTL")) {
-                    hasAuthCookie = true;
-                }
-            }
-            if (!hasAuthCookie) {
+            if (!GTaskSessionStore.hasAuthCookie(mHttpClient.getCookieStore().getCookies())) {
                 Log.w(TAG, "it seems that there is no auth cookie");
             }
 
             //获取client的内容，具体操作是在返回的Content中截取从_setup(开始到)}</script>中间的字符串内容，也就是gtask_url的内容
             // get the client version
-            String resString = getResponseContent(response.getEntity());
-            String jsBegin = "_setup(";
-            String jsEnd = ")}</script>";
-            int begin = resString.indexOf(jsBegin);
-            int end = resString.lastIndexOf(jsEnd);
-            String jsString = null;
-            if (begin != -1 && end != -1 && begin < end) {
-                jsString = resString.substring(begin + jsBegin.length(), end);
-            }
-            JSONObject js = new JSONObject(jsString);
+            JSONObject js = getSetupJSON(response.content);
             mClientVersion = js.getLong("v");
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
@@ -308,6 +442,30 @@ public class GTaskClient {
         return mActionId++;
     }
 
+    //截取页面中"_setup("到")}</script>"之间的JSON内容
+    private JSONObject getSetupJSON(String resString) throws JSONException {
+        String jsBegin = "_setup(";
+        String jsEnd = ")}</script>";
+        int begin = resString.indexOf(jsBegin);
+        int end = resString.lastIndexOf(jsEnd);
+        String jsString = null;
+        if (begin != -1 && end != -1 && begin < end) {
+            jsString = resString.substring(begin + jsBegin.length(), end);
+        }
+        return new JSONObject(jsString);
+    }
+
+    //判断响应是否为鉴权失败：401/403，或者会话失效后被重定向到的登录页面（HTML而不是JSON或_setup页面）
+    private boolean isAuthFailure(GTaskResponse response) {
+        int status = response.status;
+        String content = response.content;
+        if (status == HttpStatus.SC_UNAUTHORIZED || status == HttpStatus.SC_FORBIDDEN) {
+            return true;
+        }
+        return content != null && content.trim().startsWith("<")
+                && content.indexOf("_setup(") == -1;
+    }
+
     //创建一个用于向网络传输数据的对象
     private HttpPost createHttpPost() {
         HttpPost httpPost = new HttpPost(mPostUrl);
@@ -352,34 +510,38 @@ public class GTaskClient {
     }
 
     //通过JSON发送请求
-    //利用UrlEncodedFormEntity entity和httpPost.setEntity(entity)方法把js中的内容放置到httpPost中
+    //请求内容由actions流式写入GTaskRequestEntity，不在内存中生成完整的JSON
     //执行请求后使用getResponseContent方法得到返回的数据和资源
     //将资源再次放入json后返回
-    private JSONObject postRequest(JSONObject js) throws NetworkFailureException {
+    //kind为REQUEST_UNSAFE、REQUEST_IDEMPOTENT或REQUEST_READ，决定失败后是否重试和是否对冲
+    private JSONObject postRequest(ActionWriter actions, int kind) throws NetworkFailureException {
         if (!mLoggedin) {//未登录
             Log.e(TAG, "please login first");
             throw new ActionFailureException("not logged in");
         }
+        checkAborted();
 
-        //实例化一个httpPost的对象用来向服务器传输数据，在这里就是发送请求，而请求的内容在js里
-        HttpPost httpPost = createHttpPost();
         try {
-            LinkedList<BasicNameValuePair> list = new LinkedList<BasicNameValuePair>();
-            list.add(new BasicNameValuePair("r", js.toString()));
-            UrlEncodedFormEntity entity = new UrlEncodedFormEntity(list, "UTF-8");
-            httpPost.setEntity(entity);
-
             //执行请求
             // execute the post
-            HttpResponse response = mHttpClient.execute(httpPost);
-            String jsString = getResponseContent(response.getEntity());
-            return new JSONObject(jsString);
+            GTaskResponse response = executeWithRetry(createPostFactory(actions), kind);
+            if (isAuthFailure(response)) {
+                // 保存的会话已经失效，重新登录后重试一次
+                if (!reLogin()) {
+                    throw new NetworkFailureException("postRequest: login failed");
+                }
+                response = executeWithRetry(createPostFactory(actions), kind);
+            }
+            return new JSONObject(response.content);
 
+        } catch (NetworkFailureException e) {
+            throw e;
         } catch (ClientProtocolException e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
             throw new NetworkFailureException("postRequest failed");
         } catch (IOException e) {
+            checkAborted();
             Log.e(TAG, e.toString());
             e.printStackTrace();
             throw new NetworkFailureException("postRequest failed");
@@ -394,29 +556,319 @@ public class GTaskClient {
         }
     }
 
+    //实例化httpPost对象的工厂，用来向服务器传输数据，在这里就是发送请求
+    //请求体为action_list和client_version，所有尝试共用同一个可重复写出的实体，工厂可能在对冲请求的线程上调用
+    private RequestFactory createPostFactory(final ActionWriter actions) {
+        final long clientVersion = mClientVersion;
+        final GTaskRequestEntity entity = new GTaskRequestEntity(new GTaskRequestEntity.Body() {
+            public void write(JsonWriter writer) throws IOException {
+                writer.beginObject();
+
+                // action_list
+                writer.name(GTaskStringUtils.GTASK_JSON_ACTION_LIST);
+                writer.beginArray();
+                actions.write(writer);
+                writer.endArray();
+
+                // client_version
+                writer.name(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION).value(clientVersion);
+
+                writer.endObject();
+            }
+        });
+        return new RequestFactory() {
+            public HttpUriRequest create() {
+                HttpPost httpPost = createHttpPost();
+                httpPost.setEntity(entity);
+                return httpPost;
+            }
+        };
+    }
+
+    private RequestFactory createGetFactory(final String url) {
+        return new RequestFactory() {
+            public HttpUriRequest create() {
+                return new HttpGet(url);
+            }
+        };
+    }
+
+    //执行请求，幂等请求在网络错误或服务器5xx错误时带抖动的指数退避重试
+    //创建类请求只执行一次，重发可能在服务器上产生重复的任务
+    private GTaskResponse executeWithRetry(RequestFactory factory, int kind) throws IOException {
+        int attempts = kind == REQUEST_UNSAFE ? 1 : MAX_ATTEMPTS;
+        for (int attempt = 0; ; attempt++) {
+            boolean last = attempt + 1 >= attempts;
+            try {
+                GTaskResponse response = executeOnce(factory, kind, attempt);
+                if (last || response.status < HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                    return response;
+                }
+                Log.w(TAG, "server error " + response.status + ", retry");
+            } catch (ClientProtocolException e) {
+                throw e;
+            } catch (IOException e) {
+                if (last || mAborted) {
+                    throw e;
+                }
+                Log.w(TAG, "request failed, retry: " + e.toString());
+            }
+            SyncMetrics metrics = mMetrics;
+            if (metrics != null) {
+                metrics.onRetry();
+            }
+            backoff(attempt);
+        }
+    }
+
+    //只读请求的第一次尝试在有足够延迟样本时使用对冲请求，其余情况直接执行
+    private GTaskResponse executeOnce(RequestFactory factory, int kind, int attempt)
+            throws IOException {
+        if (kind == REQUEST_READ && attempt == 0 && mHedgeReads) {
+            long delay = mLatency.getHedgeDelay();
+            if (delay >= 0) {
+                return executeHedged(factory, delay);
+            }
+        }
+        return execute(factory.create(), attempt);
+    }
+
+    //对冲请求：第一个请求超过delay（最近请求耗时的p95）还没有返回时再发送一个相同的请求，
+    //使用先成功的结果并中断另一个；两个都失败时抛出后一个的异常
+    private GTaskResponse executeHedged(RequestFactory factory, long delay) throws IOException {
+        CompletionService<GTaskResponse> service = new ExecutorCompletionService<GTaskResponse>(
+                getHedgeExecutor());
+        HedgedCall primary = new HedgedCall(factory);
+        HedgedCall backup = null;
+        Future<GTaskResponse> primaryFuture = service.submit(primary);
+        Future<GTaskResponse> backupFuture = null;
+        int pending = 1;
+        try {
+            Future<GTaskResponse> done = service.poll(delay, TimeUnit.MILLISECONDS);
+            if (done == null && !mAborted) {
+                Log.d(TAG, "no response after " + delay + "ms, send hedged request");
+                backup = new HedgedCall(factory);
+                backupFuture = service.submit(backup);
+                pending++;
+                SyncMetrics metrics = mMetrics;
+                if (metrics != null) {
+                    metrics.onHedge();
+                }
+            }
+            while (true) {
+                if (done == null) {
+                    done = service.take();
+                }
+                pending--;
+                try {
+                    GTaskResponse response = done.get();
+                    // 先返回的请求胜出，立即中断另一个，不等它读完响应
+                    if (done == primaryFuture) {
+                        cancelHedgedCall(backup, backupFuture);
+                    } else {
+                        cancelHedgedCall(primary, primaryFuture);
+                    }
+                    SyncMetrics metrics = mMetrics;
+                    if (done != primaryFuture && metrics != null) {
+                        metrics.onHedgeWin();
+                    }
+                    return response;
+                } catch (ExecutionException e) {
+                    if (pending == 0) {
+                        throw toIOException(e.getCause());
+                    }
+                    done = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("hedged request interrupted");
+        } finally {
+            // 失败或被中断时两个请求都不再需要，已完成的请求调用cancel没有影响
+            cancelHedgedCall(primary, primaryFuture);
+            cancelHedgedCall(backup, backupFuture);
+        }
+    }
+
+    //中断对冲请求：正在执行的HTTP请求被abort，还在队列中的任务被移出线程池
+    private static void cancelHedgedCall(HedgedCall call, Future<GTaskResponse> future) {
+        if (call == null) {
+            return;
+        }
+        call.cancel();
+        future.cancel(false);
+    }
+
+    private static IOException toIOException(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(String.valueOf(cause));
+    }
+
+    //对冲请求的线程池：线程数有上限，空闲后全部回收，守护线程不会阻止进程退出，因此不需要在同步结束时关闭
+    private synchronized ExecutorService getHedgeExecutor() {
+        if (mHedgeExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(HEDGE_THREADS, HEDGE_THREADS,
+                    HEDGE_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "gtask-hedge-" + mAccountName);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            mHedgeExecutor = executor;
+        }
+        return mHedgeExecutor;
+    }
+
+    //在线程池中执行的一份对冲请求，cancel()中断尚未完成的请求
+    private final class HedgedCall implements Callable<GTaskResponse> {
+        private final RequestFactory mFactory;
+
+        private HttpUriRequest mRequest;
+
+        private boolean mDone;
+
+        HedgedCall(RequestFactory factory) {
+            mFactory = factory;
+        }
+
+        public GTaskResponse call() throws IOException {
+            HttpUriRequest request = mFactory.create();
+            synchronized (this) {
+                if (mDone) {
+                    throw new IOException("hedged request cancelled");
+                }
+                mRequest = request;
+            }
+            try {
+                return execute(request, 0);
+            } finally {
+                synchronized (this) {
+                    mDone = true;
+                }
+            }
+        }
+
+        synchronized void cancel() {
+            if (!mDone && mRequest != null) {
+                mRequest.abort();
+            }
+            mDone = true;
+        }
+    }
+
+    //执行请求并读完响应内容，期间请求登记在mActiveRequests中，abort()可以从其他线程立即中断它
+    //读超时按最近请求耗时的p99计算，重试时逐次放宽
+    private GTaskResponse execute(HttpUriRequest request, int attempt) throws IOException {
+        synchronized (mActiveRequests) {
+            // abort()可能在请求登记之前就已经执行
+            if (mAborted) {
+                throw new IOException("request aborted");
+            }
+            mActiveRequests.add(request);
+        }
+        // 请求级别的参数覆盖客户端的默认值
+        HttpConnectionParams.setSoTimeout(request.getParams(), mLatency.getSocketTimeout(attempt));
+        long start = SystemClock.elapsedRealtime();
+        try {
+            HttpResponse response = mHttpClient.execute(request);
+            GTaskResponse result = new GTaskResponse(response.getStatusLine().getStatusCode(),
+                    getResponseContent(response.getEntity()));
+            if (result.status < HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                mLatency.record(SystemClock.elapsedRealtime() - start);
+            }
+            return result;
+        } finally {
+            synchronized (mActiveRequests) {
+                mActiveRequests.remove(request);
+            }
+        }
+    }
+
+    //重试前等待，时长在[0, min(上限, 基数*2^attempt))中随机选取，避免多个客户端同时重试
+    //取消同步会立即唤醒等待
+    private void backoff(int attempt) throws IOException {
+        long cap = Math.min(MAX_BACKOFF, BASE_BACKOFF << attempt);
+        long delay = 1 + (long) (mRandom.nextDouble() * cap);
+        synchronized (mActiveRequests) {
+            try {
+                if (!mAborted) {
+                    mActiveRequests.wait(delay);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("retry interrupted");
+            }
+            if (mAborted) {
+                throw new IOException("request aborted");
+            }
+        }
+    }
+
+    //同步已取消时丢弃排队的更新并终止当前操作
+    private void checkAborted() throws NetworkFailureException {
+        if (mAborted) {
+            mUpdateNodes.clear();
+            throw new NetworkFailureException("sync cancelled");
+        }
+    }
+
+    //取消同步：中断正在执行的请求，之后的请求都直接失败，排队的更新由同步线程丢弃
+    //可以在任意线程调用
+    public void abort() {
+        synchronized (mActiveRequests) {
+            mAborted = true;
+            for (HttpUriRequest request : mActiveRequests) {
+                Log.d(TAG, "abort active request");
+                request.abort();
+            }
+            // 唤醒正在等待的重试
+            mActiveRequests.notifyAll();
+        }
+    }
+
+    //新的同步开始前清除取消状态
+    public void clearAbort() {
+        mAborted = false;
+    }
+
+    //设置当前同步的统计数据，重试和对冲次数记录在其中；同步结束后传入null
+    public void setSyncMetrics(SyncMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    //是否为只读请求发送对冲请求，默认开启
+    public void setHedgeReads(boolean hedgeReads) {
+        mHedgeReads = hedgeReads;
+    }
+
     //创建单个任务
     //传入参数是一个.gtask.data.Task包里Task类的对象
-    //利用json获取Task里的内容,并且创建相应的jsPost
+    //Task的创建操作直接写入请求
     //利用postRequest得到任务的返回信息
     //使用task.setGid设置task的new_ID
-    public void createTask(Task task) throws NetworkFailureException {
+    public void createTask(final Task task) throws NetworkFailureException {
         commitUpdate();
         try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
-
-            // action_list
-            actionList.put(task.getCreateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // client_version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
+            final int actionId = getActionId();
 
             // post
-            JSONObject jsResponse = postRequest(jsPost);
+            JSONObject jsResponse = postRequest(new ActionWriter() {
+                public void write(JsonWriter writer) throws IOException {
+                    task.writeCreateAction(writer, actionId);
+                }
+            }, REQUEST_UNSAFE);
             JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
                     GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
             task.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
+            task.clearDirtyFields();
 
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
@@ -426,24 +878,21 @@ public class GTaskClient {
     }
 
     //创建一个任务列表，与createTask几乎一样，区别就是最后设置的是tasklist的gid
-    public void createTaskList(TaskList tasklist) throws NetworkFailureException {
+    public void createTaskList(final TaskList tasklist) throws NetworkFailureException {
         commitUpdate();
         try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
-
-            // action_list
-            actionList.put(tasklist.getCreateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // client version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
+            final int actionId = getActionId();
 
             // post
-            JSONObject jsResponse = postRequest(jsPost);
+            JSONObject jsResponse = postRequest(new ActionWriter() {
+                public void write(JsonWriter writer) throws IOException {
+                    tasklist.writeCreateAction(writer, actionId);
+                }
+            }, REQUEST_UNSAFE);
             JSONObject jsResult = (JSONObject) jsResponse.getJSONArray(
                     GTaskStringUtils.GTASK_JSON_RESULTS).get(0);
             tasklist.setGid(jsResult.getString(GTaskStringUtils.GTASK_JSON_NEW_ID));
+            tasklist.clearDirtyFields();
 
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
@@ -453,113 +902,95 @@ public class GTaskClient {
     }
 
     //同步更新操作
-    //使用JSONObject进行数据存储，使用jsPost.put，Put的信息包括UpdateArray和ClientVersion
-    //使用postRequest发送这个jspost,进行处理
+    //把排队的更新操作一次写入请求，使用postRequest发送
+    //节点在排队之后、提交之前不会再被修改，写出的就是加入队列时的内容
     public void commitUpdate() throws NetworkFailureException {
-        if (mUpdateArray != null) {
-            try {
-                JSONObject jsPost = new JSONObject();
-
-                // action_list
-                jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, mUpdateArray);
-
-                // client_version
-                jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-                postRequest(jsPost);
-                mUpdateArray = null;
-            } catch (JSONException e) {
-                Log.e(TAG, e.toString());
-                e.printStackTrace();
-                throw new ActionFailureException("commit update: handing jsonobject failed");
+        if (!mUpdateNodes.isEmpty()) {
+            final PendingUpdate[] updates = mUpdateNodes.toArray(new PendingUpdate[mUpdateNodes.size()]);
+            postRequest(new ActionWriter() {
+                public void write(JsonWriter writer) throws IOException {
+                    for (PendingUpdate update : updates) {
+                        update.node.writeUpdateAction(writer, update.actionId);
+                    }
+                }
+            }, REQUEST_IDEMPOTENT);
+            for (PendingUpdate update : updates) {
+                update.node.clearDirtyFields();
             }
+            mUpdateNodes.clear();
         }
     }
 
-    //添加更新的事项
+    //添加更新的事项，与远程相比没有修改字段的节点不发送
     public void addUpdateNode(Node node) throws NetworkFailureException {
+        checkAborted();
+        if (node != null && !node.hasDirtyFields()) {
+            Log.d(TAG, "nothing changed, skip updating " + node.getGid());
+            return;
+        }
         if (node != null) {
             // too many update items may result in an error
             // set max to 10 items
-            if (mUpdateArray != null && mUpdateArray.length() > 10) {
+            if (mUpdateNodes.size() > 10) {
                 commitUpdate();
             }
 
-            if (mUpdateArray == null)
-                mUpdateArray = new JSONArray();
-            mUpdateArray.put(node.getUpdateAction(getActionId()));
+            mUpdateNodes.add(new PendingUpdate(node, getActionId()));
         }
     }
 
     //移动task
     //通过getGid获取task所属列表的gid
-    //通过JSONObject.put()函数设置移动后的task的相关属性值，从而达到移动的目的
+    //把移动操作直接写入请求，设置移动后的task的相关属性值，从而达到移动的目的
     //通过postRequest进行更新后的发送
-    public void moveTask(Task task, TaskList preParent, TaskList curParent)
+    public void moveTask(Task task, final TaskList preParent, final TaskList curParent)
             throws NetworkFailureException {
         commitUpdate();
-        try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
-            JSONObject action = new JSONObject();
-
-            // action_list
-            action.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
-                    GTaskStringUtils.GTASK_JSON_ACTION_TYPE_MOVE);
-            action.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, getActionId());
-            action.put(GTaskStringUtils.GTASK_JSON_ID, task.getGid());
-            if (preParent == curParent && task.getPriorSibling() != null) {
-                // put prioring_sibing_id only if moving within the tasklist and
-                // it is not the first one
-                //设置优先级ID，只有当移动是发生在文件中
-                action.put(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID, task.getPriorSibling());
-            }
-            action.put(GTaskStringUtils.GTASK_JSON_SOURCE_LIST, preParent.getGid());
-            action.put(GTaskStringUtils.GTASK_JSON_DEST_PARENT, curParent.getGid());
-            if (preParent != curParent) {
-                // put the dest_list only if moving between tasklists
-                action.put(GTaskStringUtils.GTASK_JSON_DEST_LIST, curParent.getGid());
-            }
-            actionList.put(action);
-            //将ACTION_LIST加入jsPost中
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // client_version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-            postRequest(jsPost);
-
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("move task: handing jsonobject failed");
-        }
+        final int actionId = getActionId();
+        final String taskGid = task.getGid();
+        // put prioring_sibing_id only if moving within the tasklist and
+        // it is not the first one
+        //设置优先级ID，只有当移动是发生在文件中
+        final String priorSiblingGid = preParent == curParent && task.getPriorSibling() != null
+                ? task.getPriorSibling().getGid() : null;
+
+        postRequest(new ActionWriter() {
+            public void write(JsonWriter writer) throws IOException {
+                // action_list
+                writer.beginObject();
+                writer.name(GTaskStringUtils.GTASK_JSON_ACTION_TYPE)
+                        .value(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_MOVE);
+                writer.name(GTaskStringUtils.GTASK_JSON_ACTION_ID).value(actionId);
+                writer.name(GTaskStringUtils.GTASK_JSON_ID).value(taskGid);
+                if (priorSiblingGid != null) {
+                    writer.name(GTaskStringUtils.GTASK_JSON_PRIOR_SIBLING_ID).value(priorSiblingGid);
+                }
+                writer.name(GTaskStringUtils.GTASK_JSON_SOURCE_LIST).value(preParent.getGid());
+                writer.name(GTaskStringUtils.GTASK_JSON_DEST_PARENT).value(curParent.getGid());
+                if (preParent != curParent) {
+                    // put the dest_list only if moving between tasklists
+                    writer.name(GTaskStringUtils.GTASK_JSON_DEST_LIST).value(curParent.getGid());
+                }
+                writer.endObject();
+            }
+        }, REQUEST_IDEMPOTENT);
     }
 
     //删除操作结点
     //删除后使用postRequest发送删除后的结果
-    public void deleteNode(Node node) throws NetworkFailureException {
+    public void deleteNode(final Node node) throws NetworkFailureException {
         commitUpdate();
-        try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
-
-            // action_list
-            node.setDeleted(true);
-            //获取删除操作的ID，加入到actionLiast中
-            actionList.put(node.getUpdateAction(getActionId()));
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // client_version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-            postRequest(jsPost);
-            mUpdateArray = null;
-        } catch (JSONException e) {
-            Log.e(TAG, e.toString());
-            e.printStackTrace();
-            throw new ActionFailureException("delete node: handing jsonobject failed");
-        }
+        // action_list
+        node.setDeleted(true);
+        //获取删除操作的ID，写入请求
+        final int actionId = getActionId();
+        postRequest(new ActionWriter() {
+            public void write(JsonWriter writer) throws IOException {
+                node.writeUpdateAction(writer, actionId);
+            }
+        }, REQUEST_IDEMPOTENT);
+        node.clearDirtyFields();
+        mUpdateNodes.clear();
     }
 
     //获取任务列表
@@ -571,23 +1002,22 @@ public class GTaskClient {
             throw new ActionFailureException("not logged in");
         }
 
+        checkAborted();
+
         try {
-            HttpGet httpGet = new HttpGet(mGetUrl);
-            HttpResponse response = null;
-            response = mHttpClient.execute(httpGet);
+            GTaskResponse response = executeWithRetry(createGetFactory(mGetUrl), REQUEST_READ);
 
             // get the task list
             //筛选工作，把筛选出的字符串放入jsString
-            String resString = getResponseContent(response.getEntity());
-            String jsBegin = "_setup(";
-            String jsEnd = ")}</script>";
-            int begin = resString.indexOf(jsBegin);
-            int end = resString.lastIndexOf(jsEnd);
-            String jsString = null;
-            if (begin != -1 && end != -1 && begin < end) {
-                jsString = resString.substring(begin + jsBegin.length(), end);
-            }
-            JSONObject js = new JSONObject(jsString);
+            if (isAuthFailure(response)) {
+                // 这通常是恢复会话后的第一个请求，
+                // 同时用于验证会话是否有效
+                if (!reLogin()) {
+                    throw new NetworkFailureException("gettasklists: login failed");
+                }
+                response = executeWithRetry(createGetFactory(mGetUrl), REQUEST_READ);
+            }
+            JSONObject js = getSetupJSON(response.content);
             //获取GTASK_JSON_LISTS
             return js.getJSONObject("t").getJSONArray(GTaskStringUtils.GTASK_JSON_LISTS);
         } catch (ClientProtocolException e) {
@@ -595,6 +1025,7 @@ public class GTaskClient {
             e.printStackTrace();
             throw new NetworkFailureException("gettasklists: httpget failed");
         } catch (IOException e) {
+            checkAborted();
             Log.e(TAG, e.toString());
             e.printStackTrace();
             throw new NetworkFailureException("gettasklists: httpget failed");
@@ -606,26 +1037,22 @@ public class GTaskClient {
     }
 
     //通过传入的TASKList的gid,从网络上获取相应属于这个任务列表的任务
-    public JSONArray getTaskList(String listGid) throws NetworkFailureException {
+    public JSONArray getTaskList(final String listGid) throws NetworkFailureException {
         commitUpdate();
         try {
-            JSONObject jsPost = new JSONObject();
-            JSONArray actionList = new JSONArray();
-            JSONObject action = new JSONObject();
-
-            // action_list
-            action.put(GTaskStringUtils.GTASK_JSON_ACTION_TYPE,
-                    GTaskStringUtils.GTASK_JSON_ACTION_TYPE_GETALL);
-            action.put(GTaskStringUtils.GTASK_JSON_ACTION_ID, getActionId());
-            action.put(GTaskStringUtils.GTASK_JSON_LIST_ID, listGid);//设置为传入的listGid
-            action.put(GTaskStringUtils.GTASK_JSON_GET_DELETED, false);
-            actionList.put(action);
-            jsPost.put(GTaskStringUtils.GTASK_JSON_ACTION_LIST, actionList);
-
-            // client_version
-            jsPost.put(GTaskStringUtils.GTASK_JSON_CLIENT_VERSION, mClientVersion);
-
-            JSONObject jsResponse = postRequest(jsPost);
+            final int actionId = getActionId();
+            JSONObject jsResponse = postRequest(new ActionWriter() {
+                public void write(JsonWriter writer) throws IOException {
+                    // action_list
+                    writer.beginObject();
+                    writer.name(GTaskStringUtils.GTASK_JSON_ACTION_TYPE)
+                            .value(GTaskStringUtils.GTASK_JSON_ACTION_TYPE_GETALL);
+                    writer.name(GTaskStringUtils.GTASK_JSON_ACTION_ID).value(actionId);
+                    writer.name(GTaskStringUtils.GTASK_JSON_LIST_ID).value(listGid);//设置为传入的listGid
+                    writer.name(GTaskStringUtils.GTASK_JSON_GET_DELETED).value(false);
+                    writer.endObject();
+                }
+            }, REQUEST_READ);
             return jsResponse.getJSONArray(GTaskStringUtils.GTASK_JSON_TASKS);
         } catch (JSONException e) {
             Log.e(TAG, e.toString());
@@ -640,6 +1067,6 @@ public class GTaskClient {
 
     //重置更新的内容
     public void resetUpdateArray() {
-        mUpdateArray = null;
+        mUpdateNodes.clear();
     }
 }
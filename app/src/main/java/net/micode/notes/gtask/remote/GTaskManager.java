@@ -18,7 +18,6 @@ package net.micode.notes.gtask.remote;
 
 import android.app.Activity;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
@@ -28,25 +27,37 @@ import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.DataColumns;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.SyncStateColumns;
+import net.micode.notes.gtask.data.ContentHash;
 import net.micode.notes.gtask.data.MetaData;
+import net.micode.notes.gtask.data.MetaDataCodec;
+import net.micode.notes.gtask.data.MetaDataPack;
 import net.micode.notes.gtask.data.Node;
 import net.micode.notes.gtask.data.SqlNote;
+import net.micode.notes.gtask.data.SyncConfig;
 import net.micode.notes.gtask.data.Task;
 import net.micode.notes.gtask.data.TaskList;
 import net.micode.notes.gtask.exception.ActionFailureException;
 import net.micode.notes.gtask.exception.NetworkFailureException;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.GTaskStringUtils;
+import net.micode.notes.tool.LongHashSet;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 
+/**
+ * 一个账号的同步会话
+ * 功能：保存同步过程中的全部状态（远程节点、元数据、id映射等工作集）并使用该账号自己的同步目标，
+ * 一般为GTaskClient，账号为本地文件夹时为LocalDirectoryTarget；
+ * 不同账号的会话互不影响，可以在GTaskSyncService的线程池中同时运行；同一个会话同时只运行一次同步
+ */
 public class GTaskManager {
     private static final String TAG = GTaskManager.class.getSimpleName();
     public static final int STATE_SUCCESS = 0;
@@ -54,54 +65,58 @@ public class GTaskManager {
     public static final int STATE_INTERNAL_ERROR = 2;
     public static final int STATE_SYNC_IN_PROGRESS = 3;
     public static final int STATE_SYNC_CANCELLED = 4;
-    private static GTaskManager mInstance = null;
+    // 新增到本地的便签每批检查一次id是否被占用
+    private static final int PROBE_BATCH_SIZE = 500;
+    private static volatile Activity mActivityContext;//最近一次发起同步的Activity，用于获取令牌
 
+    private final String mAccountName;//会话绑定的同步账号
+    private final SyncTarget mClient;//该账号的同步目标
     private Activity mActivity;
     private Context mContext;
     private ContentResolver mContentResolver;
-    private boolean mSyncing;
-    private boolean mCancelled;
+    private volatile boolean mSyncing;
+    private volatile boolean mCancelled;//由其他线程设置
     private HashMap<String, TaskList> mGTaskListHashMap;
     private HashMap<String, Node> mGTaskHashMap;
-    private HashMap<String, MetaData> mMetaHashMap;
+    private HashMap<String, MetaData> mMetaHashMap;//旧版本每个便签一条的元数据，同步时迁移到分片中
+    private ArrayList<MetaDataPack> mMetaPacks;//打包的元数据分片
+    private HashMap<String, MetaDataPack> mGidToMetaPack;//gid所在的元数据分片
     private TaskList mMetaList;
-    private HashSet<Long> mLocalDeleteIdMap;
-    private HashMap<String, Long> mGidToNid;
-    private HashMap<Long, String> mNidToGid;
-
-    private GTaskManager() { //对象初始化函数
+    private LongHashSet mLocalDeleteIdMap;
+    private LongHashSet mProbedNoteIds;//已经检查过是否存在的便签id
+    private LongHashSet mTakenNoteIds;//其中已被占用的便签id
+    private LongHashSet mProbedDataIds;//已经检查过是否存在的数据项id
+    private LongHashSet mTakenDataIds;//其中已被占用的数据项id
+    private GidNidMap mIdMap;//gid与本地便签id的双向映射
+    private SyncConfig mConfig;//本次同步的设置快照
+    private volatile SyncMetrics mMetrics;//本次（或上一次）同步的统计数据
+
+    public GTaskManager(String accountName) { //对象初始化函数
+        mAccountName = accountName;
+        mClient = LocalDirectoryTarget.isDirectoryAccount(accountName)
+                ? new LocalDirectoryTarget(accountName) : GTaskClient.getInstance(accountName);
         mSyncing = false;  //正在同步,flase代表未执行
         mCancelled = false;//全局标识，flase代表可以执行
         mGTaskListHashMap = new HashMap<String, TaskList>();//<>代表Java的泛型,就是创建一个用类型作为参数的类。
         mGTaskHashMap = new HashMap<String, Node>();
         mMetaHashMap = new HashMap<String, MetaData>();
+        mMetaPacks = new ArrayList<MetaDataPack>();
+        mGidToMetaPack = new HashMap<String, MetaDataPack>();
         mMetaList = null;
-        mLocalDeleteIdMap = new HashSet<Long>();
-        mGidToNid = new HashMap<String, Long>();//GoogleID to NodeID??
-        mNidToGid = new HashMap<Long, String>();//NodeID to GoogleID???通过hashmap散列表建立映射
+        mLocalDeleteIdMap = new LongHashSet();
+        mIdMap = new GidNidMap();//GoogleID与NodeID之间的映射
+        mConfig = null;
+        mMetrics = new SyncMetrics();
     }
 
     /**
-     * 包含关键字synchronized，语言级同步，指明该函数可能运行在多线程的环境下。
-     * 功能：类初始化函数
-     * @author TTS
-     * @return GtaskManger
-     */
-    public static synchronized GTaskManager getInstance() {//可能运行在多线程环境下，使用语言级同步--synchronized
-        if (mInstance == null) {
-            mInstance = new GTaskManager();
-        }
-        return mInstance;
-    }
-
-    /**
-     * 包含关键字synchronized，语言级同步，指明该函数可能运行在多线程的环境下。
+     * 功能：保存发起同步的Activity，之后创建的会话在同步开始时使用它获取令牌
      * @author TTS
      * @param activity
      */
-    public synchronized void setActivityContext(Activity activity) {
+    public static void setActivityContext(Activity activity) {
         // used for getting auth token
-        mActivity = activity;
+        mActivityContext = activity;
     }
 
     /**
@@ -113,24 +128,32 @@ public class GTaskManager {
      * @return int
      */
     public int sync(Context context, GTaskASyncTask asyncTask) {//核心函数
-        if (mSyncing) {
-            Log.d(TAG, "Sync is in progress");//创建日志文件（调试信息），debug
-            return STATE_SYNC_IN_PROGRESS;
+        synchronized (this) {
+            if (mSyncing) {
+                Log.d(TAG, "Sync is in progress");//创建日志文件（调试信息），debug
+                return STATE_SYNC_IN_PROGRESS;
+            }
+            mSyncing = true;
         }
+        mActivity = mActivityContext;
         mContext = context;
         mContentResolver = mContext.getContentResolver();
-        mSyncing = true;
-        mCancelled = false;
+        // 这里不重置mCancelled和mMetrics，会话在执行器中排队时就可能被取消
         mGTaskListHashMap.clear();
         mGTaskHashMap.clear();
         mMetaHashMap.clear();
+        mMetaPacks.clear();
+        mGidToMetaPack.clear();
         mLocalDeleteIdMap.clear();
-        mGidToNid.clear();
-        mNidToGid.clear();
+        clearProbedIds();
+        mIdMap.clear();
+        mConfig = new SyncConfig(mContext, mAccountName);
 
         try {
-            GTaskClient client = GTaskClient.getInstance();//getInstance即为创建一个实例,client--客户机
+            SyncTarget client = mClient;//该账号的客户端,client--客户机
             client.resetUpdateArray();//JSONArray类型，reset即置为NULL
+            client.clearAbort();
+            client.setSyncMetrics(mMetrics);
 
             // login google task
             if (!mCancelled) {
@@ -148,21 +171,31 @@ public class GTaskManager {
             syncContent();
         } catch (NetworkFailureException e) {//分为两种异常，此类异常为网络异常
             Log.e(TAG, e.toString()); //创建日志文件（调试信息），error
-            return STATE_NETWORK_ERROR;
+            // 被中止的请求表现为网络错误
+            return mCancelled ? STATE_SYNC_CANCELLED : STATE_NETWORK_ERROR;
         } catch (ActionFailureException e) {//此类异常为操作异常
             Log.e(TAG, e.toString());
-            return STATE_INTERNAL_ERROR;
+            return mCancelled ? STATE_SYNC_CANCELLED : STATE_INTERNAL_ERROR;
         } catch (Exception e) {
             Log.e(TAG, e.toString());
             e.printStackTrace();
-            return STATE_INTERNAL_ERROR;
+            return mCancelled ? STATE_SYNC_CANCELLED : STATE_INTERNAL_ERROR;
         } finally {
+            if (mCancelled) {
+                checkpointLocalDeletes();
+            }
+            mClient.setSyncMetrics(null);
+            mMetrics.onFinished();
+            Log.d(TAG, "sync finished: " + mMetrics.toString());
             mGTaskListHashMap.clear();
             mGTaskHashMap.clear();
             mMetaHashMap.clear();
+            mMetaPacks.clear();
+            mGidToMetaPack.clear();
             mLocalDeleteIdMap.clear();
-            mGidToNid.clear();
-            mNidToGid.clear();
+            clearProbedIds();
+            mIdMap.clear();
+            mConfig = null;
             mSyncing = false;
         }
 
@@ -179,7 +212,7 @@ public class GTaskManager {
     private void initGTaskList() throws NetworkFailureException {
         if (mCancelled)
             return;
-        GTaskClient client = GTaskClient.getInstance();    //getInstance即为创建一个实例，client应指远端客户机
+        SyncTarget client = mClient;    //client应指远端客户机
         try {
             //Json对象是Name Value对(即子元素)的无序集合，相当于一个Map对象。JsonObject类是bantouyan-json库对Json对象的抽象，提供操纵Json对象的各种方法。
             //其格式为{"key1":value1,"key2",value2....};key 必须是字符串。
@@ -201,6 +234,19 @@ public class GTaskManager {
                     JSONArray jsMetas = client.getTaskList(gid);
                     for (int j = 0; j < jsMetas.length(); j++) {
                         object = (JSONObject) jsMetas.getJSONObject(j);
+                        if (MetaDataPack.isMetaPack(object)) {
+                            // 打包的元数据，一个任务保存一个分片的便签
+                            MetaDataPack pack = new MetaDataPack();
+                            pack.setContentByRemoteJSON(object);
+                            if (pack.isWorthSaving()) {
+                                mMetaList.addChildTask(pack);
+                                mMetaPacks.add(pack);
+                                for (String relatedGid : pack.getGids()) {
+                                    mGidToMetaPack.put(relatedGid, pack);
+                                }
+                            }
+                            continue;
+                        }
                         MetaData metaData = new MetaData(); //继承自Node
                         metaData.setContentByRemoteJSON(object);
                         if (metaData.isWorthSaving()) {   //if not worth to save，metadata将不加入mMetaList
@@ -218,7 +264,7 @@ public class GTaskManager {
                 mMetaList = new TaskList();
                 mMetaList.setName(GTaskStringUtils.MIUI_FOLDER_PREFFIX
                         + GTaskStringUtils.FOLDER_META);
-                GTaskClient.getInstance().createTaskList(mMetaList);
+                mClient.createTaskList(mMetaList);
             }
 
             // init task list
@@ -243,7 +289,7 @@ public class GTaskManager {
                         Task task = new Task();
                         task.setContentByRemoteJSON(object);
                         if (task.isWorthSaving()) {
-                            task.setMetaInfo(mMetaHashMap.get(gid));
+                            task.setMetaRecord(getMetaRecord(gid));
                             tasklist.addChildTask(task);
                             mGTaskHashMap.put(gid, task);
                         }
@@ -268,7 +314,7 @@ public class GTaskManager {
         String gid; //GoogleID
         Node node;//Node包含Sync_Action的不同类型
 
-        mLocalDeleteIdMap.clear();//HashSet<Long>类型
+        mLocalDeleteIdMap.clear();//LongHashSet类型
 
         if (mCancelled) {
             return;
@@ -276,19 +322,24 @@ public class GTaskManager {
 
         // for local deleted note
         try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+            c = mContentResolver.query(mConfig.getSyncNoteUri(), SqlNote.PROJECTION_NOTE,
                     "(type<>? AND parent_id=?)", new String[] {
                             String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
                     }, null);
             if (c != null) {
-                while (c.moveToNext()) {
+                while (!mCancelled && c.moveToNext()) {
                     gid = c.getString(SqlNote.GTASK_ID_COLUMN);
                     node = mGTaskHashMap.get(gid);
                     if (node != null) {
                         mGTaskHashMap.remove(gid);
                         doContentSync(Node.SYNC_ACTION_DEL_REMOTE, node, c);
+                        // 取消时doContentSync可能没有删除远程节点，不能记入检查点，留给下一次同步
+                        if (mCancelled) {
+                            break;
+                        }
                     }
 
+                    // 远程节点已删除或本来就不存在
                     mLocalDeleteIdMap.add(c.getLong(SqlNote.ID_COLUMN));
                 }
             } else {
@@ -306,19 +357,21 @@ public class GTaskManager {
 
         // for note existing in database
         try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+            c = mContentResolver.query(mConfig.getSyncNoteUri(), SqlNote.PROJECTION_NOTE,
                     "(type=? AND parent_id<>?)", new String[] {
                             String.valueOf(Notes.TYPE_NOTE), String.valueOf(Notes.ID_TRASH_FOLER)
                     }, NoteColumns.TYPE + " DESC");
             if (c != null) {
-                while (c.moveToNext()) {
+                while (!mCancelled && c.moveToNext()) {
                     gid = c.getString(SqlNote.GTASK_ID_COLUMN);
                     node = mGTaskHashMap.get(gid);
                     if (node != null) {
                         mGTaskHashMap.remove(gid);
-                        mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));   //通过hashmap建立联系
-                        mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);   //通过hashmap建立联系
-                        syncType = node.getSyncAction(c);
+                        mIdMap.put(node.getGid(), c.getLong(SqlNote.ID_COLUMN));   //建立gid与id的联系
+                        // 文件夹已经同步，本地的父文件夹可以映射到其gid
+                        syncType = (node instanceof Task) ? ((Task) node).getSyncAction(c,
+                                mIdMap.getGid(c.getLong(SqlNote.PARENT_ID_COLUMN)))
+                                : node.getSyncAction(c);
                     } else {
                         if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
                             // local add
@@ -329,6 +382,9 @@ public class GTaskManager {
                         }
                     }
                     doContentSync(syncType, node, c);
+                    if (node instanceof Task) {
+                        ((Task) node).releaseMetaInfo();
+                    }
                 }
             } else {
                 Log.w(TAG, "failed to query existing note in database");
@@ -341,13 +397,27 @@ public class GTaskManager {
             }
         }
 
-        // go through remaining items
+        // 处理剩下的项，其中的id每次按一批检查
+        ArrayList<Node> batch = new ArrayList<Node>();
+        ArrayList<JSONObject> contents = new ArrayList<JSONObject>();
         Iterator<Map.Entry<String, Node>> iter = mGTaskHashMap.entrySet().iterator();//Iterator迭代器
-        while (iter.hasNext()) {
-            Map.Entry<String, Node> entry = iter.next();
-            node = entry.getValue();
-            doContentSync(Node.SYNC_ACTION_ADD_LOCAL, node, null);
+        while (!mCancelled && iter.hasNext()) {
+            batch.add(iter.next().getValue());
+            if (batch.size() == PROBE_BATCH_SIZE || !iter.hasNext()) {
+                // 每个节点的内容只解析一次，探测和添加共用
+                probeLocalIds(batch, contents);
+                for (int i = 0; !mCancelled && i < batch.size(); i++) {
+                    node = batch.get(i);
+                    addLocalNode(node, contents.get(i));
+                    if (node instanceof Task) {
+                        ((Task) node).releaseMetaInfo();
+                    }
+                }
+                batch.clear();
+                contents.clear();
+            }
         }
+        clearProbedIds();
 
         // mCancelled can be set by another thread, so we neet to check one by
         // thread----线程
@@ -357,11 +427,14 @@ public class GTaskManager {
             if (!DataUtils.batchDeleteNotes(mContentResolver, mLocalDeleteIdMap)) {
                 throw new ActionFailureException("failed to batch-delete local deleted notes");
             }
+            mLocalDeleteIdMap.clear();
         }
 
         // refresh local sync id
         if (!mCancelled) {
-            GTaskClient.getInstance().commitUpdate();
+            migrateLegacyMeta();
+            flushMetaPacks();
+            mClient.commitUpdate();
             refreshLocalSyncId();
         }
 
@@ -384,16 +457,17 @@ public class GTaskManager {
 
         // for root folder
         try {
-            c = mContentResolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI,
-                    Notes.ID_ROOT_FOLDER), SqlNote.PROJECTION_NOTE, null, null, null);
+            c = mContentResolver.query(mConfig.getSyncNoteUri(), SqlNote.PROJECTION_NOTE, "(_id=?)",
+                    new String[] {
+                            String.valueOf(Notes.ID_ROOT_FOLDER)
+                    }, null);
             if (c != null) {
                 c.moveToNext();
                 gid = c.getString(SqlNote.GTASK_ID_COLUMN);
                 node = mGTaskHashMap.get(gid);
                 if (node != null) {
                     mGTaskHashMap.remove(gid);
-                    mGidToNid.put(gid, (long) Notes.ID_ROOT_FOLDER);
-                    mNidToGid.put((long) Notes.ID_ROOT_FOLDER, gid);
+                    mIdMap.put(node.getGid(), Notes.ID_ROOT_FOLDER);
                     // for system folder, only update remote name if necessary
                     if (!node.getName().equals(
                             GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_DEFAULT))
@@ -413,7 +487,7 @@ public class GTaskManager {
 
         // for call-note folder
         try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE, "(_id=?)",
+            c = mContentResolver.query(mConfig.getSyncNoteUri(), SqlNote.PROJECTION_NOTE, "(_id=?)",
                     new String[] {
                             String.valueOf(Notes.ID_CALL_RECORD_FOLDER)
                     }, null);
@@ -423,8 +497,7 @@ public class GTaskManager {
                     node = mGTaskHashMap.get(gid);
                     if (node != null) {
                         mGTaskHashMap.remove(gid);
-                        mGidToNid.put(gid, (long) Notes.ID_CALL_RECORD_FOLDER);
-                        mNidToGid.put((long) Notes.ID_CALL_RECORD_FOLDER, gid);
+                        mIdMap.put(node.getGid(), Notes.ID_CALL_RECORD_FOLDER);
                         // for system folder, only update remote name if
                         // necessary
                         if (!node.getName().equals(
@@ -447,18 +520,17 @@ public class GTaskManager {
 
         // for local existing folders
         try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+            c = mContentResolver.query(mConfig.getSyncNoteUri(), SqlNote.PROJECTION_NOTE,
                     "(type=? AND parent_id<>?)", new String[] {
                             String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)
                     }, NoteColumns.TYPE + " DESC");
             if (c != null) {
-                while (c.moveToNext()) {
+                while (!mCancelled && c.moveToNext()) {
                     gid = c.getString(SqlNote.GTASK_ID_COLUMN);
                     node = mGTaskHashMap.get(gid);
                     if (node != null) {
                         mGTaskHashMap.remove(gid);
-                        mGidToNid.put(gid, c.getLong(SqlNote.ID_COLUMN));
-                        mNidToGid.put(c.getLong(SqlNote.ID_COLUMN), gid);
+                        mIdMap.put(node.getGid(), c.getLong(SqlNote.ID_COLUMN));
                         syncType = node.getSyncAction(c);
                     } else {
                         if (c.getString(SqlNote.GTASK_ID_COLUMN).trim().length() == 0) {
@@ -494,7 +566,7 @@ public class GTaskManager {
         }
 
         if (!mCancelled)
-            GTaskClient.getInstance().commitUpdate();
+            mClient.commitUpdate();
     }
 
     /**
@@ -510,7 +582,6 @@ public class GTaskManager {
             return;
         }
 
-        MetaData meta;
         switch (syncType) {
             case Node.SYNC_ACTION_ADD_LOCAL:
                 addLocalNode(node);
@@ -519,29 +590,26 @@ public class GTaskManager {
                 addRemoteNode(node, c);
                 break;
             case Node.SYNC_ACTION_DEL_LOCAL:
-                meta = mMetaHashMap.get(c.getString(SqlNote.GTASK_ID_COLUMN));
-                if (meta != null) {
-                    GTaskClient.getInstance().deleteNode(meta);
-                }
+                removeRemoteMeta(c.getString(SqlNote.GTASK_ID_COLUMN));
+                mIdMap.removeByNid(c.getLong(SqlNote.ID_COLUMN));
                 mLocalDeleteIdMap.add(c.getLong(SqlNote.ID_COLUMN));
                 break;
             case Node.SYNC_ACTION_DEL_REMOTE:
-                meta = mMetaHashMap.get(node.getGid());
-                if (meta != null) {
-                    GTaskClient.getInstance().deleteNode(meta);
-                }
-                GTaskClient.getInstance().deleteNode(node);
+                removeRemoteMeta(node.getGid());
+                // 已删除的节点不再参与父节点查找和旧元数据迁移
+                mIdMap.removeByGid(node.getGid());
+                mClient.deleteNode(node);
                 break;
             case Node.SYNC_ACTION_UPDATE_LOCAL:
                 updateLocalNode(node, c);
                 break;
             case Node.SYNC_ACTION_UPDATE_REMOTE:
-                updateRemoteNode(node, c);
+                updateRemoteNode(node, c, false);
                 break;
             case Node.SYNC_ACTION_UPDATE_CONFLICT:
                 // merging both modifications maybe a good idea
                 // right now just use local update simply
-                updateRemoteNode(node, c);
+                updateRemoteNode(node, c, true);
                 break;
             case Node.SYNC_ACTION_NONE:
                 break;
@@ -551,6 +619,82 @@ public class GTaskManager {
         }
     }
 
+    /**
+     * 功能：一次查出一批远端便签携带的便签id和数据项id中哪些在本地已被占用，
+     * 代替addLocalNode中逐条的existInNoteDatabase和existInDataDatabase查询
+     * @param nodes
+     * @param contents
+     * ----按nodes的顺序放入每个任务解析出的内容，供addLocalNode直接使用，不是任务时为null
+     */
+    private void probeLocalIds(ArrayList<Node> nodes, ArrayList<JSONObject> contents) {
+        LongHashSet noteIds = new LongHashSet();
+        LongHashSet dataIds = new LongHashSet();
+        for (Node node : nodes) {
+            JSONObject js = node instanceof Task ? node.getLocalJSONFromContent() : null;
+            contents.add(js);
+            if (js == null) {
+                continue;
+            }
+            try {
+                if (js.has(GTaskStringUtils.META_HEAD_NOTE)) {
+                    JSONObject note = js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
+                    if (note.has(NoteColumns.ID)) {
+                        noteIds.add(note.getLong(NoteColumns.ID));
+                    }
+                }
+                if (js.has(GTaskStringUtils.META_HEAD_DATA)) {
+                    JSONArray dataArray = js.getJSONArray(GTaskStringUtils.META_HEAD_DATA);
+                    for (int i = 0; i < dataArray.length(); i++) {
+                        JSONObject data = dataArray.getJSONObject(i);
+                        if (data.has(DataColumns.ID)) {
+                            dataIds.add(data.getLong(DataColumns.ID));
+                        }
+                    }
+                }
+            } catch (JSONException e) {
+                // 由addLocalNode报告错误
+                Log.w(TAG, e.toString());
+            }
+        }
+
+        clearProbedIds();
+        if (!noteIds.isEmpty()) {
+            mTakenNoteIds = DataUtils.filterExistingNoteIds(mContentResolver, noteIds);
+            mProbedNoteIds = noteIds;
+        }
+        if (!dataIds.isEmpty()) {
+            mTakenDataIds = DataUtils.filterExistingDataIds(mContentResolver, dataIds);
+            mProbedDataIds = dataIds;
+        }
+    }
+
+    private void clearProbedIds() {
+        mProbedNoteIds = null;
+        mTakenNoteIds = null;
+        mProbedDataIds = null;
+        mTakenDataIds = null;
+    }
+
+    /*
+     * 功能描述：便签id在本地是否已被占用，优先使用probeLocalIds的结果
+     */
+    private boolean isNoteIdTaken(long id) {
+        if (mProbedNoteIds != null && mProbedNoteIds.contains(id)) {
+            return mTakenNoteIds.contains(id);
+        }
+        return DataUtils.existInNoteDatabase(mContentResolver, id);
+    }
+
+    /*
+     * 功能描述：数据项id在本地是否已被占用，优先使用probeLocalIds的结果
+     */
+    private boolean isDataIdTaken(long id) {
+        if (mProbedDataIds != null && mProbedDataIds.contains(id)) {
+            return mTakenDataIds.contains(id);
+        }
+        return DataUtils.existInDataDatabase(mContentResolver, id);
+    }
+
     /**
      * 功能：本地增加Node
      * @author TTS
@@ -558,6 +702,17 @@ public class GTaskManager {
      * @throws NetworkFailureException
      */
     private void addLocalNode(Node node) throws NetworkFailureException {
+        addLocalNode(node, node instanceof Task ? node.getLocalJSONFromContent() : null);
+    }
+
+    /**
+     * 功能：本地增加Node，使用已经解析好的任务内容
+     * @param node
+     * @param js
+     * ----node为任务时由getLocalJSONFromContent得到的内容，会被修改
+     * @throws NetworkFailureException
+     */
+    private void addLocalNode(Node node, JSONObject js) throws NetworkFailureException {
         if (mCancelled) {
             return;
         }
@@ -566,24 +721,23 @@ public class GTaskManager {
         if (node instanceof TaskList) {
             if (node.getName().equals(
                     GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_DEFAULT)) {
-                sqlNote = new SqlNote(mContext, Notes.ID_ROOT_FOLDER);
+                sqlNote = new SqlNote(mContext, Notes.ID_ROOT_FOLDER, mConfig);
             } else if (node.getName().equals(
                     GTaskStringUtils.MIUI_FOLDER_PREFFIX + GTaskStringUtils.FOLDER_CALL_NOTE)) {
-                sqlNote = new SqlNote(mContext, Notes.ID_CALL_RECORD_FOLDER);
+                sqlNote = new SqlNote(mContext, Notes.ID_CALL_RECORD_FOLDER, mConfig);
             } else {
-                sqlNote = new SqlNote(mContext);
+                sqlNote = new SqlNote(mContext, mConfig);
                 sqlNote.setContent(node.getLocalJSONFromContent());
                 sqlNote.setParentId(Notes.ID_ROOT_FOLDER);
             }
         } else {
-            sqlNote = new SqlNote(mContext);
-            JSONObject js = node.getLocalJSONFromContent();
+            sqlNote = new SqlNote(mContext, mConfig);
             try {
                 if (js.has(GTaskStringUtils.META_HEAD_NOTE)) {
                     JSONObject note = js.getJSONObject(GTaskStringUtils.META_HEAD_NOTE);
                     if (note.has(NoteColumns.ID)) {
                         long id = note.getLong(NoteColumns.ID);
-                        if (DataUtils.existInNoteDatabase(mContentResolver, id)) {
+                        if (isNoteIdTaken(id)) {
                             // the id is not available, have to create a new one
                             note.remove(NoteColumns.ID);
                         }
@@ -596,7 +750,7 @@ public class GTaskManager {
                         JSONObject data = dataArray.getJSONObject(i);
                         if (data.has(DataColumns.ID)) {
                             long dataId = data.getLong(DataColumns.ID);
-                            if (DataUtils.existInDataDatabase(mContentResolver, dataId)) {
+                            if (isDataIdTaken(dataId)) {
                                 // the data id is not available, have to create
                                 // a new one
                                 data.remove(DataColumns.ID);
@@ -611,21 +765,29 @@ public class GTaskManager {
             }
             sqlNote.setContent(js);
 
-            Long parentId = mGidToNid.get(((Task) node).getParent().getGid());
-            if (parentId == null) {
+            long parentId = mIdMap.getNid(((Task) node).getParent().getGid());
+            if (parentId == GidNidMap.NO_ID) {
                 Log.e(TAG, "cannot find task's parent id locally");
                 throw new ActionFailureException("cannot add local node");
             }
-            sqlNote.setParentId(parentId.longValue());
+            sqlNote.setParentId(parentId);
         }
 
         // create the local node
         sqlNote.setGtaskId(node.getGid());
+        sqlNote.setSyncHash(sqlNote.getContentHash());
         sqlNote.commit(false);
 
+        // 这些id已经占用，同一批后面的节点不能再使用
+        if (mTakenNoteIds != null) {
+            mTakenNoteIds.add(sqlNote.getId());
+        }
+        if (mTakenDataIds != null) {
+            sqlNote.collectDataIds(mTakenDataIds);
+        }
+
         // update gid-nid mapping
-        mGidToNid.put(node.getGid(), sqlNote.getId());
-        mNidToGid.put(sqlNote.getId(), node.getGid());
+        mIdMap.put(node.getGid(), sqlNote.getId());
 
         // update meta
         updateRemoteMeta(node.getGid(), sqlNote);
@@ -647,16 +809,17 @@ public class GTaskManager {
 
         SqlNote sqlNote;
         // update the note locally
-        sqlNote = new SqlNote(mContext, c);
+        sqlNote = new SqlNote(mContext, c, mConfig);
         sqlNote.setContent(node.getLocalJSONFromContent());
 
-        Long parentId = (node instanceof Task) ? mGidToNid.get(((Task) node).getParent().getGid())
-                : new Long(Notes.ID_ROOT_FOLDER);
-        if (parentId == null) {
+        long parentId = (node instanceof Task) ? mIdMap.getNid(((Task) node).getParent().getGid())
+                : Notes.ID_ROOT_FOLDER;
+        if (parentId == GidNidMap.NO_ID) {
             Log.e(TAG, "cannot find task's parent id locally");
             throw new ActionFailureException("cannot update local node");
         }
-        sqlNote.setParentId(parentId.longValue());
+        sqlNote.setParentId(parentId);
+        sqlNote.setSyncHash(sqlNote.getContentHash());
         sqlNote.commit(true);
 
         // update meta info
@@ -678,7 +841,7 @@ public class GTaskManager {
             return;
         }
 
-        SqlNote sqlNote = new SqlNote(mContext, c);//从本地mContext中获取内容
+        SqlNote sqlNote = new SqlNote(mContext, c, mConfig);//从本地mContext中获取内容
         Node n;
 
         // update remotely
@@ -686,7 +849,7 @@ public class GTaskManager {
             Task task = new Task();
             task.setContentByLocalJSON(sqlNote.getContent());
 
-            String parentGid = mNidToGid.get(sqlNote.getParentId());
+            String parentGid = mIdMap.getGid(sqlNote.getParentId());
             if (parentGid == null) {
                 Log.e(TAG, "cannot find task's parent tasklist");//调试信息
                 throw new ActionFailureException("cannot add remote task");
@@ -694,7 +857,7 @@ public class GTaskManager {
             mGTaskListHashMap.get(parentGid).addChildTask(task); //在本地生成的GTaskList中增加子结点
 
             //登录远程服务器，创建Task
-            GTaskClient.getInstance().createTask(task);
+            mClient.createTask(task);
             n = (Node) task;
 
             // add meta
@@ -731,7 +894,7 @@ public class GTaskManager {
             if (tasklist == null) {
                 tasklist = new TaskList();
                 tasklist.setContentByLocalJSON(sqlNote.getContent());
-                GTaskClient.getInstance().createTaskList(tasklist);
+                mClient.createTaskList(tasklist);
                 mGTaskListHashMap.put(tasklist.getGid(), tasklist);
             }
             n = (Node) tasklist;
@@ -740,13 +903,13 @@ public class GTaskManager {
         // update local note
         sqlNote.setGtaskId(n.getGid());
         sqlNote.commit(false);
+        sqlNote.setSyncHash(sqlNote.getContentHash());
         sqlNote.resetLocalModified();
         sqlNote.commit(true);
 
         // gid-id mapping
         // 创建id间的映射
-        mGidToNid.put(n.getGid(), sqlNote.getId());
-        mNidToGid.put(sqlNote.getId(), n.getGid());
+        mIdMap.put(n.getGid(), sqlNote.getId());
     }
 
     /**
@@ -756,46 +919,66 @@ public class GTaskManager {
      * ----同步操作的基础数据类型
      * @param c
      *  --Cursor
+     * @param conflict
+     *  --本地和远程都有修改
      * @throws NetworkFailureException
      */
-    private void updateRemoteNode(Node node, Cursor c) throws NetworkFailureException {
+    private void updateRemoteNode(Node node, Cursor c, boolean conflict)
+            throws NetworkFailureException {
         if (mCancelled) {
             return;
         }
 
-        SqlNote sqlNote = new SqlNote(mContext, c);
-
-        // update remotely
-        node.setContentByLocalJSON(sqlNote.getContent());
-        GTaskClient.getInstance().addUpdateNode(node); //GTaskClient用途为从本地登陆远端服务器
-
-        // update meta
-        updateRemoteMeta(node.getGid(), sqlNote);
+        SqlNote sqlNote = new SqlNote(mContext, c, mConfig);
+        long contentHash = sqlNote.getContentHash();
 
-        // move task if necessary
+        Task task = null;
+        TaskList preParentList = null;
+        TaskList curParentList = null;
         if (sqlNote.isNoteType()) {
-            Task task = (Task) node;
-            TaskList preParentList = task.getParent();
+            task = (Task) node;
+            preParentList = task.getParent();
             //preParentList为通过node获取的父节点列表
 
-            String curParentGid = mNidToGid.get(sqlNote.getParentId());
-            //curParentGid为通过光标在数据库中找到sqlNote的mParentId，再通过mNidToGid由long类型转为String类型的Gid
+            String curParentGid = mIdMap.getGid(sqlNote.getParentId());
+            //curParentGid为通过光标在数据库中找到sqlNote的mParentId，再通过mIdMap由long类型转为String类型的Gid
 
             if (curParentGid == null) {
                 Log.e(TAG, "cannot find task's parent tasklist");
                 throw new ActionFailureException("cannot update remote task");
             }
-            TaskList curParentList = mGTaskListHashMap.get(curParentGid);
+            curParentList = mGTaskListHashMap.get(curParentGid);
             //通过HashMap找到对应Gid的TaskList
 
-            if (preParentList != curParentList) {
-                preParentList.removeChildTask(task);
-                curParentList.addChildTask(task);
-                GTaskClient.getInstance().moveTask(task, preParentList, curParentList);
+            // 内容与另一端相同时不上传
+            long otherHash = conflict ? task.getContentHash() : sqlNote.getSyncHash();
+            if (preParentList == curParentList && otherHash != ContentHash.UNKNOWN
+                    && otherHash == contentHash) {
+                Log.d(TAG, "content unchanged, skip updating remote task " + node.getGid());
+                sqlNote.setSyncHash(contentHash);
+                sqlNote.resetLocalModified();
+                sqlNote.commit(true);
+                return;
             }
         }
 
+        // 更新远程，只上传与远程不同的字段，
+        // 例如修改颜色或提醒时不改动任务本身
+        node.setContentByLocalJSON(sqlNote.getContent());
+        mClient.addUpdateNode(node); //GTaskClient用途为从本地登陆远端服务器
+
+        // 更新元数据，记录确实变化时才上传所在的分片
+        updateRemoteMeta(node.getGid(), sqlNote);
+
+        // move task if necessary
+        if (task != null && preParentList != curParentList) {
+            preParentList.removeChildTask(task);
+            curParentList.addChildTask(task);
+            mClient.moveTask(task, preParentList, curParentList);
+        }
+
         // clear local modified flag
+        sqlNote.setSyncHash(contentHash);
         sqlNote.resetLocalModified();
         //commit到本地数据库
         sqlNote.commit(true);
@@ -812,20 +995,208 @@ public class GTaskManager {
      */
     private void updateRemoteMeta(String gid, SqlNote sqlNote) throws NetworkFailureException {
         if (sqlNote != null && sqlNote.isNoteType()) {
-            MetaData metaData = mMetaHashMap.get(gid);
+            // 这里只标记分片为已修改，由flushMetaPacks统一上传
+            String record = MetaDataCodec.encode(gid, sqlNote.getContent());
+            getMetaPack(gid, record).putRecord(gid, record);
+
+            // 每个便签一个的元数据由打包的记录代替
+            MetaData metaData = mMetaHashMap.remove(gid);
             if (metaData != null) {
-                metaData.setMeta(gid, sqlNote.getContent());
-                GTaskClient.getInstance().addUpdateNode(metaData);
-            } else {
-                metaData = new MetaData();
-                metaData.setMeta(gid, sqlNote.getContent());
-                mMetaList.addChildTask(metaData);
-                mMetaHashMap.put(gid, metaData);
-                GTaskClient.getInstance().createTask(metaData);
+                metaData.setDeleted(true);
+                mClient.addUpdateNode(metaData);
             }
         }
     }
 
+    /**
+     * 功能：获取gid的编码后的元数据，优先使用分片中的记录，其次是旧版本的单条元数据
+     * 记录在Task第一次使用时才解码
+     * @param gid
+     * @return String，不存在时为null
+     */
+    private String getMetaRecord(String gid) {
+        MetaDataPack pack = mGidToMetaPack.get(gid);
+        if (pack != null) {
+            String record = pack.getRecord(gid);
+            if (record != null) {
+                return record;
+            }
+        }
+        MetaData metaData = mMetaHashMap.get(gid);
+        return metaData != null ? metaData.getNotes() : null;
+    }
+
+    /**
+     * 功能：获取写入gid的记录的分片。gid所在的分片放不下新的记录时从中移出，
+     * 分配到一个放得下的分片（必要时新建，留到flushMetaPacks时创建）
+     * @param gid
+     * @param record
+     * ----将要写入的编码后的记录
+     * @return MetaDataPack
+     */
+    private MetaDataPack getMetaPack(String gid, String record) {
+        MetaDataPack pack = mGidToMetaPack.get(gid);
+        if (pack != null) {
+            if (pack.canHold(gid, record)) {
+                return pack;
+            }
+            pack.remove(gid);
+        }
+        pack = null;
+        for (MetaDataPack p : mMetaPacks) {
+            if (p.canHold(gid, record)) {
+                pack = p;
+                break;
+            }
+        }
+        if (pack == null) {
+            pack = newMetaPack();
+        }
+        mGidToMetaPack.put(gid, pack);
+        return pack;
+    }
+
+    private MetaDataPack newMetaPack() {
+        MetaDataPack pack = new MetaDataPack();
+        mMetaList.addChildTask(pack);
+        mMetaPacks.add(pack);
+        return pack;
+    }
+
+    /**
+     * 功能：删除gid对应的远程元数据
+     * @param gid
+     * @throws NetworkFailureException
+     */
+    private void removeRemoteMeta(String gid) throws NetworkFailureException {
+        MetaDataPack pack = mGidToMetaPack.remove(gid);
+        if (pack != null) {
+            pack.remove(gid);
+        }
+        MetaData meta = mMetaHashMap.remove(gid);
+        if (meta != null) {
+            mClient.deleteNode(meta);
+        }
+    }
+
+    /**
+     * 功能：把剩余的旧版本单条元数据迁移到分片中，并删除旧的meta task。
+     * 同步过的便签都已记录在mIdMap中，找不到对应便签的旧元数据直接删除
+     * @throws NetworkFailureException
+     */
+    private void migrateLegacyMeta() throws NetworkFailureException {
+        if (mMetaHashMap.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "migrate " + mMetaHashMap.size() + " legacy meta to packs");
+        SyncTarget client = mClient;
+        Iterator<Map.Entry<String, MetaData>> iter = mMetaHashMap.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<String, MetaData> entry = iter.next();
+            String gid = entry.getKey();
+            MetaData metaData = entry.getValue();
+            JSONObject metaInfo = metaData.getMetaContent();
+            if (gid != null && metaInfo != null && mIdMap.containsGid(gid)) {
+                String record = MetaDataCodec.encode(gid, metaInfo);
+                getMetaPack(gid, record).putRecord(gid, record);
+            }
+            metaData.setDeleted(true);
+            client.addUpdateNode(metaData);
+            iter.remove();
+        }
+    }
+
+    /**
+     * 功能：上传有修改的元数据分片，新分片在这里创建，空分片被删除。
+     * 已有的分片上传前先与刚取回的远程版本逐条合并，不覆盖其他设备在同一分片中写入的记录；
+     * 合并后超过长度限制时，把本次写入的记录移到新的分片
+     * @throws NetworkFailureException
+     */
+    private void flushMetaPacks() throws NetworkFailureException {
+        SyncTarget client = mClient;
+        HashMap<String, JSONObject> remotePacks = fetchDirtyRemotePacks();
+        // 合并时移出的记录放入新分片，追加在列表末尾，按下标遍历以便一起上传
+        for (int i = 0; i < mMetaPacks.size(); i++) {
+            MetaDataPack pack = mMetaPacks.get(i);
+            if (pack.getGid() == null) {
+                if (pack.size() > 0) {
+                    pack.pack();
+                    client.createTask(pack);
+                } else {
+                    mMetaList.removeChildTask(pack);
+                    mMetaPacks.remove(i--);
+                }
+            } else if (pack.isDirty()) {
+                JSONObject remote = remotePacks.get(pack.getGid());
+                if (remote != null) {
+                    MetaDataPack remotePack = new MetaDataPack();
+                    remotePack.setContentByRemoteJSON(remote);
+                    pack.rebase(remotePack);
+                    moveOverflowRecords(pack);
+                } else {
+                    Log.w(TAG, "meta pack " + pack.getGid() + " not found remotely, overwrite it");
+                }
+                if (pack.size() > 0) {
+                    pack.pack();
+                    client.addUpdateNode(pack);
+                } else {
+                    client.deleteNode(pack);
+                    mMetaPacks.remove(i--);
+                }
+            }
+        }
+    }
+
+    /**
+     * 功能：有修改的已有分片时，重新取回meta列表中的分片，以gid为键
+     * @return HashMap
+     * @throws NetworkFailureException
+     */
+    private HashMap<String, JSONObject> fetchDirtyRemotePacks() throws NetworkFailureException {
+        HashMap<String, JSONObject> remotePacks = new HashMap<String, JSONObject>();
+        boolean needed = false;
+        for (MetaDataPack pack : mMetaPacks) {
+            if (pack.getGid() != null && pack.isDirty()) {
+                needed = true;
+                break;
+            }
+        }
+        if (!needed) {
+            return remotePacks;
+        }
+        try {
+            JSONArray jsMetas = mClient.getTaskList(mMetaList.getGid());
+            for (int i = 0; i < jsMetas.length(); i++) {
+                JSONObject object = jsMetas.getJSONObject(i);
+                if (MetaDataPack.isMetaPack(object)) {
+                    remotePacks.put(object.getString(GTaskStringUtils.GTASK_JSON_ID), object);
+                }
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, e.toString());
+            throw new ActionFailureException("fetch meta packs failed");
+        }
+        return remotePacks;
+    }
+
+    /**
+     * 功能：合并后的分片超过长度限制时，把本次写入的记录逐条移到新的分片
+     * @param pack
+     */
+    private void moveOverflowRecords(MetaDataPack pack) {
+        String gid;
+        while ((gid = pack.getOverflowGid()) != null) {
+            String record = pack.getRecord(gid);
+            pack.remove(gid);
+            MetaDataPack target = mMetaPacks.get(mMetaPacks.size() - 1);
+            if (target.getGid() != null || !target.canHold(gid, record)) {
+                target = newMetaPack();
+            }
+            target.putRecord(gid, record);
+            mGidToMetaPack.put(gid, target);
+        }
+    }
+
     /**
      * 功能：刷新本地，给sync的ID对应上最后更改过的对象
      * @author TTS
@@ -842,24 +1213,28 @@ public class GTaskManager {
         mGTaskHashMap.clear();
         mGTaskListHashMap.clear();
         mMetaHashMap.clear();
+        mMetaPacks.clear();
+        mGidToMetaPack.clear();
         initGTaskList();
 
         Cursor c = null;
         try {
-            c = mContentResolver.query(Notes.CONTENT_NOTE_URI, SqlNote.PROJECTION_NOTE,
+            c = mContentResolver.query(mConfig.getSyncNoteUri(), SqlNote.PROJECTION_NOTE,
                     "(type<>? AND parent_id<>?)", new String[] {
                             String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)
                     }, NoteColumns.TYPE + " DESC");                                                 //query语句：五个参数，NoteColumns.TYPE + " DESC"-----为按类型递减顺序返回查询结果。new String[] {String.valueOf(Notes.TYPE_SYSTEM), String.valueOf(Notes.ID_TRASH_FOLER)}------为选择参数。"(type<>? AND parent_id<>?)"-------指明返回行过滤器。SqlNote.PROJECTION_NOTE--------应返回的数据列的名字。Notes.CONTENT_NOTE_URI--------contentProvider包含所有数据集所对应的uri
             if (c != null) {
-                while (c.moveToNext()) {
+                while (!mCancelled && c.moveToNext()) {
                     String gid = c.getString(SqlNote.GTASK_ID_COLUMN);
                     Node node = mGTaskHashMap.get(gid);
                     if (node != null) {
                         mGTaskHashMap.remove(gid);
                         ContentValues values = new ContentValues();//在ContentValues中创建键值对。准备通过contentResolver写入数据
-                        values.put(NoteColumns.SYNC_ID, node.getLastModified());
-                        mContentResolver.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, //进行批量更改，选择参数为NULL，应该可以用insert替换，参数分别为表名和需要更新的value对象。
-                                c.getLong(SqlNote.ID_COLUMN)), values, null, null);
+                        values.put(SyncStateColumns.ACCOUNT, mAccountName);
+                        values.put(SyncStateColumns.NOTE_ID, c.getLong(SqlNote.ID_COLUMN));
+                        values.put(SyncStateColumns.SYNC_ID, node.getLastModified());
+                        // 只写入该账号的同步状态，不修改便签本身
+                        mContentResolver.insert(Notes.CONTENT_SYNC_STATE_URI, values);
                     } else {
                         Log.e(TAG, "something is missed");
                         throw new ActionFailureException(
@@ -878,12 +1253,12 @@ public class GTaskManager {
     }
 
     /**
-     * 功能：获取同步账号,mAccount.name
+     * 功能：获取会话绑定的同步账号
      * @author TTS
      * @return String
      */
     public String getSyncAccount() {
-        return GTaskClient.getInstance().getSyncAccount().name;
+        return mAccountName;
     }
 
     /**
@@ -892,5 +1267,32 @@ public class GTaskManager {
      */
     public void cancelSync() {
         mCancelled = true;
+        mMetrics.onCancelRequested();
+        // 不等待正在进行的请求超时
+        mClient.abort();
+    }
+
+    /**
+     * 功能：获取本次（或上一次）同步的统计数据
+     * @return SyncMetrics
+     */
+    public SyncMetrics getSyncMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * 功能：同步被取消时保存已完成的本地删除。
+     * mLocalDeleteIdMap中的便签在远程已经删除（或本来就不存在），本地删除不会破坏一致性，
+     * 下一次同步不必再处理它们；其他本地修改都是逐条提交的，无需回滚
+     */
+    private void checkpointLocalDeletes() {
+        if (mLocalDeleteIdMap.isEmpty()) {
+            return;
+        }
+        Log.d(TAG, "checkpoint " + mLocalDeleteIdMap.size() + " local deletes");
+        if (!DataUtils.batchDeleteNotes(mContentResolver, mLocalDeleteIdMap)) {
+            Log.w(TAG, "failed to checkpoint local deleted notes");
+        }
+        mLocalDeleteIdMap.clear();
     }
 }
\ No newline at end of file
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.util.JsonWriter;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * GTask请求的表单实体
+ * 功能：把请求的JSON内容边生成边按application/x-www-form-urlencoded编码写入连接，请求体为"r=<json>"，
+ * 不再经过JSONObject.toString()和UrlEncodedFormEntity，内存占用只有固定大小的编码缓冲区，与一次提交的操作数无关。
+ * 长度在第一次需要时通过一次只计数的写出得到，并缓存下来，请求不用分块传输；
+ * 实体可以重复写出，供重试和对冲请求共用
+ */
+public class GTaskRequestEntity extends AbstractHttpEntity {
+    /**
+     * 请求内容，每次写出都必须得到相同的结果
+     */
+    public interface Body {
+        void write(JsonWriter writer) throws IOException;
+    }
+
+    private static final byte[] FORM_PREFIX = {'r', '='};
+
+    private final Body mBody;
+
+    private long mContentLength;//编码后的长度，-1表示还没有计算
+
+    public GTaskRequestEntity(Body body) {
+        mBody = body;
+        mContentLength = -1;
+        setContentType("application/x-www-form-urlencoded;charset=utf-8");
+    }
+
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    public boolean isStreaming() {
+        return false;
+    }
+
+    public synchronized long getContentLength() {
+        if (mContentLength < 0) {
+            CountingOutputStream counter = new CountingOutputStream();
+            try {
+                writeTo(counter);
+                mContentLength = counter.getCount();
+            } catch (IOException e) {
+                // 请求体无法写出时返回-1，由writeTo报告错误
+                return -1;
+            }
+        }
+        return mContentLength;
+    }
+
+    /*
+     * 功能描述：只在调试或者不支持writeTo的场合使用，会把整个请求体放入内存
+     */
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        out.write(FORM_PREFIX);
+        FormEncodingWriter encoder = new FormEncodingWriter(out);
+        JsonWriter writer = new JsonWriter(encoder);
+        mBody.write(writer);
+        // 只刷新不关闭，连接的输出流由调用者管理
+        writer.flush();
+        encoder.finish();
+    }
+
+    /**
+     * 把字符按UTF-8编码后再做表单编码，规则与URLEncoder相同：
+     * 字母数字和".-*_"原样输出，空格输出为'+'，其余字节输出为%XX；不成对的代理字符输出为'?'的编码
+     */
+    static final class FormEncodingWriter extends Writer {
+        private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+        private static final int BUFFER_SIZE = 2048;
+
+        private final OutputStream mOut;
+
+        private final byte[] mBuffer;
+
+        private int mCount;
+
+        private char mHighSurrogate;//等待低位代理字符的高位代理字符，0表示没有
+
+        FormEncodingWriter(OutputStream out) {
+            mOut = out;
+            mBuffer = new byte[BUFFER_SIZE];
+            mCount = 0;
+            mHighSurrogate = 0;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                writeChar(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                writeChar(str.charAt(i));
+            }
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            writeChar((char) c);
+        }
+
+        private void writeChar(char c) throws IOException {
+            if (mHighSurrogate != 0) {
+                char high = mHighSurrogate;
+                mHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int codePoint = Character.toCodePoint(high, c);
+                    encodeByte(0xF0 | (codePoint >> 18));
+                    encodeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                    encodeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                    encodeByte(0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                encodeByte('?');
+            }
+
+            if (Character.isHighSurrogate(c)) {
+                mHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                encodeByte('?');
+            } else if (c < 0x80) {
+                encodeByte(c);
+            } else if (c < 0x800) {
+                encodeByte(0xC0 | (c >> 6));
+                encodeByte(0x80 | (c & 0x3F));
+            } else {
+                encodeByte(0xE0 | (c >> 12));
+                encodeByte(0x80 | ((c >> 6) & 0x3F));
+                encodeByte(0x80 | (c & 0x3F));
+            }
+        }
+
+        private void encodeByte(int b) throws IOException {
+            if (mCount + 3 > mBuffer.length) {
+                flushBuffer();
+            }
+            if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '.' || b == '-' || b == '*' || b == '_') {
+                mBuffer[mCount++] = (byte) b;
+            } else if (b == ' ') {
+                mBuffer[mCount++] = '+';
+            } else {
+                mBuffer[mCount++] = '%';
+                mBuffer[mCount++] = (byte) HEX[(b >> 4) & 0x0F];
+                mBuffer[mCount++] = (byte) HEX[b & 0x0F];
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            if (mCount > 0) {
+                mOut.write(mBuffer, 0, mCount);
+                mCount = 0;
+            }
+        }
+
+        /*
+         * 功能描述：输出末尾不成对的代理字符和缓冲区中的内容
+         */
+        void finish() throws IOException {
+            if (mHighSurrogate != 0) {
+                mHighSurrogate = 0;
+                encodeByte('?');
+            }
+            flushBuffer();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+    }
+
+    //只统计写入的字节数，用于计算请求长度
+    private static final class CountingOutputStream extends OutputStream {
+        private long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.text.TextUtils;
+import android.util.Base64;
+import android.util.Log;
+
+import org.apache.http.client.CookieStore;
+import org.apache.http.cookie.Cookie;
+import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.cookie.BasicClientCookie;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Date;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * GTask登录会话的持久化存储
+ * 功能：把cookie、客户端版本号、请求URL以及绑定的账号保存到应用私有的首选项文件中，
+ * 使进程重启后无需重新获取令牌并下载/tasks/ig页面即可继续同步；所有账号的会话保存在同一个首选项文件中，
+ * 键以账号的散列为前缀，多个账号的会话可以同时存在。
+ * cookie使用Android Keystore中的密钥加密（AES/GCM），密钥不能导出；
+ * 首选项文件在backup_rules和data_extraction_rules中排除，不进入云备份和设备迁移
+ */
+public class GTaskSessionStore {
+    private static final String TAG = GTaskSessionStore.class.getSimpleName();
+
+    // 私有首选项文件名，仅本应用可读写；文件名固定，以便在备份规则中排除
+    private static final String PREFERENCE_NAME = "gtask_sessions";
+
+    // 旧版本的会话文件：不带后缀的是所有账号共用的，带账号散列后缀的是每个账号单独的，cookie未加密
+    private static final String LEGACY_PREFERENCE_NAME = "gtask_session";
+
+    // Keystore中加密cookie的密钥
+    private static final String KEYSTORE_PROVIDER = "AndroidKeyStore";
+
+    private static final String KEY_ALIAS = "gtask_session_key";
+
+    private static final String CIPHER_TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int GCM_TAG_LENGTH = 128;
+
+    private static final String KEY_ACCOUNT = "account";
+
+    private static final String KEY_CLIENT_VERSION = "client_version";
+
+    private static final String KEY_GET_URL = "get_url";
+
+    private static final String KEY_POST_URL = "post_url";
+
+    private static final String KEY_COOKIES = "cookies";
+
+    // cookie序列化字段
+    private static final String COOKIE_NAME = "name";
+
+    private static final String COOKIE_VALUE = "value";
+
+    private static final String COOKIE_DOMAIN = "domain";
+
+    private static final String COOKIE_PATH = "path";
+
+    private static final String COOKIE_EXPIRY = "expiry";
+
+    private static final String COOKIE_SECURE = "secure";
+
+    private static final String COOKIE_VERSION = "version";
+
+    private final SharedPreferences mPreferences;
+
+    private final String mKeyPrefix;  //该账号的键前缀
+
+    // 从存储中恢复出的会话内容
+    private String mAccountName;
+
+    private long mClientVersion;
+
+    private String mGetUrl;
+
+    private String mPostUrl;
+
+    private CookieStore mCookieStore;
+
+    public GTaskSessionStore(Context context, String accountName) {
+        mPreferences = context.getApplicationContext().getSharedPreferences(
+                PREFERENCE_NAME, Context.MODE_PRIVATE);
+        mKeyPrefix = Integer.toHexString(accountName.hashCode()) + ".";
+        mClientVersion = -1;
+        // 旧版本明文保存的会话不再读取，直接清除，下一次同步重新登录
+        clearLegacy(context, accountName);
+    }
+
+    private String key(String name) {
+        return mKeyPrefix + name;
+    }
+
+    /**
+     * 读取保存的会话，只有绑定的账号与当前同步账号一致且内容完整时才返回true
+     * @param accountName 当前设置中的同步账号
+     */
+    public boolean restore(String accountName) {
+        String account = mPreferences.getString(key(KEY_ACCOUNT), "");
+        if (TextUtils.isEmpty(account) || !TextUtils.equals(account, accountName)) {
+            // 账号已切换，旧会话作废
+            return false;
+        }
+
+        long clientVersion = mPreferences.getLong(key(KEY_CLIENT_VERSION), -1);
+        String getUrl = mPreferences.getString(key(KEY_GET_URL), null);
+        String postUrl = mPreferences.getString(key(KEY_POST_URL), null);
+        String encrypted = mPreferences.getString(key(KEY_COOKIES), null);
+        if (clientVersion == -1 || getUrl == null || postUrl == null || encrypted == null) {
+            return false;
+        }
+
+        BasicCookieStore cookieStore = new BasicCookieStore();
+        try {
+            JSONArray cookies = new JSONArray(decrypt(encrypted));
+            for (int i = 0; i < cookies.length(); i++) {
+                cookieStore.addCookie(fromJSON(cookies.getJSONObject(i)));
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to restore cookies: " + e.toString());
+            return false;
+        } catch (GeneralSecurityException e) {
+            // 密钥已经不存在（例如应用数据被清除后重新安装），只能重新登录
+            Log.w(TAG, "failed to decrypt cookies: " + e.toString());
+            return false;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "malformed cookies: " + e.toString());
+            return false;
+        }
+        // 去掉已经过期的cookie，全部过期则视为没有会话
+        cookieStore.clearExpired(new Date());
+        if (cookieStore.getCookies().isEmpty()) {
+            return false;
+        }
+
+        mAccountName = account;
+        mClientVersion = clientVersion;
+        mGetUrl = getUrl;
+        mPostUrl = postUrl;
+        mCookieStore = cookieStore;
+        return true;
+    }
+
+    /**
+     * 登录成功后保存会话
+     */
+    public void save(String accountName, long clientVersion, String getUrl, String postUrl,
+            CookieStore cookieStore) {
+        JSONArray cookies = new JSONArray();
+        String encrypted;
+        try {
+            for (Cookie cookie : cookieStore.getCookies()) {
+                // 会话cookie也一并保存，是否仍然有效由下一次请求来验证
+                cookies.put(toJSON(cookie));
+            }
+            encrypted = encrypt(cookies.toString());
+        } catch (JSONException e) {
+            Log.w(TAG, "failed to save cookies: " + e.toString());
+            return;
+        } catch (GeneralSecurityException e) {
+            // 不能加密时不保存会话，下一次同步重新登录
+            Log.w(TAG, "failed to encrypt cookies: " + e.toString());
+            return;
+        }
+
+        mPreferences.edit()
+                .putString(key(KEY_ACCOUNT), accountName)
+                .putLong(key(KEY_CLIENT_VERSION), clientVersion)
+                .putString(key(KEY_GET_URL), getUrl)
+                .putString(key(KEY_POST_URL), postUrl)
+                .putString(key(KEY_COOKIES), encrypted)
+                .apply();
+    }
+
+    /**
+     * 清除会话，鉴权失败或移除同步账号时调用
+     */
+    public void clear() {
+        mPreferences.edit()
+                .remove(key(KEY_ACCOUNT))
+                .remove(key(KEY_CLIENT_VERSION))
+                .remove(key(KEY_GET_URL))
+                .remove(key(KEY_POST_URL))
+                .remove(key(KEY_COOKIES))
+                .apply();
+        mAccountName = null;
+        mClientVersion = -1;
+        mGetUrl = null;
+        mPostUrl = null;
+        mCookieStore = null;
+    }
+
+    /**
+     * 清除账号的会话，同时清除旧版本的会话文件
+     */
+    public static void clear(Context context, String accountName) {
+        new GTaskSessionStore(context, accountName).clear();
+    }
+
+    private static void clearLegacy(Context context, String accountName) {
+        Context appContext = context.getApplicationContext();
+        String[] names = new String[] {
+                LEGACY_PREFERENCE_NAME,
+                LEGACY_PREFERENCE_NAME + "_" + Integer.toHexString(accountName.hashCode())
+        };
+        for (String name : names) {
+            SharedPreferences legacy = appContext.getSharedPreferences(name, Context.MODE_PRIVATE);
+            if (!legacy.getAll().isEmpty()) {
+                legacy.edit().clear().apply();
+            }
+        }
+    }
+
+    public String getAccountName() {
+        return mAccountName;
+    }
+
+    public long getClientVersion() {
+        return mClientVersion;
+    }
+
+    public String getGetUrl() {
+        return mGetUrl;
+    }
+
+    public String getPostUrl() {
+        return mPostUrl;
+    }
+
+    public CookieStore getCookieStore() {
+        return mCookieStore;
+    }
+
+    /*
+     * 功能描述：取得Keystore中加密会话的密钥，不存在时生成
+     */
+    private static SecretKey getOrCreateKey() throws GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE_PROVIDER);
+        try {
+            keyStore.load(null);
+        } catch (IOException e) {
+            throw new GeneralSecurityException(e);
+        }
+        KeyStore.Entry entry = keyStore.getEntry(KEY_ALIAS, null);
+        if (entry instanceof KeyStore.SecretKeyEntry) {
+            return ((KeyStore.SecretKeyEntry) entry).getSecretKey();
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES,
+                KEYSTORE_PROVIDER);
+        generator.init(new KeyGenParameterSpec.Builder(KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+
+    /*
+     * 功能描述：加密后的格式为Base64(IV + 密文)，IV由Keystore随机生成
+     */
+    private static String encrypt(String plain) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, getOrCreateKey());
+        byte[] iv = cipher.getIV();
+        byte[] encrypted = cipher.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+        byte[] out = new byte[1 + iv.length + encrypted.length];
+        out[0] = (byte) iv.length;
+        System.arraycopy(iv, 0, out, 1, iv.length);
+        System.arraycopy(encrypted, 0, out, 1 + iv.length, encrypted.length);
+        return Base64.encodeToString(out, Base64.NO_WRAP);
+    }
+
+    private static String decrypt(String encoded) throws GeneralSecurityException {
+        byte[] in = Base64.decode(encoded, Base64.NO_WRAP);
+        int ivLength = in.length > 0 ? in[0] & 0xff : 0;
+        if (ivLength == 0 || in.length < 1 + ivLength) {
+            throw new GeneralSecurityException("truncated session data");
+        }
+        Cipher cipher = Cipher.getInstance(CIPHER_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, getOrCreateKey(),
+                new GCMParameterSpec(GCM_TAG_LENGTH, in, 1, ivLength));
+        byte[] plain = cipher.doFinal(in, 1 + ivLength, in.length - 1 - ivLength);
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private static JSONObject toJSON(Cookie cookie) throws JSONException {
+        JSONObject js = new JSONObject();
+        js.put(COOKIE_NAME, cookie.getName());
+        js.put(COOKIE_VALUE, cookie.getValue());
+        js.put(COOKIE_DOMAIN, cookie.getDomain());
+        js.put(COOKIE_PATH, cookie.getPath());
+        if (cookie.getExpiryDate() != null) {
+            js.put(COOKIE_EXPIRY, cookie.getExpiryDate().getTime());
+        }
+        js.put(COOKIE_SECURE, cookie.isSecure());
+        js.put(COOKIE_VERSION, cookie.getVersion());
+        return js;
+    }
+
+    private static Cookie fromJSON(JSONObject js) throws JSONException {
+        BasicClientCookie cookie = new BasicClientCookie(js.getString(COOKIE_NAME),
+                js.optString(COOKIE_VALUE, null));
+        cookie.setDomain(js.optString(COOKIE_DOMAIN, null));
+        cookie.setPath(js.optString(COOKIE_PATH, null));
+        if (js.has(COOKIE_EXPIRY)) {
+            cookie.setExpiryDate(new Date(js.getLong(COOKIE_EXPIRY)));
+        }
+        cookie.setSecure(js.optBoolean(COOKIE_SECURE, false));
+        cookie.setVersion(js.optInt(COOKIE_VERSION, 0));
+        return cookie;
+    }
+
+    /**
+     * 判断会话cookie中是否包含GTask鉴权cookie
+     */
+    public static boolean hasAuthCookie(List<Cookie> cookies) {
+        for (Cookie cookie : cookies) {
+            if (cookie.getName().contains("GTL")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -22,17 +22,29 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.text.TextUtils;
 
+import net.micode.notes.tool.SyncPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Google Tasks 同步后台服务
  * 功能：处理与Google Tasks服务器的双向数据同步
+ * 每个账号的同步是一个独立的会话，在有界线程池中执行，不同账号可以同时同步，同一账号同时只有一个同步
  */
 
 public class GTaskSyncService extends Service {
     // 同步动作类型标识常量
     public final static String ACTION_STRING_NAME = "sync_action_type";
 
+    // 同步或取消的账号，取消时为空表示取消全部
+    public final static String ACCOUNT_STRING_NAME = "sync_account_name";
+
     // 启动同步
     public final static int ACTION_START_SYNC = 0;
 
@@ -49,43 +61,68 @@ public class GTaskSyncService extends Service {
 
     public final static String GTASK_SERVICE_BROADCAST_PROGRESS_MSG = "progressMsg";
 
-    // 静态同步任务实例
-    private static GTaskASyncTask mSyncTask = null;
+    // 同时执行的同步会话数上限
+    private static final int MAX_CONCURRENT_SYNCS = 2;
+
+    // 执行同步会话的有界线程池，超出上限的会话排队等待
+    private static final ThreadPoolExecutor mSyncExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_SYNCS, MAX_CONCURRENT_SYNCS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+
+    static {
+        mSyncExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // 正在进行（或排队）的同步任务，key为账号；完成回调在其他线程执行，访问时需要同步
+    private static final HashMap<String, GTaskASyncTask> mSyncTasks = new HashMap<String, GTaskASyncTask>();
 
     // 同步进度信息
     private static String mSyncProgress = "";
 
     /**
-     * 启动同步任务
+     * 启动账号的同步任务，该账号已经在同步时忽略
      */
-    private void startSync() {
-        if (mSyncTask == null) {
-            mSyncTask = new GTaskASyncTask(this, new GTaskASyncTask.OnCompleteListener() {
+    private void startSync(final String accountName) {
+        if (TextUtils.isEmpty(accountName)) {
+            return;
+        }
+        GTaskASyncTask task;
+        synchronized (mSyncTasks) {
+            if (mSyncTasks.containsKey(accountName)) {
+                return;
+            }
+            task = new GTaskASyncTask(this, accountName, new GTaskASyncTask.OnCompleteListener() {
                 public void onComplete() {
-                    mSyncTask = null;
-                    sendBroadcast(""); // 发送空进度表示完成
-                    stopSelf(); // 同步完成自动停止服务
+                    boolean finished;
+                    synchronized (mSyncTasks) {
+                        mSyncTasks.remove(accountName);
+                        finished = mSyncTasks.isEmpty();
+                    }
+                    if (finished) {
+                        sendBroadcast(""); // 发送空进度表示完成
+                        stopSelf(); // 全部同步完成自动停止服务
+                    }
                 }
             });
-            sendBroadcast("");// 初始化广播
-            mSyncTask.execute();// 启动异步任务
+            mSyncTasks.put(accountName, task);
         }
+        sendBroadcast("");// 初始化广播
+        task.executeOnExecutor(mSyncExecutor);// 在同步线程池中启动异步任务
     }
 
     /**
-     * 取消同步任务
+     * 取消账号的同步任务，accountName为空时取消全部
      */
-    private void cancelSync() {
-        if (mSyncTask != null) {
-            mSyncTask.cancelSync();
+    private void cancelSync(String accountName) {
+        synchronized (mSyncTasks) {
+            for (Map.Entry<String, GTaskASyncTask> entry : mSyncTasks.entrySet()) {
+                if (TextUtils.isEmpty(accountName) || entry.getKey().equals(accountName)) {
+                    entry.getValue().cancelSync();
+                }
+            }
         }
     }
 
-    @Override
-    public void onCreate() {
-        mSyncTask = null;
-    }// 初始化时确保任务为空
-
     /**
      * 服务启动命令处理
      */
@@ -95,10 +132,10 @@ public class GTaskSyncService extends Service {
         if (bundle != null && bundle.containsKey(ACTION_STRING_NAME)) {
             switch (bundle.getInt(ACTION_STRING_NAME, ACTION_INVALID)) {
                 case ACTION_START_SYNC:
-                    startSync();
+                    startSync(bundle.getString(ACCOUNT_STRING_NAME));
                     break;
                 case ACTION_CANCEL_SYNC:
-                    cancelSync();
+                    cancelSync(bundle.getString(ACCOUNT_STRING_NAME));
                     break;
                 default:
                     break;
@@ -110,9 +147,7 @@ public class GTaskSyncService extends Service {
 
     @Override
     public void onLowMemory() {
-        if (mSyncTask != null) {
-            mSyncTask.cancelSync();// 内存不足时取消同步
-        }
+        cancelSync(null);// 内存不足时取消全部同步
     }
 
     public IBinder onBind(Intent intent) {
@@ -126,25 +161,35 @@ public class GTaskSyncService extends Service {
     public void sendBroadcast(String msg) {
         mSyncProgress = msg;
         Intent intent = new Intent(GTASK_SERVICE_BROADCAST_NAME);
-        intent.putExtra(GTASK_SERVICE_BROADCAST_IS_SYNCING, mSyncTask != null);
+        intent.putExtra(GTASK_SERVICE_BROADCAST_IS_SYNCING, isSyncing());
         intent.putExtra(GTASK_SERVICE_BROADCAST_PROGRESS_MSG, msg);
         sendBroadcast(intent);
     }
 
     //静态工具方法
     /**
-     * 从Activity启动同步
+     * 从Activity启动设置中的同步账号的同步
      * @param activity 调用方Activity
      */
     public static void startSync(Activity activity) {
-        GTaskManager.getInstance().setActivityContext(activity);
+        startSync(activity, SyncPreferences.getSyncAccountName(activity));
+    }
+
+    /**
+     * 从Activity启动指定账号的同步
+     * @param activity 调用方Activity
+     * @param accountName 同步账号
+     */
+    public static void startSync(Activity activity, String accountName) {
+        GTaskManager.setActivityContext(activity);
         Intent intent = new Intent(activity, GTaskSyncService.class);
         intent.putExtra(GTaskSyncService.ACTION_STRING_NAME, GTaskSyncService.ACTION_START_SYNC);
+        intent.putExtra(GTaskSyncService.ACCOUNT_STRING_NAME, accountName);
         activity.startService(intent);
     }
 
     /**
-     * 取消当前同步
+     * 取消全部同步
      * @param context 上下文对象
      */
     public static void cancelSync(Context context) {
@@ -154,10 +199,12 @@ public class GTaskSyncService extends Service {
     }
 
     /**
-     * 检查是否正在同步
+     * 检查是否有账号正在同步
      */
     public static boolean isSyncing() {
-        return mSyncTask != null;
+        synchronized (mSyncTasks) {
+            return !mSyncTasks.isEmpty();
+        }
     }
 
     /**
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import java.util.Arrays;
+
+/**
+ * gid与本地便签id的双向映射
+ * 功能：代替HashMap<String, Long>和HashMap<Long, String>，条目保存在平行数组中，
+ * 两个开放寻址的索引表只保存条目下标，不产生Long装箱和Entry对象；gid在放入时被intern，
+ * 与Node中的gid共用同一个字符串实例
+ */
+public class GidNidMap {
+    // 不存在的便签id，系统文件夹的id可能为0或负数，所以不能使用-1
+    public static final long NO_ID = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private String[] mGids;
+
+    private long[] mNids;
+
+    private int mSize;
+
+    // 索引表保存"条目下标+1"，0表示空槽；表长为容量的两倍，装载因子不超过0.5
+    private int[] mGidTable;
+
+    private int[] mNidTable;
+
+    public GidNidMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /*
+     * 功能描述：建立gid与便签id的映射，gid已存在时更新其便签id
+     */
+    public void put(String gid, long nid) {
+        gid = gid.intern();
+        int entry = findGid(gid);
+        if (entry >= 0) {
+            if (mNids[entry] != nid) {
+                mNids[entry] = nid;
+                // 很少发生，重建索引表以去掉旧便签id的槽
+                rebuildTables();
+            }
+            return;
+        }
+
+        if (mSize == mGids.length) {
+            grow();
+        }
+        entry = mSize++;
+        mGids[entry] = gid;
+        mNids[entry] = nid;
+        insertGid(entry);
+        insertNid(entry);
+    }
+
+    /*
+     * 功能描述：根据gid获取便签id，不存在时返回NO_ID
+     */
+    public long getNid(String gid) {
+        int entry = gid == null ? -1 : findGid(gid);
+        return entry < 0 ? NO_ID : mNids[entry];
+    }
+
+    /*
+     * 功能描述：根据便签id获取gid，不存在时返回null
+     */
+    public String getGid(long nid) {
+        int entry = findNid(nid);
+        return entry < 0 ? null : mGids[entry];
+    }
+
+    /*
+     * 功能描述：删除gid的映射，不存在时返回false
+     */
+    public boolean removeByGid(String gid) {
+        int entry = gid == null ? -1 : findGid(gid);
+        if (entry < 0) {
+            return false;
+        }
+        removeEntry(entry);
+        return true;
+    }
+
+    /*
+     * 功能描述：删除便签id当前对应的映射（多个gid对应同一个便签id时为最后放入的一个），不存在时返回false
+     */
+    public boolean removeByNid(long nid) {
+        int entry = findNid(nid);
+        if (entry < 0) {
+            return false;
+        }
+        removeEntry(entry);
+        return true;
+    }
+
+    public boolean containsGid(String gid) {
+        return gid != null && findGid(gid) >= 0;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /*
+     * 功能描述：条目数组的容量，两个索引表的长度均为其两倍，供单元测试检查内存占用
+     */
+    int capacity() {
+        return mGids.length;
+    }
+
+    /*
+     * 功能描述：清空映射并释放数组，同步结束后不再占用内存
+     */
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        mGids = new String[capacity];
+        mNids = new long[capacity];
+        mGidTable = new int[capacity * 2];
+        mNidTable = new int[capacity * 2];
+        mSize = 0;
+    }
+
+    private void grow() {
+        int capacity = mGids.length * 2;
+        mGids = Arrays.copyOf(mGids, capacity);
+        mNids = Arrays.copyOf(mNids, capacity);
+        mGidTable = new int[capacity * 2];
+        mNidTable = new int[capacity * 2];
+        rebuildTables();
+    }
+
+    private void rebuildTables() {
+        Arrays.fill(mGidTable, 0);
+        Arrays.fill(mNidTable, 0);
+        for (int i = 0; i < mSize; i++) {
+            insertGid(i);
+            insertNid(i);
+        }
+    }
+
+    /*
+     * 功能描述：从两个索引表中删除条目，再把最后一个条目移到它的位置，保持条目数组紧凑
+     */
+    private void removeEntry(int entry) {
+        deleteSlot(mGidTable, findSlot(mGidTable, gidHash(entry), entry), true);
+        int nidSlot = findSlot(mNidTable, nidHash(entry), entry);
+        if (nidSlot >= 0) {
+            // 被后放入的同一便签id覆盖的条目不在便签id索引表中
+            deleteSlot(mNidTable, nidSlot, false);
+        }
+
+        int last = --mSize;
+        if (entry != last) {
+            mGids[entry] = mGids[last];
+            mNids[entry] = mNids[last];
+            mGidTable[findSlot(mGidTable, gidHash(entry), last)] = entry + 1;
+            nidSlot = findSlot(mNidTable, nidHash(entry), last);
+            if (nidSlot >= 0) {
+                mNidTable[nidSlot] = entry + 1;
+            }
+        }
+        mGids[last] = null;
+    }
+
+    /*
+     * 功能描述：在索引表中查找指向entry的槽，不存在时返回-1
+     */
+    private static int findSlot(int[] table, int hash, int entry) {
+        int mask = table.length - 1;
+        int i = hash & mask;
+        while (table[i] != 0) {
+            if (table[i] == entry + 1) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    /*
+     * 功能描述：清空一个槽，并把同一探测链上后面的槽前移，使查找不会停在空槽上
+     */
+    private void deleteSlot(int[] table, int slot, boolean gidTable) {
+        int mask = table.length - 1;
+        int i = slot;
+        table[i] = 0;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (table[j] == 0) {
+                break;
+            }
+            int entry = table[j] - 1;
+            int k = (gidTable ? gidHash(entry) : nidHash(entry)) & mask;
+            boolean reachable = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+            if (!reachable) {
+                table[i] = table[j];
+                table[j] = 0;
+                i = j;
+            }
+        }
+    }
+
+    private int gidHash(int entry) {
+        return spread(mGids[entry].hashCode());
+    }
+
+    private int nidHash(int entry) {
+        return spread(hashLong(mNids[entry]));
+    }
+
+    private int findGid(String gid) {
+        int mask = mGidTable.length - 1;
+        int i = spread(gid.hashCode()) & mask;
+        while (mGidTable[i] != 0) {
+            int entry = mGidTable[i] - 1;
+            if (gid.equals(mGids[entry])) {
+                return entry;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findNid(long nid) {
+        int mask = mNidTable.length - 1;
+        int i = spread(hashLong(nid)) & mask;
+        while (mNidTable[i] != 0) {
+            int entry = mNidTable[i] - 1;
+            if (mNids[entry] == nid) {
+                return entry;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void insertGid(int entry) {
+        int mask = mGidTable.length - 1;
+        int i = spread(mGids[entry].hashCode()) & mask;
+        while (mGidTable[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        mGidTable[i] = entry + 1;
+    }
+
+    private void insertNid(int entry) {
+        long nid = mNids[entry];
+        int mask = mNidTable.length - 1;
+        int i = spread(hashLong(nid)) & mask;
+        while (mNidTable[i] != 0) {
+            if (mNids[mNidTable[i] - 1] == nid) {
+                // 同一便签id以最后放入的映射为准
+                mNidTable[i] = entry + 1;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        mNidTable[i] = entry + 1;
+    }
+
+    private static int hashLong(long value) {
+        return (int) (value ^ (value >>> 32));
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import java.util.Arrays;
+
+/**
+ * 请求延迟统计
+ * 功能：保存最近若干次成功请求的耗时，根据分位数计算每个请求的读超时和对冲请求的等待时间。
+ * 样本不足时使用固定的默认值；可能被对冲请求的工作线程同时调用，方法都是同步的
+ */
+public class LatencyTracker {
+    // 保存的样本数
+    private static final int WINDOW = 64;
+
+    // 少于该样本数时不做自适应
+    private static final int MIN_SAMPLES = 8;
+
+    public static final int DEFAULT_SOCKET_TIMEOUT = 15000;
+
+    private static final int MIN_SOCKET_TIMEOUT = 5000;
+
+    private static final int MAX_SOCKET_TIMEOUT = 30000;
+
+    // 超时取p99的倍数，给偶发的慢请求留出余量
+    private static final int TIMEOUT_FACTOR = 3;
+
+    private static final int MIN_HEDGE_DELAY = 200;
+
+    private final long[] mSamples;
+
+    private int mCount;
+
+    private int mNext;
+
+    public LatencyTracker() {
+        mSamples = new long[WINDOW];
+        mCount = 0;
+        mNext = 0;
+    }
+
+    /*
+     * 功能描述：记录一次成功请求的耗时（毫秒）
+     */
+    public synchronized void record(long latency) {
+        mSamples[mNext] = latency;
+        mNext = (mNext + 1) % WINDOW;
+        if (mCount < WINDOW) {
+            mCount++;
+        }
+    }
+
+    /*
+     * 功能描述：获取分位数，样本不足时返回-1
+     * 参数注解：percent为0到100之间的百分位
+     */
+    public synchronized long getPercentile(int percent) {
+        if (mCount < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(mSamples, mCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percent / 100.0 * mCount) - 1;
+        return sorted[Math.max(0, Math.min(mCount - 1, index))];
+    }
+
+    /*
+     * 功能描述：第attempt次尝试（从0开始）使用的读超时，每次重试放宽50%
+     */
+    public int getSocketTimeout(int attempt) {
+        long p99 = getPercentile(99);
+        long timeout = p99 < 0 ? DEFAULT_SOCKET_TIMEOUT
+                : Math.max(MIN_SOCKET_TIMEOUT, Math.min(MAX_SOCKET_TIMEOUT, p99 * TIMEOUT_FACTOR));
+        for (int i = 0; i < attempt; i++) {
+            timeout = timeout * 3 / 2;
+        }
+        return (int) Math.min(MAX_SOCKET_TIMEOUT, timeout);
+    }
+
+    /*
+     * 功能描述：对冲请求的等待时间（p95），超过该时间还没有响应才发出重复请求；样本不足时返回-1
+     */
+    public long getHedgeDelay() {
+        long p95 = getPercentile(95);
+        return p95 < 0 ? -1 : Math.max(MIN_HEDGE_DELAY, p95);
+    }
+}
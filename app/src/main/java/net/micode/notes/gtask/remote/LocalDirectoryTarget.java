@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.app.Activity;
+import android.util.Log;
+
+import net.micode.notes.gtask.data.Node;
+import net.micode.notes.gtask.data.Task;
+import net.micode.notes.gtask.data.TaskList;
+import net.micode.notes.gtask.exception.ActionFailureException;
+import net.micode.notes.gtask.exception.NetworkFailureException;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * 本地文件夹同步目标
+ * 功能：把便签同步到本地或挂载的共享文件夹，在没有Google Tasks时使用，对比和合并仍然由GTaskManager完成。
+ * 目录结构：lists/<列表gid>/list.json保存列表名称，同一目录下<任务gid>.json保存任务的修改时间，
+ * <任务gid>.name和<任务gid>.notes保存正文和notes。所有文件通过BlockDeltaStore写入，
+ * 修改一个很大的便签时只写入变化的块
+ * 账号名为ACCOUNT_PREFIX加上文件夹的绝对路径，同步状态按账号保存在sync_state中
+ */
+public class LocalDirectoryTarget implements SyncTarget {
+    private static final String TAG = LocalDirectoryTarget.class.getSimpleName();
+
+    public static final String ACCOUNT_PREFIX = "dir:";
+
+    private static final String LISTS_DIR = "lists";
+
+    private static final String LIST_FILE = "list.json";
+
+    private static final String HEADER_SUFFIX = ".json";
+
+    private static final String NAME_SUFFIX = ".name";
+
+    private static final String NOTES_SUFFIX = ".notes";
+
+    private static final String CHARSET = "UTF-8";
+
+    private final File mListsDir;//所有列表所在的目录
+
+    private final BlockDeltaStore mStore;
+
+    private final ArrayList<Node> mUpdateNodes;//等待提交的更新
+
+    private final HashMap<String, String> mTaskListGids;//任务gid -> 所在列表的gid
+
+    private long mLastStamp;//上一次分配的修改时间，保证单调递增
+
+    private volatile boolean mAborted;
+
+    private volatile SyncMetrics mMetrics;
+
+    public LocalDirectoryTarget(String accountName) {
+        mListsDir = new File(getDirectory(accountName), LISTS_DIR);
+        mStore = new BlockDeltaStore();
+        mUpdateNodes = new ArrayList<Node>();
+        mTaskListGids = new HashMap<String, String>();
+        mLastStamp = 0;
+        mAborted = false;
+        mMetrics = null;
+    }
+
+    /*
+     * 功能描述：判断同步账号是否为本地文件夹
+     */
+    public static boolean isDirectoryAccount(String accountName) {
+        return accountName != null && accountName.startsWith(ACCOUNT_PREFIX);
+    }
+
+    /*
+     * 功能描述：同步账号对应的文件夹
+     */
+    public static File getDirectory(String accountName) {
+        return new File(accountName.substring(ACCOUNT_PREFIX.length()));
+    }
+
+    /*
+     * 功能描述：文件夹对应的同步账号名
+     */
+    public static String getAccountName(File dir) {
+        return ACCOUNT_PREFIX + dir.getAbsolutePath();
+    }
+
+    //文件夹不存在时创建，不可写时视为登录失败
+    public boolean login(Activity activity) {
+        if (!mListsDir.isDirectory() && !mListsDir.mkdirs()) {
+            Log.e(TAG, "cannot create sync directory " + mListsDir.getParent());
+            return false;
+        }
+        return mListsDir.canWrite();
+    }
+
+    public JSONArray getTaskLists() throws NetworkFailureException {
+        checkAborted();
+        JSONArray lists = new JSONArray();
+        File[] dirs = mListsDir.listFiles();
+        if (dirs == null) {
+            throw new NetworkFailureException("gettasklists: sync directory is not available");
+        }
+        try {
+            for (File dir : dirs) {
+                byte[] header = mStore.read(new File(dir, LIST_FILE));
+                if (header == null) {
+                    continue;
+                }
+                try {
+                    lists.put(new JSONObject(new String(header, CHARSET)));
+                } catch (JSONException e) {
+                    Log.w(TAG, "skip broken list " + dir.getName());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("gettasklists: read failed");
+        }
+        return lists;
+    }
+
+    public JSONArray getTaskList(String listGid) throws NetworkFailureException {
+        commitUpdate();
+        checkAborted();
+        File dir = new File(mListsDir, listGid);
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new NetworkFailureException("gettasklist: list is not available");
+        }
+        JSONArray tasks = new JSONArray();
+        try {
+            for (File file : files) {
+                String fileName = file.getName();
+                if (!fileName.endsWith(HEADER_SUFFIX) || fileName.equals(LIST_FILE)) {
+                    continue;
+                }
+                checkAborted();
+                String gid = fileName.substring(0, fileName.length() - HEADER_SUFFIX.length());
+                byte[] header = mStore.read(file);
+                byte[] name = mStore.read(new File(dir, gid + NAME_SUFFIX));
+                if (header == null || name == null) {
+                    continue;
+                }
+                try {
+                    JSONObject task = new JSONObject(new String(header, CHARSET));
+                    task.put(GTaskStringUtils.GTASK_JSON_NAME, new String(name, CHARSET));
+                    byte[] notes = mStore.read(new File(dir, gid + NOTES_SUFFIX));
+                    if (notes != null) {
+                        task.put(GTaskStringUtils.GTASK_JSON_NOTES, new String(notes, CHARSET));
+                    }
+                    tasks.put(task);
+                    mTaskListGids.put(gid, listGid);
+                } catch (JSONException e) {
+                    Log.w(TAG, "skip broken task " + gid);
+                }
+            }
+        } catch (IOException e) {
+            checkAborted();
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("gettasklist: read failed");
+        }
+        return tasks;
+    }
+
+    public void createTask(Task task) throws NetworkFailureException {
+        commitUpdate();
+        checkAborted();
+        String gid = newGid();
+        String listGid = task.getParent().getGid();
+        try {
+            File dir = new File(mListsDir, listGid);
+            writeFile(new File(dir, gid + NAME_SUFFIX), task.getName());
+            if (task.getNotes() != null) {
+                writeFile(new File(dir, gid + NOTES_SUFFIX), task.getNotes());
+            }
+            // 头文件最后写入，没有头文件的任务不会被读到
+            writeTaskHeader(dir, gid, task);
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("create task: write failed");
+        }
+        task.setGid(gid);
+        task.clearDirtyFields();
+        mTaskListGids.put(gid, listGid);
+    }
+
+    public void createTaskList(TaskList tasklist) throws NetworkFailureException {
+        commitUpdate();
+        checkAborted();
+        String gid = newGid();
+        File dir = new File(mListsDir, gid);
+        try {
+            if (!dir.mkdirs()) {
+                throw new IOException("cannot create list directory");
+            }
+            writeListHeader(dir, gid, tasklist.getName());
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("create tasklist: write failed");
+        }
+        tasklist.setGid(gid);
+        tasklist.clearDirtyFields();
+    }
+
+    //更新在提交时一起写入，与GTaskClient的批量提交保持相同的时机
+    public void addUpdateNode(Node node) throws NetworkFailureException {
+        checkAborted();
+        if (node != null && node.hasDirtyFields()) {
+            mUpdateNodes.add(node);
+        }
+    }
+
+    public void commitUpdate() throws NetworkFailureException {
+        if (mUpdateNodes.isEmpty()) {
+            return;
+        }
+        checkAborted();
+        try {
+            for (Node node : mUpdateNodes) {
+                applyUpdate(node);
+                node.clearDirtyFields();
+            }
+            mUpdateNodes.clear();
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("commit update: write failed");
+        }
+    }
+
+    //移动只是重命名文件，不重写内容
+    public void moveTask(Task task, TaskList preParent, TaskList curParent)
+            throws NetworkFailureException {
+        commitUpdate();
+        checkAborted();
+        if (preParent == curParent) {
+            // 目录中不保存列表内的顺序
+            return;
+        }
+        String gid = task.getGid();
+        File from = new File(mListsDir, preParent.getGid());
+        File to = new File(mListsDir, curParent.getGid());
+        try {
+            if (!mStore.move(new File(from, gid + NAME_SUFFIX), new File(to, gid + NAME_SUFFIX))
+                    || !mStore.move(new File(from, gid + NOTES_SUFFIX), new File(to, gid + NOTES_SUFFIX))) {
+                throw new IOException("failed to move task " + gid);
+            }
+            writeTaskHeader(to, gid, task);
+            mStore.delete(new File(from, gid + HEADER_SUFFIX));
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("move task: write failed");
+        }
+        mTaskListGids.put(gid, curParent.getGid());
+    }
+
+    public void deleteNode(Node node) throws NetworkFailureException {
+        commitUpdate();
+        checkAborted();
+        node.setDeleted(true);
+        try {
+            applyUpdate(node);
+        } catch (IOException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new NetworkFailureException("delete node: write failed");
+        }
+        node.clearDirtyFields();
+    }
+
+    public void resetUpdateArray() {
+        mUpdateNodes.clear();
+    }
+
+    public void abort() {
+        mAborted = true;
+    }
+
+    public void clearAbort() {
+        mAborted = false;
+    }
+
+    public void setSyncMetrics(SyncMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    //把节点有修改的字段写入文件
+    private void applyUpdate(Node node) throws IOException {
+        if (node instanceof TaskList) {
+            File dir = new File(mListsDir, node.getGid());
+            if (node.getDeleted()) {
+                deleteDirectory(dir);
+            } else if (node.isFieldDirty(Node.FIELD_NAME)) {
+                writeListHeader(dir, node.getGid(), node.getName());
+            }
+            return;
+        }
+
+        Task task = (Task) node;
+        String gid = task.getGid();
+        File dir = new File(mListsDir, getListGid(task));
+        if (task.getDeleted()) {
+            mStore.delete(new File(dir, gid + HEADER_SUFFIX));
+            mStore.delete(new File(dir, gid + NAME_SUFFIX));
+            mStore.delete(new File(dir, gid + NOTES_SUFFIX));
+            mTaskListGids.remove(gid);
+            return;
+        }
+        if (task.isFieldDirty(Node.FIELD_NAME)) {
+            writeFile(new File(dir, gid + NAME_SUFFIX), task.getName());
+        }
+        if (task.isFieldDirty(Node.FIELD_NOTES)) {
+            if (task.getNotes() == null) {
+                mStore.delete(new File(dir, gid + NOTES_SUFFIX));
+            } else {
+                writeFile(new File(dir, gid + NOTES_SUFFIX), task.getNotes());
+            }
+        }
+        writeTaskHeader(dir, gid, task);
+    }
+
+    private String getListGid(Task task) {
+        String listGid = mTaskListGids.get(task.getGid());
+        if (listGid == null && task.getParent() != null) {
+            listGid = task.getParent().getGid();
+        }
+        if (listGid == null) {
+            throw new ActionFailureException("cannot find the list of task " + task.getGid());
+        }
+        return listGid;
+    }
+
+    //修改时间用来判断远端是否有变化（与本地记录的sync_id比较），每次写入都必须不同
+    private long nextLastModified() {
+        mLastStamp = Math.max(System.currentTimeMillis(), mLastStamp + 1);
+        return mLastStamp;
+    }
+
+    private void writeTaskHeader(File dir, String gid, Task task) throws IOException {
+        try {
+            JSONObject header = new JSONObject();
+            header.put(GTaskStringUtils.GTASK_JSON_ID, gid);
+            header.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, nextLastModified());
+            header.put(GTaskStringUtils.GTASK_JSON_COMPLETED, task.getCompleted());
+            writeFile(new File(dir, gid + HEADER_SUFFIX), header.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new ActionFailureException("fail to generate task header");
+        }
+    }
+
+    private void writeListHeader(File dir, String gid, String name) throws IOException {
+        try {
+            JSONObject header = new JSONObject();
+            header.put(GTaskStringUtils.GTASK_JSON_ID, gid);
+            header.put(GTaskStringUtils.GTASK_JSON_NAME, name);
+            header.put(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED, nextLastModified());
+            writeFile(new File(dir, LIST_FILE), header.toString());
+        } catch (JSONException e) {
+            Log.e(TAG, e.toString());
+            e.printStackTrace();
+            throw new ActionFailureException("fail to generate list header");
+        }
+    }
+
+    private void writeFile(File file, String content) throws IOException {
+        long fullBytes = mStore.getFullBytes();
+        long written = mStore.write(file, content.getBytes(CHARSET));
+        SyncMetrics metrics = mMetrics;
+        if (metrics != null) {
+            metrics.onBytesWritten(written, mStore.getFullBytes() - fullBytes);
+        }
+    }
+
+    private void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private static String newGid() {
+        return UUID.randomUUID().toString();
+    }
+
+    private void checkAborted() throws NetworkFailureException {
+        if (mAborted) {
+            mUpdateNodes.clear();
+            throw new NetworkFailureException("sync cancelled");
+        }
+    }
+}
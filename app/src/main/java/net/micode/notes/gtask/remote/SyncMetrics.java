@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.os.SystemClock;
+
+/**
+ * 一次同步的统计数据
+ * 功能：记录同步耗时、从请求取消到同步真正结束的时间（取消延迟）、请求的重试和对冲次数，
+ * 以及写入本地文件夹目标的字节数（与完整重写相比），
+ * 同步结束时输出到日志；取消请求来自其他线程，相关字段使用volatile
+ */
+public class SyncMetrics {
+    private long mStartTime;
+
+    private long mDuration;
+
+    private volatile long mCancelRequestTime;
+
+    private volatile long mCancelLatency;
+
+    private int mRetries;//失败后重发的请求数
+
+    private int mHedges;//发出的对冲请求数
+
+    private int mHedgeWins;//对冲请求先于原请求返回的次数
+
+    private long mBytesWritten;//实际写入同步目标的字节数
+
+    private long mFullBytes;//每次完整重写时需要写入的字节数
+
+    public SyncMetrics() {
+        mStartTime = SystemClock.elapsedRealtime();
+        mDuration = -1;
+        mCancelRequestTime = -1;
+        mCancelLatency = -1;
+        mRetries = 0;
+        mHedges = 0;
+        mHedgeWins = 0;
+        mBytesWritten = 0;
+        mFullBytes = 0;
+    }
+
+    public void onRetry() {
+        mRetries++;
+    }
+
+    public void onHedge() {
+        mHedges++;
+    }
+
+    public void onHedgeWin() {
+        mHedgeWins++;
+    }
+
+    public void onBytesWritten(long written, long fullBytes) {
+        mBytesWritten += written;
+        mFullBytes += fullBytes;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public long getFullBytes() {
+        return mFullBytes;
+    }
+
+    public int getRetries() {
+        return mRetries;
+    }
+
+    public int getHedges() {
+        return mHedges;
+    }
+
+    public int getHedgeWins() {
+        return mHedgeWins;
+    }
+
+    /*
+     * 功能描述：记录第一次取消请求的时间
+     */
+    public void onCancelRequested() {
+        if (mCancelRequestTime < 0) {
+            mCancelRequestTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /*
+     * 功能描述：同步结束（包括被取消）时调用
+     */
+    public void onFinished() {
+        long now = SystemClock.elapsedRealtime();
+        mDuration = now - mStartTime;
+        if (mCancelRequestTime >= 0) {
+            mCancelLatency = now - mCancelRequestTime;
+        }
+    }
+
+    /*
+     * 功能描述：同步耗时（毫秒），未结束时为-1
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    /*
+     * 功能描述：取消延迟（毫秒），没有取消时为-1
+     */
+    public long getCancelLatency() {
+        return mCancelLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "duration=" + mDuration + "ms, cancelLatency=" + mCancelLatency + "ms, retries="
+                + mRetries + ", hedges=" + mHedges + ", hedgeWins=" + mHedgeWins
+                + (mFullBytes > 0 ? ", bytesWritten=" + mBytesWritten + "/" + mFullBytes : "");
+    }
+}
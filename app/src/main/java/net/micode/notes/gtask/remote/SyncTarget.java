@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import android.app.Activity;
+
+import net.micode.notes.gtask.data.Node;
+import net.micode.notes.gtask.data.Task;
+import net.micode.notes.gtask.data.TaskList;
+import net.micode.notes.gtask.exception.NetworkFailureException;
+
+import org.json.JSONArray;
+
+/**
+ * 同步目标
+ * 功能：GTaskManager对远端的全部操作。远端的数据模型与Google Tasks相同：任务列表对应文件夹，任务对应便签，
+ * getTaskLists和getTaskList返回与Google Tasks相同格式的JSON，因此同一套对比和合并流程可以用于不同的目标。
+ * 实现：GTaskClient（Google Tasks）、LocalDirectoryTarget（本地或挂载的文件夹）
+ */
+public interface SyncTarget {
+    /*
+     * 功能描述：登录或者检查目标是否可用，activity用于获取令牌，可能为null
+     */
+    boolean login(Activity activity);
+
+    JSONArray getTaskLists() throws NetworkFailureException;
+
+    JSONArray getTaskList(String listGid) throws NetworkFailureException;
+
+    /*
+     * 功能描述：创建任务，成功后设置task的gid
+     */
+    void createTask(Task task) throws NetworkFailureException;
+
+    void createTaskList(TaskList tasklist) throws NetworkFailureException;
+
+    /*
+     * 功能描述：把节点有修改的字段加入待提交的更新，可能延迟到commitUpdate时才提交
+     */
+    void addUpdateNode(Node node) throws NetworkFailureException;
+
+    void commitUpdate() throws NetworkFailureException;
+
+    void moveTask(Task task, TaskList preParent, TaskList curParent) throws NetworkFailureException;
+
+    void deleteNode(Node node) throws NetworkFailureException;
+
+    /*
+     * 功能描述：丢弃待提交的更新
+     */
+    void resetUpdateArray();
+
+    /*
+     * 功能描述：取消同步，可以在任意线程调用，之后的操作都直接失败
+     */
+    void abort();
+
+    void clearAbort();
+
+    void setSyncMetrics(SyncMetrics metrics);
+}
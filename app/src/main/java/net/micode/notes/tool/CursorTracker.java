@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.util.Log;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 游标泄漏检查
+ * 功能：调试版本中把CursorUtils打开的游标包装一层，记录打开时的调用栈；
+ * 游标没有关闭就被回收时输出警告和打开位置，并统计当前打开的游标数。发布版本中不包装，没有额外开销。
+ * 只能看到CursorUtils打开的游标，应用中其他游标的泄漏由StrictMode的detectLeakedClosableObjects报告（见NotesProvider）
+ */
+public class CursorTracker {
+    private static final String TAG = "CursorTracker";
+
+    private static volatile boolean sEnabled = false;
+
+    private static final AtomicInteger sOpenCount = new AtomicInteger();
+
+    private static final AtomicInteger sLeakCount = new AtomicInteger();
+
+    /*
+     * 功能描述：打开或关闭检查，在NotesProvider创建时根据应用是否可调试设置
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /*
+     * 功能描述：检查打开时返回包装后的游标，否则原样返回
+     */
+    public static Cursor track(Cursor cursor) {
+        if (cursor == null || !sEnabled) {
+            return cursor;
+        }
+        sOpenCount.incrementAndGet();
+        return new TrackedCursor(cursor);
+    }
+
+    /*
+     * 功能描述：当前被跟踪且没有关闭的游标数
+     */
+    public static int getOpenCount() {
+        return sOpenCount.get();
+    }
+
+    /*
+     * 功能描述：发现的泄漏数
+     */
+    public static int getLeakCount() {
+        return sLeakCount.get();
+    }
+
+    private static final class TrackedCursor extends CursorWrapper {
+        private final Throwable mAllocationSite;
+
+        private boolean mClosed;
+
+        TrackedCursor(Cursor cursor) {
+            super(cursor);
+            mAllocationSite = new Throwable("cursor opened here");
+            mClosed = false;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (!mClosed) {
+                    mClosed = true;
+                    sOpenCount.decrementAndGet();
+                }
+            }
+            super.close();
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            try {
+                boolean leaked;
+                synchronized (this) {
+                    leaked = !mClosed;
+                }
+                if (leaked) {
+                    sLeakCount.incrementAndGet();
+                    Log.w(TAG, "cursor finalized without close, "
+                            + sOpenCount.get() + " tracked cursors open", mAllocationSite);
+                    close();
+                }
+            } finally {
+                super.finalize();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+/**
+ * 查询工具类
+ * 功能：封装"打开游标-读取-关闭"的过程，游标在任何返回路径和异常下都会关闭；
+ * 存在性和计数查询只取一列，不把整行数据读入CursorWindow。
+ * 通过query打开的游标在调试版本中由CursorTracker跟踪并计数，调用者负责关闭（Cursor实现了Closeable，可以用try-with-resources）。
+ * 其他途径打开的游标的泄漏由NotesProvider在调试版本中打开的StrictMode检查报告
+ */
+public class CursorUtils {
+    private static final String TAG = "CursorUtils";
+
+    private static final String[] ID_PROJECTION = new String[] { BaseColumns._ID };
+
+    private static final String[] COUNT_PROJECTION = new String[] { "COUNT(*)" };
+
+    /**
+     * 读取一行数据
+     */
+    public interface RowReader<T> {
+        T read(Cursor cursor);
+    }
+
+    /**
+     * 逐行处理数据
+     */
+    public interface RowVisitor {
+        void visit(Cursor cursor);
+    }
+
+    private CursorUtils() {
+    }
+
+    /*
+     * 功能描述：执行查询，返回的游标由调用者关闭
+     */
+    public static Cursor query(ContentResolver resolver, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder) {
+        return CursorTracker.track(resolver.query(uri, projection, selection, selectionArgs, sortOrder));
+    }
+
+    /*
+     * 功能描述：读取第一行，没有结果时返回defaultValue
+     */
+    public static <T> T queryFirst(ContentResolver resolver, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, RowReader<T> reader, T defaultValue) {
+        Cursor cursor = query(resolver, uri, projection, selection, selectionArgs, null);
+        if (cursor == null) {
+            return defaultValue;
+        }
+        try {
+            return cursor.moveToFirst() ? reader.read(cursor) : defaultValue;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * 功能描述：依次处理每一行，返回处理的行数，查询失败时返回-1
+     */
+    public static int queryEach(ContentResolver resolver, Uri uri, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder, RowVisitor visitor) {
+        Cursor cursor = query(resolver, uri, projection, selection, selectionArgs, sortOrder);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            int rows = 0;
+            while (cursor.moveToNext()) {
+                visitor.visit(cursor);
+                rows++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * 功能描述：是否存在满足条件的行，只查询_id列，读到第一行即返回
+     */
+    public static boolean exists(ContentResolver resolver, Uri uri, String selection,
+            String[] selectionArgs) {
+        Cursor cursor = query(resolver, uri, ID_PROJECTION, selection, selectionArgs, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * 功能描述：满足条件的行数，由数据库计算COUNT(*)，查询失败时返回0
+     */
+    public static int count(ContentResolver resolver, Uri uri, String selection,
+            String[] selectionArgs) {
+        Cursor cursor = query(resolver, uri, COUNT_PROJECTION, selection, selectionArgs, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        } catch (IndexOutOfBoundsException e) {
+            Log.e(TAG, "get count failed:" + e.toString());
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * 功能描述：读取第一行的一个long列，没有结果时返回defaultValue
+     */
+    public static long queryLong(ContentResolver resolver, Uri uri, String column,
+            String selection, String[] selectionArgs, long defaultValue) {
+        Cursor cursor = query(resolver, uri, new String[] { column }, selection, selectionArgs, null);
+        if (cursor == null) {
+            return defaultValue;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : defaultValue;
+        } catch (IndexOutOfBoundsException e) {
+            Log.e(TAG, "get " + column + " failed:" + e.toString());
+            return defaultValue;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+     * 功能描述：读取第一行的一个字符串列，没有结果时返回defaultValue
+     */
+    public static String queryString(ContentResolver resolver, Uri uri, String column,
+            String selection, String[] selectionArgs, String defaultValue) {
+        Cursor cursor = query(resolver, uri, new String[] { column }, selection, selectionArgs, null);
+        if (cursor == null) {
+            return defaultValue;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : defaultValue;
+        } catch (IndexOutOfBoundsException e) {
+            Log.e(TAG, "get " + column + " failed:" + e.toString());
+            return defaultValue;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -23,7 +23,9 @@ import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.OperationApplicationException;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.RemoteException;
+import android.provider.BaseColumns;
 import android.util.Log;
 
 import net.micode.notes.data.Notes;
@@ -32,6 +34,7 @@ import net.micode.notes.data.Notes.NoteColumns;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 /**
  * 笔记数据操作工具类
@@ -52,12 +55,35 @@ public class DataUtils {
             Log.d(TAG, "the ids is null");
             return true;
         }
-        if (ids.size() == 0) {
+        long[] values = new long[ids.size()];
+        int n = 0;
+        for (long id : ids) {
+            values[n++] = id;
+        }
+        return batchDeleteNotes(resolver, values);
+    }
+
+    /**
+     * 批量删除笔记（原子操作），同步时使用LongHashSet保存大量id
+     * @param resolver ContentResolver实例
+     * @param ids 要删除的笔记ID集合
+     * @return 是否删除成功
+     */
+    public static boolean batchDeleteNotes(ContentResolver resolver, LongHashSet ids) {
+        if (ids == null) {
+            Log.d(TAG, "the ids is null");
+            return true;
+        }
+        return batchDeleteNotes(resolver, ids.toArray());
+    }
+
+    private static boolean batchDeleteNotes(ContentResolver resolver, long[] ids) {
+        if (ids.length == 0) {
             Log.d(TAG, "no id is in the hashset");
             return true;
         }
 
-        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>();
+        ArrayList<ContentProviderOperation> operationList = new ArrayList<ContentProviderOperation>(ids.length);
         for (long id : ids) {
             if(id == Notes.ID_ROOT_FOLDER) {
                 Log.e(TAG, "Don't delete system folder root");
@@ -72,7 +98,7 @@ public class DataUtils {
             // 执行批量操作
             ContentProviderResult[] results = resolver.applyBatch(Notes.AUTHORITY, operationList);
             if (results == null || results.length == 0 || results[0] == null) {
-                Log.d(TAG, "delete notes failed, ids:" + ids.toString());
+                Log.d(TAG, "delete notes failed, ids:" + Arrays.toString(ids));
                 return false;
             }
             return true;
@@ -99,6 +125,19 @@ public class DataUtils {
         resolver.update(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, id), values, null, null);
     }
 
+    /**
+     * 由便签重新计算所有文件夹的统计（folder_stats），修复增量维护产生的偏差。
+     * 需要扫描整个note表，只作为修复入口使用；正常的修改（包括同步）由触发器增量维护
+     * @param resolver ContentResolver实例
+     */
+    public static void rebuildFolderStats(ContentResolver resolver) {
+        try {
+            resolver.call(Notes.CONTENT_NOTE_URI, Notes.METHOD_REBUILD_FOLDER_STATS, null, null);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "rebuild folder stats failed:" + e.toString());
+        }
+    }
+
     /**
      * 批量移动笔记到指定文件夹（原子操作）
      * @param resolver ContentResolver实例
@@ -145,126 +184,144 @@ public class DataUtils {
      * @return 用户文件夹数量
      */
     public static int getUserFolderCount(ContentResolver resolver) {
-        Cursor cursor =resolver.query(Notes.CONTENT_NOTE_URI,
-                new String[] { "COUNT(*)" },
+        return CursorUtils.count(resolver, Notes.CONTENT_NOTE_URI,
                 NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>?",
-                new String[] { String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)},
-                null);
-
-        int count = 0;
-        if(cursor != null) {
-            if(cursor.moveToFirst()) {
-                try {
-                    count = cursor.getInt(0);
-                } catch (IndexOutOfBoundsException e) {
-                    Log.e(TAG, "get folder count failed:" + e.toString());
-                } finally {
-                    cursor.close();
-                }
-            }
-        }
-        return count;
+                new String[] { String.valueOf(Notes.TYPE_FOLDER), String.valueOf(Notes.ID_TRASH_FOLER)});
     }
 
     /**
      * 检查指定类型的笔记是否在数据库中可见（不在回收站）
      */
     public static boolean visibleInNoteDatabase(ContentResolver resolver, long noteId, int type) {
-        Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
-                null,
+        return CursorUtils.exists(resolver, ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
                 NoteColumns.TYPE + "=? AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER,
-                new String [] {String.valueOf(type)},
-                null);
-
-        boolean exist = false;
-        if (cursor != null) {
-            if (cursor.getCount() > 0) {
-                exist = true;
-            }
-            cursor.close();
-        }
-        return exist;
+                new String [] {String.valueOf(type)});
     }
 
     /**
      * 检查笔记是否存在（包括回收站）
      */
     public static boolean existInNoteDatabase(ContentResolver resolver, long noteId) {
-        Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
-                null, null, null, null);
-
-        boolean exist = false;
-        if (cursor != null) {
-            if (cursor.getCount() > 0) {
-                exist = true;
-            }
-            cursor.close();
-        }
-        return exist;
+        return CursorUtils.exists(resolver, ContentUris.withAppendedId(Notes.CONTENT_NOTE_URI, noteId),
+                null, null);
     }
 
     /**
      * 检查数据项是否存在
      */
     public static boolean existInDataDatabase(ContentResolver resolver, long dataId) {
-        Cursor cursor = resolver.query(ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId),
-                null, null, null, null);
+        return CursorUtils.exists(resolver, ContentUris.withAppendedId(Notes.CONTENT_DATA_URI, dataId),
+                null, null);
+    }
 
-        boolean exist = false;
-        if (cursor != null) {
-            if (cursor.getCount() > 0) {
-                exist = true;
+    /**
+     * 批量检查笔记是否存在（包括回收站），同步时代替逐条调用existInNoteDatabase
+     * @param ids 要检查的笔记ID
+     * @return ids中已经存在的ID
+     */
+    public static LongHashSet filterExistingNoteIds(ContentResolver resolver, LongHashSet ids) {
+        return filterExistingIds(resolver, Notes.CONTENT_NOTE_URI, ids);
+    }
+
+    /**
+     * 批量检查数据项是否存在
+     * @param ids 要检查的数据项ID
+     * @return ids中已经存在的ID
+     */
+    public static LongHashSet filterExistingDataIds(ContentResolver resolver, LongHashSet ids) {
+        return filterExistingIds(resolver, Notes.CONTENT_DATA_URI, ids);
+    }
+
+    // 每次查询的id数，控制SQL语句的长度
+    private static final int IN_CHUNK_SIZE = 500;
+
+    private static LongHashSet filterExistingIds(ContentResolver resolver, Uri uri, LongHashSet ids) {
+        final LongHashSet existing = new LongHashSet();
+        long[] values = ids.toArray();
+        for (int start = 0; start < values.length; start += IN_CHUNK_SIZE) {
+            int end = Math.min(values.length, start + IN_CHUNK_SIZE);
+            CursorUtils.queryEach(resolver, uri, new String[] { BaseColumns._ID },
+                    buildIdInSelection(BaseColumns._ID, values, start, end), null, null,
+                    new CursorUtils.RowVisitor() {
+                        public void visit(Cursor cursor) {
+                            existing.add(cursor.getLong(0));
+                        }
+                    });
+        }
+        return existing;
+    }
+
+    /*
+     * 功能描述：生成"column IN (v1,v2,...)"，id都是数字，可以直接写入语句
+     */
+    private static String buildIdInSelection(String column, long[] values, int start, int end) {
+        StringBuilder selection = new StringBuilder(column).append(" IN (");
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                selection.append(',');
             }
-            cursor.close();
+            selection.append(values[i]);
         }
-        return exist;
+        return selection.append(')').toString();
     }
 
     /**
      * 检查可见文件夹名称是否已存在（防重名）
      */
     public static boolean checkVisibleFolderName(ContentResolver resolver, String name) {
-        Cursor cursor = resolver.query(Notes.CONTENT_NOTE_URI, null,
+        return CursorUtils.exists(resolver, Notes.CONTENT_NOTE_URI,
                 NoteColumns.TYPE + "=" + Notes.TYPE_FOLDER +
                 " AND " + NoteColumns.PARENT_ID + "<>" + Notes.ID_TRASH_FOLER +
                 " AND " + NoteColumns.SNIPPET + "=?",
-                new String[] { name }, null);
-        boolean exist = false;
-        if(cursor != null) {
-            if(cursor.getCount() > 0) {
-                exist = true;
-            }
-            cursor.close();
-        }
-        return exist;
+                new String[] { name });
     }
 
     /**
      * 获取文件夹关联的小部件信息集合
      */
     public static HashSet<AppWidgetAttribute> getFolderNoteWidget(ContentResolver resolver, long folderId) {
-        Cursor c = resolver.query(Notes.CONTENT_NOTE_URI,
+        final HashSet<AppWidgetAttribute> set = new HashSet<AppWidgetAttribute>();
+        int rows = CursorUtils.queryEach(resolver, Notes.CONTENT_NOTE_URI,
                 new String[] { NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE },
                 NoteColumns.PARENT_ID + "=?",
                 new String[] { String.valueOf(folderId) },
-                null);
-
-        HashSet<AppWidgetAttribute> set = null;
-        if (c != null) {
-            if (c.moveToFirst()) {
-                set = new HashSet<AppWidgetAttribute>();
-                do {
-                    try {
-                        AppWidgetAttribute widget = new AppWidgetAttribute();
-                        widget.widgetId = c.getInt(0);
-                        widget.widgetType = c.getInt(1);
-                        set.add(widget);
-                    } catch (IndexOutOfBoundsException e) {
-                        Log.e(TAG, e.toString()); //异常处理
+                null, new CursorUtils.RowVisitor() {
+                    public void visit(Cursor c) {
+                        try {
+                            AppWidgetAttribute widget = new AppWidgetAttribute();
+                            widget.widgetId = c.getInt(0);
+                            widget.widgetType = c.getInt(1);
+                            set.add(widget);
+                        } catch (IndexOutOfBoundsException e) {
+                            Log.e(TAG, e.toString()); //异常处理
+                        }
                     }
-                } while (c.moveToNext());
-            }
-            c.close();
+                });
+        // 没有该行时返回null，调用者依赖这一点
+        return rows > 0 ? set : null;
+    }
+
+    /**
+     * 获取一组笔记关联的小部件信息，没有关联小部件的笔记在查询中就被过滤
+     * @param noteIds 笔记ID
+     */
+    public static HashSet<AppWidgetAttribute> getNoteWidgets(ContentResolver resolver, LongHashSet noteIds) {
+        final HashSet<AppWidgetAttribute> set = new HashSet<AppWidgetAttribute>();
+        long[] values = noteIds.toArray();
+        for (int start = 0; start < values.length; start += IN_CHUNK_SIZE) {
+            int end = Math.min(values.length, start + IN_CHUNK_SIZE);
+            CursorUtils.queryEach(resolver, Notes.CONTENT_NOTE_URI,
+                    new String[] { NoteColumns.WIDGET_ID, NoteColumns.WIDGET_TYPE },
+                    NoteColumns.WIDGET_TYPE + "<>" + Notes.TYPE_WIDGET_INVALIDE + " AND "
+                            + buildIdInSelection(NoteColumns.ID, values, start, end),
+                    null, null, new CursorUtils.RowVisitor() {
+                        public void visit(Cursor c) {
+                            AppWidgetAttribute widget = new AppWidgetAttribute();
+                            widget.widgetId = c.getInt(0);
+                            widget.widgetType = c.getInt(1);
+                            set.add(widget);
+                        }
+                    });
         }
         return set;
     }
@@ -273,46 +330,23 @@ public class DataUtils {
      * 通过笔记ID获取关联的电话号码（通话记录类型）
      */
     public static String getCallNumberByNoteId(ContentResolver resolver, long noteId) {
-        Cursor cursor = resolver.query(Notes.CONTENT_DATA_URI,
-                new String [] { CallNote.PHONE_NUMBER },
+        return CursorUtils.queryString(resolver, Notes.CONTENT_DATA_URI, CallNote.PHONE_NUMBER,
                 CallNote.NOTE_ID + "=? AND " + CallNote.MIME_TYPE + "=?",
                 new String [] { String.valueOf(noteId), CallNote.CONTENT_ITEM_TYPE },
-                null);
-
-        if (cursor != null && cursor.moveToFirst()) {
-            try {
-                return cursor.getString(0);
-            } catch (IndexOutOfBoundsException e) {
-                Log.e(TAG, "Get call number fails " + e.toString());
-            } finally {
-                cursor.close();
-            }
-        }
-        return "";
+                "");
     }
 
     /**
      * 通过电话号码和通话时间获取关联的笔记ID
      */
     public static long getNoteIdByPhoneNumberAndCallDate(ContentResolver resolver, String phoneNumber, long callDate) {
-        Cursor cursor = resolver.query(Notes.CONTENT_DATA_URI,
-                new String [] { CallNote.NOTE_ID },
-                CallNote.CALL_DATE + "=? AND " + CallNote.MIME_TYPE + "=? AND PHONE_NUMBERS_EQUAL("
-                + CallNote.PHONE_NUMBER + ",?)",
-                new String [] { String.valueOf(callDate), CallNote.CONTENT_ITEM_TYPE, phoneNumber },
-                null);
-
-        if (cursor != null) {
-            if (cursor.moveToFirst()) {
-                try {
-                    return cursor.getLong(0);
-                } catch (IndexOutOfBoundsException e) {
-                    Log.e(TAG, "Get call note id fails " + e.toString());
-                }
-            }
-            cursor.close();
-        }
-        return 0;
+        // phone_key和call_date有索引，PHONE_NUMBERS_EQUAL只用于检查索引查到的几行
+        return CursorUtils.queryLong(resolver, Notes.CONTENT_DATA_URI, CallNote.NOTE_ID,
+                CallNote.PHONE_KEY + "=? AND " + CallNote.CALL_DATE + "=? AND "
+                + CallNote.MIME_TYPE + "=? AND PHONE_NUMBERS_EQUAL(" + CallNote.PHONE_NUMBER + ",?)",
+                new String [] { CallNote.toPhoneKey(phoneNumber), String.valueOf(callDate),
+                        CallNote.CONTENT_ITEM_TYPE, phoneNumber },
+                0);
     }
 
     /**
@@ -320,19 +354,18 @@ public class DataUtils {
      * @throws IllegalArgumentException 当笔记不存在时抛出
      */
     public static String getSnippetById(ContentResolver resolver, long noteId) {
-        Cursor cursor = resolver.query(Notes.CONTENT_NOTE_URI,
+        Cursor cursor = CursorUtils.query(resolver, Notes.CONTENT_NOTE_URI,
                 new String [] { NoteColumns.SNIPPET },
                 NoteColumns.ID + "=?",
                 new String [] { String.valueOf(noteId)},
                 null);
 
         if (cursor != null) {
-            String snippet = "";
-            if (cursor.moveToFirst()) {
-                snippet = cursor.getString(0);
+            try {
+                return cursor.moveToFirst() ? cursor.getString(0) : "";
+            } finally {
+                cursor.close();
             }
-            cursor.close();
-            return snippet;
         }
         throw new IllegalArgumentException("Note is not found with id: " + noteId);
     }
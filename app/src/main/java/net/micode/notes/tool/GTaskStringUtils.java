@@ -113,7 +113,13 @@ public class GTaskStringUtils {
     public final static String META_HEAD_NOTE = "meta_note";
     /** 元数据头-数据内容 */
     public final static String META_HEAD_DATA = "meta_data";
+    /** 元数据头-上传时的内容哈希 */
+    public final static String META_HEAD_CONTENT_HASH = "meta_hash";
     /** 元数据笔记名称（禁止用户操作的特殊笔记） */
     public final static String META_NOTE_NAME = "[META INFO] DON'T UPDATE AND DELETE";
+    /** 打包元数据的名称（一个task保存多条便签的元数据） */
+    public final static String META_PACK_NAME = "[META PACK] DON'T UPDATE AND DELETE";
+    /** 打包元数据notes字段的版本头 */
+    public final static String META_PACK_HEADER = "#meta_pack:1";
 
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import java.util.Arrays;
+
+/**
+ * long类型的哈希集合
+ * 功能：代替HashSet<Long>保存大量便签id，使用开放寻址的long数组，不产生Long装箱和Entry对象
+ */
+public class LongHashSet {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // 空槽标记，集合中真正包含该值时用mHasEmptyValue记录
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private long[] mTable;
+
+    private int mSize;
+
+    private boolean mHasEmptyValue;
+
+    public LongHashSet() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /*
+     * 功能描述：添加一个值，已存在时返回false
+     */
+    public boolean add(long value) {
+        if (value == EMPTY) {
+            if (mHasEmptyValue) {
+                return false;
+            }
+            mHasEmptyValue = true;
+            mSize++;
+            return true;
+        }
+        // 装载因子保持在0.5以下
+        if ((mSize + 1) * 2 > mTable.length) {
+            resize(mTable.length * 2);
+        }
+        if (!insert(mTable, value)) {
+            return false;
+        }
+        mSize++;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return mHasEmptyValue;
+        }
+        int mask = mTable.length - 1;
+        int i = hash(value) & mask;
+        while (mTable[i] != EMPTY) {
+            if (mTable[i] == value) {
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /*
+     * 功能描述：删除一个值，不存在时返回false
+     */
+    public boolean remove(long value) {
+        if (value == EMPTY) {
+            if (!mHasEmptyValue) {
+                return false;
+            }
+            mHasEmptyValue = false;
+            mSize--;
+            return true;
+        }
+        int mask = mTable.length - 1;
+        int i = hash(value) & mask;
+        while (mTable[i] != value) {
+            if (mTable[i] == EMPTY) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        mTable[i] = EMPTY;
+        mSize--;
+        // 把探测链上后面的值前移，使查找不会停在删除留下的空槽上
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (mTable[j] == EMPTY) {
+                break;
+            }
+            int k = hash(mTable[j]) & mask;
+            boolean reachable = (i <= j) ? (i < k && k <= j) : (i < k || k <= j);
+            if (!reachable) {
+                mTable[i] = mTable[j];
+                mTable[j] = EMPTY;
+                i = j;
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /*
+     * 功能描述：哈希表数组的长度，供单元测试检查内存占用
+     */
+    int tableLength() {
+        return mTable.length;
+    }
+
+    /*
+     * 功能描述：清空集合并释放数组
+     */
+    public void clear() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /*
+     * 功能描述：按任意顺序导出所有值
+     */
+    public long[] toArray() {
+        long[] values = new long[mSize];
+        int n = 0;
+        if (mHasEmptyValue) {
+            values[n++] = EMPTY;
+        }
+        for (long value : mTable) {
+            if (value != EMPTY) {
+                values[n++] = value;
+            }
+        }
+        return values;
+    }
+
+    private void allocate(int capacity) {
+        mTable = new long[capacity];
+        Arrays.fill(mTable, EMPTY);
+        mSize = 0;
+        mHasEmptyValue = false;
+    }
+
+    private void resize(int capacity) {
+        long[] table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        for (long value : mTable) {
+            if (value != EMPTY) {
+                insert(table, value);
+            }
+        }
+        mTable = table;
+    }
+
+    private static boolean insert(long[] table, long value) {
+        int mask = table.length - 1;
+        int i = hash(value) & mask;
+        while (table[i] != EMPTY) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        return true;
+    }
+
+    private static int hash(long value) {
+        int h = (int) (value ^ (value >>> 32)) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
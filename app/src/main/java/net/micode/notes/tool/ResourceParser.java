@@ -84,9 +84,23 @@ public class ResourceParser {
      * @return 背景资源索引ID
      */
     public static int getDefaultBgId(Context context) {
-        // 检查用户是否启用随机背景功能
-        if (PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
-                NotesPreferenceActivity.PREFERENCE_SET_BG_COLOR_KEY, false)) {
+        return getDefaultBgId(isRandomBgColorEnabled(context));
+    }
+    /**
+     * 检查用户是否启用随机背景功能
+     * @param context Android上下文
+     */
+    public static boolean isRandomBgColorEnabled(Context context) {
+        return PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+                NotesPreferenceActivity.PREFERENCE_SET_BG_COLOR_KEY, false);
+    }
+    /**
+     * 获取默认背景ID（已读取过首选项时使用，避免重复读取）
+     * @param randomBgColor 是否启用随机背景
+     * @return 背景资源索引ID
+     */
+    public static int getDefaultBgId(boolean randomBgColor) {
+        if (randomBgColor) {
             // 随机返回一个背景索引
             return (int) (Math.random() * NoteBgResources.BG_EDIT_RESOURCES.length);
         } else {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * 同步相关的首选项
+ * 功能：读写同步账号和上次同步时间，供设置界面、同步服务和数据库升级共用，
+ * 数据层不需要依赖设置界面的Activity
+ */
+public class SyncPreferences {
+    // 首选项文件名
+    public static final String PREFERENCE_NAME = "notes_preferences";
+    // 同步账户名称的键
+    public static final String PREFERENCE_SYNC_ACCOUNT_NAME = "pref_key_account_name";
+    // 上次同步时间的键
+    public static final String PREFERENCE_LAST_SYNC_TIME = "pref_last_sync_time";
+
+    private SyncPreferences() {
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * 获取当前同步账户名称，未设置时为空字符串
+     */
+    public static String getSyncAccountName(Context context) {
+        return getPreferences(context).getString(PREFERENCE_SYNC_ACCOUNT_NAME, "");
+    }
+
+    /**
+     * 设置上次同步时间
+     */
+    public static void setLastSyncTime(Context context, long time) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        editor.putLong(PREFERENCE_LAST_SYNC_TIME, time);
+        editor.commit();
+    }
+
+    /**
+     * 获取上次同步时间
+     */
+    public static long getLastSyncTime(Context context) {
+        return getPreferences(context).getLong(PREFERENCE_LAST_SYNC_TIME, 0);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.content.Context;
+import android.graphics.Paint;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.CompoundButton.OnCheckedChangeListener;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import net.micode.notes.R;
+import net.micode.notes.ui.NoteEditText.OnTextViewChangeListener;
+
+/**
+ * 清单模式的编辑列表
+ * 功能：只为可见的行创建和绑定视图，编辑内容直接写回ChecklistModel。
+ * 回车和删除只插入或删除一行并通知RecyclerView，不再重新设置后面所有行的下标
+ */
+public class ChecklistAdapter extends RecyclerView.Adapter<ChecklistAdapter.LineViewHolder> {
+    private static final String TAG = "ChecklistAdapter";
+
+    private static final long NO_ID = -1;
+
+    private final Context mContext;
+
+    private ChecklistModel mModel;
+
+    private RecyclerView mRecyclerView;
+
+    private int mTextAppearance;
+
+    private QueryHighlighter mHighlighter;
+
+    private int mHighlightColor;
+
+    // 下一次绑定时需要获得焦点的行及光标位置
+    private long mPendingFocusId;
+
+    private int mPendingSelection;
+
+    static class LineViewHolder extends RecyclerView.ViewHolder {
+        final CheckBox mCheckBox;
+
+        final NoteEditText mEdit;
+
+        ChecklistModel.Line mLine;  //绑定的行，绑定过程中为null，避免把设置的内容当作编辑写回
+
+        int mTextAppearance;
+
+        LineViewHolder(View itemView) {
+            super(itemView);
+            mCheckBox = (CheckBox) itemView.findViewById(R.id.cb_edit_item);
+            mEdit = (NoteEditText) itemView.findViewById(R.id.et_edit_text);
+        }
+    }
+
+    public ChecklistAdapter(Context context) {
+        mContext = context;
+        mModel = new ChecklistModel();
+        mPendingFocusId = NO_ID;
+        setHasStableIds(true);
+    }
+
+    /*
+     * 函数功能：显示新的清单，焦点放在最后一行（用于输入的空行）
+     */
+    public void setModel(ChecklistModel model) {
+        mModel = model;
+        notifyDataSetChanged();
+        int last = model.size() - 1;
+        requestFocus(last, model.get(last), 0);
+    }
+
+    public void setTextAppearance(int resId) {
+        if (mTextAppearance != resId) {
+            mTextAppearance = resId;
+            notifyDataSetChanged();
+        }
+    }
+
+    public void setHighlighter(QueryHighlighter highlighter, int color) {
+        mHighlighter = highlighter;
+        mHighlightColor = color;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(RecyclerView recyclerView) {
+        mRecyclerView = null;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mModel.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mModel.get(position).getId();
+    }
+
+    @Override
+    public LineViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        final LineViewHolder holder = new LineViewHolder(LayoutInflater.from(mContext).inflate(
+                R.layout.note_edit_list_item, parent, false));
+        holder.mCheckBox.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                setStrikeThrough(holder.mEdit, isChecked);
+                if (holder.mLine != null) {
+                    mModel.setChecked(holder.mLine, isChecked);
+                }
+            }
+        });
+        holder.mEdit.addTextChangedListener(new TextWatcher() {
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            public void afterTextChanged(Editable s) {
+                if (holder.mLine != null) {
+                    mModel.setText(holder.mLine, s.toString());
+                }
+            }
+        });
+        // 传入的下标只在绑定时设置，插入或删除行后可能已经过期，以holder当前的位置为准
+        holder.mEdit.setOnTextViewChangeListener(new OnTextViewChangeListener() {
+            public void onEditTextDelete(int index, String text) {
+                int position = holder.getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    deleteLine(position, text);
+                }
+            }
+
+            public void onEditTextEnter(int index, String text) {
+                int position = holder.getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION) {
+                    insertLine(position + 1, text);
+                }
+            }
+
+            public void onTextChange(int index, boolean hasText) {
+                holder.mCheckBox.setVisibility(hasText ? View.VISIBLE : View.GONE);
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(final LineViewHolder holder, int position) {
+        ChecklistModel.Line line = mModel.get(position);
+        holder.mLine = null;
+        if (holder.mTextAppearance != mTextAppearance) {
+            holder.mEdit.setTextAppearance(mContext, mTextAppearance);
+            holder.mTextAppearance = mTextAppearance;
+        }
+        holder.mCheckBox.setVisibility(View.VISIBLE);
+        holder.mCheckBox.setChecked(line.isChecked());
+        setStrikeThrough(holder.mEdit, line.isChecked());
+        // 第0行不会被删除，也不会有行插入到它之前，所以下标是否为0始终正确
+        holder.mEdit.setIndex(position);
+        String text = line.getText();
+        if (mHighlighter == null) {
+            holder.mEdit.setText(text);
+        } else {
+            holder.mEdit.setText(mHighlighter.highlight(text, mHighlightColor));
+        }
+        holder.mLine = line;
+
+        if (line.getId() == mPendingFocusId) {
+            final int selection = Math.min(mPendingSelection, text.length());
+            final ChecklistModel.Line focusLine = line;
+            mPendingFocusId = NO_ID;
+            // 绑定发生在布局过程中，布局完成后再获得焦点
+            holder.mEdit.post(new Runnable() {
+                public void run() {
+                    if (holder.mLine == focusLine) {
+                        holder.mEdit.requestFocus();
+                        holder.mEdit.setSelection(selection);
+                    }
+                }
+            });
+        }
+    }
+
+    /*
+     * 函数功能：回车时在position处插入一行，内容为光标之后的文字
+     */
+    private void insertLine(int position, String text) {
+        if (position > mModel.size()) {
+            Log.e(TAG, "Index out of checklist boundrary, should not happen");
+            position = mModel.size();
+        }
+        ChecklistModel.Line line = mModel.insert(position, text, false);
+        notifyItemInserted(position);
+        requestFocus(position, line, 0);
+    }
+
+    /*
+     * 函数功能：在行首删除时删除该行，文字接到上一行（第0行时接到新的第0行）的末尾
+     */
+    private void deleteLine(int position, String text) {
+        if (mModel.size() == 1) {
+            return;
+        }
+        mModel.remove(position);
+        notifyItemRemoved(position);
+        int target = position == 0 ? 0 : position - 1;
+        ChecklistModel.Line line = mModel.get(target);
+        int length = line.getText().length();
+        mModel.setText(line, line.getText() + text);
+        notifyItemChanged(target);
+        requestFocus(target, line, length);
+    }
+
+    private void requestFocus(int position, ChecklistModel.Line line, int selection) {
+        mPendingFocusId = line.getId();
+        mPendingSelection = selection;
+        if (mRecyclerView != null) {
+            mRecyclerView.scrollToPosition(position);
+        }
+    }
+
+    private static void setStrikeThrough(NoteEditText edit, boolean checked) {
+        if (checked) {
+            edit.setPaintFlags(edit.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
+        } else {
+            edit.setPaintFlags(Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.text.TextUtils;
+
+import net.micode.notes.data.Notes.TextNote;
+
+/**
+ * 清单模式的行数据
+ * 功能：每一行保存勾选状态和文字，有不变的id供RecyclerView使用。
+ * 行保存在间隙缓冲区中，插入和删除都在光标所在的行附近发生，移动间隙的开销与移动的距离成正比，
+ * 连续在同一位置编辑时均摊为O(1)，按位置读取始终为O(1)。
+ * 每一行缓存自己的序列化结果，保存时只重新生成修改过的行，没有修改时直接返回上一次的结果。只在主线程使用
+ */
+public class ChecklistModel {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * 清单中的一行
+     */
+    public static class Line {
+        private final long mId;
+
+        private String mText;
+
+        private boolean mChecked;
+
+        private String mSerialized;  //序列化结果的缓存，修改后为null
+
+        private Line(long id, String text, boolean checked) {
+            mId = id;
+            mText = text;
+            mChecked = checked;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getText() {
+            return mText;
+        }
+
+        public boolean isChecked() {
+            return mChecked;
+        }
+    }
+
+    private Line[] mLines;
+
+    // 间隙为mLines中[mGapStart, mGapEnd)的部分
+    private int mGapStart;
+
+    private int mGapEnd;
+
+    private long mNextId;
+
+    private int mCheckedCount;  //勾选且有文字的行数
+
+    private String mSerialized;  //整个清单的序列化结果的缓存，有行修改后为null
+
+    public ChecklistModel() {
+        mLines = new Line[INITIAL_CAPACITY];
+        mGapStart = 0;
+        mGapEnd = mLines.length;
+        mNextId = 0;
+        mCheckedCount = 0;
+    }
+
+    /*
+     * 功能描述：从便签内容中读取清单，跳过空行，并在末尾加一个空行用于输入
+     */
+    public static ChecklistModel parse(String content) {
+        ChecklistModel model = new ChecklistModel();
+        for (String item : content.split("\n")) {
+            if (TextUtils.isEmpty(item)) {
+                continue;
+            }
+            boolean checked = false;
+            if (item.startsWith(TextNote.TAG_CHECKED)) {
+                checked = true;
+                item = item.substring(TextNote.TAG_CHECKED.length()).trim();
+            } else if (item.startsWith(TextNote.TAG_UNCHECKED)) {
+                item = item.substring(TextNote.TAG_UNCHECKED.length()).trim();
+            }
+            model.insert(model.size(), item, checked);
+        }
+        model.insert(model.size(), "", false);
+        return model;
+    }
+
+    public int size() {
+        return mLines.length - (mGapEnd - mGapStart);
+    }
+
+    public Line get(int position) {
+        return mLines[position < mGapStart ? position : position + mGapEnd - mGapStart];
+    }
+
+    /*
+     * 功能描述：在position处插入一行，返回新的行
+     */
+    public Line insert(int position, String text, boolean checked) {
+        if (mGapStart == mGapEnd) {
+            grow();
+        }
+        moveGap(position);
+        Line line = new Line(mNextId++, text, checked);
+        mLines[mGapStart++] = line;
+        if (isCheckedItem(line)) {
+            mCheckedCount++;
+        }
+        mSerialized = null;
+        return line;
+    }
+
+    /*
+     * 功能描述：删除position处的行，返回被删除的行
+     */
+    public Line remove(int position) {
+        moveGap(position);
+        Line line = mLines[mGapEnd];
+        mLines[mGapEnd++] = null;
+        if (isCheckedItem(line)) {
+            mCheckedCount--;
+        }
+        mSerialized = null;
+        return line;
+    }
+
+    public void setText(Line line, String text) {
+        if (TextUtils.equals(line.mText, text)) {
+            return;
+        }
+        boolean wasChecked = isCheckedItem(line);
+        line.mText = text;
+        updateLine(line, wasChecked);
+    }
+
+    public void setChecked(Line line, boolean checked) {
+        if (line.mChecked == checked) {
+            return;
+        }
+        boolean wasChecked = isCheckedItem(line);
+        line.mChecked = checked;
+        updateLine(line, wasChecked);
+    }
+
+    /*
+     * 功能描述：是否有勾选的行，与序列化时的判断一致（空行不计）
+     */
+    public boolean hasChecked() {
+        return mCheckedCount > 0;
+    }
+
+    /*
+     * 功能描述：序列化为便签内容，每个有文字的行为"标记 文字\n"
+     */
+    public String serialize() {
+        if (mSerialized != null) {
+            return mSerialized;
+        }
+        StringBuilder sb = new StringBuilder();
+        int count = size();
+        for (int i = 0; i < count; i++) {
+            Line line = get(i);
+            if (line.mSerialized == null) {
+                line.mSerialized = TextUtils.isEmpty(line.mText) ? ""
+                        : (line.mChecked ? TextNote.TAG_CHECKED
+                                : TextNote.TAG_UNCHECKED) + " " + line.mText + "\n";
+            }
+            sb.append(line.mSerialized);
+        }
+        mSerialized = sb.toString();
+        return mSerialized;
+    }
+
+    private void updateLine(Line line, boolean wasChecked) {
+        boolean checked = isCheckedItem(line);
+        if (checked != wasChecked) {
+            mCheckedCount += checked ? 1 : -1;
+        }
+        line.mSerialized = null;
+        mSerialized = null;
+    }
+
+    private static boolean isCheckedItem(Line line) {
+        return line.mChecked && !TextUtils.isEmpty(line.mText);
+    }
+
+    /*
+     * 功能描述：把间隙移动到position，只移动两者之间的行
+     */
+    private void moveGap(int position) {
+        if (position < mGapStart) {
+            int count = mGapStart - position;
+            System.arraycopy(mLines, position, mLines, mGapEnd - count, count);
+            mGapStart -= count;
+            mGapEnd -= count;
+            // 清除移走的引用，间隙中不保留已删除的行
+            for (int i = mGapStart; i < Math.min(mGapEnd, mGapStart + count); i++) {
+                mLines[i] = null;
+            }
+        } else if (position > mGapStart) {
+            int count = position - mGapStart;
+            System.arraycopy(mLines, mGapEnd, mLines, mGapStart, count);
+            mGapStart += count;
+            mGapEnd += count;
+            for (int i = Math.max(mGapStart, mGapEnd - count); i < mGapEnd; i++) {
+                mLines[i] = null;
+            }
+        }
+    }
+
+    /*
+     * 功能描述：间隙用完时把容量加倍
+     */
+    private void grow() {
+        int newLength = mLines.length * 2;
+        Line[] lines = new Line[newLength];
+        int tail = mLines.length - mGapEnd;
+        System.arraycopy(mLines, 0, lines, 0, mGapStart);
+        System.arraycopy(mLines, mGapEnd, lines, newLength - tail, tail);
+        mGapEnd = newLength - tail;
+        mLines = lines;
+    }
+}
@@ -30,15 +30,17 @@
  
  // 自定义的文件夹列表适配器
  public class FoldersListAdapter extends CursorAdapter {
-     // 定义查询数据库时需要的字段
+     // 定义查询数据库时需要的字段，通过Notes.CONTENT_NOTE_LIST_URI查询
      public static final String [] PROJECTION = {
              NoteColumns.ID, // 文件夹的ID
-             NoteColumns.SNIPPET // 文件夹的名称（或摘要）
+             NoteColumns.SNIPPET, // 文件夹的名称（或摘要）
+             NoteColumns.NOTES_COUNT // 文件夹中的便签数，取自文件夹统计
      };
  
      // 定义字段在查询结果中的索引
      public static final int ID_COLUMN   = 0; // ID字段的索引
      public static final int NAME_COLUMN = 1; // 名称字段的索引
+     public static final int NOTES_COUNT_COLUMN = 2; // 便签数字段的索引
  
      // 构造函数
      public FoldersListAdapter(Context context, Cursor c) {
@@ -57,9 +59,11 @@
      public void bindView(View view, Context context, Cursor cursor) {
          // 如果视图是文件夹列表项
          if (view instanceof FolderListItem) {
-             // 如果是根文件夹，显示特定的字符串，否则显示文件夹名称
+             // 如果是根文件夹，显示特定的字符串，否则显示文件夹名称和便签数
              String folderName = (cursor.getLong(ID_COLUMN) == Notes.ID_ROOT_FOLDER) ? context
-                     .getString(R.string.menu_move_parent_folder) : cursor.getString(NAME_COLUMN);
+                     .getString(R.string.menu_move_parent_folder) : cursor.getString(NAME_COLUMN)
+                     + context.getString(R.string.format_folder_files_count,
+                     cursor.getInt(NOTES_COUNT_COLUMN));
              // 绑定文件夹名称到视图
              ((FolderListItem) view).bind(folderName);
          }
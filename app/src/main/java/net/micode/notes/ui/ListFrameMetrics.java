@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.app.Activity;
+import android.content.pm.ApplicationInfo;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * 列表滚动的帧统计
+ * 功能：调试版本中通过FrameMetrics统计每次滚动期间的帧数、超过一帧时间（16.7ms）的帧数和最长的帧，
+ * 滚动停止时与适配器完整绑定的次数、平均耗时和滚动期间分配的内存一起输出到日志，
+ * 用于衡量滚动卡顿和重新绑定的开销（稳定滚动时绑定本身不应分配对象）
+ */
+public class ListFrameMetrics extends RecyclerView.OnScrollListener
+        implements Window.OnFrameMetricsAvailableListener {
+    private static final String TAG = "ListFrameMetrics";
+
+    private static final long FRAME_BUDGET_NANOS = 16666667L;
+
+    private final NotesListAdapter mAdapter;
+
+    private boolean mScrolling;
+
+    private int mFrames;
+
+    private int mJankyFrames;
+
+    private long mMaxFrameNanos;
+
+    private long mStartAllocatedBytes;
+
+    private ListFrameMetrics(NotesListAdapter adapter) {
+        mAdapter = adapter;
+        mScrolling = false;
+    }
+
+    /*
+     * 功能描述：应用可调试时开始统计，否则返回null，发布版本没有额外开销
+     */
+    public static ListFrameMetrics attach(Activity activity, RecyclerView list,
+            NotesListAdapter adapter) {
+        if ((activity.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return null;
+        }
+        ListFrameMetrics metrics = new ListFrameMetrics(adapter);
+        adapter.setCollectBindStats(true);
+        // 在主线程中回调，计数不需要加锁
+        activity.getWindow().addOnFrameMetricsAvailableListener(metrics,
+                new Handler(Looper.getMainLooper()));
+        list.addOnScrollListener(metrics);
+        return metrics;
+    }
+
+    public void detach(Activity activity, RecyclerView list) {
+        mAdapter.setCollectBindStats(false);
+        activity.getWindow().removeOnFrameMetricsAvailableListener(this);
+        list.removeOnScrollListener(this);
+    }
+
+    @Override
+    public void onFrameMetricsAvailable(Window window, FrameMetrics frameMetrics,
+            int dropCountSinceLastInvocation) {
+        if (!mScrolling) {
+            return;
+        }
+        long duration = frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        mFrames++;
+        if (duration > FRAME_BUDGET_NANOS) {
+            mJankyFrames++;
+        }
+        if (duration > mMaxFrameNanos) {
+            mMaxFrameNanos = duration;
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+        if (newState != RecyclerView.SCROLL_STATE_IDLE && !mScrolling) {
+            mScrolling = true;
+            mFrames = 0;
+            mJankyFrames = 0;
+            mMaxFrameNanos = 0;
+            mAdapter.resetBindStats();
+            mStartAllocatedBytes = getAllocatedBytes();
+        } else if (newState == RecyclerView.SCROLL_STATE_IDLE && mScrolling) {
+            mScrolling = false;
+            int binds = mAdapter.getBindCount();
+            long allocated = getAllocatedBytes() - mStartAllocatedBytes;
+            Log.d(TAG, "scroll: " + mFrames + " frames, " + mJankyFrames + " janky, max "
+                    + (mMaxFrameNanos / 1000000) + "ms; " + binds + " binds, avg "
+                    + (binds == 0 ? 0 : mAdapter.getBindNanos() / binds / 1000) + "us; "
+                    + (allocated / 1024) + "KB allocated");
+        }
+    }
+
+    /*
+     * 功能描述：进程启动以来分配的字节数（包括所有线程），读取失败时返回0
+     */
+    private static long getAllocatedBytes() {
+        String value = Debug.getRuntimeStat("art.gc.bytes-allocated");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "parse allocated bytes failed:" + e.toString());
+            return 0;
+        }
+    }
+}
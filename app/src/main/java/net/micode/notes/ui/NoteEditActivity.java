@@ -11,31 +11,32 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.text.Spannable;
+import android.text.Editable;
+import android.text.Layout;
 import android.text.SpannableString;
 import android.text.TextUtils;
+import android.text.TextWatcher;
 import android.text.format.DateUtils;
-import android.text.style.BackgroundColorSpan;
 import android.util.Log;
-import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.View.OnClickListener;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
-import android.widget.CheckBox;
-import android.widget.CompoundButton;
-import android.widget.CompoundButton.OnCheckedChangeListener;
 import android.widget.EditText;
 import android.widget.ImageView;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.TextNote;
@@ -44,20 +45,22 @@ import net.micode.notes.model.WorkingNote.NoteSettingChangedListener;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser;
 import net.micode.notes.tool.ResourceParser.TextAppearanceResources;
+import net.micode.notes.tool.SyncPreferences;
 import net.micode.notes.ui.DateTimePickerDialog.OnDateTimeSetListener;
-import net.micode.notes.ui.NoteEditText.OnTextViewChangeListener;
 import net.micode.notes.widget.NoteWidgetProvider_2x;
 import net.micode.notes.widget.NoteWidgetProvider_4x;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.BitSet;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 public class NoteEditActivity extends Activity implements OnClickListener,
-        NoteSettingChangedListener, OnTextViewChangeListener {
+        NoteSettingChangedListener {
     //该类主要是针对标签的编辑
     //继承了系统内部许多和监听有关的类
     private class HeadViewHolder {
@@ -134,13 +137,33 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     private static final int SHORTCUT_ICON_TITLE_MAX_LEN = 10;
 
-    public static final String TAG_CHECKED = String.valueOf('\u221A');
-    public static final String TAG_UNCHECKED = String.valueOf('\u25A1');
+    private View mNoteEditorScroll;
+    //普通模式的编辑框所在的滚动视图
 
-    private LinearLayout mEditTextList;
+    private RecyclerView mEditTextList;
+    //清单模式的编辑列表，只为可见的行创建视图
+    private ChecklistAdapter mChecklistAdapter;
+    private ChecklistModel mChecklist;
     //线性布局
     private String mUserQuery;
-    private Pattern mPattern;
+    private QueryHighlighter mHighlighter;  //每个查询只构造一次，各行共用
+    private int mHighlightColor;
+
+    // 超过该长度的便签在后台查找匹配，只给可见部分加上高亮
+    private static final int ASYNC_HIGHLIGHT_LENGTH = 4096;
+
+    // 在后台查找匹配的线程，空闲时退出
+    private static final ThreadPoolExecutor sHighlightExecutor = new ThreadPoolExecutor(
+            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sHighlightExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private int mHighlightGeneration;   //每次设置便签内容时增加，丢弃过期的后台结果
+    private int[] mPendingHighlights;   //后台找到的匹配区间，还有未加上高亮的时候不为null
+    private BitSet mAppliedHighlights;  //mPendingHighlights中已经加上高亮的区间
+    private final Rect mVisibleRect = new Rect();
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -261,6 +284,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             finish();
             return false;
         }
+        mHighlighter = QueryHighlighter.compile(mUserQuery);
         mWorkingNote.setOnSettingStatusChangedListener(this);
         return true;
     }
@@ -279,7 +303,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
             switchToListMode(mWorkingNote.getContent());
         } else {
-            mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
+            setNoteEditorText(mWorkingNote.getContent());
             mNoteEditor.setSelection(mNoteEditor.getText().length());
         }
         for (Integer id : sBgSelectorSelectionMap.keySet()) {
@@ -385,6 +409,7 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         mNoteHeaderHolder.ibSetBgColor = (ImageView) findViewById(R.id.btn_set_bg_color);
         mNoteHeaderHolder.ibSetBgColor.setOnClickListener(this);
         mNoteEditor = (EditText) findViewById(R.id.note_edit_view);
+        initHighlight();
         mNoteEditorPanel = findViewById(R.id.sv_note_edit);
         mNoteBgColorSelector = findViewById(R.id.note_bg_color_selector);
         for (int id : sBgSelectorBtnsMap.keySet()) {
@@ -407,7 +432,13 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         if(mFontSizeId >= TextAppearanceResources.getResourcesSize()) {
             mFontSizeId = ResourceParser.BG_DEFAULT_FONT_SIZE;
         }
-        mEditTextList = (LinearLayout) findViewById(R.id.note_edit_list);
+        mNoteEditorScroll = findViewById(R.id.note_edit_scroll);
+        mEditTextList = (RecyclerView) findViewById(R.id.note_edit_list);
+        mEditTextList.setLayoutManager(new LinearLayoutManager(this));
+        // 插入和删除行时不使用动画，避免正在编辑的行闪烁
+        mEditTextList.setItemAnimator(null);
+        mChecklistAdapter = new ChecklistAdapter(this);
+        mEditTextList.setAdapter(mChecklistAdapter);
     }
 
     @Override
@@ -455,8 +486,8 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             mSharedPrefs.edit().putInt(PREFERENCE_FONT_SIZE, mFontSizeId).commit();
             findViewById(sFontSelectorSelectionMap.get(mFontSizeId)).setVisibility(View.VISIBLE);
             if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
-                getWorkingText();
-                switchToListMode(mWorkingNote.getContent());
+                mChecklistAdapter.setTextAppearance(
+                        TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
             } else {
                 mNoteEditor.setTextAppearance(this,
                         TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
@@ -688,10 +719,10 @@ public class NoteEditActivity extends Activity implements OnClickListener,
 
     /*
      * 函数功能：判断是否为同步模式
-     * 函数实现：直接看NotesPreferenceActivity中同步名称是否为空
+     * 函数实现：直接看首选项中同步名称是否为空
      */
     private boolean isSyncMode() {
-        return NotesPreferenceActivity.getSyncAccountName(this).trim().length() > 0;
+        return SyncPreferences.getSyncAccountName(this).trim().length() > 0;
     }
 
     /*
@@ -741,173 +772,148 @@ public class NoteEditActivity extends Activity implements OnClickListener,
     }
 
     /*
-     * 函数功能： 删除编辑文本框所触发的事件
+     * 函数功能：切换至列表模式
      * 函数实现：如下注释
      */
-    public void onEditTextDelete(int index, String text) {
-        int childCount = mEditTextList.getChildCount();
-        if (childCount == 1) {
-            return;
-        }
-        //没有编辑框的话直接返回
-        for (int i = index + 1; i < childCount; i++) {
-            ((NoteEditText) mEditTextList.getChildAt(i).findViewById(R.id.et_edit_text))
-                    .setIndex(i - 1);
-            //通过id把编辑框存在便签编辑框中
-        }
+    private void switchToListMode(String text) {
+        mChecklist = ChecklistModel.parse(text);
+        //读入所有行，末尾加一个空行
+        mChecklistAdapter.setTextAppearance(
+                TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
+        mChecklistAdapter.setHighlighter(mHighlighter, mHighlightColor);
+        mChecklistAdapter.setModel(mChecklist);
+        //只为可见的行创建视图，焦点放在最后一行
 
-        mEditTextList.removeViewAt(index);
-        //删除特定位置的视图
-        NoteEditText edit = null;
-        if(index == 0) {
-            edit = (NoteEditText) mEditTextList.getChildAt(0).findViewById(
-                    R.id.et_edit_text);
-        } else {
-            edit = (NoteEditText) mEditTextList.getChildAt(index - 1).findViewById(
-                    R.id.et_edit_text);
-        }
-        //通过id把编辑框存在空的NoteEditText中
-        int length = edit.length();
-        edit.append(text);
-        edit.requestFocus();//请求优先完成该此 编辑
-        edit.setSelection(length);//定位到length位置处的条目
+        mNoteEditor.setVisibility(View.GONE);
+        mNoteEditorScroll.setVisibility(View.GONE);
+        //便签编辑器不可见
+        mEditTextList.setVisibility(View.VISIBLE);
+        //将文本编辑框置为可见
     }
 
     /*
-     * 函数功能：进入编辑文本框所触发的事件
-     * 函数实现：如下注释
+     * 函数功能：获取高亮效果的反馈情况
+     * 函数实现：用构造好的高亮器一次扫描找出所有关键字，按字面匹配，不再每次编译正则表达式
      */
-    public void onEditTextEnter(int index, String text) {
-        /**
-         * Should not happen, check for debug
-         */
-        if(index > mEditTextList.getChildCount()) {
-            Log.e(TAG, "Index out of mEditTextList boundrary, should not happen");
-            //越界把偶偶
-        }
-
-        View view = getListItem(text, index);
-        mEditTextList.addView(view, index);
-        //建立一个新的视图并添加到编辑文本框内
-        NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
-        edit.requestFocus();//请求优先操作
-        edit.setSelection(0);//定位到起始位置
-        for (int i = index + 1; i < mEditTextList.getChildCount(); i++) {
-            ((NoteEditText) mEditTextList.getChildAt(i).findViewById(R.id.et_edit_text))
-                    .setIndex(i);
-            //遍历子文本框并设置对应对下标
+    private Spannable getHighlightQueryResult(String fullText) {
+        String text = fullText == null ? "" : fullText;
+        if (mHighlighter == null) {
+            return new SpannableString(text);
         }
+        return mHighlighter.highlight(text, mHighlightColor);
     }
 
     /*
-     * 函数功能：切换至列表模式
-     * 函数实现：如下注释
+     * 函数功能：初始化高亮的颜色和监听器
+     * 函数实现：便签滚动或重新布局时给新进入可见范围的匹配加上高亮
      */
-    private void switchToListMode(String text) {
-        mEditTextList.removeAllViews();
-        String[] items = text.split("\n");
-        int index = 0;
-        //清空所有视图，初始化下标
-        for (String item : items) {
-            if(!TextUtils.isEmpty(item)) {
-                mEditTextList.addView(getListItem(item, index));
-                index++;
-                //遍历所有文本单元并添加到文本框中
+    private void initHighlight() {
+        mHighlightColor = getResources().getColor(R.color.user_query_highlight);
+        ViewTreeObserver observer = mNoteEditor.getViewTreeObserver();
+        observer.addOnScrollChangedListener(new ViewTreeObserver.OnScrollChangedListener() {
+            public void onScrollChanged() {
+                applyVisibleHighlights();
+            }
+        });
+        observer.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+            public void onGlobalLayout() {
+                applyVisibleHighlights();
+            }
+        });
+        mNoteEditor.addTextChangedListener(new TextWatcher() {
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
             }
-        }
-        mEditTextList.addView(getListItem("", index));
-        mEditTextList.getChildAt(index).findViewById(R.id.et_edit_text).requestFocus();
-        //优先请求此操作
 
-        mNoteEditor.setVisibility(View.GONE);
-        //便签编辑器不可见
-        mEditTextList.setVisibility(View.VISIBLE);
-        //将文本编辑框置为可见
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                // 内容已经改变，后台找到的位置不再对应，已经加上的高亮随文字移动
+                mHighlightGeneration++;
+                mPendingHighlights = null;
+            }
+
+            public void afterTextChanged(Editable s) {
+            }
+        });
     }
 
     /*
-     * 函数功能：获取高亮效果的反馈情况
-     * 函数实现：如下注释
+     * 函数功能：设置便签编辑器的内容并高亮搜索关键字
+     * 函数实现：较短的便签直接高亮；较长的便签先显示文字，在后台查找匹配，
+     * 再只给可见部分（前后各多一屏）加上高亮，其余的在滚动到时再加
      */
-    private Spannable getHighlightQueryResult(String fullText, String userQuery) {
-        SpannableString spannable = new SpannableString(fullText == null ? "" : fullText);
-        //新建一个效果选项
-        if (!TextUtils.isEmpty(userQuery)) {
-            mPattern = Pattern.compile(userQuery);
-            //将用户的询问进行解析
-            Matcher m = mPattern.matcher(fullText);
-            //建立一个状态机检查Pattern并进行匹配
-            int start = 0;
-            while (m.find(start)) {
-                spannable.setSpan(
-                        new BackgroundColorSpan(this.getResources().getColor(
-                                R.color.user_query_highlight)), m.start(), m.end(),
-                        Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
-                //设置背景颜色
-                start = m.end();
-                //跟新起始位置
-            }
+    private void setNoteEditorText(String content) {
+        final String text = content == null ? "" : content;
+        if (mHighlighter == null || text.length() <= ASYNC_HIGHLIGHT_LENGTH) {
+            mNoteEditor.setText(getHighlightQueryResult(text));
+            return;
         }
-        return spannable;
+        mNoteEditor.setText(text);
+        final int generation = ++mHighlightGeneration;
+        final QueryHighlighter highlighter = mHighlighter;
+        sHighlightExecutor.execute(new Runnable() {
+            public void run() {
+                final int[] ranges = highlighter.findMatches(text, 0, text.length());
+                mNoteEditor.post(new Runnable() {
+                    public void run() {
+                        if (generation != mHighlightGeneration || isFinishing()) {
+                            return;
+                        }
+                        mPendingHighlights = ranges;
+                        mAppliedHighlights = new BitSet(ranges.length / 2);
+                        applyVisibleHighlights();
+                    }
+                });
+            }
+        });
     }
 
     /*
-     * 函数功能：获取列表项
-     * 函数实现：如下注释
+     * 函数功能：给可见范围内还没有高亮的匹配加上高亮
      */
-    private View getListItem(String item, int index) {
-        View view = LayoutInflater.from(this).inflate(R.layout.note_edit_list_item, null);
-        //创建一个视图
-        final NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
-        edit.setTextAppearance(this, TextAppearanceResources.getTexAppearanceResource(mFontSizeId));
-        //创建一个文本编辑框并设置可见性
-        CheckBox cb = ((CheckBox) view.findViewById(R.id.cb_edit_item));
-        cb.setOnCheckedChangeListener(new OnCheckedChangeListener() {
-            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
-                if (isChecked) {
-                    edit.setPaintFlags(edit.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
-                } else {
-                    edit.setPaintFlags(Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG);
-                }
+    private void applyVisibleHighlights() {
+        int[] ranges = mPendingHighlights;
+        Layout layout = mNoteEditor.getLayout();
+        if (ranges == null || layout == null || mNoteEditor.getVisibility() != View.VISIBLE
+                || !mNoteEditor.getLocalVisibleRect(mVisibleRect)) {
+            return;
+        }
+        int screen = mVisibleRect.height();
+        int top = Math.max(0, mVisibleRect.top - mNoteEditor.getTotalPaddingTop() - screen);
+        int bottom = Math.max(0, mVisibleRect.bottom - mNoteEditor.getTotalPaddingTop() + screen);
+        int start = layout.getLineStart(layout.getLineForVertical(top));
+        int end = layout.getLineEnd(layout.getLineForVertical(bottom));
+
+        Editable text = mNoteEditor.getText();
+        int count = ranges.length / 2;
+        int first = findFirstRangeEndingAfter(ranges, start);
+        for (int i = first; i < count && ranges[i * 2] < end; i++) {
+            if (!mAppliedHighlights.get(i)) {
+                text.setSpan(new QueryHighlighter.HighlightSpan(mHighlightColor), ranges[i * 2],
+                        ranges[i * 2 + 1], Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
+                mAppliedHighlights.set(i);
             }
-        });
-        //建立一个打钩框并设置监听器
-
-        if (item.startsWith(TAG_CHECKED)) {
-            //选择勾选
-            cb.setChecked(true);
-            edit.setPaintFlags(edit.getPaintFlags() | Paint.STRIKE_THRU_TEXT_FLAG);
-            item = item.substring(TAG_CHECKED.length(), item.length()).trim();
-        } else if (item.startsWith(TAG_UNCHECKED)) {
-            //选择不勾选
-            cb.setChecked(false);
-            edit.setPaintFlags(Paint.ANTI_ALIAS_FLAG | Paint.DEV_KERN_TEXT_FLAG);
-            item = item.substring(TAG_UNCHECKED.length(), item.length()).trim();
         }
-
-        edit.setOnTextViewChangeListener(this);
-        edit.setIndex(index);
-        edit.setText(getHighlightQueryResult(item, mUserQuery));
-        //运行编辑框的监听器对该行为作出反应，并设置下标及文本内容
-        return view;
+        if (mAppliedHighlights.cardinality() == count) {
+            // 全部加上之后不再需要处理滚动
+            mPendingHighlights = null;
+            mAppliedHighlights = null;
+        }
     }
 
     /*
-     * 函数功能：便签内容发生改变所 触发的事件
-     * 函数实现：如下注释
+     * 函数功能：二分查找第一个终点在offset之后的匹配区间
      */
-    public void onTextChange(int index, boolean hasText) {
-        if (index >= mEditTextList.getChildCount()) {
-            Log.e(TAG, "Wrong index, should not happen");
-            return;
-            //越界报错
-        }
-        if(hasText) {
-            mEditTextList.getChildAt(index).findViewById(R.id.cb_edit_item).setVisibility(View.VISIBLE);
-        } else {
-            mEditTextList.getChildAt(index).findViewById(R.id.cb_edit_item).setVisibility(View.GONE);
+    private static int findFirstRangeEndingAfter(int[] ranges, int offset) {
+        int low = 0;
+        int high = ranges.length / 2;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (ranges[mid * 2 + 1] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
         }
-        //如果内容不为空则将其子编辑框可见性置为可见，否则不可见
+        return low;
     }
 
     /*
@@ -920,12 +926,13 @@ public class NoteEditActivity extends Activity implements OnClickListener,
             //检查模式切换到列表模式
         } else {
             if (!getWorkingText()) {
-                mWorkingNote.setWorkingText(mWorkingNote.getContent().replace(TAG_UNCHECKED + " ",
-                        ""));
+                mWorkingNote.setWorkingText(mWorkingNote.getContent().replace(
+                        TextNote.TAG_UNCHECKED + " ", ""));
             }
             //若是获取到文本就改变其检查标记
-            mNoteEditor.setText(getHighlightQueryResult(mWorkingNote.getContent(), mUserQuery));
+            setNoteEditorText(mWorkingNote.getContent());
             mEditTextList.setVisibility(View.GONE);
+            mNoteEditorScroll.setVisibility(View.VISIBLE);
             mNoteEditor.setVisibility(View.VISIBLE);
             //修改文本编辑器的内容和可见性
         }
@@ -939,27 +946,9 @@ public class NoteEditActivity extends Activity implements OnClickListener,
         boolean hasChecked = false;
         //初始化check标记
         if (mWorkingNote.getCheckListMode() == TextNote.MODE_CHECK_LIST) {
-            // 若模式为CHECK_LIST
-            StringBuilder sb = new StringBuilder();
-            //创建可变字符串
-            for (int i = 0; i < mEditTextList.getChildCount(); i++) {
-                View view = mEditTextList.getChildAt(i);
-                //遍历所有子编辑框的视图 
-                NoteEditText edit = (NoteEditText) view.findViewById(R.id.et_edit_text);
-                if (!TextUtils.isEmpty(edit.getText())) {
-                    //若文本不为空
-                    if (((CheckBox) view.findViewById(R.id.cb_edit_item)).isChecked()) {
-                        //该选项框已打钩
-                        sb.append(TAG_CHECKED).append(" ").append(edit.getText()).append("\n");
-                        hasChecked = true;
-                        //扩展字符串为已打钩并把标记置true
-                    } else {
-                        sb.append(TAG_UNCHECKED).append(" ").append(edit.getText()).append("\n");
-                        //扩展字符串添加未打钩
-                    }
-                }
-            }
-            mWorkingNote.setWorkingText(sb.toString());
+            // 若模式为CHECK_LIST，只重新生成修改过的行，没有修改时得到与上次相同的字符串
+            mWorkingNote.setWorkingText(mChecklist.serialize());
+            hasChecked = mChecklist.hasChecked();
             //利用编辑好的字符串设置运行便签的内容
         } else {
             mWorkingNote.setWorkingText(mNoteEditor.getText().toString());
@@ -1042,8 +1031,8 @@ public class NoteEditActivity extends Activity implements OnClickListener,
      * 函数实现：如下注释
      */
     private String makeShortcutIconTitle(String content) {
-        content = content.replace(TAG_CHECKED, "");
-        content = content.replace(TAG_UNCHECKED, "");
+        content = content.replace(TextNote.TAG_CHECKED, "");
+        content = content.replace(TextNote.TAG_UNCHECKED, "");
         return content.length() > SHORTCUT_ICON_TITLE_MAX_LEN ? content.substring(0,
                 SHORTCUT_ICON_TITLE_MAX_LEN) : content;
         //直接设置为content中的内容并返回，有勾选和未勾选2种
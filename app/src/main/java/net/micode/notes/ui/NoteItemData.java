@@ -4,10 +4,15 @@ import android.content.Context;
 import android.database.Cursor;
 import android.text.TextUtils;
 
+import net.micode.notes.R;
 import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
-import net.micode.notes.tool.DataUtils;
+import net.micode.notes.data.Notes.NoteListColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 
 
 public class NoteItemData {
@@ -24,6 +29,8 @@ public class NoteItemData {
             NoteColumns.TYPE,
             NoteColumns.WIDGET_ID,
             NoteColumns.WIDGET_TYPE,
+            NoteListColumns.CALL_NUMBER,
+            NoteColumns.TITLE,
     };
     //常量标记和数据就不一一标记了，意义翻译基本就知道
     private static final int ID_COLUMN                    = 0;
@@ -38,29 +45,37 @@ public class NoteItemData {
     private static final int TYPE_COLUMN                  = 9;
     private static final int WIDGET_ID_COLUMN             = 10;
     private static final int WIDGET_TYPE_COLUMN           = 11;
+    private static final int CALL_NUMBER_COLUMN           = 12;
+    private static final int TITLE_COLUMN                 = 13;
 
-    private long mId;
-    private long mAlertDate;
-    private int mBgColorId;
-    private long mCreatedDate;
-    private boolean mHasAttachment;
-    private long mModifiedDate;
-    private int mNotesCount;
-    private long mParentId;
-    private String mSnippet;
-    private int mType;
-    private int mWidgetId;
-    private int mWidgetType;
-    private String mName;
-    private String mPhoneNumber;
+    private final long mId;
+    private final long mAlertDate;
+    private final int mBgColorId;
+    private final long mCreatedDate;
+    private final boolean mHasAttachment;
+    private final long mModifiedDate;
+    private final int mNotesCount;
+    private final long mParentId;
+    private final String mSnippet;
+    private final int mType;
+    private final int mWidgetId;
+    private final int mWidgetType;
+    private final String mPhoneNumber;
+    private final CharSequence mDisplayTitle; // 列表中显示的标题，绑定时直接使用
+    private final String mFilterText; // 列表内筛选时匹配的文字（小写）
 
+    // 分组标记，由readAll根据相邻行一次算出
     private boolean mIsLastItem;
     private boolean mIsFirstItem;
     private boolean mIsOnlyOneItem;
     private boolean mIsOneNoteFollowingFolder;
     private boolean mIsMultiNotesFollowingFolder;
-    //初始化NoteItemData，主要利用光标cursor获取的东西
-    public NoteItemData(Context context, Cursor  cursor) {
+
+    /*
+     * 列表行的快照，创建后不再改变，可以在后台线程创建并交给主线程比较和绑定
+     */
+    //初始化NoteItemData，主要利用光标cursor获取的东西，不移动光标
+    private NoteItemData(Context context, Cursor cursor) {
         //getxxx为转换格式
         mId = cursor.getLong(ID_COLUMN);
         mAlertDate = cursor.getLong(ALERTED_DATE_COLUMN);
@@ -71,57 +86,127 @@ public class NoteItemData {
         mNotesCount = cursor.getInt(NOTES_COUNT_COLUMN);
         mParentId = cursor.getLong(PARENT_ID_COLUMN);
         mSnippet = cursor.getString(SNIPPET_COLUMN);
-        mSnippet = mSnippet.replace(NoteEditActivity.TAG_CHECKED, "").replace(
-                NoteEditActivity.TAG_UNCHECKED, "");
         mType = cursor.getInt(TYPE_COLUMN);
         mWidgetId = cursor.getInt(WIDGET_ID_COLUMN);
         mWidgetType = cursor.getInt(WIDGET_TYPE_COLUMN);
 
-        //初始化电话号码的信息
-        mPhoneNumber = "";
+        //初始化电话号码的信息，列表查询（Notes.CONTENT_NOTE_LIST_URI）已经带出了电话号码
+        String phoneNumber = null;
         if (mParentId == Notes.ID_CALL_RECORD_FOLDER) {
-            mPhoneNumber = DataUtils.getCallNumberByNoteId(context.getContentResolver(), mId);
-            if (!TextUtils.isEmpty(mPhoneNumber)) {//mphonenumber里有符合字符串，则用contart功能连接
-                mName = Contact.getContact(context, mPhoneNumber);
-                if (mName == null) {
-                    mName = mPhoneNumber;
-                }
-            }
+            phoneNumber = cursor.getString(CALL_NUMBER_COLUMN);
+        }
+        mPhoneNumber = (phoneNumber == null) ? "" : phoneNumber;
+
+        //显示标题在这里（后台线程）算好：便签的标题由数据库在保存时算出，文件夹加上便签数
+        if (mId == Notes.ID_CALL_RECORD_FOLDER) {
+            mDisplayTitle = context.getString(R.string.call_record_folder_name)
+                    + context.getString(R.string.format_folder_files_count, mNotesCount);
+        } else if (mType == Notes.TYPE_FOLDER) {
+            mDisplayTitle = mSnippet
+                    + context.getString(R.string.format_folder_files_count, mNotesCount);
+        } else {
+            mDisplayTitle = cursor.getString(TITLE_COLUMN);
+        }
+
+        //筛选匹配摘要（有长度限制）和通话记录的电话号码，同样在后台线程算好
+        String filterText = (mId == Notes.ID_CALL_RECORD_FOLDER) ? mDisplayTitle.toString() : mSnippet;
+        if (!TextUtils.isEmpty(mPhoneNumber)) {
+            filterText = filterText + "\n" + mPhoneNumber;
         }
+        mFilterText = filterText.toLowerCase(Locale.getDefault());
+    }
+
+    //复制一行，分组标记重新计算（筛选后的列表使用）
+    private NoteItemData(NoteItemData other) {
+        mId = other.mId;
+        mAlertDate = other.mAlertDate;
+        mBgColorId = other.mBgColorId;
+        mCreatedDate = other.mCreatedDate;
+        mHasAttachment = other.mHasAttachment;
+        mModifiedDate = other.mModifiedDate;
+        mNotesCount = other.mNotesCount;
+        mParentId = other.mParentId;
+        mSnippet = other.mSnippet;
+        mType = other.mType;
+        mWidgetId = other.mWidgetId;
+        mWidgetType = other.mWidgetType;
+        mPhoneNumber = other.mPhoneNumber;
+        mDisplayTitle = other.mDisplayTitle;
+        mFilterText = other.mFilterText;
+    }
+
+    /*
+     * 功能描述：读取光标的所有行，同时算出每行的分组标记（第一项、最后一项、是否跟在文件夹后面），
+     * 绑定时不再移动光标。在后台线程调用，不关闭光标
+     */
+    public static ArrayList<NoteItemData> readAll(Context context, Cursor cursor) {
+        ArrayList<NoteItemData> items = new ArrayList<NoteItemData>(cursor.getCount());
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items.add(new NoteItemData(context, cursor));
+        }
+
+        computeGroupFlags(items);
+        return items;
+    }
 
-        if (mName == null) {
-            mName = "";
+    /*
+     * 功能描述：复制一组行（如筛选的结果）并按它们在新列表中的相邻关系重新计算分组标记
+     */
+    public static ArrayList<NoteItemData> regroup(List<NoteItemData> items) {
+        ArrayList<NoteItemData> copies = new ArrayList<NoteItemData>(items.size());
+        for (NoteItemData item : items) {
+            copies.add(new NoteItemData(item));
         }
-        checkPostion(cursor);
-    }
-    ///根据鼠标的位置设置标记，和位置
-    private void checkPostion(Cursor cursor) {
-        //初始化几个标记，cursor具体功能笔记中已提到，不一一叙述
-        mIsLastItem = cursor.isLast() ? true : false;
-        mIsFirstItem = cursor.isFirst() ? true : false;
-        mIsOnlyOneItem = (cursor.getCount() == 1);
-        //初始化“多重子文件”“单一子文件”2个标记
-        mIsMultiNotesFollowingFolder = false;
-        mIsOneNoteFollowingFolder = false;
-
-        //主要是设置上诉2标记
-        if (mType == Notes.TYPE_NOTE && !mIsFirstItem) {//若是note格式并且不是第一个元素
-            int position = cursor.getPosition();
-            if (cursor.moveToPrevious()) {//获取光标位置后看上一行
-                if (cursor.getInt(TYPE_COLUMN) == Notes.TYPE_FOLDER
-                        || cursor.getInt(TYPE_COLUMN) == Notes.TYPE_SYSTEM) {//若光标满足系统或note格式
-                    if (cursor.getCount() > (position + 1)) {
-                        mIsMultiNotesFollowingFolder = true;//若是数据行数大于但前位置+1则设置成正确
+        computeGroupFlags(copies);
+        return copies;
+    }
+
+    //根据相邻行一次算出每行的分组标记
+    private static void computeGroupFlags(List<NoteItemData> items) {
+        int count = items.size();
+        for (int position = 0; position < count; position++) {
+            NoteItemData item = items.get(position);
+            item.mIsFirstItem = (position == 0);
+            item.mIsLastItem = (position == count - 1);
+            item.mIsOnlyOneItem = (count == 1);
+            //若是note格式并且不是第一个元素，看上一行是不是文件夹
+            if (item.mType == Notes.TYPE_NOTE && position > 0) {
+                int previousType = items.get(position - 1).mType;
+                if (previousType == Notes.TYPE_FOLDER || previousType == Notes.TYPE_SYSTEM) {
+                    if (count > (position + 1)) {
+                        item.mIsMultiNotesFollowingFolder = true;//若是数据行数大于但前位置+1则设置成正确
                     } else {
-                        mIsOneNoteFollowingFolder = true;//否则单一文件夹标记为true
+                        item.mIsOneNoteFollowingFolder = true;//否则单一文件夹标记为true
                     }
                 }
-                if (!cursor.moveToNext()) {//若不能再往下走则报错
-                    throw new IllegalStateException("cursor move to previous but can't move back");
-                }
             }
         }
     }
+
+    /*
+     * 功能描述：显示的内容是否相同，用于列表比较时决定是否需要重新绑定
+     */
+    public boolean isSameContent(NoteItemData other) {
+        return mId == other.mId
+                && mAlertDate == other.mAlertDate
+                && mBgColorId == other.mBgColorId
+                && mModifiedDate == other.mModifiedDate
+                && mNotesCount == other.mNotesCount
+                && mParentId == other.mParentId
+                && mType == other.mType
+                && mWidgetId == other.mWidgetId
+                && mWidgetType == other.mWidgetType
+                && TextUtils.equals(mSnippet, other.mSnippet)
+                && TextUtils.equals(mDisplayTitle, other.mDisplayTitle)
+                && TextUtils.equals(mPhoneNumber, other.mPhoneNumber)
+                && mIsFirstItem == other.mIsFirstItem
+                && mIsLastItem == other.mIsLastItem
+                && mIsOnlyOneItem == other.mIsOnlyOneItem
+                && mIsOneNoteFollowingFolder == other.mIsOneNoteFollowingFolder
+                && mIsMultiNotesFollowingFolder == other.mIsMultiNotesFollowingFolder;
+    }
+
     ///以下都是获取标记没什么好说的，不过倒数第二个需要说明下，很具体看下面
     public boolean isOneFollowingFolder() {
         return mIsOneNoteFollowingFolder;
@@ -135,8 +220,25 @@ public class NoteItemData {
         return mIsLastItem;
     }
 
+    /*
+     * 功能描述：联系人姓名，只读缓存（绑定视图在主线程），没有缓存时显示电话号码，
+     * 没有缓存的姓名由NotesListAdapter在后台批量查询
+     */
     public String getCallName() {
-        return mName;
+        if (TextUtils.isEmpty(mPhoneNumber)) {
+            return "";
+        }
+        String name = Contact.peekContact(mPhoneNumber);
+        return name == null ? mPhoneNumber : name;
+    }
+
+    public String getCallNumber() {
+        return mPhoneNumber;
+    }
+
+    //联系人姓名还没有查询，暂时显示电话号码
+    public boolean isCallNamePending() {
+        return !TextUtils.isEmpty(mPhoneNumber) && !Contact.isCached(mPhoneNumber);
     }
 
     public boolean isFirst() {
@@ -199,6 +301,14 @@ public class NoteItemData {
         return mSnippet;
     }
 
+    public CharSequence getDisplayTitle() {
+        return mDisplayTitle;
+    }
+
+    public String getFilterText() {
+        return mFilterText;
+    }
+
     public boolean hasAlert() {
         return (mAlertDate > 0);
     }
@@ -211,4 +321,4 @@ public class NoteItemData {
     public static int getNoteType(Cursor cursor) {
         return cursor.getInt(TYPE_COLUMN);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 列表内的筛选
+ * 功能：在已经读入的行快照中按关键字筛选，不再查询数据库。
+ * 每个查询的匹配结果按当前列表缓存，输入更长的查询时只在其最长的已缓存前缀的结果中继续匹配，
+ * 删除字符时直接使用缓存。只在NotesListAdapter的后台线程中使用，不需要同步
+ */
+public class NoteListFilter {
+    // 每个列表最多缓存的查询数
+    private static final int MAX_CACHED_QUERIES = 16;
+
+    // 每匹配这么多行检查一次是否已经有新的查询
+    private static final int CANCEL_CHECK_ROWS = 256;
+
+    /**
+     * 是否已经取消（有了更新的查询或列表）
+     */
+    public interface CancelSignal {
+        boolean isCancelled();
+    }
+
+    private List<NoteItemData> mBase;   // 缓存所属的完整列表
+
+    // 查询 -> 匹配的行（完整列表中的快照，分组标记未重新计算），按使用顺序淘汰
+    private final LinkedHashMap<String, ArrayList<NoteItemData>> mCache =
+            new LinkedHashMap<String, ArrayList<NoteItemData>>(MAX_CACHED_QUERIES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ArrayList<NoteItemData>> eldest) {
+                    return size() > MAX_CACHED_QUERIES;
+                }
+            };
+
+    /*
+     * 功能描述：规范化查询，去掉首尾空白并转为小写，与NoteItemData的筛选文字一致
+     */
+    public static String normalize(String query) {
+        return query == null ? "" : query.trim().toLowerCase(Locale.getDefault());
+    }
+
+    /*
+     * 功能描述：在base中筛选包含query（已规范化）的行，并重新计算筛选结果的分组标记；
+     * query为空时返回base本身，取消时返回null
+     */
+    public List<NoteItemData> filter(List<NoteItemData> base, String query, CancelSignal signal) {
+        if (base != mBase) {
+            // 列表已经替换，之前的结果不再有效
+            mCache.clear();
+            mBase = base;
+        }
+        if (query.length() == 0) {
+            return base;
+        }
+
+        ArrayList<NoteItemData> matches = mCache.get(query);
+        if (matches == null) {
+            matches = match(findNarrowestSource(query), query, signal);
+            if (matches == null) {
+                return null;
+            }
+            mCache.put(query, matches);
+        }
+        return NoteItemData.regroup(matches);
+    }
+
+    /*
+     * 功能描述：已缓存的查询中是query前缀的最长一个的结果，没有时为完整列表
+     */
+    private List<NoteItemData> findNarrowestSource(String query) {
+        List<NoteItemData> source = mBase;
+        int longest = 0;
+        for (Map.Entry<String, ArrayList<NoteItemData>> entry : mCache.entrySet()) {
+            String cached = entry.getKey();
+            if (cached.length() > longest && query.startsWith(cached)) {
+                longest = cached.length();
+                source = entry.getValue();
+            }
+        }
+        return source;
+    }
+
+    private static ArrayList<NoteItemData> match(List<NoteItemData> source, String query,
+            CancelSignal signal) {
+        int count = source.size();
+        ArrayList<NoteItemData> matches = new ArrayList<NoteItemData>();
+        for (int i = 0; i < count; i++) {
+            if (i % CANCEL_CHECK_ROWS == 0 && signal.isCancelled()) {
+                return null;
+            }
+            NoteItemData item = source.get(i);
+            if (item.getFilterText().contains(query)) {
+                matches.add(item);
+            }
+        }
+        return matches;
+    }
+}
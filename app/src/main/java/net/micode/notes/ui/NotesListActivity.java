@@ -27,9 +27,12 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.preference.PreferenceManager;
 import android.text.Editable;
 import android.text.TextUtils;
@@ -50,24 +53,25 @@ import android.view.View.OnClickListener;
 import android.view.View.OnCreateContextMenuListener;
 import android.view.View.OnTouchListener;
 import android.view.inputmethod.InputMethodManager;
-import android.widget.AdapterView;
-import android.widget.AdapterView.OnItemClickListener;
-import android.widget.AdapterView.OnItemLongClickListener;
 import android.widget.Button;
 import android.widget.EditText;
-import android.widget.ListView;
 import android.widget.PopupMenu;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
 import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.NoteListColumns;
 import net.micode.notes.gtask.remote.GTaskSyncService;
 import net.micode.notes.model.WorkingNote;
 import net.micode.notes.tool.BackupUtils;
 import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser;
+import net.micode.notes.tool.SyncPreferences;
 import net.micode.notes.ui.NotesListAdapter.AppWidgetAttribute;
 import net.micode.notes.widget.NoteWidgetProvider_2x;
 import net.micode.notes.widget.NoteWidgetProvider_4x;
@@ -81,7 +85,8 @@ import java.util.HashSet;
 /**
  * 笔记列表活动类，显示笔记和文件夹列表的主界面
  */
-public class NotesListActivity extends Activity implements OnClickListener, OnItemLongClickListener {
+public class NotesListActivity extends Activity implements OnClickListener,
+        NotesListAdapter.OnItemLongClickListener {
     // 查询标记常量
     private int mode=-1;//新增功能
     public static int secret_mode = 0;
@@ -108,12 +113,15 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     private BackgroundQueryHandler mBackgroundQueryHandler; // 后台查询处理器
     private NotesListAdapter mNotesListAdapter; // 笔记列表适配器
-    private ListView mNotesListView; // 笔记列表视图
+    private RecyclerView mNotesListView; // 笔记列表视图
+    private ListFrameMetrics mFrameMetrics; // 调试版本的滚动帧统计
+    private NotesObserver mNotesObserver; // 便签变化时重新查询
     private Button mAddNewNote; // 添加新笔记按钮
     private boolean mDispatch; // 是否分发触摸事件标志
     private int mOriginY; // 触摸事件原始Y坐标
     private int mDispatchY; // 分发触摸事件的Y坐标
     private TextView mTitleBar; // 标题栏
+    private EditText mFilterBox; // 列表内筛选输入框
     private long mCurrentFolderId; // 当前文件夹ID
     private ContentResolver mContentResolver; // 内容解析器
     private ModeCallback mModeCallBack; // 多选模式回调
@@ -153,8 +161,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         if (resultCode == RESULT_OK
                 && (requestCode == REQUEST_CODE_OPEN_NODE || requestCode == REQUEST_CODE_NEW_NODE)) {
-            // 如果成功打开或新建笔记，重置游标
-            mNotesListAdapter.changeCursor(null);
+            // 如果成功打开或新建笔记，onStart中会重新查询，列表只刷新有变化的行
         } else {
             super.onActivityResult(requestCode, resultCode, data);
         }
@@ -215,9 +222,52 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     @Override
     protected void onStart() {
         super.onStart();
+        // 列表保存的是行快照而不是光标，需要自己监听便签的变化
+        getContentResolver().registerContentObserver(Notes.CONTENT_NOTE_URI, true, mNotesObserver);
         startAsyncNotesListQuery(); // 启动异步笔记列表查询
     }
 
+    @Override
+    protected void onStop() {
+        getContentResolver().unregisterContentObserver(mNotesObserver);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mFrameMetrics != null) {
+            mFrameMetrics.detach(this, mNotesListView);
+            mFrameMetrics = null;
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * 便签变化时重新查询当前文件夹，短时间内的多次变化（如同步、批量删除）合并为一次查询
+     */
+    private final class NotesObserver extends ContentObserver {
+        private static final long REQUERY_DELAY = 100;
+
+        private final Handler mHandler;
+
+        private final Runnable mRequery = new Runnable() {
+            public void run() {
+                startAsyncNotesListQuery();
+            }
+        };
+
+        NotesObserver(Handler handler) {
+            super(handler);
+            mHandler = handler;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mHandler.removeCallbacks(mRequery);
+            mHandler.postDelayed(mRequery, REQUERY_DELAY);
+        }
+    }
+
     /**
      * 初始化资源
      */
@@ -225,14 +275,14 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         mContentResolver = this.getContentResolver();
         mBackgroundQueryHandler = new BackgroundQueryHandler(this.getContentResolver());
         mCurrentFolderId = Notes.ID_ROOT_FOLDER; // 默认设置为根文件夹
-        mNotesListView = (ListView) findViewById(R.id.notes_list);
-        // 添加列表底部视图
-        mNotesListView.addFooterView(LayoutInflater.from(this).inflate(R.layout.note_list_footer, null),
-                null, false);
-        mNotesListView.setOnItemClickListener(new OnListItemClickListener()); // 设置列表项点击监听
-        mNotesListView.setOnItemLongClickListener(this); // 设置列表项长按监听
-        mNotesListAdapter = new NotesListAdapter(this); // 初始化适配器
+        mNotesListView = (RecyclerView) findViewById(R.id.notes_list);
+        mNotesListView.setLayoutManager(new LinearLayoutManager(this));
+        mNotesListAdapter = new NotesListAdapter(this); // 初始化适配器，列表底部视图由适配器提供
+        mNotesListAdapter.setOnItemClickListener(new OnListItemClickListener()); // 设置列表项点击监听
+        mNotesListAdapter.setOnItemLongClickListener(this); // 设置列表项长按监听
         mNotesListView.setAdapter(mNotesListAdapter); // 设置适配器
+        mFrameMetrics = ListFrameMetrics.attach(this, mNotesListView, mNotesListAdapter);
+        mNotesObserver = new NotesObserver(new Handler(Looper.getMainLooper()));
         mAddNewNote = (Button) findViewById(R.id.btn_new_note);
         mAddNewNote.setOnClickListener(this); // 设置新建笔记按钮点击监听
         mAddNewNote.setOnTouchListener(new NewNoteOnTouchListener()); // 设置触摸监听
@@ -240,6 +290,19 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         mDispatchY = 0;
         mOriginY = 0;
         mTitleBar = (TextView) findViewById(R.id.tv_title_bar);
+        mFilterBox = (EditText) findViewById(R.id.et_list_filter);
+        mFilterBox.addTextChangedListener(new TextWatcher() {
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            public void afterTextChanged(Editable s) {
+                // 在已经读入的行中筛选，不重新查询
+                mNotesListAdapter.setFilter(s.toString());
+            }
+        });
         mState = ListEditState.NOTE_LIST; // 初始状态为笔记列表
         mModeCallBack = new ModeCallback(); // 初始化多选模式回调
     }
@@ -247,10 +310,28 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     /**
      * 多选模式回调类
      */
-    private class ModeCallback implements ListView.MultiChoiceModeListener, OnMenuItemClickListener {
+    private class ModeCallback implements ActionMode.Callback, OnMenuItemClickListener {
         private DropdownMenu mDropDownMenu; // 下拉菜单
         private ActionMode mActionMode; // 动作模式
         private MenuItem mMoveMenu; // 移动菜单项
+        // 筛选或刷新改变显示的行时，选中个数随之变化，需要更新标题
+        private final RecyclerView.AdapterDataObserver mSelectionObserver =
+                new RecyclerView.AdapterDataObserver() {
+            @Override
+            public void onChanged() {
+                updateMenu();
+            }
+
+            @Override
+            public void onItemRangeInserted(int positionStart, int itemCount) {
+                updateMenu();
+            }
+
+            @Override
+            public void onItemRangeRemoved(int positionStart, int itemCount) {
+                updateMenu();
+            }
+        };
 
         @Override
         public boolean onCreateActionMode(ActionMode mode, Menu menu) {
@@ -267,8 +348,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                 mMoveMenu.setOnMenuItemClickListener(this);
             }
             mActionMode = mode;
-            mNotesListAdapter.setChoiceMode(true); // 设置适配器为选择模式
-            mNotesListView.setLongClickable(false); // 禁用长按
+            mNotesListAdapter.setChoiceMode(true); // 设置适配器为选择模式，选择模式中长按不处理
             mAddNewNote.setVisibility(View.GONE); // 隐藏新建笔记按钮
 
             // 设置自定义视图
@@ -286,6 +366,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                     return true;
                 }
             });
+            mNotesListAdapter.registerAdapterDataObserver(mSelectionObserver);
             return true;
         }
 
@@ -322,8 +403,8 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         @Override
         public void onDestroyActionMode(ActionMode mode) {
             // 退出多选模式时的清理工作
+            mNotesListAdapter.unregisterAdapterDataObserver(mSelectionObserver);
             mNotesListAdapter.setChoiceMode(false);
-            mNotesListView.setLongClickable(true);
             mAddNewNote.setVisibility(View.VISIBLE);
         }
 
@@ -331,7 +412,6 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
             mActionMode.finish();
         }
 
-        @Override
         public void onItemCheckedStateChanged(ActionMode mode, int position, long id,
                                               boolean checked) {
             // 项选择状态改变时的处理
@@ -375,6 +455,19 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         }
     }
 
+    /**
+     * 列表中显示的最后一个便签行（不包括列表底部）
+     */
+    private View getLastNoteItemView() {
+        for (int i = mNotesListView.getChildCount() - 1; i >= 0; i--) {
+            View child = mNotesListView.getChildAt(i);
+            if (child instanceof NotesListItem) {
+                return child;
+            }
+        }
+        return null;
+    }
+
     /**
      * 新建笔记按钮触摸监听器
      */
@@ -401,8 +494,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                      * 这是为了满足UI设计师的特殊需求
                      */
                     if (event.getY() < (event.getX() * (-0.12) + 94)) {
-                        View view = mNotesListView.getChildAt(mNotesListView.getChildCount() - 1
-                                - mNotesListView.getFooterViewsCount());
+                        View view = getLastNoteItemView();
                         if (view != null && view.getBottom() > start
                                 && (view.getTop() < (start + 94))) {
                             mOriginY = (int) event.getY();
@@ -439,11 +531,13 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
      * 启动异步笔记列表查询
      */
     private void startAsyncNotesListQuery() {
+        // 还没有开始的旧查询不再需要
+        mBackgroundQueryHandler.cancelOperation(FOLDER_NOTE_LIST_QUERY_TOKEN);
         String selection = (mCurrentFolderId == Notes.ID_ROOT_FOLDER) ? ROOT_FOLDER_SELECTION
                 : NORMAL_SELECTION;
         if(secret_mode == 0) {
             mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                    Notes.CONTENT_NOTE_URI, NoteItemData.PROJECTION, selection, new String[]{
+                    Notes.CONTENT_NOTE_LIST_URI, NoteItemData.PROJECTION, selection, new String[]{
                             String.valueOf(mCurrentFolderId)
                     }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
         }
@@ -459,13 +553,15 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
                     NoteColumns.NOTES_COUNT,
                     NoteColumns.PARENT_ID,
 //                    NoteColumns.SNIPPET,
-                    str1,
+                    str1 + " AS " + NoteColumns.SNIPPET, // 列表查询使用投影映射，常量列需要带别名
                     NoteColumns.TYPE,
                     NoteColumns.WIDGET_ID,
                     NoteColumns.WIDGET_TYPE,
+                    NoteListColumns.CALL_NUMBER,
+                    str1 + " AS " + NoteColumns.TITLE,
             };
             mBackgroundQueryHandler.startQuery(FOLDER_NOTE_LIST_QUERY_TOKEN, null,
-                    Notes.CONTENT_NOTE_URI, PROJECTION, selection, new String[]{
+                    Notes.CONTENT_NOTE_LIST_URI, PROJECTION, selection, new String[]{
                             String.valueOf(mCurrentFolderId)
                     }, NoteColumns.TYPE + " DESC," + NoteColumns.MODIFIED_DATE + " DESC");
 
@@ -546,20 +642,20 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
      * 批量删除笔记
      */
     private void batchDelete() {
+        // 在主线程取出显示的选中便签，后台执行期间列表和筛选可能变化
+        final HashSet<Long> ids = mNotesListAdapter.getSelectedItemIds();
         new AsyncTask<Void, Void, HashSet<AppWidgetAttribute>>() {
             @Override
             protected HashSet<AppWidgetAttribute> doInBackground(Void... unused) {
-                HashSet<AppWidgetAttribute> widgets = mNotesListAdapter.getSelectedWidget();
+                HashSet<AppWidgetAttribute> widgets = mNotesListAdapter.getSelectedWidget(ids);
                 if (!isSyncMode()) {
                     // 非同步模式直接删除笔记
-                    if (!DataUtils.batchDeleteNotes(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds())) {
+                    if (!DataUtils.batchDeleteNotes(mContentResolver, ids)) {
                         Log.e(TAG, "Delete notes error, should not happens");
                     }
                 } else {
                     // 同步模式下将笔记移动到回收站
-                    if (!DataUtils.batchMoveToFolder(mContentResolver, mNotesListAdapter
-                            .getSelectedItemIds(), Notes.ID_TRASH_FOLER)) {
+                    if (!DataUtils.batchMoveToFolder(mContentResolver, ids, Notes.ID_TRASH_FOLER)) {
                         Log.e(TAG, "Move notes to trash folder error, should not happens");
                     }
                 }
@@ -628,6 +724,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
      * 打开文件夹
      */
     private void openFolder(NoteItemData data) {
+        hideFilterBox(); // 筛选只作用于当前文件夹
         mCurrentFolderId = data.getId();
         startAsyncNotesListQuery(); // 查询文件夹内容
         // 根据文件夹类型设置状态
@@ -646,6 +743,27 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
         mTitleBar.setVisibility(View.VISIBLE); // 显示标题栏
     }
 
+    /**
+     * 显示列表内筛选输入框
+     */
+    private void showFilterBox() {
+        mFilterBox.setVisibility(View.VISIBLE);
+        mFilterBox.requestFocus();
+        showSoftInput();
+    }
+
+    /**
+     * 隐藏筛选输入框并清除筛选条件
+     */
+    private void hideFilterBox() {
+        if (mFilterBox.getVisibility() != View.VISIBLE) {
+            return;
+        }
+        mFilterBox.setText(""); // 清除筛选，显示完整列表
+        hideSoftInput(mFilterBox);
+        mFilterBox.setVisibility(View.GONE);
+    }
+
     @Override
     public void onClick(View v) {
         switch (v.getId()) {
@@ -771,6 +889,11 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
     @Override
     public void onBackPressed() {
+        if (mFilterBox.getVisibility() == View.VISIBLE) {
+            // 先关闭筛选
+            hideFilterBox();
+            return;
+        }
         switch (mState) {
             case SUB_FOLDER:
                 // 返回根文件夹
@@ -1000,6 +1123,9 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
             case R.id.menu_search:
                 onSearchRequested(); // 搜索
                 break;
+            case R.id.menu_filter:
+                showFilterBox(); // 在当前文件夹中筛选
+                break;
             default:
                 break;
         }
@@ -1060,7 +1186,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
      * 检查是否处于同步模式
      */
     private boolean isSyncMode() {
-        return NotesPreferenceActivity.getSyncAccountName(this).trim().length() > 0;
+        return SyncPreferences.getSyncAccountName(this).trim().length() > 0;
     }
 
     /**
@@ -1075,15 +1201,14 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     /**
      * 列表项点击监听器
      */
-    private class OnListItemClickListener implements OnItemClickListener {
+    private class OnListItemClickListener implements NotesListAdapter.OnItemClickListener {
         @Override
-        public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+        public void onItemClick(View view, int position, long id) {
             if (view instanceof NotesListItem) {
                 NoteItemData item = ((NotesListItem) view).getItemData();
                 if (mNotesListAdapter.isInChoiceMode()) {
                     // 多选模式下处理选择状态
                     if (item.getType() == Notes.TYPE_NOTE) {
-                        position = position - mNotesListView.getHeaderViewsCount();
                         mModeCallBack.onItemCheckedStateChanged(null, position, id,
                                 !mNotesListAdapter.isSelectedItem(position));
                     }
@@ -1127,7 +1252,7 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
 
         mBackgroundQueryHandler.startQuery(FOLDER_LIST_QUERY_TOKEN,
                 null,
-                Notes.CONTENT_NOTE_URI,
+                Notes.CONTENT_NOTE_LIST_URI,
                 FoldersListAdapter.PROJECTION,
                 selection,
                 new String[] {
@@ -1139,20 +1264,22 @@ public class NotesListActivity extends Activity implements OnClickListener, OnIt
     }
 
     @Override
-    public boolean onItemLongClick(AdapterView<?> parent, View view, int position, long id) {
-        if (view instanceof NotesListItem) {
+    public boolean onItemLongClick(View view, int position, long id) {
+        if (view instanceof NotesListItem && !mNotesListAdapter.isInChoiceMode()) {
             mFocusNoteDataItem = ((NotesListItem) view).getItemData();
             // 笔记长按进入多选模式
-            if (mFocusNoteDataItem.getType() == Notes.TYPE_NOTE && !mNotesListAdapter.isInChoiceMode()) {
+            if (mFocusNoteDataItem.getType() == Notes.TYPE_NOTE) {
                 if (mNotesListView.startActionMode(mModeCallBack) != null) {
                     mModeCallBack.onItemCheckedStateChanged(null, position, id, true);
                     mNotesListView.performHapticFeedback(HapticFeedbackConstants.LONG_PRESS);
                 } else {
                     Log.e(TAG, "startActionMode fails");
                 }
+                return true;
             } else if (mFocusNoteDataItem.getType() == Notes.TYPE_FOLDER) {
-                // 文件夹长按显示上下文菜单
+                // 文件夹长按显示上下文菜单，菜单由列表视图的监听器创建
                 mNotesListView.setOnCreateContextMenuListener(mFolderOnCreateContextMenuListener);
+                return view.showContextMenu();
             }
         }
         return false;
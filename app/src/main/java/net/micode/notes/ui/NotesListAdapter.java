@@ -2,30 +2,92 @@ package net.micode.notes.ui;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
+import net.micode.notes.R;
+import net.micode.notes.data.Contact;
 import net.micode.notes.data.Notes;
+import net.micode.notes.tool.DataUtils;
+import net.micode.notes.tool.LongHashSet;
 
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
 /*
- * 功能：直译为便签表连接器，继承了CursorAdapter，它为cursor和ListView提供了连接的桥梁。
- *     所以NotesListAdapter实现的是鼠标和编辑便签链接的桥梁
+ * 功能：便签列表的适配器，为RecyclerView提供便签行和列表底部的空白。
+ *     查询得到的光标在后台线程读成不可变的行快照（NoteItemData），并与当前列表比较，
+ *     主线程只替换快照并刷新有变化的行；选择状态和联系人姓名的变化只做局部刷新。
+ *     列表内筛选同样在后台线程进行，只显示完整快照中匹配的行
  */
-public class NotesListAdapter extends CursorAdapter {
+public class NotesListAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
     private static final String TAG = "NotesListAdapter";
+
+    // 视图类型：便签行、列表底部
+    private static final int VIEW_TYPE_NOTE = 0;
+    private static final int VIEW_TYPE_FOOTER = 1;
+
+    // 列表底部的id，便签id不会是该值
+    private static final long FOOTER_ID = Long.MIN_VALUE;
+
+    // 局部刷新：只更新勾选框
+    private static final Object PAYLOAD_CHECK_STATE = new Object();
+    // 局部刷新：只更新联系人姓名
+    private static final Object PAYLOAD_CALL_NAME = new Object();
+
     private Context mContext;
-    private HashMap<Integer, Boolean> mSelectedIndex;
-    private int mNotesCount;    //便签数
+    private List<NoteItemData> mAllItems;   //当前文件夹的完整快照，只在主线程替换
+    private List<NoteItemData> mItems;  //当前显示的行快照（筛选后），只在主线程替换
+    private volatile int mGeneration;   //每提交一个光标加1，过期的读取和比较直接放弃
+    private volatile int mFilterGeneration; //每次筛选条件变化加1，过期的筛选直接放弃
+    private volatile String mFilterQuery;   //当前的筛选条件（已规范化），空字符串表示不筛选
+    private final NoteListFilter mFilter;   //筛选结果的缓存，只在sListExecutor中使用
+    private LongHashSet mSelectedIds;   //选中的便签id，光标刷新后位置变化不影响选择；筛选隐藏的行保持选中
+    private int mNotesCount;    //显示的便签数
+    private int mVisibleSelectedCount;  //显示的便签中选中的个数
     private boolean mChoiceMode;   //选择模式标记
+    private RelativeTimeCache mTimeCache;   //修改时间文字的缓存
+    private OnItemClickListener mOnItemClickListener;
+    private OnItemLongClickListener mOnItemLongClickListener;
+
+    private boolean mCollectBindStats;  //是否统计绑定耗时，只在调试版本中由ListFrameMetrics打开
+    private long mBindNanos;    //完整绑定的总耗时，用于滚动性能统计
+    private int mBindCount;     //完整绑定的次数
+
+    // 绑定通话记录时，预取该行之后这么多行（大约当前一屏和下一屏）的联系人姓名
+    private static final int CONTACT_PREFETCH_ROWS = 40;
+
+    // 在后台读取光标并比较列表的线程，空闲时退出
+    private static final ThreadPoolExecutor sListExecutor = new ThreadPoolExecutor(
+            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    // 在后台批量查询联系人姓名的线程，空闲时退出
+    private static final ThreadPoolExecutor sContactExecutor = new ThreadPoolExecutor(
+            1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+    static {
+        sListExecutor.allowCoreThreadTimeOut(true);
+        sContactExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private final Handler mHandler;
+    private HashSet<String> mContactInFlight;  //正在后台查询联系人姓名的电话号码，查询结束后移除
+    private HashSet<String> mContactPending;    //等待下一次批量查询的电话号码
+    private boolean mContactPrefetchPosted;
 
     /*
      * 桌面widget的属性，包括编号和类型
@@ -35,50 +97,368 @@ public class NotesListAdapter extends CursorAdapter {
         public int widgetType;
     };
 
+    /*
+     * 列表项点击，position为适配器中的位置
+     */
+    public interface OnItemClickListener {
+        void onItemClick(View view, int position, long id);
+    }
+
+    /*
+     * 列表项长按，返回true表示已经处理
+     */
+    public interface OnItemLongClickListener {
+        boolean onItemLongClick(View view, int position, long id);
+    }
+
+    private static class NoteViewHolder extends RecyclerView.ViewHolder {
+        NoteViewHolder(NotesListItem itemView) {
+            super(itemView);
+        }
+    }
+
+    private static class FooterViewHolder extends RecyclerView.ViewHolder {
+        FooterViewHolder(View itemView) {
+            super(itemView);
+        }
+    }
+
     /*
      * 函数功能：初始化便签链接器
      * 函数实现：根据传进来的内容设置相关变量
      */
     public NotesListAdapter(Context context) {
-        super(context, null);  //父类对象置空
-        mSelectedIndex = new HashMap<Integer, Boolean>();  //新建选项下标的hash表
+        mAllItems = Collections.emptyList();
+        mItems = mAllItems;
+        mGeneration = 0;
+        mFilterGeneration = 0;
+        mFilterQuery = "";
+        mFilter = new NoteListFilter();
+        mSelectedIds = new LongHashSet();  //新建选中便签id的集合
         mContext = context;
         mNotesCount = 0;
+        mVisibleSelectedCount = 0;
+        mTimeCache = new RelativeTimeCache();
+        mHandler = new Handler(Looper.getMainLooper());
+        mContactInFlight = new HashSet<String>();
+        mContactPending = new HashSet<String>();
+        mContactPrefetchPosted = false;
+        setHasStableIds(true);
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mOnItemClickListener = listener;
+    }
+
+    public void setOnItemLongClickListener(OnItemLongClickListener listener) {
+        mOnItemLongClickListener = listener;
+    }
+
+    @Override
+    public int getItemCount() {
+        // 便签行之后总有一个列表底部
+        return mItems.size() + 1;
     }
 
     @Override
+    public int getItemViewType(int position) {
+        return position < mItems.size() ? VIEW_TYPE_NOTE : VIEW_TYPE_FOOTER;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position < mItems.size() ? mItems.get(position).getId() : FOOTER_ID;
+    }
+
     /*
-     * 函数功能：新建一个视图来存储光标所指向的数据
-     * 函数实现：使用兄弟类NotesListItem新建一个项目选项
+     * 函数功能：获取该位置的行快照，列表底部返回null
      */
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        return new NotesListItem(context);
+    public NoteItemData getItem(int position) {
+        return (position >= 0 && position < mItems.size()) ? mItems.get(position) : null;
     }
 
     /*
-     * 函数功能：将已经存在的视图和鼠标指向的数据进行捆绑
-     * 函数实现：如下注释
+     * 函数功能：新建一个视图，便签行使用NotesListItem
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        if (view instanceof NotesListItem) {
-            //若view是NotesListItem的一个实例
-            NoteItemData itemData = new NoteItemData(context, cursor);
-            ((NotesListItem) view).bind(context, itemData, mChoiceMode,
-                    isSelectedItem(cursor.getPosition()));
-            //则新建一个项目选项并且用bind跟将view和鼠标，内容，便签数据捆绑在一起
+    public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        if (viewType == VIEW_TYPE_FOOTER) {
+            return new FooterViewHolder(LayoutInflater.from(mContext).inflate(
+                    R.layout.note_list_footer, parent, false));
         }
+        NotesListItem item = new NotesListItem(mContext);
+        item.setLayoutParams(new RecyclerView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.WRAP_CONTENT));
+        final NoteViewHolder holder = new NoteViewHolder(item);
+        item.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                int position = holder.getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mOnItemClickListener != null) {
+                    mOnItemClickListener.onItemClick(v, position, getItemId(position));
+                }
+            }
+        });
+        item.setOnLongClickListener(new View.OnLongClickListener() {
+            public boolean onLongClick(View v) {
+                int position = holder.getBindingAdapterPosition();
+                if (position != RecyclerView.NO_POSITION && mOnItemLongClickListener != null) {
+                    return mOnItemLongClickListener.onItemLongClick(v, position, getItemId(position));
+                }
+                return false;
+            }
+        });
+        return holder;
+    }
+
+    /*
+     * 函数功能：将视图和该位置的行快照进行捆绑
+     */
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        if (!(holder instanceof NoteViewHolder)) {
+            return;
+        }
+        long start = mCollectBindStats ? SystemClock.elapsedRealtimeNanos() : 0;
+        NoteItemData itemData = mItems.get(position);
+        ((NotesListItem) holder.itemView).bind(mContext, itemData, mChoiceMode,
+                isSelectedItem(position), mTimeCache);
+        if (itemData.isCallNamePending()) {
+            queueContactPrefetch(position);
+        }
+        if (mCollectBindStats) {
+            mBindNanos += SystemClock.elapsedRealtimeNanos() - start;
+            mBindCount++;
+        }
+    }
+
+    /*
+     * 函数功能：局部刷新，只更新勾选框或联系人姓名，其余内容不变
+     */
+    @Override
+    public void onBindViewHolder(RecyclerView.ViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.isEmpty() || !(holder instanceof NoteViewHolder)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        NotesListItem item = (NotesListItem) holder.itemView;
+        for (Object payload : payloads) {
+            if (payload == PAYLOAD_CHECK_STATE) {
+                item.setCheckState(mChoiceMode, isSelectedItem(position));
+            } else if (payload == PAYLOAD_CALL_NAME) {
+                item.updateCallName();
+            }
+        }
+    }
+
+    /*
+     * 函数功能：提交新的查询结果，光标在后台读取后关闭
+     * 函数实现：后台读成行快照，按当前的筛选条件筛选后与当前列表比较，主线程只替换快照并刷新有变化的行；
+     *         连续提交时只应用最后一次的结果
+     */
+    public void changeCursor(final Cursor cursor) {
+        final int generation = ++mGeneration;
+        if (cursor == null) {
+            setItems(Collections.<NoteItemData>emptyList(), Collections.<NoteItemData>emptyList());
+            notifyDataSetChanged();
+            return;
+        }
+        final List<NoteItemData> oldItems = mItems;
+        final NoteListFilter.CancelSignal signal = new NoteListFilter.CancelSignal() {
+            public boolean isCancelled() {
+                return generation != mGeneration;
+            }
+        };
+        sListExecutor.execute(new Runnable() {
+            public void run() {
+                if (signal.isCancelled()) {
+                    cursor.close();
+                    return;
+                }
+                final ArrayList<NoteItemData> newAll;
+                try {
+                    newAll = NoteItemData.readAll(mContext, cursor);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "read note list failed: " + e.toString());
+                    return;
+                } finally {
+                    cursor.close();
+                }
+                final String query = mFilterQuery;
+                final List<NoteItemData> newItems = mFilter.filter(newAll, query, signal);
+                if (newItems == null) {
+                    return;
+                }
+                final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                        new SnapshotDiffCallback(oldItems, newItems));
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // 已经提交了更新的光标
+                            return;
+                        }
+                        // 期间可能已经应用了筛选结果，此时比较结果已经过期
+                        boolean diffValid = (mItems == oldItems);
+                        setItems(newAll, newItems);
+                        if (diffValid) {
+                            diff.dispatchUpdatesTo(NotesListAdapter.this);
+                        } else {
+                            notifyDataSetChanged();
+                        }
+                        if (!query.equals(mFilterQuery)) {
+                            // 读取期间筛选条件变化，重新筛选新的列表
+                            startFilter();
+                        }
+                    }
+                });
+            }
+        });
     }
 
+    /*
+     * 函数功能：设置列表内的筛选条件，只显示摘要或电话号码中包含该文字的行（不区分大小写）
+     * 函数实现：筛选在后台线程中进行，输入更长的条件时在前一次的结果中继续筛选；
+     *         连续输入时还没完成的筛选会被放弃，只应用最后一次的结果
+     */
+    public void setFilter(String query) {
+        String normalized = NoteListFilter.normalize(query);
+        if (normalized.equals(mFilterQuery)) {
+            return;
+        }
+        mFilterQuery = normalized;
+        startFilter();
+    }
+
+    public boolean isFiltering() {
+        return mFilterQuery.length() > 0;
+    }
+
+    private void startFilter() {
+        final int generation = ++mFilterGeneration;
+        final int listGeneration = mGeneration;
+        final List<NoteItemData> base = mAllItems;
+        final String query = mFilterQuery;
+        final NoteListFilter.CancelSignal signal = new NoteListFilter.CancelSignal() {
+            public boolean isCancelled() {
+                return generation != mFilterGeneration || listGeneration != mGeneration;
+            }
+        };
+        sListExecutor.execute(new Runnable() {
+            public void run() {
+                if (signal.isCancelled()) {
+                    return;
+                }
+                final List<NoteItemData> newItems = mFilter.filter(base, query, signal);
+                if (newItems == null) {
+                    return;
+                }
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        if (signal.isCancelled() || base != mAllItems) {
+                            // 已经提交了新的筛选条件或光标
+                            return;
+                        }
+                        setItems(base, newItems);
+                        notifyDataSetChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+     * 新旧快照的比较：便签id相同为同一行，显示内容相同则不需要重新绑定
+     */
+    private static class SnapshotDiffCallback extends DiffUtil.Callback {
+        private final List<NoteItemData> mOld;
+        private final List<NoteItemData> mNew;
+
+        SnapshotDiffCallback(List<NoteItemData> oldItems, List<NoteItemData> newItems) {
+            mOld = oldItems;
+            mNew = newItems;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).getId() == mNew.get(newPosition).getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            return mOld.get(oldPosition).isSameContent(mNew.get(newPosition));
+        }
+    }
+
+    /*
+     * 函数功能：把当前行及之后的通话记录加入联系人姓名的预取
+     * 函数实现：同一次布局中绑定的行合并为一次后台查询，姓名查到后刷新通话记录的姓名。
+     * 是否需要查询以联系人缓存为准，只跳过正在查询的号码，缓存淘汰的号码再次绑定时会重新查询
+     */
+    private void queueContactPrefetch(int position) {
+        int end = Math.min(mItems.size(), position + CONTACT_PREFETCH_ROWS);
+        for (int i = position; i < end; i++) {
+            NoteItemData item = mItems.get(i);
+            if (item.isCallNamePending() && mContactInFlight.add(item.getCallNumber())) {
+                mContactPending.add(item.getCallNumber());
+            }
+        }
+
+        if (!mContactPending.isEmpty() && !mContactPrefetchPosted) {
+            mContactPrefetchPosted = true;
+            mHandler.post(mContactPrefetchRunnable);
+        }
+    }
+
+    private final Runnable mContactPrefetchRunnable = new Runnable() {
+        public void run() {
+            mContactPrefetchPosted = false;
+            final HashSet<String> numbers = mContactPending;
+            mContactPending = new HashSet<String>();
+            final Context context = mContext.getApplicationContext();
+            sContactExecutor.execute(new Runnable() {
+                public void run() {
+                    boolean found = false;
+                    try {
+                        found = Contact.prefetch(context, numbers);
+                    } finally {
+                        final boolean refresh = found;
+                        mHandler.post(new Runnable() {
+                            public void run() {
+                                mContactInFlight.removeAll(numbers);
+                                if (refresh) {
+                                    notifyItemRangeChanged(0, mItems.size(), PAYLOAD_CALL_NAME);
+                                }
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    };
+
     /*
      * 函数功能：设置勾选框
-     * 函数实现：如下注释
+     * 函数实现：按该位置便签的id记录选择，只刷新这一行的勾选框
      */
     public void setCheckedItem(final int position, final boolean checked) {
-        mSelectedIndex.put(position, checked);
-        //根据定位和是否勾选设置下标
-        notifyDataSetChanged();
-        //在修改后刷新activity
+        if (position < 0 || position >= mItems.size()) {
+            return;
+        }
+        long id = getItemId(position);
+        boolean changed = checked ? mSelectedIds.add(id) : mSelectedIds.remove(id);
+        if (changed) {
+            mVisibleSelectedCount += checked ? 1 : -1;
+            notifyItemChanged(position, PAYLOAD_CHECK_STATE);
+        }
     }
 
     /*
@@ -90,168 +470,152 @@ public class NotesListAdapter extends CursorAdapter {
 
     /*
      * 函数功能：设置单项选项框
-     * 函数实现：重置下标并且根据参数mode设置选项
+     * 函数实现：清空选择并且根据参数mode设置选项，只刷新勾选框
      */
     public void setChoiceMode(boolean mode) {
-        mSelectedIndex.clear();
+        mSelectedIds.clear();
+        mVisibleSelectedCount = 0;
         mChoiceMode = mode;
+        notifyItemRangeChanged(0, mItems.size(), PAYLOAD_CHECK_STATE);
     }
 
     /*
-     * 函数功能：选择全部选项
-     * 函数实现：如下注释
+     * 函数功能：选择或取消选择全部显示的选项
+     * 函数实现：遍历一次显示的快照记录或去掉便签的id，筛选隐藏的行不变，最后只刷新一次勾选框
      */
     public void selectAll(boolean checked) {
-        Cursor cursor = getCursor();
-        //获取光标位置
-        for (int i = 0; i < getCount(); i++) {
-            if (cursor.moveToPosition(i)) {
-                if (NoteItemData.getNoteType(cursor) == Notes.TYPE_NOTE) {
-                    setCheckedItem(i, checked);
+        for (NoteItemData item : mItems) {
+            if (item.getType() == Notes.TYPE_NOTE) {
+                if (checked) {
+                    mSelectedIds.add(item.getId());
+                } else {
+                    mSelectedIds.remove(item.getId());
                 }
             }
         }
-        //遍历所有光标可用的位置在判断为便签类型之后勾选单项框
+        mVisibleSelectedCount = checked ? mNotesCount : 0;
+        notifyItemRangeChanged(0, mItems.size(), PAYLOAD_CHECK_STATE);
     }
 
     /*
-     * 函数功能：建立选择项的下标列表
-     * 函数实现：如下注释
+     * 函数功能：建立选择项的id列表
+     * 函数实现：只包括显示的选中便签，筛选隐藏的选中行不参与批量删除和移动
      */
     public HashSet<Long> getSelectedItemIds() {
-        HashSet<Long> itemSet = new HashSet<Long>();
-        //建立hash表
-        for (Integer position : mSelectedIndex.keySet()) {
-            //遍历所有的关键
-            if (mSelectedIndex.get(position) == true) {
-                //若光标位置可用
-                Long id = getItemId(position);
-                if (id == Notes.ID_ROOT_FOLDER) {
-                    //原文件不需要添加
-                    Log.d(TAG, "Wrong item id, should not happen");
-                } else {
-                    itemSet.add(id);
-                }
-                //则将id该下标假如选项集合中
-
+        long[] ids = getVisibleSelectedIds().toArray();
+        HashSet<Long> itemSet = new HashSet<Long>(ids.length * 2);
+        for (long id : ids) {
+            if (id == Notes.ID_ROOT_FOLDER) {
+                //原文件不需要添加
+                Log.d(TAG, "Wrong item id, should not happen");
+            } else {
+                itemSet.add(id);
             }
         }
-
         return itemSet;
     }
 
     /*
      * 函数功能：建立桌面Widget的选项表
-     * 函数实现：如下注释
+     * 函数实现：一次查询getSelectedItemIds取出的便签中关联了Widget的行，可以在后台线程调用
      */
-    public HashSet<AppWidgetAttribute> getSelectedWidget() {
-        HashSet<AppWidgetAttribute> itemSet = new HashSet<AppWidgetAttribute>();
-        for (Integer position : mSelectedIndex.keySet()) {
-            if (mSelectedIndex.get(position) == true) {
-                Cursor c = (Cursor) getItem(position);
-                //以上4句和getSelectedItemIds一样，不再重复
-                if (c != null) {
-                    //光标位置可用的话就建立新的Widget属性并编辑下标和类型，最后添加到选项集中
-                    AppWidgetAttribute widget = new AppWidgetAttribute();
-                    NoteItemData item = new NoteItemData(mContext, c);
-                    widget.widgetId = item.getWidgetId();
-                    widget.widgetType = item.getWidgetType();
-                    itemSet.add(widget);
-                    /**
-                     * Don't close cursor here, only the adapter could close it
-                     */
-                } else {
-                    Log.e(TAG, "Invalid cursor");
-                    return null;
-                }
-            }
+    public HashSet<AppWidgetAttribute> getSelectedWidget(HashSet<Long> selectedIds) {
+        LongHashSet ids = new LongHashSet();
+        for (Long id : selectedIds) {
+            ids.add(id);
         }
-        return itemSet;
+        return DataUtils.getNoteWidgets(mContext.getContentResolver(), ids);
     }
 
     /*
-     * 函数功能：获取选项个数
-     * 函数实现：如下注释
+     * 函数功能：获取显示的选项个数，与批量操作的便签一致，不包括筛选隐藏的选中行
      */
     public int getSelectedCount() {
-        Collection<Boolean> values = mSelectedIndex.values();
-        //首先获取选项下标的值
-        if (null == values) {
-            return 0;
+        return mVisibleSelectedCount;
+    }
+
+    /*
+     * 函数功能：显示的便签中选中的id，筛选隐藏的行仍保持选中，但不在其中
+     */
+    private LongHashSet getVisibleSelectedIds() {
+        LongHashSet ids = new LongHashSet();
+        if (mSelectedIds.isEmpty()) {
+            return ids;
         }
-        Iterator<Boolean> iter = values.iterator();
-        //初始化叠加器
-        int count = 0;
-        while (iter.hasNext()) {
-            if (true == iter.next()) {
-                //若value值为真计数+1
-                count++;
+        for (NoteItemData item : mItems) {
+            if (item.getType() == Notes.TYPE_NOTE && mSelectedIds.contains(item.getId())) {
+                ids.add(item.getId());
             }
         }
-        return count;
+        return ids;
     }
 
     /*
-     * 函数功能：判断是否全部选中
-     * 函数实现：如下注释
+     * 函数功能：判断显示的便签是否全部选中
+     * 函数实现：比较显示的便签中选中的个数与显示的便签数
      */
     public boolean isAllSelected() {
-        int checkedCount = getSelectedCount();
-        return (checkedCount != 0 && checkedCount == mNotesCount);
-        //获取选项数看是否等于便签的个数
+        return (mVisibleSelectedCount != 0 && mVisibleSelectedCount == mNotesCount);
     }
 
     /*
      * 函数功能：判断是否为选项表
-     * 函数实现：通过传递的下标来确定
+     * 函数实现：通过传递的下标找到便签id来确定
      */
     public boolean isSelectedItem(final int position) {
-        if (null == mSelectedIndex.get(position)) {
-            return false;
-        }
-        return mSelectedIndex.get(position);
+        return !mSelectedIds.isEmpty() && mSelectedIds.contains(getItemId(position));
     }
 
-    @Override
     /*
-     * 函数功能：在activity内容发生局部变动的时候回调该函数计算便签的数量
-     * 函数实现：如下注释
+     * 函数功能：打开或关闭绑定耗时的统计，发布版本中不打开，绑定时不读取时钟
      */
-    protected void onContentChanged() {
-        super.onContentChanged();
-        //执行基类函数
-        calcNotesCount();
+    public void setCollectBindStats(boolean collect) {
+        mCollectBindStats = collect;
+        resetBindStats();
     }
 
-    @Override
     /*
-     * 函数功能：在activity光标发生局部变动的时候回调该函数计算便签的数量
+     * 函数功能：完整绑定的次数和总耗时，ListFrameMetrics在每次滚动开始时清零
      */
-    public void changeCursor(Cursor cursor) {
-        super.changeCursor(cursor);
-        //执行基类函数
-        calcNotesCount();
+    public int getBindCount() {
+        return mBindCount;
+    }
+
+    public long getBindNanos() {
+        return mBindNanos;
+    }
+
+    public void resetBindStats() {
+        mBindCount = 0;
+        mBindNanos = 0;
     }
 
     /*
-     * 函数功能：计算便签数量
-     *
+     * 函数功能：替换快照，同时计算显示的便签数量和其中选中的个数
+     * 函数实现：只去掉已经不在文件夹中的选中id，筛选隐藏的行保持选中，清除筛选后仍然选中；
+     *         新的快照中可能有新的通话记录，过期的号码可以重新请求
      */
-    private void calcNotesCount() {
+    private void setItems(List<NoteItemData> allItems, List<NoteItemData> items) {
+        mAllItems = allItems;
+        mItems = items;
+        if (!mSelectedIds.isEmpty()) {
+            LongHashSet selected = new LongHashSet();
+            for (NoteItemData item : allItems) {
+                if (item.getType() == Notes.TYPE_NOTE && mSelectedIds.contains(item.getId())) {
+                    selected.add(item.getId());
+                }
+            }
+            mSelectedIds = selected;
+        }
         mNotesCount = 0;
-        for (int i = 0; i < getCount(); i++) {
-            //获取总数同时遍历
-            Cursor c = (Cursor) getItem(i);
-            if (c != null) {
-                if (NoteItemData.getNoteType(c) == Notes.TYPE_NOTE) {
-                    mNotesCount++;
-                    //若该位置不为空并且文本类型为便签就+1
+        mVisibleSelectedCount = 0;
+        for (NoteItemData item : items) {
+            if (item.getType() == Notes.TYPE_NOTE) {
+                mNotesCount++;
+                if (mSelectedIds.contains(item.getId())) {
+                    mVisibleSelectedCount++;
                 }
-            } else {
-                Log.e(TAG, "Invalid cursor");
-                return;
             }
-            //否则报错
         }
     }
-}
\ No newline at end of file
+}
@@ -17,7 +17,6 @@
 package net.micode.notes.ui;
 
 import android.content.Context;
-import android.text.format.DateUtils;
 import android.view.View;
 import android.widget.CheckBox;
 import android.widget.ImageView;
@@ -26,7 +25,6 @@ import android.widget.TextView;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
-import net.micode.notes.tool.DataUtils;
 import net.micode.notes.tool.ResourceParser.NoteItemBgResources;
 
 /**
@@ -40,6 +38,7 @@ public class NotesListItem extends LinearLayout {
     private TextView mCallName;   // 通话记录名称文本视图
     private NoteItemData mItemData; // 关联的笔记数据项
     private CheckBox mCheckBox;   // 多选模式下的复选框
+    private int mTitleAppearance; // 标题当前的文字样式
 
     /**
      * 构造函数
@@ -55,78 +54,119 @@ public class NotesListItem extends LinearLayout {
         mTime = (TextView) findViewById(R.id.tv_time);
         mCallName = (TextView) findViewById(R.id.tv_name);
         mCheckBox = (CheckBox) findViewById(android.R.id.checkbox);
+        mTitleAppearance = 0;
     }
 
     /**
      * 绑定数据到视图
+     * 标题和时间文字都已经算好或缓存，滚动时重新绑定不再处理字符串；
+     * 文字样式只在变化时设置（setTextAppearance每次都要读取样式属性）
      * @param context 上下文对象
      * @param data 笔记数据项
      * @param choiceMode 是否处于多选模式
      * @param checked 是否被选中
+     * @param timeCache 修改时间的相对时间文字缓存
      */
-    public void bind(Context context, NoteItemData data, boolean choiceMode, boolean checked) {
-        // 处理多选模式下的复选框显示
-        if (choiceMode && data.getType() == Notes.TYPE_NOTE) {
-            mCheckBox.setVisibility(View.VISIBLE);
-            mCheckBox.setChecked(checked);
-        } else {
-            mCheckBox.setVisibility(View.GONE);
-        }
-
+    public void bind(Context context, NoteItemData data, boolean choiceMode, boolean checked,
+                     RelativeTimeCache timeCache) {
         mItemData = data;
+        // 处理多选模式下的复选框显示
+        setCheckState(choiceMode, checked);
 
         // 根据不同类型的数据项设置不同的显示方式
         if (data.getId() == Notes.ID_CALL_RECORD_FOLDER) {
             // 通话记录文件夹的特殊处理
             mCallName.setVisibility(View.GONE);
             mAlert.setVisibility(View.VISIBLE);
-            mTitle.setTextAppearance(context, R.style.TextAppearancePrimaryItem);
-            mTitle.setText(context.getString(R.string.call_record_folder_name)
-                    + context.getString(R.string.format_folder_files_count, data.getNotesCount()));
+            setTitleAppearance(context, R.style.TextAppearancePrimaryItem);
             mAlert.setImageResource(R.drawable.call_record);
         } else if (data.getParentId() == Notes.ID_CALL_RECORD_FOLDER) {
             // 通话记录项的特殊处理
             mCallName.setVisibility(View.VISIBLE);
-            mCallName.setText(data.getCallName());
-            mTitle.setTextAppearance(context,R.style.TextAppearanceSecondaryItem);
-            mTitle.setText(DataUtils.getFormattedSnippet(data.getSnippet()));
-            if (data.hasAlert()) {
-                // 有提醒的设置提醒图标
-                mAlert.setImageResource(R.drawable.clock);
-                mAlert.setVisibility(View.VISIBLE);
-            } else {
-                mAlert.setVisibility(View.GONE);
-            }
+            setTextIfChanged(mCallName, data.getCallName());
+            setTitleAppearance(context, R.style.TextAppearanceSecondaryItem);
+            setAlertIcon(data);
         } else {
             // 普通笔记或文件夹的处理
             mCallName.setVisibility(View.GONE);
-            mTitle.setTextAppearance(context, R.style.TextAppearancePrimaryItem);
+            setTitleAppearance(context, R.style.TextAppearancePrimaryItem);
 
             if (data.getType() == Notes.TYPE_FOLDER) {
                 // 文件夹项的处理
-                mTitle.setText(data.getSnippet()
-                        + context.getString(R.string.format_folder_files_count,
-                        data.getNotesCount()));
                 mAlert.setVisibility(View.GONE);
             } else {
                 // 普通笔记项的处理
-                mTitle.setText(DataUtils.getFormattedSnippet(data.getSnippet()));
-                if (data.hasAlert()) {
-                    // 有提醒的设置提醒图标
-                    mAlert.setImageResource(R.drawable.clock);
-                    mAlert.setVisibility(View.VISIBLE);
-                } else {
-                    mAlert.setVisibility(View.GONE);
-                }
+                setAlertIcon(data);
             }
         }
+        // 标题（文件夹已经带上便签数）
+        setTextIfChanged(mTitle, data.getDisplayTitle());
         // 设置相对时间显示
-        mTime.setText(DateUtils.getRelativeTimeSpanString(data.getModifiedDate()));
+        setTextIfChanged(mTime, timeCache.get(data.getModifiedDate()));
 
         // 设置背景
         setBackground(data);
     }
 
+    /**
+     * 有提醒的设置提醒图标
+     * @param data 笔记数据项
+     */
+    private void setAlertIcon(NoteItemData data) {
+        if (data.hasAlert()) {
+            mAlert.setImageResource(R.drawable.clock);
+            mAlert.setVisibility(View.VISIBLE);
+        } else {
+            mAlert.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * 标题的文字样式，与当前相同时不再设置
+     * @param context 上下文对象
+     * @param resId 样式资源id
+     */
+    private void setTitleAppearance(Context context, int resId) {
+        if (mTitleAppearance != resId) {
+            mTitle.setTextAppearance(context, resId);
+            mTitleAppearance = resId;
+        }
+    }
+
+    /**
+     * 文字是同一个对象时不再设置，避免TextView重新测量和布局
+     * @param view 文本视图
+     * @param text 要显示的文字
+     */
+    private static void setTextIfChanged(TextView view, CharSequence text) {
+        if (view.getText() != text) {
+            view.setText(text);
+        }
+    }
+
+    /**
+     * 只更新复选框，选择状态变化时局部刷新使用
+     * @param choiceMode 是否处于多选模式
+     * @param checked 是否被选中
+     */
+    public void setCheckState(boolean choiceMode, boolean checked) {
+        if (choiceMode && mItemData != null && mItemData.getType() == Notes.TYPE_NOTE) {
+            mCheckBox.setVisibility(View.VISIBLE);
+            mCheckBox.setChecked(checked);
+        } else {
+            mCheckBox.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * 只更新通话记录的联系人姓名，后台查到姓名后局部刷新使用
+     */
+    public void updateCallName() {
+        if (mItemData != null && mItemData.getParentId() == Notes.ID_CALL_RECORD_FOLDER) {
+            setTextIfChanged(mCallName, mItemData.getCallName());
+        }
+    }
+
     /**
      * 根据数据项设置不同的背景
      * @param data 笔记数据项
@@ -22,7 +22,6 @@ import android.annotation.SuppressLint;
 import android.app.ActionBar;
 import android.app.AlertDialog;
 import android.content.BroadcastReceiver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -40,13 +39,19 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import net.micode.notes.R;
 import net.micode.notes.data.Notes;
-import net.micode.notes.data.Notes.NoteColumns;
+import net.micode.notes.data.Notes.SyncStateColumns;
+import net.micode.notes.gtask.remote.GTaskSessionStore;
 import net.micode.notes.gtask.remote.GTaskSyncService;
+import net.micode.notes.gtask.remote.LocalDirectoryTarget;
+import net.micode.notes.tool.SyncPreferences;
+
+import java.io.File;
 
 /**
  * 笔记应用的设置Activity，继承自PreferenceActivity
@@ -57,11 +62,11 @@ import net.micode.notes.gtask.remote.GTaskSyncService;
  */
 public class NotesPreferenceActivity extends PreferenceActivity {
     // 首选项文件名
-    public static final String PREFERENCE_NAME = "notes_preferences";
+    public static final String PREFERENCE_NAME = SyncPreferences.PREFERENCE_NAME;
     // 同步账户名称的键
-    public static final String PREFERENCE_SYNC_ACCOUNT_NAME = "pref_key_account_name";
+    public static final String PREFERENCE_SYNC_ACCOUNT_NAME = SyncPreferences.PREFERENCE_SYNC_ACCOUNT_NAME;
     // 上次同步时间的键
-    public static final String PREFERENCE_LAST_SYNC_TIME = "pref_last_sync_time";
+    public static final String PREFERENCE_LAST_SYNC_TIME = SyncPreferences.PREFERENCE_LAST_SYNC_TIME;
     // 背景颜色设置的键
     public static final String PREFERENCE_SET_BG_COLOR_KEY = "pref_key_bg_random_appear";
     // 同步账户设置的键
@@ -69,6 +74,8 @@ public class NotesPreferenceActivity extends PreferenceActivity {
     // 账户权限过滤键
     private static final String AUTHORITIES_FILTER_KEY = "authorities";
 
+    private static final String LOCAL_SYNC_DIR = "sync"; // 本地文件夹同步的默认目录名
+
     private PreferenceCategory mAccountCategory; // 账户设置分类
     private GTaskReceiver mReceiver; // 同步服务广播接收器
     private Account[] mOriAccounts; // 原始账户列表
@@ -143,7 +150,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
 
         // 创建账户设置项
         Preference accountPref = new Preference(this);
-        final String defaultAccount = getSyncAccountName(this);
+        final String defaultAccount = SyncPreferences.getSyncAccountName(this);
         accountPref.setTitle(getString(R.string.preferences_account_title));
         accountPref.setSummary(getString(R.string.preferences_account_summary));
         accountPref.setOnPreferenceClickListener(new OnPreferenceClickListener() {
@@ -195,14 +202,14 @@ public class NotesPreferenceActivity extends PreferenceActivity {
             });
         }
         // 只有设置了账户才能启用同步按钮
-        syncButton.setEnabled(!TextUtils.isEmpty(getSyncAccountName(this)));
+        syncButton.setEnabled(!TextUtils.isEmpty(SyncPreferences.getSyncAccountName(this)));
 
         // 设置上次同步时间
         if (GTaskSyncService.isSyncing()) {
             lastSyncTimeView.setText(GTaskSyncService.getProgressString());
             lastSyncTimeView.setVisibility(View.VISIBLE);
         } else {
-            long lastSyncTime = getLastSyncTime(this);
+            long lastSyncTime = SyncPreferences.getLastSyncTime(this);
             if (lastSyncTime != 0) {
                 lastSyncTimeView.setText(getString(R.string.preferences_last_sync_time,
                         DateFormat.format(getString(R.string.preferences_last_sync_time_format),
@@ -240,33 +247,41 @@ public class NotesPreferenceActivity extends PreferenceActivity {
 
         // 获取Google账户列表
         Account[] accounts = getGoogleAccounts();
-        String defAccount = getSyncAccountName(this);
+        String defAccount = SyncPreferences.getSyncAccountName(this);
 
         mOriAccounts = accounts;
         mHasAddedAccount = false;
 
-        if (accounts.length > 0) {
-            CharSequence[] items = new CharSequence[accounts.length];
-            final CharSequence[] itemMapping = items;
-            int checkedItem = -1;
-            int index = 0;
-            for (Account account : accounts) {
-                if (TextUtils.equals(account.name, defAccount)) {
-                    checkedItem = index;
-                }
-                items[index++] = account.name;
+        // 最后一项为本地文件夹，不需要Google账户
+        CharSequence[] items = new CharSequence[accounts.length + 1];
+        final CharSequence[] itemMapping = items;
+        int checkedItem = -1;
+        int index = 0;
+        for (Account account : accounts) {
+            if (TextUtils.equals(account.name, defAccount)) {
+                checkedItem = index;
             }
-            // 设置单选列表
-            dialogBuilder.setSingleChoiceItems(items, checkedItem,
-                    new DialogInterface.OnClickListener() {
-                        public void onClick(DialogInterface dialog, int which) {
-                            // 设置选择的账户
-                            setSyncAccount(itemMapping[which].toString());
-                            dialog.dismiss();
-                            refreshUI();
-                        }
-                    });
+            items[index++] = account.name;
+        }
+        if (LocalDirectoryTarget.isDirectoryAccount(defAccount)) {
+            checkedItem = index;
         }
+        final int localDirItem = index;
+        items[index] = getString(R.string.preferences_local_dir_item);
+        // 设置单选列表
+        dialogBuilder.setSingleChoiceItems(items, checkedItem,
+                new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        dialog.dismiss();
+                        if (which == localDirItem) {
+                            showLocalDirectoryDialog();
+                            return;
+                        }
+                        // 设置选择的账户
+                        setSyncAccount(itemMapping[which].toString());
+                        refreshUI();
+                    }
+                });
 
         // 添加"添加账户"视图
         View addAccountView = LayoutInflater.from(this).inflate(R.layout.add_account_text, null);
@@ -287,6 +302,43 @@ public class NotesPreferenceActivity extends PreferenceActivity {
         });
     }
 
+    /**
+     * 显示本地文件夹对话框，确认后把同步账户设置为该文件夹
+     * 默认使用应用的外部文件目录，不需要存储权限；也可以输入共享或挂载的文件夹，在设备间同步
+     */
+    private void showLocalDirectoryDialog() {
+        final EditText pathEdit = new EditText(this);
+        pathEdit.setSingleLine(true);
+        String defAccount = SyncPreferences.getSyncAccountName(this);
+        if (LocalDirectoryTarget.isDirectoryAccount(defAccount)) {
+            pathEdit.setText(LocalDirectoryTarget.getDirectory(defAccount).getPath());
+        } else {
+            File dir = getExternalFilesDir(LOCAL_SYNC_DIR);
+            if (dir == null) {
+                // 外部存储不可用
+                dir = new File(getFilesDir(), LOCAL_SYNC_DIR);
+            }
+            pathEdit.setText(dir.getAbsolutePath());
+        }
+
+        AlertDialog.Builder dialogBuilder = new AlertDialog.Builder(this);
+        dialogBuilder.setTitle(getString(R.string.preferences_local_dir_title));
+        dialogBuilder.setMessage(getString(R.string.preferences_local_dir_tips));
+        dialogBuilder.setView(pathEdit);
+        dialogBuilder.setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                String path = pathEdit.getText().toString().trim();
+                if (TextUtils.isEmpty(path)) {
+                    return;
+                }
+                setSyncAccount(LocalDirectoryTarget.getAccountName(new File(path)));
+                refreshUI();
+            }
+        });
+        dialogBuilder.setNegativeButton(android.R.string.cancel, null);
+        dialogBuilder.show();
+    }
+
     /**
      * 显示更改账户确认对话框
      */
@@ -297,7 +349,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
         View titleView = LayoutInflater.from(this).inflate(R.layout.account_dialog_title, null);
         TextView titleTextView = (TextView) titleView.findViewById(R.id.account_dialog_title);
         titleTextView.setText(getString(R.string.preferences_dialog_change_account_title,
-                getSyncAccountName(this)));
+                SyncPreferences.getSyncAccountName(this)));
         TextView subtitleTextView = (TextView) titleView.findViewById(R.id.account_dialog_subtitle);
         subtitleTextView.setText(getString(R.string.preferences_dialog_change_account_warn_msg));
         dialogBuilder.setCustomTitle(titleView);
@@ -335,7 +387,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
      * 设置同步账户
      */
     private void setSyncAccount(String account) {
-        if (!getSyncAccountName(this).equals(account)) {
+        if (!SyncPreferences.getSyncAccountName(this).equals(account)) {
             SharedPreferences settings = getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
             SharedPreferences.Editor editor = settings.edit();
             if (account != null) {
@@ -346,17 +398,9 @@ public class NotesPreferenceActivity extends PreferenceActivity {
             editor.commit();
 
             // 清除上次同步时间
-            setLastSyncTime(this, 0);
+            SyncPreferences.setLastSyncTime(this, 0);
 
-            // 清除本地GTask相关信息
-            new Thread(new Runnable() {
-                public void run() {
-                    ContentValues values = new ContentValues();
-                    values.put(NoteColumns.GTASK_ID, "");
-                    values.put(NoteColumns.SYNC_ID, 0);
-                    getContentResolver().update(Notes.CONTENT_NOTE_URI, values, null, null);
-                }
-            }).start();
+            // 同步状态按账号保存在sync_state表中，新账号没有状态即从头同步，无需改写便签
 
             Toast.makeText(NotesPreferenceActivity.this,
                     getString(R.string.preferences_toast_success_set_accout, account),
@@ -368,6 +412,7 @@ public class NotesPreferenceActivity extends PreferenceActivity {
      * 移除同步账户
      */
     private void removeSyncAccount() {
+        final String accountName = SyncPreferences.getSyncAccountName(this);
         SharedPreferences settings = getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
         SharedPreferences.Editor editor = settings.edit();
         if (settings.contains(PREFERENCE_SYNC_ACCOUNT_NAME)) {
@@ -378,44 +423,20 @@ public class NotesPreferenceActivity extends PreferenceActivity {
         }
         editor.commit();
 
-        // 清除本地GTask相关信息
-        new Thread(new Runnable() {
-            public void run() {
-                ContentValues values = new ContentValues();
-                values.put(NoteColumns.GTASK_ID, "");
-                values.put(NoteColumns.SYNC_ID, 0);
-                getContentResolver().update(Notes.CONTENT_NOTE_URI, values, null, null);
-            }
-        }).start();
-    }
-
-    /**
-     * 获取当前同步账户名称
-     */
-    public static String getSyncAccountName(Context context) {
-        SharedPreferences settings = context.getSharedPreferences(PREFERENCE_NAME,
-                Context.MODE_PRIVATE);
-        return settings.getString(PREFERENCE_SYNC_ACCOUNT_NAME, "");
-    }
-
-    /**
-     * 设置上次同步时间
-     */
-    public static void setLastSyncTime(Context context, long time) {
-        SharedPreferences settings = context.getSharedPreferences(PREFERENCE_NAME,
-                Context.MODE_PRIVATE);
-        SharedPreferences.Editor editor = settings.edit();
-        editor.putLong(PREFERENCE_LAST_SYNC_TIME, time);
-        editor.commit();
-    }
+        // 清除保存的GTask登录会话
+        GTaskSessionStore.clear(this, accountName);
 
-    /**
-     * 获取上次同步时间
-     */
-    public static long getLastSyncTime(Context context) {
-        SharedPreferences settings = context.getSharedPreferences(PREFERENCE_NAME,
-                Context.MODE_PRIVATE);
-        return settings.getLong(PREFERENCE_LAST_SYNC_TIME, 0);
+        // 删除该账号的同步状态，只有一条删除语句，不改动便签及其版本号
+        if (!TextUtils.isEmpty(accountName)) {
+            new Thread(new Runnable() {
+                public void run() {
+                    getContentResolver().delete(Notes.CONTENT_SYNC_STATE_URI,
+                            SyncStateColumns.ACCOUNT + "=?", new String[] {
+                                    accountName
+                            });
+                }
+            }).start();
+        }
     }
 
     /**
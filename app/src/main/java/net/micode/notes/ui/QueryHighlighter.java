@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.BackgroundColorSpan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * 搜索关键字的高亮
+ * 功能：查询按空白拆分为多个关键字，按字面（不是正则表达式）、忽略大小写匹配。
+ * 每个查询只构造一次Aho-Corasick自动机，一次扫描文本即可找出所有关键字的位置，
+ * 重叠或相邻的匹配合并为一个区间。构造后不再修改，可以在后台线程中使用
+ */
+public class QueryHighlighter {
+    // 自动机的节点，0为根节点；每个节点的子节点按字符保存在两个平行数组中
+    private final char[][] mKeys;
+    private final int[][] mChildren;
+    private final int[] mFail;
+    // 以该节点结尾的最长关键字的长度（包括失配链上的），0表示没有
+    private final int[] mMatchLength;
+
+    /**
+     * 高亮使用的背景色，与其他的BackgroundColorSpan区分，便于清除
+     */
+    public static class HighlightSpan extends BackgroundColorSpan {
+        public HighlightSpan(int color) {
+            super(color);
+        }
+    }
+
+    private QueryHighlighter(ArrayList<String> terms) {
+        ArrayList<char[]> keys = new ArrayList<char[]>();
+        ArrayList<int[]> children = new ArrayList<int[]>();
+        ArrayList<Integer> lengths = new ArrayList<Integer>();
+        keys.add(new char[0]);
+        children.add(new int[0]);
+        lengths.add(0);
+        for (String term : terms) {
+            int node = 0;
+            for (int i = 0; i < term.length(); i++) {
+                char c = term.charAt(i);
+                int next = find(keys.get(node), children.get(node), c);
+                if (next < 0) {
+                    next = keys.size();
+                    keys.add(new char[0]);
+                    children.add(new int[0]);
+                    lengths.add(0);
+                    char[] nodeKeys = Arrays.copyOf(keys.get(node), keys.get(node).length + 1);
+                    int[] nodeChildren = Arrays.copyOf(children.get(node), nodeKeys.length);
+                    nodeKeys[nodeKeys.length - 1] = c;
+                    nodeChildren[nodeChildren.length - 1] = next;
+                    keys.set(node, nodeKeys);
+                    children.set(node, nodeChildren);
+                }
+                node = next;
+            }
+            lengths.set(node, term.length());
+        }
+
+        int count = keys.size();
+        mKeys = keys.toArray(new char[count][]);
+        mChildren = children.toArray(new int[count][]);
+        mFail = new int[count];
+        mMatchLength = new int[count];
+        for (int i = 0; i < count; i++) {
+            mMatchLength[i] = lengths.get(i);
+        }
+        buildFailLinks();
+    }
+
+    /*
+     * 功能描述：按层次遍历计算失配指针，同时把失配链上的匹配长度合并到每个节点
+     */
+    private void buildFailLinks() {
+        int[] queue = new int[mKeys.length];
+        int head = 0;
+        int tail = 0;
+        for (int child : mChildren[0]) {
+            mFail[child] = 0;
+            queue[tail++] = child;
+        }
+        while (head < tail) {
+            int node = queue[head++];
+            for (int i = 0; i < mKeys[node].length; i++) {
+                int child = mChildren[node][i];
+                mFail[child] = step(mFail[node], mKeys[node][i]);
+                mMatchLength[child] = Math.max(mMatchLength[child], mMatchLength[mFail[child]]);
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /*
+     * 功能描述：构造查询的高亮器，查询为空或只有空白时返回null
+     */
+    public static QueryHighlighter compile(String query) {
+        if (query == null) {
+            return null;
+        }
+        ArrayList<String> terms = new ArrayList<String>();
+        for (String term : query.trim().split("\\s+")) {
+            if (term.length() > 0) {
+                terms.add(lowerCase(term));
+            }
+        }
+        return terms.isEmpty() ? null : new QueryHighlighter(terms);
+    }
+
+    /*
+     * 功能描述：text中[start, end)范围内的匹配区间，按顺序保存为{起点, 终点, 起点, 终点...}，
+     * 只计算完全在该范围内的匹配
+     */
+    public int[] findMatches(CharSequence text, int start, int end) {
+        int[] ranges = new int[16];
+        int size = 0;
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            node = step(node, Character.toLowerCase(text.charAt(i)));
+            int length = mMatchLength[node];
+            if (length == 0) {
+                continue;
+            }
+            int matchStart = i + 1 - length;
+            // 与之前的区间重叠或相邻时合并，较长的关键字可能比之前的区间开始得更早
+            while (size > 0 && ranges[size - 1] >= matchStart) {
+                matchStart = Math.min(matchStart, ranges[size - 2]);
+                size -= 2;
+            }
+            if (size == ranges.length) {
+                ranges = Arrays.copyOf(ranges, size * 2);
+            }
+            ranges[size++] = matchStart;
+            ranges[size++] = i + 1;
+        }
+        return Arrays.copyOf(ranges, size);
+    }
+
+    /*
+     * 功能描述：高亮text中所有的匹配，用于较短的文字
+     */
+    public Spannable highlight(CharSequence text, int color) {
+        SpannableString spannable = new SpannableString(text);
+        int[] ranges = findMatches(text, 0, text.length());
+        for (int i = 0; i < ranges.length; i += 2) {
+            spannable.setSpan(new HighlightSpan(color), ranges[i], ranges[i + 1],
+                    Spannable.SPAN_INCLUSIVE_EXCLUSIVE);
+        }
+        return spannable;
+    }
+
+    private int step(int node, char c) {
+        while (true) {
+            int next = find(mKeys[node], mChildren[node], c);
+            if (next >= 0) {
+                return next;
+            }
+            if (node == 0) {
+                return 0;
+            }
+            node = mFail[node];
+        }
+    }
+
+    private static int find(char[] keys, int[] children, char c) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == c) {
+                return children[i];
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * 功能描述：逐个字符转为小写，保证与文本中的位置一一对应
+     */
+    private static String lowerCase(String term) {
+        char[] chars = term.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.ui;
+
+import android.text.format.DateUtils;
+import android.util.LongSparseArray;
+
+import java.util.Calendar;
+
+/**
+ * 列表中修改时间的相对时间文字缓存
+ * 功能：DateUtils.getRelativeTimeSpanString的结果按时间所在的区间缓存：一小时内的按分钟、
+ * 一天内的按小时变化，更早的（"N天前"或日期）到本地午夜才可能变化。
+ * 缓存命中时不分配对象，滚动时重新绑定的行直接使用缓存的文字。只在主线程使用
+ */
+public class RelativeTimeCache {
+    // 缓存的条目数超过该值时清空，避免长时间使用后无限增长
+    private static final int MAX_ENTRIES = 512;
+
+    private static class Entry {
+        CharSequence text;
+        long expiresAt;    // 到该时间文字可能变化，需要重新计算
+    }
+
+    private final LongSparseArray<Entry> mEntries;
+
+    private long mNextMidnight;
+
+    public RelativeTimeCache() {
+        mEntries = new LongSparseArray<Entry>();
+        mNextMidnight = 0;
+    }
+
+    /*
+     * 功能描述：time相对于当前时间的文字，与DateUtils.getRelativeTimeSpanString(time)相同
+     */
+    public CharSequence get(long time) {
+        long now = System.currentTimeMillis();
+        Entry entry = mEntries.get(time);
+        if (entry != null && now < entry.expiresAt) {
+            return entry.text;
+        }
+        if (entry == null) {
+            if (mEntries.size() >= MAX_ENTRIES) {
+                mEntries.clear();
+            }
+            entry = new Entry();
+            mEntries.put(time, entry);
+        }
+        entry.text = DateUtils.getRelativeTimeSpanString(time, now, DateUtils.MINUTE_IN_MILLIS);
+        entry.expiresAt = expiresAt(time, now);
+        return entry.text;
+    }
+
+    /*
+     * 功能描述：文字下一次可能变化的时间，即time所在区间的结束
+     */
+    private long expiresAt(long time, long now) {
+        long age = now - time;
+        if (age < 0) {
+            // 将来的时间（时钟被调整过），每分钟重新计算
+            return now + DateUtils.MINUTE_IN_MILLIS;
+        }
+        if (age < DateUtils.HOUR_IN_MILLIS) {
+            return time + (age / DateUtils.MINUTE_IN_MILLIS + 1) * DateUtils.MINUTE_IN_MILLIS;
+        }
+        if (age < DateUtils.DAY_IN_MILLIS) {
+            return Math.min(time + DateUtils.DAY_IN_MILLIS,
+                    time + (age / DateUtils.HOUR_IN_MILLIS + 1) * DateUtils.HOUR_IN_MILLIS);
+        }
+        // "N天前"按日历日计算，日期格式在跨年时变化，都在本地午夜之后才可能不同
+        return nextMidnight(now);
+    }
+
+    private long nextMidnight(long now) {
+        if (now >= mNextMidnight) {
+            Calendar calendar = Calendar.getInstance();
+            calendar.setTimeInMillis(now);
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+            calendar.set(Calendar.MINUTE, 0);
+            calendar.set(Calendar.SECOND, 0);
+            calendar.set(Calendar.MILLISECOND, 0);
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+            mNextMidnight = calendar.getTimeInMillis();
+        }
+        return mNextMidnight;
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BlockDeltaStore的单元测试，在临时目录中读写差异链
+ */
+public class BlockDeltaStoreTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mFolder.newFolder("target");
+    }
+
+    @Test
+    public void readsBackEveryVersion() throws IOException {
+        Random random = new Random(1);
+        BlockDeltaStore store = new BlockDeltaStore(64);
+        File file = new File(mDir, "note");
+        assertNull(store.read(file));
+
+        byte[] content = BlockDeltaTest.randomBytes(random, 20000);
+        for (int version = 0; version < 60; version++) {
+            store.write(file, content);
+            assertArrayEquals("version " + version, content, store.read(file));
+            content = BlockDeltaTest.edit(random, content, 1 + random.nextInt(3));
+        }
+    }
+
+    @Test
+    public void unchangedContentIsNotWritten() throws IOException {
+        BlockDeltaStore store = new BlockDeltaStore(64);
+        File file = new File(mDir, "note");
+        byte[] content = BlockDeltaTest.randomBytes(new Random(2), 5000);
+        assertEquals(5000, store.write(file, content));
+        assertEquals(0, store.write(file, content.clone()));
+        assertEquals(5000, store.getBytesWritten());
+        assertEquals(5000, store.getFullBytes());
+    }
+
+    @Test
+    public void smallEditsWriteDeltas() throws IOException {
+        BlockDeltaStore store = new BlockDeltaStore(64);
+        File file = new File(mDir, "note");
+        byte[] content = BlockDeltaTest.randomBytes(new Random(3), 20000);
+        store.write(file, content);
+        content = BlockDeltaTest.insert(content, 10000, new byte[] { 9 });
+        long written = store.write(file, content);
+        assertTrue(delta(file, 1).exists());
+        assertEquals(delta(file, 1).length(), written);
+        assertArrayEquals(content, store.read(file));
+    }
+
+    @Test
+    public void compactsAfterSixteenDeltas() throws IOException {
+        Random random = new Random(4);
+        BlockDeltaStore store = new BlockDeltaStore(64);
+        File file = new File(mDir, "note");
+        byte[] content = BlockDeltaTest.randomBytes(random, 100000);
+        store.write(file, content);
+        for (int i = 1; i <= 16; i++) {
+            content = BlockDeltaTest.insert(content, random.nextInt(content.length), new byte[] { 7 });
+            store.write(file, content);
+            assertTrue("delta " + i, delta(file, i).exists());
+        }
+        assertFalse(delta(file, 17).exists());
+
+        content = BlockDeltaTest.insert(content, 50, new byte[] { 8 });
+        assertEquals(content.length, store.write(file, content));
+        // 完整版本重新写入，所有差异都被删除
+        assertFalse(delta(file, 1).exists());
+        assertFalse(delta(file, 16).exists());
+        assertArrayEquals(content, readFile(file));
+        assertArrayEquals(content, store.read(file));
+    }
+
+    @Test
+    public void compactsWhenDeltasExceedHalfTheContent() throws IOException {
+        Random random = new Random(5);
+        BlockDeltaStore store = new BlockDeltaStore(64);
+        File file = new File(mDir, "note");
+        byte[] content = BlockDeltaTest.randomBytes(random, 4000);
+        store.write(file, content);
+        boolean compacted = false;
+        for (int version = 0; version < 15 && !compacted; version++) {
+            int deltasBefore = countDeltas(file);
+            // 每次改写约十分之一的内容
+            byte[] next = content.clone();
+            int pos = random.nextInt(next.length - 400);
+            for (int i = pos; i < pos + 400; i++) {
+                next[i] = (byte) (next[i] + 1);
+            }
+            content = next;
+            store.write(file, content);
+            int deltasAfter = countDeltas(file);
+            if (deltasAfter == 0) {
+                compacted = true;
+                assertTrue(deltasBefore < 16);
+                assertArrayEquals(content, readFile(file));
+            } else {
+                assertEquals(deltasBefore + 1, deltasAfter);
+                assertTrue("chain must stay under half the content",
+                        totalDeltaBytes(file) * 2 <= content.length);
+            }
+            assertArrayEquals(content, store.read(file));
+        }
+        assertTrue(compacted);
+    }
+
+    @Test
+    public void skipsStaleDeltasAfterCompaction() throws IOException {
+        Random random = new Random(6);
+        BlockDeltaStore store = new BlockDeltaStore(64);
+        File file = new File(mDir, "note");
+        byte[] v1 = BlockDeltaTest.randomBytes(random, 20000);
+        store.write(file, v1);
+        byte[] v2 = BlockDeltaTest.insert(v1, 100, new byte[] { 1 });
+        store.write(file, v2);
+        byte[] staleDelta = readFile(delta(file, 1));
+
+        // 完全不同的内容使差异超过一半，重新写入完整版本
+        byte[] v3 = BlockDeltaTest.randomBytes(random, 20000);
+        store.write(file, v3);
+        assertFalse(delta(file, 1).exists());
+
+        // 模拟压缩时没有删除（或其他设备稍后同步过来）的旧差异
+        writeFile(delta(file, 1), staleDelta);
+        assertArrayEquals(v3, store.read(file));
+
+        // 写入时也忽略旧差异，新的差异覆盖它
+        byte[] v4 = BlockDeltaTest.insert(v3, 5000, new byte[] { 2 });
+        store.write(file, v4);
+        assertArrayEquals(v4, store.read(file));
+        assertEquals(BlockDelta.crc(v3), BlockDelta.getBaseCrc(readFile(delta(file, 1))));
+    }
+
+    @Test
+    public void movesAndDeletesWholeChain() throws IOException {
+        Random random = new Random(7);
+        BlockDeltaStore store = new BlockDeltaStore(64);
+        File from = new File(mDir, "from");
+        File to = new File(mDir, "to");
+        byte[] content = BlockDeltaTest.randomBytes(random, 20000);
+        store.write(from, content);
+        for (int i = 0; i < 3; i++) {
+            content = BlockDeltaTest.insert(content, random.nextInt(content.length), new byte[] { 3 });
+            store.write(from, content);
+        }
+        assertEquals(3, countDeltas(from));
+        // 目标位置已有的旧内容被替换
+        store.write(to, new byte[] { 1, 2, 3 });
+
+        assertTrue(store.move(from, to));
+        assertFalse(from.exists());
+        assertFalse(delta(from, 1).exists());
+        assertEquals(3, countDeltas(to));
+        assertArrayEquals(content, store.read(to));
+
+        store.delete(to);
+        assertEquals(0, mDir.list().length);
+        assertNull(store.read(to));
+        assertTrue(store.move(from, to));
+    }
+
+    @Test
+    public void smallEditsToLargeFileWriteFarLessThanRewrites() throws IOException {
+        Random random = new Random(8);
+        BlockDeltaStore store = new BlockDeltaStore();
+        File file = new File(mDir, "note");
+        byte[] content = new byte[1 << 20];
+        random.nextBytes(content);
+        store.write(file, content);
+        for (int i = 0; i < 40; i++) {
+            byte[] inserted = new byte[1 + random.nextInt(32)];
+            random.nextBytes(inserted);
+            content = BlockDeltaTest.insert(content, random.nextInt(content.length), inserted);
+            store.write(file, content);
+        }
+        assertArrayEquals(content, store.read(file));
+
+        long written = store.getBytesWritten();
+        long full = store.getFullBytes();
+        System.out.println("40 small edits to a 1MB file: " + (written / 1024) + "KB written, "
+                + (full / 1024) + "KB with whole-file rewrites");
+        // 每16个差异压缩一次，加上第一次完整写入，总量远小于每次重写
+        assertTrue(written * 8 < full);
+    }
+
+    private static File delta(File file, int index) {
+        return new File(file.getParentFile(), file.getName() + "." + index);
+    }
+
+    private static int countDeltas(File file) {
+        int count = 0;
+        while (delta(file, count + 1).exists()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static long totalDeltaBytes(File file) {
+        long total = 0;
+        for (int i = 1; delta(file, i).exists(); i++) {
+            total += delta(file, i).length();
+        }
+        return total;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        byte[] content = new byte[(int) file.length()];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                int count = in.read(content, offset, content.length - offset);
+                if (count < 0) {
+                    throw new IOException("unexpected end of " + file.getName());
+                }
+                offset += count;
+            }
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+
+    private static void writeFile(File file, byte[] content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
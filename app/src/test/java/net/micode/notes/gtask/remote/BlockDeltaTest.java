@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BlockDelta的单元测试：随机编辑后的往返、旧版本校验和损坏检测
+ */
+public class BlockDeltaTest {
+    @Test
+    public void roundTripsRandomEdits() throws IOException {
+        Random random = new Random(37);
+        for (int round = 0; round < 500; round++) {
+            int blockSize = 1 + random.nextInt(64);
+            byte[] base = randomBytes(random, random.nextInt(4000));
+            byte[] target = edit(random, base, 1 + random.nextInt(8));
+            byte[] delta = BlockDelta.encode(base, target, blockSize);
+            assertArrayEquals("round " + round, target, BlockDelta.apply(base, delta));
+            assertEquals(BlockDelta.crc(base), BlockDelta.getBaseCrc(delta));
+        }
+    }
+
+    @Test
+    public void roundTripsEmptyVersions() throws IOException {
+        byte[] empty = new byte[0];
+        byte[] data = randomBytes(new Random(1), 5000);
+        assertArrayEquals(data, BlockDelta.apply(empty, BlockDelta.encode(empty, data, 16)));
+        assertArrayEquals(empty, BlockDelta.apply(data, BlockDelta.encode(data, empty, 16)));
+        assertArrayEquals(empty, BlockDelta.apply(empty, BlockDelta.encode(empty, empty, 16)));
+    }
+
+    @Test
+    public void smallEditCopiesMostBlocks() throws IOException {
+        Random random = new Random(2);
+        byte[] base = randomBytes(random, 1 << 20);
+        byte[] target = insert(base, base.length / 2, new byte[] { 1, 2, 3 });
+        byte[] delta = BlockDelta.encode(base, target, BlockDelta.DEFAULT_BLOCK_SIZE);
+        // 只有插入点所在的一个块作为字面数据
+        assertTrue("delta size " + delta.length, delta.length < 2 * BlockDelta.DEFAULT_BLOCK_SIZE);
+        assertArrayEquals(target, BlockDelta.apply(base, delta));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsDeltaForAnotherBase() throws IOException {
+        Random random = new Random(3);
+        byte[] base = randomBytes(random, 10000);
+        byte[] target = edit(random, base, 3);
+        byte[] delta = BlockDelta.encode(base, target, 64);
+        byte[] otherBase = base.clone();
+        otherBase[5000] ^= 1;
+        BlockDelta.apply(otherBase, delta);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsCorruptedLiteral() throws IOException {
+        byte[] base = new byte[0];
+        byte[] target = randomBytes(new Random(4), 100);
+        byte[] delta = BlockDelta.encode(base, target, 16);
+        // 最后一个字节是结束标记，之前是字面数据
+        delta[delta.length - 2] ^= 1;
+        BlockDelta.apply(base, delta);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsUnknownFormat() throws IOException {
+        BlockDelta.apply(new byte[0], new byte[] { 0, 0, 0, 0, 0 });
+    }
+
+    static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        // 取值范围小，块内容有重复，弱校验和会发生碰撞
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) random.nextInt(4);
+        }
+        return data;
+    }
+
+    /*
+     * 功能描述：在随机位置做edits次插入、删除或替换
+     */
+    static byte[] edit(Random random, byte[] data, int edits) {
+        for (int i = 0; i < edits; i++) {
+            int pos = data.length == 0 ? 0 : random.nextInt(data.length);
+            int length = random.nextInt(200);
+            switch (random.nextInt(3)) {
+                case 0:
+                    data = insert(data, pos, randomBytes(random, length));
+                    break;
+                case 1:
+                    data = delete(data, pos, Math.min(length, data.length - pos));
+                    break;
+                default:
+                    data = data.clone();
+                    for (int j = pos; j < Math.min(data.length, pos + length); j++) {
+                        data[j] = (byte) random.nextInt(256);
+                    }
+                    break;
+            }
+        }
+        return data;
+    }
+
+    static byte[] insert(byte[] data, int pos, byte[] inserted) {
+        byte[] result = new byte[data.length + inserted.length];
+        System.arraycopy(data, 0, result, 0, pos);
+        System.arraycopy(inserted, 0, result, pos, inserted.length);
+        System.arraycopy(data, pos, result, pos + inserted.length, data.length - pos);
+        return result;
+    }
+
+    static byte[] delete(byte[] data, int pos, int length) {
+        byte[] result = new byte[data.length - length];
+        System.arraycopy(data, 0, result, 0, pos);
+        System.arraycopy(data, pos + length, result, pos, data.length - pos - length);
+        return result;
+    }
+}
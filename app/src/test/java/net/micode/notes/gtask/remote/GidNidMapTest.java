@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * GidNidMap的单元测试，随机操作的结果与两个HashMap对照
+ */
+public class GidNidMapTest {
+    @Test
+    public void putAndLookupBothWays() {
+        GidNidMap map = new GidNidMap();
+        map.put("gid-1", 10);
+        map.put("gid-2", 0);
+        map.put("gid-3", -2);
+        assertEquals(3, map.size());
+        assertEquals(10, map.getNid("gid-1"));
+        assertEquals(0, map.getNid("gid-2"));
+        assertEquals(-2, map.getNid("gid-3"));
+        assertEquals("gid-1", map.getGid(10));
+        assertEquals("gid-3", map.getGid(-2));
+        assertEquals(GidNidMap.NO_ID, map.getNid("missing"));
+        assertEquals(GidNidMap.NO_ID, map.getNid(null));
+        assertNull(map.getGid(11));
+        assertTrue(map.containsGid("gid-2"));
+        assertFalse(map.containsGid(null));
+    }
+
+    @Test
+    public void putExistingGidMovesNid() {
+        GidNidMap map = new GidNidMap();
+        map.put("gid", 1);
+        map.put("gid", 2);
+        assertEquals(1, map.size());
+        assertEquals(2, map.getNid("gid"));
+        assertNull(map.getGid(1));
+        assertEquals("gid", map.getGid(2));
+    }
+
+    @Test
+    public void removeByGid() {
+        GidNidMap map = new GidNidMap();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+        assertTrue(map.removeByGid("a"));
+        assertFalse(map.removeByGid("a"));
+        assertFalse(map.removeByGid(null));
+        assertEquals(2, map.size());
+        assertEquals(GidNidMap.NO_ID, map.getNid("a"));
+        assertNull(map.getGid(1));
+        // 最后一个条目被移到删除的位置，两个方向仍然能找到
+        assertEquals(3, map.getNid("c"));
+        assertEquals("c", map.getGid(3));
+        assertEquals("b", map.getGid(2));
+    }
+
+    @Test
+    public void removeByNid() {
+        GidNidMap map = new GidNidMap();
+        map.put("a", 1);
+        map.put("b", 2);
+        map.put("c", 3);
+        assertTrue(map.removeByNid(3));
+        assertFalse(map.removeByNid(3));
+        assertEquals(2, map.size());
+        assertFalse(map.containsGid("c"));
+        assertEquals(1, map.getNid("a"));
+        assertEquals("b", map.getGid(2));
+    }
+
+    @Test
+    public void sharedNidFollowsLatestPut() {
+        GidNidMap map = new GidNidMap();
+        map.put("old", 5);
+        map.put("new", 5);
+        assertEquals("new", map.getGid(5));
+        assertEquals(5, map.getNid("old"));
+
+        assertTrue(map.removeByNid(5));
+        assertFalse(map.containsGid("new"));
+        assertEquals(5, map.getNid("old"));
+
+        assertTrue(map.removeByGid("old"));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void randomOperationsMatchHashMaps() {
+        Random random = new Random(30);
+        GidNidMap map = new GidNidMap();
+        HashMap<String, Long> gidToNid = new HashMap<String, Long>();
+        HashMap<Long, String> nidToGid = new HashMap<Long, String>();
+        for (int op = 0; op < 100000; op++) {
+            // 取值范围小，反复经过增长、覆盖和两种删除
+            String gid = "g" + random.nextInt(3000);
+            long nid = random.nextInt(3000);
+            int action = random.nextInt(4);
+            if (action <= 1) {
+                if (gidToNid.containsKey(gid) || nidToGid.containsKey(nid)) {
+                    continue;  // 对照模型只处理一一对应的映射
+                }
+                map.put(gid, nid);
+                gidToNid.put(gid, nid);
+                nidToGid.put(nid, gid);
+            } else if (action == 2) {
+                Long removed = gidToNid.remove(gid);
+                assertEquals(removed != null, map.removeByGid(gid));
+                if (removed != null) {
+                    nidToGid.remove(removed);
+                }
+            } else {
+                String removed = nidToGid.remove(nid);
+                assertEquals(removed != null, map.removeByNid(nid));
+                if (removed != null) {
+                    gidToNid.remove(removed);
+                }
+            }
+            if (op % 997 == 0) {
+                assertSameContents(gidToNid, map);
+            }
+        }
+        assertSameContents(gidToNid, map);
+    }
+
+    @Test
+    public void growsAndClears() {
+        GidNidMap map = new GidNidMap();
+        ArrayList<String> gids = new ArrayList<String>();
+        for (int i = 0; i < 50000; i++) {
+            String gid = "gid" + i;
+            gids.add(gid);
+            map.put(gid, 100000L + i);
+        }
+        assertEquals(50000, map.size());
+        for (int i = 0; i < 50000; i++) {
+            assertEquals(100000L + i, map.getNid(gids.get(i)));
+            assertEquals(gids.get(i), map.getGid(100000L + i));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.getGid(100000L));
+    }
+
+    @Test
+    public void footprintPerEntryAt50000Entries() {
+        // 按数组长度计算占用：每个容量槽一个gid引用（按压缩指针4字节）、一个long和两个索引表各两个int。
+        // 原来的两个HashMap每个条目至少有两个32字节的Node和两个16字节的Long，约96字节
+        GidNidMap map = new GidNidMap();
+        for (int i = 0; i < 50000; i++) {
+            map.put("gid" + i, 100000L + i);
+        }
+        int capacity = map.capacity();
+        assertTrue(capacity >= 50000 && capacity < 2 * 50000);
+        long bytes = capacity * (4L + 8L + 2 * 2 * 4L);
+        assertTrue(bytes / 50000 < 48);
+
+        // 删除后容量不会再增长
+        for (int i = 0; i < 50000; i += 2) {
+            map.removeByGid("gid" + i);
+        }
+        for (int i = 0; i < 50000; i += 2) {
+            map.put("gid" + i, 100000L + i);
+        }
+        assertEquals(capacity, map.capacity());
+        map.clear();
+        assertTrue(map.capacity() < capacity);
+    }
+
+    private static void assertSameContents(HashMap<String, Long> gidToNid, GidNidMap map) {
+        assertEquals(gidToNid.size(), map.size());
+        for (Map.Entry<String, Long> entry : gidToNid.entrySet()) {
+            assertEquals(entry.getValue().longValue(), map.getNid(entry.getKey()));
+            assertEquals(entry.getKey(), map.getGid(entry.getValue()));
+        }
+    }
+}
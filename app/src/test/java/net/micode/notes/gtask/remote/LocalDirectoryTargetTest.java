@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import net.micode.notes.gtask.data.Task;
+import net.micode.notes.gtask.data.TaskList;
+import net.micode.notes.gtask.exception.NetworkFailureException;
+import net.micode.notes.tool.GTaskStringUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LocalDirectoryTarget的单元测试，在临时目录中创建、更新和删除任务，每一步都用新的实例从文件读回
+ */
+public class LocalDirectoryTargetTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private String mAccountName;
+
+    private LocalDirectoryTarget mTarget;
+
+    @Before
+    public void setUp() throws Exception {
+        mAccountName = LocalDirectoryTarget.getAccountName(mFolder.newFolder("notes"));
+        assertTrue(LocalDirectoryTarget.isDirectoryAccount(mAccountName));
+        mTarget = new LocalDirectoryTarget(mAccountName);
+        assertTrue(mTarget.login(null));
+    }
+
+    @Test
+    public void createUpdateDeleteRoundTrip() throws Exception {
+        TaskList list = new TaskList();
+        list.setName(GTaskStringUtils.MIUI_FOLDER_PREFFIX + "work");
+        mTarget.createTaskList(list);
+        assertNotNull(list.getGid());
+
+        String content = randomText(new Random(37), 64 * 1024);
+        Task task = new Task();
+        task.setName(content);
+        task.setNotes("{\"meta\":1}");
+        task.setParent(list);
+        mTarget.createTask(task);
+        assertNotNull(task.getGid());
+
+        JSONArray lists = new LocalDirectoryTarget(mAccountName).getTaskLists();
+        assertEquals(1, lists.length());
+        assertEquals(list.getGid(), lists.getJSONObject(0).getString(GTaskStringUtils.GTASK_JSON_ID));
+        assertEquals(list.getName(), lists.getJSONObject(0).getString(GTaskStringUtils.GTASK_JSON_NAME));
+        JSONObject created = readTask(list.getGid(), task.getGid());
+        assertEquals(content, created.getString(GTaskStringUtils.GTASK_JSON_NAME));
+        assertEquals("{\"meta\":1}", created.getString(GTaskStringUtils.GTASK_JSON_NOTES));
+
+        // 只改动中间的一小段，正文应当以块差异写入
+        SyncMetrics metrics = new SyncMetrics();
+        mTarget.setSyncMetrics(metrics);
+        String updated = content.substring(0, 30000) + "edited" + content.substring(30000);
+        task.setName(updated);
+        mTarget.addUpdateNode(task);
+        mTarget.commitUpdate();
+        assertFalse(task.hasDirtyFields());
+        File dir = new File(new File(LocalDirectoryTarget.getDirectory(mAccountName), "lists"),
+                list.getGid());
+        assertTrue(new File(dir, task.getGid() + ".name.1").exists());
+        assertTrue(metrics.getBytesWritten() < metrics.getFullBytes() / 4);
+
+        JSONObject read = readTask(list.getGid(), task.getGid());
+        assertEquals(updated, read.getString(GTaskStringUtils.GTASK_JSON_NAME));
+        assertEquals("{\"meta\":1}", read.getString(GTaskStringUtils.GTASK_JSON_NOTES));
+        assertTrue(read.getLong(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED)
+                > created.getLong(GTaskStringUtils.GTASK_JSON_LAST_MODIFIED));
+
+        // 第二次差异叠加在第一次之上
+        String updatedAgain = updated.substring(0, 50000) + updated.substring(50100);
+        task.setName(updatedAgain);
+        task.setNotes(null);
+        mTarget.addUpdateNode(task);
+        mTarget.commitUpdate();
+        assertTrue(new File(dir, task.getGid() + ".name.2").exists());
+        read = readTask(list.getGid(), task.getGid());
+        assertEquals(updatedAgain, read.getString(GTaskStringUtils.GTASK_JSON_NAME));
+        assertFalse(read.has(GTaskStringUtils.GTASK_JSON_NOTES));
+
+        mTarget.deleteNode(task);
+        assertEquals(0, new LocalDirectoryTarget(mAccountName).getTaskList(list.getGid()).length());
+        assertFalse(new File(dir, task.getGid() + ".name").exists());
+        assertFalse(new File(dir, task.getGid() + ".name.1").exists());
+
+        mTarget.deleteNode(list);
+        assertEquals(0, new LocalDirectoryTarget(mAccountName).getTaskLists().length());
+    }
+
+    @Test
+    public void moveTaskBetweenLists() throws Exception {
+        TaskList from = new TaskList();
+        from.setName(GTaskStringUtils.MIUI_FOLDER_PREFFIX + "from");
+        mTarget.createTaskList(from);
+        TaskList to = new TaskList();
+        to.setName(GTaskStringUtils.MIUI_FOLDER_PREFFIX + "to");
+        mTarget.createTaskList(to);
+
+        Task task = new Task();
+        task.setName("moved");
+        task.setParent(from);
+        mTarget.createTask(task);
+        mTarget.moveTask(task, from, to);
+
+        assertEquals(0, new LocalDirectoryTarget(mAccountName).getTaskList(from.getGid()).length());
+        assertEquals("moved", readTask(to.getGid(), task.getGid())
+                .getString(GTaskStringUtils.GTASK_JSON_NAME));
+    }
+
+    @Test(expected = NetworkFailureException.class)
+    public void abortedTargetFails() throws Exception {
+        mTarget.abort();
+        mTarget.getTaskLists();
+    }
+
+    //用新的实例读取，保证内容来自文件而不是内存中的状态
+    private JSONObject readTask(String listGid, String gid) throws Exception {
+        JSONArray tasks = new LocalDirectoryTarget(mAccountName).getTaskList(listGid);
+        for (int i = 0; i < tasks.length(); i++) {
+            JSONObject task = tasks.getJSONObject(i);
+            if (gid.equals(task.getString(GTaskStringUtils.GTASK_JSON_ID))) {
+                return task;
+            }
+        }
+        fail("task " + gid + " not found");
+        return null;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.gtask.remote;
+
+import net.micode.notes.tool.LongHashSet;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * 同步工作集的堆占用对比
+ * 功能：50000个条目时，GidNidMap与原来的HashMap<String, Long>加HashMap<Long, String>、
+ * LongHashSet与原来的HashSet<Long>各自保留的堆大小。gid字符串在测量前创建，两边共用，不计入结果。
+ * 通过多次GC后的已用堆估算，结果输出到标准输出。GC的时机不确定，这里只报告数字不做断言，
+ * 确定性的内存占用检查见GidNidMapTest和LongHashSetTest
+ */
+public class SyncWorkingSetHeapBenchmark {
+    private static final int ENTRIES = 50000;
+
+    private static final long FIRST_NID = 100000L;
+
+    @Test
+    public void reportGidNidMapHeap() {
+        String[] gids = createGids();
+
+        long before = usedHeap();
+        HashMap<String, Long> gidToNid = new HashMap<String, Long>();
+        HashMap<Long, String> nidToGid = new HashMap<Long, String>();
+        for (int i = 0; i < ENTRIES; i++) {
+            gidToNid.put(gids[i], FIRST_NID + i);
+            nidToGid.put(FIRST_NID + i, gids[i]);
+        }
+        long hashMapBytes = usedHeap() - before;
+        assertEquals(ENTRIES, gidToNid.size());
+        assertEquals(ENTRIES, nidToGid.size());
+        gidToNid = null;
+        nidToGid = null;
+
+        before = usedHeap();
+        GidNidMap map = new GidNidMap();
+        for (int i = 0; i < ENTRIES; i++) {
+            map.put(gids[i], FIRST_NID + i);
+        }
+        long mapBytes = usedHeap() - before;
+        assertEquals(ENTRIES, map.size());
+
+        System.out.println("gid<->nid, " + ENTRIES + " entries: HashMap x2 " + (hashMapBytes / 1024)
+                + "KB, GidNidMap " + (mapBytes / 1024) + "KB");
+    }
+
+    @Test
+    public void reportLongHashSetHeap() {
+        long before = usedHeap();
+        HashSet<Long> boxed = new HashSet<Long>();
+        for (int i = 0; i < ENTRIES; i++) {
+            boxed.add(FIRST_NID + i);
+        }
+        long hashSetBytes = usedHeap() - before;
+        assertEquals(ENTRIES, boxed.size());
+        boxed = null;
+
+        before = usedHeap();
+        LongHashSet set = new LongHashSet();
+        for (int i = 0; i < ENTRIES; i++) {
+            set.add(FIRST_NID + i);
+        }
+        long setBytes = usedHeap() - before;
+        assertEquals(ENTRIES, set.size());
+
+        System.out.println("local delete ids, " + ENTRIES + " entries: HashSet<Long> "
+                + (hashSetBytes / 1024) + "KB, LongHashSet " + (setBytes / 1024) + "KB");
+    }
+
+    private static String[] createGids() {
+        String[] gids = new String[ENTRIES];
+        for (int i = 0; i < ENTRIES; i++) {
+            gids[i] = ("1234567890abcdef:0:" + i).intern();
+        }
+        return gids;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // 并发GC可能在测量之后才回收上一次的对象，多次GC取最小值
+        for (int i = 0; i < 8; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2010-2011, The MiCode Open Source Community (www.micode.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.micode.notes.tool;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * LongHashSet的单元测试，随机操作的结果与HashSet<Long>对照
+ */
+public class LongHashSetTest {
+    @Test
+    public void addContainsRemove() {
+        LongHashSet set = new LongHashSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(1));
+        assertFalse(set.add(1));
+        assertTrue(set.add(-7));
+        assertTrue(set.contains(1));
+        assertTrue(set.contains(-7));
+        assertFalse(set.contains(2));
+        assertEquals(2, set.size());
+
+        assertTrue(set.remove(1));
+        assertFalse(set.remove(1));
+        assertFalse(set.contains(1));
+        assertTrue(set.contains(-7));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void emptyMarkerValueIsStoredSeparately() {
+        LongHashSet set = new LongHashSet();
+        assertFalse(set.contains(Long.MIN_VALUE));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertFalse(set.add(Long.MIN_VALUE));
+        assertTrue(set.contains(Long.MIN_VALUE));
+        assertEquals(1, set.size());
+        assertArrayEquals(new long[] { Long.MIN_VALUE }, set.toArray());
+        assertTrue(set.remove(Long.MIN_VALUE));
+        assertFalse(set.contains(Long.MIN_VALUE));
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    public void probeChainsSurviveDeletes() {
+        // 值域很小且反复删除，表中会形成长的探测链，删除后链上后面的值必须仍能找到
+        Random random = new Random(20);
+        LongHashSet set = new LongHashSet();
+        HashSet<Long> expected = new HashSet<Long>();
+        for (int op = 0; op < 200000; op++) {
+            long value = random.nextInt(300) - 150;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+            if (op % 1000 == 0) {
+                assertSameContents(expected, set);
+            }
+        }
+        assertSameContents(expected, set);
+    }
+
+    @Test
+    public void collidingValuesInOneBucket() {
+        // 同一个值加上不同的高位，低位相同，在小表中容易落到相邻的槽
+        LongHashSet set = new LongHashSet();
+        HashSet<Long> expected = new HashSet<Long>();
+        for (long i = 0; i < 64; i++) {
+            long value = (i << 40) | 5;
+            set.add(value);
+            expected.add(value);
+        }
+        for (long i = 0; i < 64; i += 2) {
+            long value = (i << 40) | 5;
+            assertTrue(set.remove(value));
+            expected.remove(value);
+        }
+        assertSameContents(expected, set);
+    }
+
+    @Test
+    public void growsAndClears() {
+        LongHashSet set = new LongHashSet();
+        for (long i = 0; i < 100000; i++) {
+            assertTrue(set.add(i * 31));
+        }
+        assertEquals(100000, set.size());
+        for (long i = 0; i < 100000; i++) {
+            assertTrue(set.contains(i * 31));
+            assertFalse(set.contains(i * 31 + 1));
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertFalse(set.contains(0));
+        assertEquals(0, set.toArray().length);
+    }
+
+    @Test
+    public void footprintPerEntryAt50000Entries() {
+        // 每个值只占表中一个long，装载因子不超过0.5；HashSet<Long>每个值至少有32字节的Node和16字节的Long
+        LongHashSet set = new LongHashSet();
+        for (long i = 0; i < 50000; i++) {
+            set.add(100000L + i);
+        }
+        int length = set.tableLength();
+        assertTrue(length >= 2 * 50000 && length < 4 * 50000);
+        assertTrue(length * 8L / 50000 < 32);
+        set.clear();
+        assertTrue(set.tableLength() < length);
+    }
+
+    private static void assertSameContents(HashSet<Long> expected, LongHashSet set) {
+        assertEquals(expected.size(), set.size());
+        long[] values = set.toArray();
+        long[] expectedValues = new long[expected.size()];
+        int i = 0;
+        for (Long value : expected) {
+            expectedValues[i++] = value;
+            assertTrue(set.contains(value));
+        }
+        Arrays.sort(values);
+        Arrays.sort(expectedValues);
+        assertArrayEquals(expectedValues, values);
+    }
+}